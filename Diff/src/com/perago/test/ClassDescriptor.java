@@ -0,0 +1,102 @@
+package com.perago.test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-class metadata used by {@link DiffEngine}.
+ * <p/>
+ * Finding the fields that take part in a diff means walking the superclass chain and checking
+ * every declared field for a {@link DiffField} annotation.  Since the answer never changes for
+ * a given class, it is computed once and cached, so repeated diffs of the same types do no
+ * reflective scanning at all.  Field accessors are resolved against the described class, which is
+ * the runtime class of the objects being diffed.
+ *
+ * @author ttchiwandire@gmail.com
+ * @see FieldDescriptor
+ */
+class ClassDescriptor {
+    private static final ConcurrentMap<Class<?>, ClassDescriptor> descriptors = new ConcurrentHashMap<>();
+
+    private final Class<?> type;
+    private final boolean diffable;
+    private final FieldDescriptor[] fields;
+    private final Map<String, FieldDescriptor> fieldsByName;
+    private final int containerFieldCount;
+
+    private ClassDescriptor(Class<?> type) {
+        this.type = type;
+        this.diffable = type.isAnnotationPresent(Diffable.class);
+        List<FieldDescriptor> diffFields = new ArrayList<>();
+        if (diffable) {
+            for (Field field : DiffUtils.getAllFields(type)) {
+                DiffField annotation = field.getAnnotation(DiffField.class);
+                if (annotation != null)
+                    diffFields.add(new FieldDescriptor(type, field, annotation.value()));
+            }
+        }
+        this.fields = diffFields.toArray(new FieldDescriptor[diffFields.size()]);
+        this.fieldsByName = new HashMap<>();
+        for (FieldDescriptor field : fields)
+            fieldsByName.putIfAbsent(field.getName(), field);
+        int containers = 0;
+        for (FieldDescriptor field : fields) {
+            Class<?> fieldType = field.getField().getType();
+            if (Iterable.class.isAssignableFrom(fieldType) || Map.class.isAssignableFrom(fieldType))
+                containers++;
+        }
+        this.containerFieldCount = containers;
+    }
+
+    /**
+     * Returns the descriptor for a class, building and caching it on first use.
+     *
+     * @param type the class to describe
+     * @return the (shared) descriptor for that class
+     */
+    static ClassDescriptor forClass(Class<?> type) {
+        return descriptors.computeIfAbsent(type, ClassDescriptor::new);
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    boolean isDiffable() {
+        return diffable;
+    }
+
+    /**
+     * Returns the {@link DiffField}-annotated fields of the class, including those of its
+     * superclasses, in the same order as {@link DiffUtils#getAllFields(Class)}.  The returned
+     * array is shared and must not be modified.
+     *
+     * @return the fields to take into account when diffing
+     */
+    FieldDescriptor[] getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns a {@link DiffField}-annotated field by name.  If a superclass declares a field with the same
+     * name, the field of the subclass is returned.
+     *
+     * @param name the field name
+     * @return the field, or <code>null</code> if there is no such field
+     */
+    FieldDescriptor getField(String name) {
+        return fieldsByName.get(name);
+    }
+
+    /**
+     * @return the number of fields declared as iterables or maps
+     */
+    int getContainerFieldCount() {
+        return containerFieldCount;
+    }
+}
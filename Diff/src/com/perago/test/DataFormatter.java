@@ -0,0 +1,22 @@
+package com.perago.test;
+
+/**
+ * Implementing this interface allows values to be rendered as the strings of a difference map.
+ * <p/>
+ * A formatter can be registered for a class of values, or for the data type of a {@link DiffField},
+ * in place of the values' <code>toString()</code>.  It is only called when a value of the
+ * {@link DiffResult} is read, so it may be costly.
+ *
+ * @author ttchiwandire@gmail.com
+ * @see DiffEngine#registerFormatter(Class, DataFormatter)
+ * @see DiffEngine#registerDataFormatter(String, DataFormatter)
+ */
+public interface DataFormatter<T> {
+    /**
+     * Renders a value.
+     *
+     * @param value the value, never <code>null</code>
+     * @return the string standing for the value in the difference map
+     */
+    String format(T value);
+}
@@ -1,9 +1,126 @@
 package com.perago.test;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
 /**
+ * A typed change set: the changes turning one object graph into another, as calculated by
+ * {@link DiffEngine#calculateDiff(Object, Object)}, and applied by {@link DiffEngine#apply(Object, Diff)}.
+ * <p/>
+ * Each {@link Change} holds the {@link DiffPath path} of a value, its original value, and its new value, in
+ * the order in which they must be applied.  Unlike the string map of <code>calculate()</code>, values are
+ * kept as they are, not as strings, so a diff can be applied to another copy of the original object, e.g.
+ * shipped to a replica rather than the whole object.  Diffs are serializable as long as the values they
+ * hold are.
  *
  * @author ttchiwandire@gmail.com
+ * @see DiffEngine#calculateDiff(Object, Object)
+ * @see DiffEngine#apply(Object, Diff)
  */
-class Diff  {
-    
+public final class Diff implements Iterable<Diff.Change>, Serializable {
+    private static final long serialVersionUID = -2950380413695207362L;
+
+    /**
+     * How a change modifies the value at its path.
+     */
+    public enum Kind {
+        /**
+         * The value is replaced: a field is set, a list item is replaced, or a map value is put.
+         */
+        SET,
+        /**
+         * The value is inserted in a list at the path's position, or put in a map for a new key.
+         */
+        ADD,
+        /**
+         * The value is removed from a list at the path's position, or from a map.
+         */
+        REMOVE
+    }
+
+    /**
+     * A single change.
+     */
+    public static final class Change implements Serializable {
+        private static final long serialVersionUID = 7791305018290445318L;
+
+        private final DiffPath path;
+        private final Kind kind;
+        private final Object oldValue;
+        private final Object newValue;
+
+        Change(DiffPath path, Kind kind, Object oldValue, Object newValue) {
+            this.path = path;
+            this.kind = kind;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        public DiffPath getPath() {
+            return path;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the original value, <code>null</code> for {@link Kind#ADD}
+         */
+        public Object getOldValue() {
+            return oldValue;
+        }
+
+        /**
+         * @return the new value, <code>null</code> for {@link Kind#REMOVE}
+         */
+        public Object getNewValue() {
+            return newValue;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + path + ": " + oldValue + " -> " + newValue;
+        }
+    }
+
+    private final List<Change> changes = new ArrayList<>();
+
+    Diff() {
+    }
+
+    void add(DiffPath path, Kind kind, Object oldValue, Object newValue) {
+        changes.add(new Change(path, kind, oldValue, newValue));
+    }
+
+    /**
+     * @return the changes, in the order in which they are applied
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * @return <code>true</code> if the two objects compared were equal
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    @Override
+    public Iterator<Change> iterator() {
+        return getChanges().iterator();
+    }
+
+    @Override
+    public String toString() {
+        return "Diff" + changes;
+    }
 }
@@ -0,0 +1,190 @@
+package com.perago.test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of a single calculation of {@link DiffEngine}: where its differences go, and the objects it visited.
+ * <p/>
+ * The context remembers, by identity, each pair of objects (or single object, when resolving) compared during
+ * the calculation, with the key where it was first found.  A pair found again while it is still being compared
+ * is part of a cycle, and is skipped.  A pair found again once it has been compared is not compared again
+ * either: if it had any differences, the key where it was first found is added instead, as the value of the key
+ * where it is found again.  Only {@link Diffable} objects, iterables and maps are tracked.
+ * <p/>
+ * Subtrees calculated in parallel have contexts of their own, <em>forked</em> from the context above them.  They
+ * know the pairs being compared above them, to cut cycles, but not the pairs visited by other tasks.  So they
+ * record each pair they enter or find again along with their differences, and the record is replayed to the
+ * parent context once the task is done, in traversal order: the differences of a pair visited earlier in the
+ * calculation are dropped, and the key where it was first found is added instead, exactly as in a sequential
+ * calculation.
+ *
+ * @author ttchiwandire@gmail.com
+ */
+class DiffContext {
+    private static final int ADD = 0;
+    private static final int ENTER = 1;
+    private static final int EXIT = 2;
+    private static final int REVISIT = 3;
+
+    private final DiffResult result;
+    private final List<Event> recording;
+    private final Map<Object, Visit> visits = new IdentityHashMap<>();
+    private final List<Visit> inProgress = new ArrayList<>();
+    private int differences;
+
+    /**
+     * @param result the result the differences are added to, or <code>null</code> to only track the pairs
+     *               visited, pairs found again being skipped without adding anything
+     */
+    DiffContext(DiffResult result) {
+        this(result, null);
+    }
+
+    private DiffContext(DiffResult result, List<Event> recording) {
+        this.result = result;
+        this.recording = recording;
+    }
+
+    /**
+     * Creates the context of a subtree calculated in parallel, which knows the pairs currently being compared
+     * in this one, and records the pairs it visits along with its differences, to be {@link #join(DiffContext)
+     * joined} to this context.  Must be called by the thread using this context.
+     */
+    DiffContext fork() {
+        DiffContext context = new DiffContext(null, new ArrayList<>());
+        for (Visit visit : inProgress)
+            context.push(visit.tag, visit.original, visit.current);
+        return context;
+    }
+
+    /**
+     * Replays the record of a forked context, once its task is done, as if its subtree had been calculated
+     * in this context.
+     */
+    void join(DiffContext fork) {
+        List<Visit> entered = new ArrayList<>();
+        // The depth of the recorded pairs within the pair being skipped, if any.
+        int skipped = 0;
+        for (Event event : fork.recording) {
+            if (event.kind == ENTER) {
+                Visit visit = skipped > 0 ? null : enter(event.tag, event.original, event.current);
+                if (visit != null)
+                    entered.add(visit);
+                else
+                    skipped++;
+            } else if (event.kind == EXIT) {
+                if (skipped > 0)
+                    skipped--;
+                else
+                    exit(entered.remove(entered.size() - 1));
+            } else if (skipped > 0) {
+                continue;
+            } else if (event.kind == REVISIT) {
+                Visit visit = enter(event.tag, event.original, event.current);
+                if (visit != null)
+                    exit(visit);
+            } else {
+                add(event.tag, event.original, event.current, event.formatter);
+            }
+        }
+    }
+
+    /**
+     * Marks the start of the comparison of a pair of objects, unless it was visited before.
+     *
+     * @param tag      the key where the pair is found
+     * @param original the original object, or <code>null</code> when comparing a new object to a blank one
+     * @param current  the new object, or <code>null</code> when resolving <code>original</code>
+     * @return the visit, to pass to {@link #exit(Visit)} once the pair is compared, or <code>null</code> if the
+     *         pair must not be compared, having been visited before
+     */
+    Visit enter(String tag, Object original, Object current) {
+        for (Visit visit = visits.get(original); visit != null; visit = visit.next) {
+            if (visit.current == current) {
+                if (recording != null)
+                    recording.add(new Event(REVISIT, tag, original, current, null));
+                else if (result != null && !visit.inProgress && visit.differs) {
+                    result.sameAs(tag, visit.tag, original, current);
+                    differences++;
+                }
+                return null;
+            }
+        }
+        if (recording != null)
+            recording.add(new Event(ENTER, tag, original, current, null));
+        return push(tag, original, current);
+    }
+
+    private Visit push(String tag, Object original, Object current) {
+        Visit visit = new Visit(tag, original, current, visits.get(original), differences);
+        visits.put(original, visit);
+        inProgress.add(visit);
+        return visit;
+    }
+
+    /**
+     * Marks the end of the comparison of a pair of objects.
+     *
+     * @param visit the visit returned by {@link #enter(String, Object, Object)}
+     */
+    void exit(Visit visit) {
+        visit.inProgress = false;
+        visit.differs = differences > visit.differencesBefore;
+        inProgress.remove(inProgress.size() - 1);
+        if (recording != null)
+            recording.add(new Event(EXIT, null, null, null, null));
+    }
+
+    /**
+     * Adds a difference.
+     *
+     * @see DiffResult#add(String, Object, Object, DataFormatter)
+     */
+    void add(String tag, Object original, Object current, DataFormatter<Object> formatter) {
+        if (recording != null)
+            recording.add(new Event(ADD, tag, original, current, formatter));
+        else
+            result.add(tag, original, current, formatter);
+        differences++;
+    }
+
+    /**
+     * A pair of objects visited during the calculation.
+     */
+    static class Visit {
+        final String tag;
+        final Object original;
+        final Object current;
+        final Visit next;
+        final int differencesBefore;
+        boolean inProgress = true;
+        boolean differs;
+
+        Visit(String tag, Object original, Object current, Visit next, int differencesBefore) {
+            this.tag = tag;
+            this.original = original;
+            this.current = current;
+            this.next = next;
+            this.differencesBefore = differencesBefore;
+        }
+    }
+
+    private static class Event {
+        final int kind;
+        final String tag;
+        final Object original;
+        final Object current;
+        final DataFormatter<Object> formatter;
+
+        Event(int kind, String tag, Object original, Object current, DataFormatter<Object> formatter) {
+            this.kind = kind;
+            this.tag = tag;
+            this.original = original;
+            this.current = current;
+            this.formatter = formatter;
+        }
+    }
+}
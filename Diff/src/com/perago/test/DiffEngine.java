@@ -2,24 +2,85 @@ package com.perago.test;
 
 import java.lang.reflect.*;
 import java.util.*;
-import java.util.logging.ConsoleHandler;
-import java.util.logging.Handler;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * An engine is thread-safe: one instance can be shared by any number of threads calculating at the same time,
+ * without them contending for any lock.
+ *
  * @author ttchiwandire@gmail.com
  */
 public class DiffEngine {
-    Handler ch = new ConsoleHandler();
     private static final Logger logger = Logger.getLogger(DiffEngine.class.getSimpleName());
-    static int count = 0;
 
-    private final Map<String, DataResolver> resolvers = new HashMap<>();
+    /**
+     * Default minimum number of items for an iterable or map to be split into parallel tasks.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1000;
+
+    /**
+     * Default maximum number of concurrent calls to the resolver of a data type, in asynchronous calculations.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_RESOLUTIONS = 16;
+
+    /**
+     * The registered resolvers, by data type.  Never modified: registering or unregistering a resolver
+     * replaces the whole map, so that calculations read it without locking.
+     */
+    private volatile Map<String, DataResolver<Object, Object>> resolvers = Collections.emptyMap();
+    private final Map<String, Integer> maxConcurrentResolutions = new HashMap<>();
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    /**
+     * The registered formatters, by data type and by class.  Never modified, like the resolvers.
+     */
+    private volatile Map<String, DataFormatter<Object>> dataFormatters = Collections.emptyMap();
+    private volatile Map<Class<?>, DataFormatter<Object>> formatters = Collections.emptyMap();
+
+    private final LongAdder calculations;
+
+    private static ExecutorService defaultAsyncExecutor;
+    private volatile Executor asyncExecutor;
+
+    private volatile ForkJoinPool pool;
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
     
-    public DiffEngine(){
-        logger.addHandler(ch);
-        logger.setLevel(Level.FINEST);
+    public DiffEngine() {
+        calculations = new LongAdder();
+    }
+
+    /**
+     * Creates an engine calculating with the settings of <code>engine</code>, but with values resolved ahead
+     * of time: the resolver of each data type with resolved values is replaced by one looking them up first.
+     */
+    private DiffEngine(DiffEngine engine, Map<String, DataResolver<Object, Object>> registered,
+                       Map<String, Map<Object, Object>> resolved) {
+        Map<String, DataResolver<Object, Object>> prefetched = new HashMap<>();
+        for (Map.Entry<String, DataResolver<Object, Object>> entry : registered.entrySet()) {
+            DataResolver<Object, Object> resolver = entry.getValue();
+            Map<Object, Object> results = resolved.get(entry.getKey());
+            prefetched.put(entry.getKey(), results == null ? resolver
+                    : value -> results.containsKey(value) ? results.get(value) : resolver.resolve(value));
+        }
+        this.resolvers = prefetched;
+        this.dataFormatters = engine.dataFormatters;
+        this.formatters = engine.formatters;
+        this.calculations = engine.calculations;
+        this.pool = engine.pool;
+        this.parallelThreshold = engine.parallelThreshold;
     }
 
     /**
@@ -41,16 +102,165 @@ public class DiffEngine {
      * @param current  new object
      * @return a <code>Map&lt;String, String&gt;</code> with the differences between the original and new objects,
      *         where the <code>key</code>s are the fields where the differences occur, and the <code>value</code>s
-     *         are the original values.
+     *         are the original values, only rendered as strings when they are read (see {@link DiffResult}).
      * @throws IllegalArgumentException If the two objects to compare are not of the same class.
      * @see Diffable
      * @see DiffField
      */
-    public Map<String, String> calculate(String tag, Object original, Object current) {
-        count++;
+    public DiffResult calculate(String tag, Object original, Object current) {
+        DiffEvent event = DiffEvent.start();
+        DiffResult returnValue = new DiffResult(formatters);
+        ForkJoinPool forkJoinPool = pool;
+        if (forkJoinPool != null && ForkJoinTask.getPool() != forkJoinPool)
+            forkJoinPool.invoke(ForkJoinTask.adapt(() -> calculate(new DiffContext(returnValue), tag, original, current, null)));
+        else
+            calculate(new DiffContext(returnValue), tag, original, current, null);
+        if (event != null) {
+            Object root = original != null ? original : current;
+            DiffEvent.commit(event, tag, root == null ? null : root.getClass(), returnValue.size());
+        }
+        return returnValue;
+    }
+
+    /**
+     * Calculates the difference between two objects asynchronously, resolving data concurrently.
+     * <p/>
+     * Every value that a registered {@link DataResolver DataResolver} will be asked for is first collected
+     * from both objects, and they are all resolved concurrently on the {@link #setAsyncExecutor(Executor)
+     * asynchronous executor}, rather than one after the other in the middle of the calculation.  Each distinct
+     * value is resolved once, and the number of concurrent calls to the resolver of each data type is bounded
+     * (see {@link #setMaxConcurrentResolutions(String, int)}).  The difference is then calculated as by
+     * {@link #calculate(String, Object, Object)}.  This mostly pays off with resolvers doing remote lookups.
+     * <p/>
+     * Values that can't be collected beforehand, such as values inside resolved data, are resolved during the
+     * calculation as usual.  Resolvers must be thread-safe, and values must implement <code>equals()</code>
+     * and <code>hashCode()</code>.
+     *
+     * @param tag      initial key name for difference map
+     * @param original original object
+     * @param current  new object
+     * @return a future completed with the result of {@link #calculate(String, Object, Object)}, or completed
+     *         exceptionally if the two objects are not of the same class or a resolver fails
+     */
+    public CompletableFuture<Map<String, String>> calculateAsync(String tag, Object original, Object current) {
+        Executor executor = getAsyncExecutor();
+        Map<String, DataResolver<Object, Object>> registered = resolvers;
+        return CompletableFuture.supplyAsync(() -> collectValues(registered, original, current), executor)
+                .thenCompose(values -> resolveAll(registered, values, executor))
+                .<Map<String, String>>thenApply(resolved -> new DiffEngine(this, registered, resolved).calculate(tag, original, current));
+    }
+
+    /**
+     * Collects the values of the fields with a resolver in two object graphs, by data type, following the same
+     * fields, items and entries as <code>calculate()</code>.  The values of fields with a resolver are not
+     * followed, since they are compared once resolved.
+     */
+    private static Map<String, Set<Object>> collectValues(Map<String, DataResolver<Object, Object>> registered,
+                                                          Object original, Object current) {
+        Map<String, Set<Object>> values = new HashMap<>();
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        collectValues(registered, original, values, visited);
+        collectValues(registered, current, values, visited);
+        return values;
+    }
+
+    private static void collectValues(Map<String, DataResolver<Object, Object>> registered, Object object,
+                                      Map<String, Set<Object>> values, Set<Object> visited) {
+        if (object == null)
+            return;
+        ClassDescriptor descriptor = ClassDescriptor.forClass(object.getClass());
+        if (descriptor.isDiffable()) {
+            if (!visited.add(object))
+                return;
+            for (FieldDescriptor field : descriptor.getFields()) {
+                Object value;
+                try {
+                    value = field.getValue(object);
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    continue;
+                }
+                if (registered.containsKey(field.getDataType()))
+                    values.computeIfAbsent(field.getDataType(), type -> new LinkedHashSet<>()).add(value);
+                else
+                    collectValues(registered, value, values, visited);
+            }
+        } else if (object instanceof Iterable) {
+            if (visited.add(object))
+                for (Object item : (Iterable<?>) object)
+                    collectValues(registered, item, values, visited);
+        } else if (object instanceof Map) {
+            if (visited.add(object))
+                for (Object value : ((Map<?, ?>) object).values())
+                    collectValues(registered, value, values, visited);
+        }
+    }
+
+    /**
+     * Resolves every collected value in a task of its own, each holding a permit of its data type while
+     * calling the resolver.
+     *
+     * @return a future completed with the resolved values, by data type and value, once they are all resolved
+     */
+    private CompletableFuture<Map<String, Map<Object, Object>>> resolveAll(Map<String, DataResolver<Object, Object>> registered,
+                                                                          Map<String, Set<Object>> values,
+                                                                          Executor executor) {
+        Map<String, Map<Object, CompletableFuture<Object>>> resolutions = new HashMap<>();
+        for (Map.Entry<String, Set<Object>> entry : values.entrySet()) {
+            DataResolver<Object, Object> resolver = registered.get(entry.getKey());
+            Semaphore semaphore = getPermits(entry.getKey());
+            Map<Object, CompletableFuture<Object>> typeResolutions = new HashMap<>();
+            resolutions.put(entry.getKey(), typeResolutions);
+            for (Object value : entry.getValue()) {
+                typeResolutions.put(value, CompletableFuture.supplyAsync(() -> {
+                    try {
+                        semaphore.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CompletionException(e);
+                    }
+                    try {
+                        return resolver.resolve(value);
+                    } finally {
+                        semaphore.release();
+                    }
+                }, executor));
+            }
+        }
+        CompletableFuture<?>[] all = resolutions.values().stream()
+                .flatMap(typeResolutions -> typeResolutions.values().stream())
+                .toArray(CompletableFuture<?>[]::new);
+        return CompletableFuture.allOf(all).thenApply(done -> {
+            // Plain maps, read without locking by the calculation.
+            Map<String, Map<Object, Object>> resolved = new HashMap<>();
+            resolutions.forEach((type, typeResolutions) -> {
+                Map<Object, Object> results = new HashMap<>();
+                typeResolutions.forEach((value, resolution) -> results.put(value, resolution.join()));
+                resolved.put(type, results);
+            });
+            return resolved;
+        });
+    }
+
+    private Semaphore getPermits(String forType) {
+        Semaphore semaphore = permits.get(forType);
+        return semaphore != null ? semaphore : permits.computeIfAbsent(forType, this::newPermits);
+    }
+
+    private synchronized Semaphore newPermits(String forType) {
+        return new Semaphore(maxConcurrentResolutions.getOrDefault(forType, DEFAULT_MAX_CONCURRENT_RESOLUTIONS), true);
+    }
+
+    /**
+     * Calculates the difference between two objects, adding it to the result of <code>context</code>.  Every
+     * level of the recursion writes into the same context, so each difference is inserted exactly once.
+     *
+     * @param formatter the formatter of the field the objects were found in, or <code>null</code>
+     * @see #calculate(String, Object, Object)
+     */
+    private void calculate(DiffContext context, String tag, Object original, Object current, DataFormatter<Object> formatter) {
+        calculations.increment();
         if (tag == null) tag = "";
         final String prefix = tag.equals("") ? "" : (tag + ".");
-        Map<String, String> returnValue = new TreeMap<>();
 
         if (original != null && current != null && original.getClass() != current.getClass())
             throw new RuntimeException("'original' and 'current' arguments not of the same type" +
@@ -59,108 +269,366 @@ public class DiffEngine {
         // Special case when either or both values are null is handled below
         if (original != null && current != null ) {
             final Class<?> objectClass = original.getClass();
-            logger.log(Level.FINER, "Diffing objects of type: {0}", objectClass.getSimpleName());
-            differObjects(objectClass, original, current, returnValue, prefix, tag);
+            if (logger.isLoggable(Level.FINER))
+                logger.log(Level.FINER, "Diffing objects of type: {0}", objectClass.getSimpleName());
+            if (!isNode(original)) {
+                differObjects(objectClass, original, current, context, prefix, tag, formatter);
+                return;
+            }
+            // Pairs already compared elsewhere in the graph, or being compared (cycles), are not compared again.
+            DiffContext.Visit visit = context.enter(tag, original, current);
+            if (visit == null)
+                return;
+            try {
+                differObjects(objectClass, original, current, context, prefix, tag, formatter);
+            } finally {
+                context.exit(visit);
+            }
         } else if (original != current) {
             if (original == null){
                 final Class<?> objectClass = current.getClass();
+                // The blank original is created afresh each time, so the new object is tracked on its own.
+                DiffContext.Visit visit = null;
+                if (isNode(current)) {
+                    visit = context.enter(tag, null, current);
+                    if (visit == null)
+                        return;
+                }
                 try{
                 original = objectClass.newInstance();
                 }
                 catch (InstantiationException | IllegalAccessException ex) {
                     Logger.getLogger(DiffEngine.class.getName()).log(Level.SEVERE, null, ex);
                 } finally{
-                differObjects(objectClass,original, current, returnValue, prefix, tag);
+                differObjects(objectClass,original, current, context, prefix, tag, formatter);
+                if (visit != null)
+                    context.exit(visit);
                 }
             }else
-                returnValue.putAll(resolveObject(tag, original));
+                resolveObject(context, tag, original, formatter);
 //            returnValue.put(tag, original == null ? "" : original.toString());
         }
-
-        return returnValue;
     }
 
-    private void differObjects(final Class<?> objectClass, Object original, Object current, Map<String, String> returnValue, final String prefix, String tag) {
+    private void differObjects(final Class<?> objectClass, Object original, Object current, DiffContext context, final String prefix, String tag, DataFormatter<Object> formatter) {
         // Check whether the class is Diffable.  Diffable classes are handled specially.
-        if (objectClass.isAnnotationPresent(Diffable.class)) {
-            logger.log(Level.FINER, "{0} is Diffable", objectClass.getSimpleName());
-            for (Field field : DiffUtils.getAllFields(objectClass)) {
-                // Only check fields annotated with DiffField.
-                if (field.isAnnotationPresent(DiffField.class)) {
-                    Object originalFieldValue;
-                    Object currentFieldValue;
-                    try {
-                        originalFieldValue = DiffUtils.getValueForField(field, original);
-                        currentFieldValue = DiffUtils.getValueForField(field, current);
-                    } catch (IllegalAccessException | InvocationTargetException e) {
-                        logger.log(Level.SEVERE, "Error accessing field \"{0}\" in diff. Skipping.{1}", new Object[]{field.getName(), e});
-                        continue;
-                    }
-                    
-                    // Resolve the data, in case some sort of lookup or any other processing is needed.
-                    DiffField annotation = field.getAnnotation(DiffField.class);
-                    String dataType = annotation.value();
-                    DataResolver resolver;
-                    synchronized (this) {
-                        resolver = resolvers.get(dataType);
-                    }
-                    if (resolver != null) {
+        final ClassDescriptor descriptor = ClassDescriptor.forClass(objectClass);
+        if (descriptor.isDiffable()) {
+            if (logger.isLoggable(Level.FINER))
+                logger.log(Level.FINER, "{0} is Diffable", objectClass.getSimpleName());
+            // Several large iterables or maps side by side are diffed in parallel.
+            if (descriptor.getContainerFieldCount() > 1 && canFork()) {
+                calculateFieldsInParallel(descriptor, original, current, context, prefix);
+                return;
+            }
+            // Only fields annotated with DiffField are described.
+            for (FieldDescriptor field : descriptor.getFields()) {
+                // Primitive fields are compared without boxing them, unless they differ.
+                if (field.isKnownEqual(original, current))
+                    continue;
+                Object originalFieldValue;
+                Object currentFieldValue;
+                try {
+                    originalFieldValue = field.getValue(original);
+                    currentFieldValue = field.getValue(current);
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    logger.log(Level.SEVERE, "Error accessing field \"{0}\" in diff. Skipping.{1}", new Object[]{field.getName(), e});
+                    continue;
+                }
+
+                // Resolve the data, in case some sort of lookup or any other processing is needed.
+                DataResolver<Object, Object> resolver = resolvers.get(field.getDataType());
+                if (resolver != null) {
+                    if (logger.isLoggable(Level.FINER))
                         logger.finer("Resolving data...");
-                        originalFieldValue = resolver.resolve(originalFieldValue);
-                        currentFieldValue = resolver.resolve(currentFieldValue);
+                    originalFieldValue = resolver.resolve(originalFieldValue);
+                    currentFieldValue = resolver.resolve(currentFieldValue);
+                    if (logger.isLoggable(Level.FINER))
                         logger.finer("Both data resolved.");
-                    }
-
-                    // Recursively call calculate() on the two values, appending the field name to the tag.
-                    returnValue.putAll(this.calculate(prefix + field.getName(), originalFieldValue, currentFieldValue));
                 }
+
+                // Recursively call calculate() on the two values, appending the field name to the tag.
+                calculate(context, prefix + field.getName(), originalFieldValue, currentFieldValue,
+                        dataFormatters.get(field.getDataType()));
             }
         } else {
             // For non-Diffable classes...
             
-            logger.log(Level.FINER, "{0} is not Diffable.", objectClass.getSimpleName());
+            if (logger.isLoggable(Level.FINER))
+                logger.log(Level.FINER, "{0} is not Diffable.", objectClass.getSimpleName());
             // Iterate through iterable objects
             if (original instanceof Iterable) {
-                logger.log(Level.FINER, "{0} is Iterable.", objectClass.getSimpleName());
+                if (logger.isLoggable(Level.FINER))
+                    logger.log(Level.FINER, "{0} is Iterable.", objectClass.getSimpleName());
+                if (canFork() && isLarge(original) && isLarge(current)) {
+                    Object[] oItems = ((Collection<?>) original).toArray();
+                    Object[] cItems = ((Collection<?>) current).toArray();
+                    new ItemsTask(context, prefix, oItems, cItems, 0, Math.min(oItems.length, cItems.length), formatter).invoke();
+                    if (oItems.length != cItems.length)
+                        context.add(prefix + "count", oItems.length, cItems.length, null);
+                    return;
+                }
                 int i = 0;
                 Iterator<?> oIterator = ((Iterable<?>) original).iterator();
                 Iterator<?> cIterator = ((Iterable<?>) current).iterator();
                 while (oIterator.hasNext() && cIterator.hasNext()) {
-                    logger.log(Level.FINER, "Checking item with index: {0}", i);
+                    if (logger.isLoggable(Level.FINER))
+                        logger.log(Level.FINER, "Checking item with index: {0}", i);
                     Object oObj = oIterator.next();
                     Object cObj = cIterator.next();
                     // Recursively call calculate() on the corresponding values, appending the index.
-                    returnValue.putAll(this.calculate(prefix + "idx" + ++i, oObj, cObj));
+                    calculate(context, prefix + "idx" + ++i, oObj, cObj, formatter);
                 }
                 
                 // If the item count is different, record it.
                 if (oIterator.hasNext()) {
+                    int count = i;
                     while (oIterator.hasNext()) {
                         oIterator.next();
                         i++;
                     }
-                    returnValue.put(prefix + "count", Integer.toString(i));
+                    context.add(prefix + "count", i, count, null);
                 } else if (cIterator.hasNext()) {
-                    returnValue.put(prefix + "count", Integer.toString(i));
+                    int count = i;
+                    while (cIterator.hasNext()) {
+                        cIterator.next();
+                        count++;
+                    }
+                    context.add(prefix + "count", i, count, null);
                 }
                 // Iterate through map keys
             } else if (original instanceof Map) {
                 Map<?, ?> oMap = (Map<?, ?>) original;
                 Map<?, ?> cMap = (Map<?, ?>) current;
-                for (Object key : oMap.keySet()) {
-                    Object oObj = oMap.get(key);
-                    Object cObj = cMap.get(key);
+                if (canFork() && isLarge(oMap)) {
+                    Object[] entries = oMap.entrySet().toArray();
+                    new EntriesTask(context, prefix, entries, cMap, 0, entries.length, formatter).invoke();
+                    addAddedEntries(context, prefix, oMap, cMap);
+                    return;
+                }
+                int matched = 0;
+                for (Map.Entry<?, ?> entry : oMap.entrySet()) {
                     // Recursively call calculate() on the corresponding vaues, appending the key.
-                    returnValue.putAll(this.calculate(prefix + key.toString(), oObj, cObj));
+                    if (calculateEntry(context, prefix, entry, cMap, formatter))
+                        matched++;
                 }
+                // Unless every new key was matched, look for the added ones.
+                if (matched < cMap.size())
+                    addAddedEntries(context, prefix, oMap, cMap);
                 // If class isn't Diffable, not iterable, and not a map, simply use equals() to find any differences
             } else if (!original.equals(current)) {
-                returnValue.put(tag, original.toString());
+                context.add(tag, original, current, formatter);
             }
         }
         // Special case when either, but not both, is null.  If both are null, there is no difference to record.
     }
 
+    /**
+     * Calculates the difference between the value of an entry of the original map and the value of the same
+     * key in the new map, or resolves it if the new map doesn't have that key.
+     *
+     * @return whether the new map has the key
+     */
+    private boolean calculateEntry(DiffContext context, String prefix, Map.Entry<?, ?> entry, Map<?, ?> cMap,
+                                   DataFormatter<Object> formatter) {
+        Object key = entry.getKey();
+        Object cObj = cMap.get(key);
+        if (cObj == null && !cMap.containsKey(key)) {
+            resolveObject(context, prefix + key.toString(), entry.getValue(), formatter);
+            return false;
+        }
+        calculate(context, prefix + key.toString(), entry.getValue(), cObj, formatter);
+        return true;
+    }
+
+    /**
+     * Adds the entries of the new map whose keys are not in the original map, with no original value.
+     */
+    private static void addAddedEntries(DiffContext context, String prefix, Map<?, ?> oMap, Map<?, ?> cMap) {
+        for (Map.Entry<?, ?> entry : cMap.entrySet()) {
+            if (!oMap.containsKey(entry.getKey()))
+                context.add(prefix + entry.getKey().toString(), null, entry.getValue(), null);
+        }
+    }
+
+    /**
+     * Calculates the differences of the fields of two {@link Diffable} objects, forking a task for each
+     * large iterable or map field.  Each task works in a context of its own, joined back in field order, so
+     * the result is the same as a sequential calculation.
+     */
+    private void calculateFieldsInParallel(ClassDescriptor descriptor, Object original, Object current,
+                                           DiffContext context, String prefix) {
+        FieldDescriptor[] fields = descriptor.getFields();
+        Object[] originalValues = new Object[fields.length];
+        Object[] currentValues = new Object[fields.length];
+        SubtreeTask[] tasks = new SubtreeTask[fields.length];
+        boolean[] readable = new boolean[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            FieldDescriptor field = fields[i];
+            if (field.isKnownEqual(original, current))
+                continue;
+            try {
+                originalValues[i] = field.getValue(original);
+                currentValues[i] = field.getValue(current);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                logger.log(Level.SEVERE, "Error accessing field \"{0}\" in diff. Skipping.{1}", new Object[]{field.getName(), e});
+                continue;
+            }
+            readable[i] = true;
+            DataResolver<Object, Object> resolver = resolvers.get(field.getDataType());
+            if (resolver != null) {
+                originalValues[i] = resolver.resolve(originalValues[i]);
+                currentValues[i] = resolver.resolve(currentValues[i]);
+            }
+            if (isLarge(originalValues[i]) || isLarge(currentValues[i])) {
+                tasks[i] = new SubtreeTask(context.fork(), prefix + field.getName(), originalValues[i],
+                        currentValues[i], dataFormatters.get(field.getDataType()));
+                tasks[i].fork();
+            }
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (tasks[i] != null) {
+                tasks[i].join();
+                context.join(tasks[i].context);
+            } else if (readable[i]) {
+                calculate(context, prefix + fields[i].getName(), originalValues[i], currentValues[i],
+                        dataFormatters.get(fields[i].getDataType()));
+            }
+        }
+    }
+
+    private boolean canFork() {
+        ForkJoinPool forkJoinPool = pool;
+        return forkJoinPool != null && ForkJoinTask.getPool() == forkJoinPool;
+    }
+
+    private boolean isLarge(Object value) {
+        if (value instanceof Collection)
+            return ((Collection<?>) value).size() >= parallelThreshold;
+        if (value instanceof Map)
+            return ((Map<?, ?>) value).size() >= parallelThreshold;
+        return false;
+    }
+
+    /**
+     * @return whether the value is a {@link Diffable} object, an iterable or a map, the only objects tracked by
+     *         the {@link DiffContext}
+     */
+    private static boolean isNode(Object value) {
+        return value instanceof Iterable || value instanceof Map || ClassDescriptor.forClass(value.getClass()).isDiffable();
+    }
+
+    /**
+     * Calculates the differences of one field's values in a context of its own.
+     */
+    private class SubtreeTask extends RecursiveAction {
+        private static final long serialVersionUID = -6892978232755734932L;
+
+        private final DiffContext context;
+        private final String tag;
+        private final Object original;
+        private final Object current;
+        private final DataFormatter<Object> formatter;
+
+        SubtreeTask(DiffContext context, String tag, Object original, Object current, DataFormatter<Object> formatter) {
+            this.context = context;
+            this.tag = tag;
+            this.original = original;
+            this.current = current;
+            this.formatter = formatter;
+        }
+
+        @Override
+        protected void compute() {
+            calculate(context, tag, original, current, formatter);
+        }
+    }
+
+    /**
+     * Calculates the differences of a range of corresponding items, splitting it in halves until it is
+     * below the parallel threshold.  The right half is calculated in a context of its own, joined after the
+     * left half, so the differences are added just as they would be sequentially.
+     */
+    private class ItemsTask extends RecursiveAction {
+        private static final long serialVersionUID = -8415801977544449574L;
+
+        private final DiffContext context;
+        private final String prefix;
+        private final Object[] oItems;
+        private final Object[] cItems;
+        private final int from;
+        private final int to;
+        private final DataFormatter<Object> formatter;
+
+        ItemsTask(DiffContext context, String prefix, Object[] oItems, Object[] cItems, int from, int to,
+                  DataFormatter<Object> formatter) {
+            this.context = context;
+            this.prefix = prefix;
+            this.oItems = oItems;
+            this.cItems = cItems;
+            this.from = from;
+            this.to = to;
+            this.formatter = formatter;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= parallelThreshold) {
+                for (int i = from; i < to; i++)
+                    calculate(context, prefix + "idx" + (i + 1), oItems[i], cItems[i], formatter);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            ItemsTask right = new ItemsTask(context.fork(), prefix, oItems, cItems, middle, to, formatter);
+            right.fork();
+            new ItemsTask(context, prefix, oItems, cItems, from, middle, formatter).compute();
+            right.join();
+            context.join(right.context);
+        }
+    }
+
+    /**
+     * Calculates the differences of the values for a range of entries of the original map, splitting it like
+     * {@link ItemsTask}.
+     */
+    private class EntriesTask extends RecursiveAction {
+        private static final long serialVersionUID = 117328559378719580L;
+
+        private final DiffContext context;
+        private final String prefix;
+        private final Object[] entries;
+        private final Map<?, ?> cMap;
+        private final int from;
+        private final int to;
+        private final DataFormatter<Object> formatter;
+
+        EntriesTask(DiffContext context, String prefix, Object[] entries, Map<?, ?> cMap, int from, int to,
+                    DataFormatter<Object> formatter) {
+            this.context = context;
+            this.prefix = prefix;
+            this.entries = entries;
+            this.cMap = cMap;
+            this.from = from;
+            this.to = to;
+            this.formatter = formatter;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= parallelThreshold) {
+                for (int i = from; i < to; i++)
+                    calculateEntry(context, prefix, (Map.Entry<?, ?>) entries[i], cMap, formatter);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            EntriesTask right = new EntriesTask(context.fork(), prefix, entries, cMap, middle, to, formatter);
+            right.fork();
+            new EntriesTask(context, prefix, entries, cMap, from, middle, formatter).compute();
+            right.join();
+            context.join(right.context);
+        }
+    }
+
     /**
      * Resolves an object using {@link Diffable Diffable} fields as appropriate.
      * <p/>
@@ -169,77 +637,105 @@ public class DiffEngine {
      *
      * @param tag    initial key name for map
      * @param object object to be resolved
-     * @return a map with all the data in the object, according to normal {@link DiffEngine DiffEngine} rules
+     * @return a map with all the data in the object, according to normal {@link DiffEngine DiffEngine} rules,
+     *         rendered as strings when read
      */
-    public Map<String, String> resolveObject(String tag, Object object) {
+    public DiffResult resolveObject(String tag, Object object) {
+        DiffResult returnValue = new DiffResult(formatters);
+        resolveObject(new DiffContext(returnValue), tag, object, null);
+        return returnValue;
+    }
+
+    /**
+     * Resolves an object, adding its data to the result of <code>context</code>.
+     *
+     * @param formatter the formatter of the field the object was found in, or <code>null</code>
+     * @see #resolveObject(String, Object)
+     */
+    private void resolveObject(DiffContext context, String tag, Object object, DataFormatter<Object> formatter) {
         if (tag == null) tag = "";
         final String prefix = tag.equals("") ? "" : (tag + ".");
-        Map<String, String> returnValue = new TreeMap<>();
 
         if (object == null)
-            returnValue.put(tag, "");
+            context.add(tag, null, null, formatter);
         else {
             final Class<?> objectClass = object.getClass();
-            logger.log(Level.FINER, "Resolving object of type: {0}", objectClass.getSimpleName());
+            if (logger.isLoggable(Level.FINER))
+                logger.log(Level.FINER, "Resolving object of type: {0}", objectClass.getSimpleName());
             // Check whether the class is Diffable.  Diffable classes are handled specially.
-            if (objectClass.isAnnotationPresent(Diffable.class)) {
-                logger.log(Level.FINER, "{0} is Diffable", objectClass.getSimpleName());
-                for (Field field : DiffUtils.getAllFields(objectClass)) {
-                    // Only check fields annotated with DiffField.
-                    if (field.isAnnotationPresent(DiffField.class)) {
-                        Object fieldValue;
-                        try {
-                            fieldValue = DiffUtils.getValueForField(field, object);
-                        } catch (IllegalAccessException | InvocationTargetException e) {
-                            logger.log(Level.SEVERE, "Error accessing field \"{0}\" in diff. Skipping.{1}", new Object[]{field.getName(), e});
-                            continue;
-                        }
-                        // Resolve the data, in case some sort of lookup or any other processing is needed.
-                        DiffField annotation = field.getAnnotation(DiffField.class);
-                        String dataType = annotation.value();
-                        DataResolver resolver;
-                        synchronized (this) {
-                            resolver = resolvers.get(dataType);
-                        }
-                        if (resolver != null) {
-                            logger.finer("Resolving data...");
-                            fieldValue = resolver.resolve(fieldValue);
-                            logger.finer("Data resolved.");
-                        }
-                        // Recursively call resolveObject() on the two values, appending the field name to the tag.
-                        returnValue.putAll(this.resolveObject(prefix + field.getName(), fieldValue));
-                    }
+            final ClassDescriptor descriptor = ClassDescriptor.forClass(objectClass);
+            if (descriptor.isDiffable() || object instanceof Iterable || object instanceof Map) {
+                // Objects already resolved elsewhere in the graph, or being resolved (cycles), are not resolved again.
+                DiffContext.Visit visit = context.enter(tag, object, null);
+                if (visit == null)
+                    return;
+                try {
+                    resolveNode(context, prefix, descriptor, object, formatter);
+                } finally {
+                    context.exit(visit);
                 }
+                // If class isn't Diffable, not iterable, and not a map, simply add the object as a string
             } else {
-                // For non-Diffable classes...
+                context.add(tag, object, null, formatter);
+            }
+        }
+    }
 
+    /**
+     * Resolves the fields, items or entries of a {@link Diffable} object, iterable or map.
+     */
+    private void resolveNode(DiffContext context, String prefix, ClassDescriptor descriptor, Object object,
+                             DataFormatter<Object> formatter) {
+        final Class<?> objectClass = object.getClass();
+        if (descriptor.isDiffable()) {
+            if (logger.isLoggable(Level.FINER))
+                logger.log(Level.FINER, "{0} is Diffable", objectClass.getSimpleName());
+            // Only fields annotated with DiffField are described.
+            for (FieldDescriptor field : descriptor.getFields()) {
+                Object fieldValue;
+                try {
+                    fieldValue = field.getValue(object);
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    logger.log(Level.SEVERE, "Error accessing field \"{0}\" in diff. Skipping.{1}", new Object[]{field.getName(), e});
+                    continue;
+                }
+                // Resolve the data, in case some sort of lookup or any other processing is needed.
+                DataResolver<Object, Object> resolver = resolvers.get(field.getDataType());
+                if (resolver != null) {
+                    if (logger.isLoggable(Level.FINER))
+                        logger.finer("Resolving data...");
+                    fieldValue = resolver.resolve(fieldValue);
+                    if (logger.isLoggable(Level.FINER))
+                        logger.finer("Data resolved.");
+                }
+                // Recursively call resolveObject() on the two values, appending the field name to the tag.
+                resolveObject(context, prefix + field.getName(), fieldValue, dataFormatters.get(field.getDataType()));
+            }
+        } else {
+            // For non-Diffable classes...
+
+            if (logger.isLoggable(Level.FINER))
                 logger.log(Level.FINER, "{0} is not Diffable.", objectClass.getSimpleName());
-                // Iterate through iterable objects
-                if (object instanceof Iterable) {
+            // Iterate through iterable objects
+            if (object instanceof Iterable) {
+                if (logger.isLoggable(Level.FINER))
                     logger.log(Level.FINER, "{0} is Iterable.", objectClass.getSimpleName());
-                    int i = 0;
-                    for (Object o : ((Iterable<?>) object)) {
+                int i = 0;
+                for (Object o : ((Iterable<?>) object)) {
+                    if (logger.isLoggable(Level.FINER))
                         logger.log(Level.FINER, "Checking item with index: {0}", i);
-                        // Recursively call resolveObject() on the corresponding values, appending the index.
-                        returnValue.putAll(this.resolveObject(prefix + "idx" + ++i, o));
-                    }
-                    // Iterate through map keys
-                } else if (object instanceof Map) {
-                    Map<?, ?> oMap = (Map<?, ?>) object;
-                    for (Object key : oMap.keySet()) {
-                        Object obj = oMap.get(key);
-                        // Recursively call resolveObject() on the corresponding vaues, appending the key.
-                        returnValue.putAll(this.resolveObject(prefix + key.toString(), obj));
-                    }
-                    // If class isn't Diffable, not iterable, and not a map, simply add the object as a string
-                } else {
-                    returnValue.put(tag, object.toString());
+                    // Recursively call resolveObject() on the corresponding values, appending the index.
+                    resolveObject(context, prefix + "idx" + ++i, o, formatter);
+                }
+                // Iterate through map keys
+            } else if (object instanceof Map) {
+                Map<?, ?> oMap = (Map<?, ?>) object;
+                for (Map.Entry<?, ?> entry : oMap.entrySet()) {
+                    // Recursively call resolveObject() on the corresponding vaues, appending the key.
+                    resolveObject(context, prefix + entry.getKey().toString(), entry.getValue(), formatter);
                 }
             }
-
         }
-
-        return returnValue;
     }
 
     /**
@@ -257,12 +753,22 @@ public class DiffEngine {
      * @see DiffGenerator#unregisterDataResolver(String)
      * @see DiffField
      */
-    public synchronized DataResolver registerDataResolver(String forType, DataResolver resolver) {
-        DataResolver old = resolvers.get(forType);
-        resolvers.put(forType, resolver);
+    public synchronized DataResolver<?, ?> registerDataResolver(String forType, DataResolver<?, ?> resolver) {
+        Map<String, DataResolver<Object, Object>> updated = new HashMap<>(resolvers);
+        DataResolver<?, ?> old = updated.put(forType, anyValueResolver(resolver));
+        resolvers = Collections.unmodifiableMap(updated);
         return old;
     }
 
+    /**
+     * Resolvers are kept as resolvers of any value: they are only given the values of fields declaring their
+     * data type.
+     */
+    @SuppressWarnings("unchecked")
+    private static DataResolver<Object, Object> anyValueResolver(DataResolver<?, ?> resolver) {
+        return (DataResolver<Object, Object>) resolver;
+    }
+
     /**
      * Unregisters a {@link DataResolver DataResolver}.
      *
@@ -272,15 +778,383 @@ public class DiffEngine {
      * @see DiffField
      */
     public synchronized void unregisterDataResolver(String forType) {
-        resolvers.remove(forType);
+        Map<String, DataResolver<Object, Object>> updated = new HashMap<>(resolvers);
+        updated.remove(forType);
+        resolvers = Collections.unmodifiableMap(updated);
+    }
+
+    /**
+     * Registers a {@link DataFormatter DataFormatter} to render data of type <code>forType</code>.
+     * <p/>
+     * The values of fields whose {@link DiffField DiffField} annotation defines that data type, once resolved
+     * if a {@link DataResolver DataResolver} is registered for it too, and the items and map values found in
+     * them, are rendered by this formatter rather than the one registered for their class.
+     *
+     * @param forType   the user-defined and application-specific field/data type to register a formatter for
+     * @param formatter the formatter to register for the field/data type, which must accept the (resolved) values
+     *                  of the fields
+     * @return the <code>DataFormatter</code> previously registered for this data type, if any, or <code>null</code> otherwise
+     * @see DiffResult
+     */
+    public synchronized DataFormatter<?> registerDataFormatter(String forType, DataFormatter<?> formatter) {
+        Map<String, DataFormatter<Object>> updated = new HashMap<>(dataFormatters);
+        DataFormatter<?> old = updated.put(forType, anyValue(formatter));
+        dataFormatters = Collections.unmodifiableMap(updated);
+        return old;
+    }
+
+    /**
+     * Unregisters the {@link DataFormatter DataFormatter} of a data type.
+     *
+     * @param forType the field/data type for which to unregister the formatter
+     * @see #registerDataFormatter(String, DataFormatter)
+     */
+    public synchronized void unregisterDataFormatter(String forType) {
+        Map<String, DataFormatter<Object>> updated = new HashMap<>(dataFormatters);
+        updated.remove(forType);
+        dataFormatters = Collections.unmodifiableMap(updated);
+    }
+
+    /**
+     * Registers a {@link DataFormatter DataFormatter} to render values of a class, and of its subclasses with
+     * no formatter of their own, in place of their <code>toString()</code>.
+     *
+     * @param type      the class of the values to render
+     * @param formatter the formatter to register for the class
+     * @return the <code>DataFormatter</code> previously registered for this class, if any, or <code>null</code> otherwise
+     * @see DiffResult
+     */
+    public synchronized <T> DataFormatter<?> registerFormatter(Class<T> type, DataFormatter<? super T> formatter) {
+        Map<Class<?>, DataFormatter<Object>> updated = new HashMap<>(formatters);
+        DataFormatter<?> old = updated.put(type, anyValue(formatter));
+        formatters = Collections.unmodifiableMap(updated);
+        return old;
+    }
+
+    /**
+     * Unregisters the {@link DataFormatter DataFormatter} of a class.
+     *
+     * @param type the class for which to unregister the formatter
+     * @see #registerFormatter(Class, DataFormatter)
+     */
+    public synchronized void unregisterFormatter(Class<?> type) {
+        Map<Class<?>, DataFormatter<Object>> updated = new HashMap<>(formatters);
+        updated.remove(type);
+        formatters = Collections.unmodifiableMap(updated);
+    }
+
+    /**
+     * Formatters are kept as formatters of any value: those registered for a class are only given values of
+     * that class or its subclasses, and those registered for a data type the values of fields declaring it.
+     */
+    @SuppressWarnings("unchecked")
+    private static DataFormatter<Object> anyValue(DataFormatter<?> formatter) {
+        return (DataFormatter<Object>) formatter;
+    }
+
+    /**
+     * @return the number of objects compared by this engine so far, at every level of every calculation
+     */
+    public long getCalculationCount() {
+        return calculations.sum();
+    }
+
+    /**
+     * Enables parallel calculation in a fork/join pool, or disables it if <code>pool</code> is <code>null</code>.
+     * <p/>
+     * Iterables and maps of at least <code>threshold</code> items are split in halves calculated in parallel,
+     * as are the large iterable and map fields of a {@link Diffable Diffable} object that has several of them.
+     * The result is the same as a sequential calculation.  Registered {@link DataResolver DataResolvers},
+     * and the getters of the objects being compared, must be thread-safe.
+     *
+     * @param pool      the pool to run the calculation in, or <code>null</code>
+     * @param threshold the minimum number of items of an iterable or map to calculate it in parallel
+     */
+    public void setParallelism(ForkJoinPool pool, int threshold) {
+        if (threshold < 1)
+            throw new IllegalArgumentException("Parallel threshold must be at least 1: " + threshold);
+        this.parallelThreshold = threshold;
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the executor running the data resolution of asynchronous calculations.
+     * <p/>
+     * By default, a shared executor is used, running each task on a virtual thread if the JVM supports them
+     * (Java 21 and later), or on a cached pool of daemon threads otherwise.
+     *
+     * @param executor the executor to use, or <code>null</code> to go back to the default one
+     * @see #calculateAsync(String, Object, Object)
+     */
+    public void setAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+    }
+
+    /**
+     * Sets the maximum number of concurrent calls to the resolver of a data type, in asynchronous calculations.
+     * Defaults to {@link #DEFAULT_MAX_CONCURRENT_RESOLUTIONS}.  The limit applies to all the asynchronous
+     * calculations of this engine together.
+     *
+     * @param forType the field/data type
+     * @param max     the maximum number of concurrent calls, at least 1
+     * @see #calculateAsync(String, Object, Object)
+     */
+    public synchronized void setMaxConcurrentResolutions(String forType, int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("Maximum concurrent resolutions must be at least 1: " + max);
+        maxConcurrentResolutions.put(forType, max);
+        permits.remove(forType);
+    }
+
+    private Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        return executor != null ? executor : getDefaultAsyncExecutor();
+    }
+
+    /**
+     * Creates the default asynchronous executor on first use: a virtual thread per task executor if
+     * available, looked up reflectively so that the engine still runs on Java 8, or a cached pool of daemon
+     * threads otherwise.
+     */
+    private static synchronized ExecutorService getDefaultAsyncExecutor() {
+        if (defaultAsyncExecutor == null) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                defaultAsyncExecutor = (ExecutorService) factory.invoke(null);
+            } catch (NoSuchMethodException e) {
+                logger.finer("Virtual threads not available.");
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                logger.log(Level.WARNING, "Could not create a virtual thread executor.", e);
+            }
+            if (defaultAsyncExecutor == null) {
+                AtomicInteger count = new AtomicInteger();
+                defaultAsyncExecutor = Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "diffengine-async-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        return defaultAsyncExecutor;
     }
 
     Map<String, String> calculate(Person a, Person b) {
-        count++;
         return calculate("", a, b); 
     }
 
+    /**
+     * Calculates the changes turning one object into another, as a typed {@link Diff}.
+     * <p/>
+     * Objects are compared following the same {@link DiffField} fields, list items and map entries as
+     * {@link #calculate(String, Object, Object)}, but each difference is recorded as a change holding its
+     * original and new values, rather than as a string, so that the diff can be {@link #apply(Object, Diff)
+     * applied}.  Fields are compared as they are: values are not resolved by the registered
+     * {@link DataResolver DataResolvers}, since resolved values can't be written back.
+     * <p/>
+     * Values that differ, including values of different classes, {@link Diffable} objects found on one side
+     * only, and iterables other than lists, are replaced as a whole.  Lists are compared item by item, items
+     * past the end of the shorter list being added or removed, and maps key by key.  New values are
+     * referenced by the diff, not copied.  A {@link Diffable} object, iterable or map found again once compared,
+     * with the same counterpart, is not compared again, so a diff of objects shared within the graph must be
+     * applied to a target sharing them the same way.  Cycles are cut.
+     *
+     * @param original original object
+     * @param current  new object
+     * @return the changes turning <code>original</code> into <code>current</code>, empty if they are equal
+     * @see #apply(Object, Diff)
+     */
+    public Diff calculateDiff(Object original, Object current) {
+        Diff diff = new Diff();
+        calculateDiff(new DiffContext(null), diff, DiffPath.EMPTY, original, current);
+        return diff;
+    }
+
+    private void calculateDiff(DiffContext context, Diff diff, DiffPath path, Object original, Object current) {
+        calculations.increment();
+        if (original == current)
+            return;
+        if (original == null || current == null || original.getClass() != current.getClass()) {
+            diff.add(path, Diff.Kind.SET, original, current);
+            return;
+        }
+        if (!isNode(original)) {
+            if (!Objects.deepEquals(original, current))
+                diff.add(path, Diff.Kind.SET, original, current);
+            return;
+        }
+        // Pairs already compared elsewhere in the graph, or being compared (cycles), are not compared again.
+        DiffContext.Visit visit = context.enter(null, original, current);
+        if (visit == null)
+            return;
+        try {
+            calculateDiff(context, diff, path, ClassDescriptor.forClass(original.getClass()), original, current);
+        } finally {
+            context.exit(visit);
+        }
+    }
+
+    private void calculateDiff(DiffContext context, Diff diff, DiffPath path, ClassDescriptor descriptor,
+                               Object original, Object current) {
+        if (descriptor.isDiffable()) {
+            for (FieldDescriptor field : descriptor.getFields()) {
+                // Primitive fields are compared without boxing them, unless they differ.
+                if (field.isKnownEqual(original, current))
+                    continue;
+                Object originalFieldValue;
+                Object currentFieldValue;
+                try {
+                    originalFieldValue = field.getValue(original);
+                    currentFieldValue = field.getValue(current);
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    logger.log(Level.SEVERE, "Error accessing field \"{0}\" in diff. Skipping.{1}", new Object[]{field.getName(), e});
+                    continue;
+                }
+                calculateDiff(context, diff, path.field(field.getName()), originalFieldValue, currentFieldValue);
+            }
+        } else if (original instanceof List) {
+            List<?> oList = (List<?>) original;
+            List<?> cList = (List<?>) current;
+            int common = Math.min(oList.size(), cList.size());
+            for (int i = 0; i < common; i++)
+                calculateDiff(context, diff, path.index(i), oList.get(i), cList.get(i));
+            for (int i = common; i < cList.size(); i++)
+                diff.add(path.index(i), Diff.Kind.ADD, null, cList.get(i));
+            // Removed from the end, so that the positions of the remaining items don't move.
+            for (int i = oList.size() - 1; i >= common; i--)
+                diff.add(path.index(i), Diff.Kind.REMOVE, oList.get(i), null);
+        } else if (original instanceof Map) {
+            Map<?, ?> oMap = (Map<?, ?>) original;
+            Map<?, ?> cMap = (Map<?, ?>) current;
+            for (Map.Entry<?, ?> entry : oMap.entrySet()) {
+                if (cMap.containsKey(entry.getKey()))
+                    calculateDiff(context, diff, path.key(entry.getKey()), entry.getValue(), cMap.get(entry.getKey()));
+                else
+                    diff.add(path.key(entry.getKey()), Diff.Kind.REMOVE, entry.getValue(), null);
+            }
+            for (Map.Entry<?, ?> entry : cMap.entrySet()) {
+                if (!oMap.containsKey(entry.getKey()))
+                    diff.add(path.key(entry.getKey()), Diff.Kind.ADD, null, entry.getValue());
+            }
+        } else if (!Objects.deepEquals(original, current)) {
+            diff.add(path, Diff.Kind.SET, original, current);
+        }
+    }
+
+    /**
+     * Applies a diff to an object, turning it into the object the diff was calculated against.
+     * <p/>
+     * The target must be equal to the original object the diff was calculated from, e.g. a copy of it
+     * held by a replica.  Each change follows its {@link DiffPath path} segment by segment, through the
+     * cached metadata of each {@link Diffable} class, and is written with the field's setter if it has
+     * one, or to the field directly otherwise; both are compiled once per class.  The target is modified
+     * in place, except when the diff replaces the whole object, which is why the result must be used:
+     * <pre>
+     * replica = engine.apply(replica, diff);
+     * </pre>
+     *
+     * @param target the object to apply the diff to
+     * @param diff   the changes to apply, as calculated by {@link #calculateDiff(Object, Object)}
+     * @param <T>    the type of the object
+     * @return the updated object: <code>target</code> itself, or the new value replacing it
+     * @throws IllegalArgumentException if a path of the diff does not lead to a value of the target
+     * @throws IllegalStateException    if a field can't be written, or its setter throws an exception
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T apply(T target, Diff diff) {
+        Object result = target;
+        for (Diff.Change change : diff) {
+            DiffPath path = change.getPath();
+            if (path.getDepth() == 0) {
+                result = change.getNewValue();
+                continue;
+            }
+            DiffPath[] segments = path.getSegments();
+            Object parent = result;
+            for (int i = 0; i < segments.length - 1; i++) {
+                parent = readSegment(parent, segments[i]);
+                if (parent == null)
+                    throw new IllegalArgumentException("No value at \"" + segments[i] + "\" to apply " + change);
+            }
+            writeSegment(parent, segments[segments.length - 1], change);
+        }
+        return (T) result;
+    }
+
+    private static Object readSegment(Object object, DiffPath segment) {
+        switch (segment.getKind()) {
+            case DiffPath.FIELD:
+                try {
+                    return getField(object, segment).getValue(object);
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    throw new IllegalStateException("Error accessing field \"" + segment + "\".", e);
+                }
+            case DiffPath.INDEX:
+                List<?> list = asList(object, segment);
+                checkIndex(list, segment, list.size() - 1);
+                return list.get(segment.getIndex());
+            default:
+                return asMap(object, segment).get(segment.getKey());
+        }
+    }
+
+    private static void writeSegment(Object object, DiffPath segment, Diff.Change change) {
+        switch (segment.getKind()) {
+            case DiffPath.FIELD:
+                if (change.getKind() != Diff.Kind.SET)
+                    throw new IllegalArgumentException("Fields can only be set: " + change);
+                try {
+                    getField(object, segment).setValue(object, change.getNewValue());
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    throw new IllegalStateException("Error writing field \"" + segment + "\".", e);
+                }
+                return;
+            case DiffPath.INDEX:
+                List<Object> list = asList(object, segment);
+                checkIndex(list, segment, change.getKind() == Diff.Kind.ADD ? list.size() : list.size() - 1);
+                if (change.getKind() == Diff.Kind.ADD)
+                    list.add(segment.getIndex(), change.getNewValue());
+                else if (change.getKind() == Diff.Kind.REMOVE)
+                    list.remove(segment.getIndex());
+                else
+                    list.set(segment.getIndex(), change.getNewValue());
+                return;
+            default:
+                Map<Object, Object> map = asMap(object, segment);
+                if (change.getKind() == Diff.Kind.REMOVE)
+                    map.remove(segment.getKey());
+                else
+                    map.put(segment.getKey(), change.getNewValue());
+        }
+    }
+
+    private static FieldDescriptor getField(Object object, DiffPath segment) {
+        FieldDescriptor field = ClassDescriptor.forClass(object.getClass()).getField(segment.getFieldName());
+        if (field == null)
+            throw new IllegalArgumentException("No diffable field \"" + segment.getFieldName() + "\" in "
+                    + object.getClass().getName());
+        return field;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object object, DiffPath segment) {
+        if (!(object instanceof List))
+            throw new IllegalArgumentException("Not a list at \"" + segment.getParent() + "\": " + object.getClass().getName());
+        return (List<Object>) object;
+    }
+
+    private static void checkIndex(List<?> list, DiffPath segment, int max) {
+        if (segment.getIndex() > max)
+            throw new IllegalArgumentException("No item at \"" + segment + "\", the list has " + list.size() + " items.");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Object> asMap(Object object, DiffPath segment) {
+        if (!(object instanceof Map))
+            throw new IllegalArgumentException("Not a map at \"" + segment.getParent() + "\": " + object.getClass().getName());
+        return (Map<Object, Object>) object;
+    }
+
     Person apply(Person a, Diff diff) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        return (Person) apply((Object) a, diff);
     }
 }
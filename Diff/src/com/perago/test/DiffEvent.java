@@ -0,0 +1,138 @@
+package com.perago.test;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A JDK Flight Recorder event, recorded for each {@link DiffEngine#calculate(String, Object, Object)} call
+ * while a recording has it enabled.
+ * <p/>
+ * The event type, named <code>com.perago.test.Diff</code>, is defined at run time through the Flight Recorder
+ * API, looked up reflectively so that the engine still compiles and runs on Java 8.  Events are only recorded
+ * on JVMs that have the API: Java 11 and later, or Java 8 from update 262 on.  Elsewhere, {@link #start()}
+ * always returns <code>null</code>.
+ *
+ * @author ttchiwandire@gmail.com
+ */
+final class DiffEvent {
+    private static final Logger logger = Logger.getLogger(DiffEvent.class.getSimpleName());
+
+    private static final int TAG = 0;
+    private static final int ROOT_CLASS = 1;
+    private static final int DIFFERENCES = 2;
+
+    /**
+     * The Flight Recorder API, or <code>null</code> if the JVM doesn't have it.
+     */
+    private static final FlightRecorder API = FlightRecorder.lookup();
+
+    /**
+     * The <code>jdk.jfr.Event</code> recorded.
+     */
+    private final Object event;
+
+    private DiffEvent(Object event) {
+        this.event = event;
+    }
+
+    /**
+     * @return a started event, or <code>null</code> if the event is not enabled
+     */
+    static DiffEvent start() {
+        if (API == null)
+            return null;
+        try {
+            Object event = API.newEvent.invoke(API.factory);
+            if (!(Boolean) API.isEnabled.invoke(event))
+                return null;
+            API.begin.invoke(event);
+            return new DiffEvent(event);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            logger.log(Level.WARNING, "Could not start a Flight Recorder event.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Ends and commits an event, unless it is below the recording's threshold.
+     */
+    static void commit(DiffEvent event, String tag, Class<?> rootClass, int differences) {
+        try {
+            API.end.invoke(event.event);
+            if ((Boolean) API.shouldCommit.invoke(event.event)) {
+                API.set.invoke(event.event, TAG, tag);
+                API.set.invoke(event.event, ROOT_CLASS, rootClass);
+                API.set.invoke(event.event, DIFFERENCES, differences);
+                API.commit.invoke(event.event);
+            }
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            logger.log(Level.WARNING, "Could not commit a Flight Recorder event.", e);
+        }
+    }
+
+    /**
+     * The event factory and the methods of <code>jdk.jfr.Event</code>, looked up once.
+     */
+    private static final class FlightRecorder {
+        final Object factory;
+        final Method newEvent;
+        final Method isEnabled;
+        final Method begin;
+        final Method end;
+        final Method shouldCommit;
+        final Method set;
+        final Method commit;
+
+        private FlightRecorder() throws ReflectiveOperationException {
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            List<Object> annotations = Arrays.asList(
+                    annotation("jdk.jfr.Name", "com.perago.test.Diff"),
+                    annotation("jdk.jfr.Label", "Diff"),
+                    annotation("jdk.jfr.Category", new String[]{"Diff Engine"}),
+                    annotation("jdk.jfr.Description", "Difference calculated between two objects"));
+            // In the order of TAG, ROOT_CLASS and DIFFERENCES.
+            List<Object> fields = Arrays.asList(
+                    field(String.class, "tag", "Tag"),
+                    field(Class.class, "rootClass", "Root Class"),
+                    field(int.class, "differences", "Differences"));
+            factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+            newEvent = factoryClass.getMethod("newEvent");
+            isEnabled = eventClass.getMethod("isEnabled");
+            begin = eventClass.getMethod("begin");
+            end = eventClass.getMethod("end");
+            shouldCommit = eventClass.getMethod("shouldCommit");
+            set = eventClass.getMethod("set", int.class, Object.class);
+            commit = eventClass.getMethod("commit");
+        }
+
+        static FlightRecorder lookup() {
+            try {
+                return new FlightRecorder();
+            } catch (ClassNotFoundException e) {
+                logger.finer("Flight Recorder not available.");
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.log(Level.WARNING, "Could not define the Flight Recorder event.", e);
+            }
+            return null;
+        }
+
+        private static Object annotation(String type, Object value) throws ReflectiveOperationException {
+            Class<? extends Annotation> annotationType = Class.forName(type).asSubclass(Annotation.class);
+            return Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class)
+                    .newInstance(annotationType, value);
+        }
+
+        private static Object field(Class<?> type, String name, String label) throws ReflectiveOperationException {
+            Constructor<?> constructor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+            return constructor.newInstance(type, name, Collections.singletonList(annotation("jdk.jfr.Label", label)));
+        }
+    }
+}
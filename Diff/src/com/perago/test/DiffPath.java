@@ -0,0 +1,154 @@
+package com.perago.test;
+
+import java.io.Serializable;
+
+/**
+ * The location of a change within an object graph, relative to the object the change applies to.
+ * <p/>
+ * A path is a chain of segments: field names for {@link Diffable} objects, item positions for lists, and
+ * keys for maps.  Each path only links to its parent and keeps its segment as is, so building the paths of
+ * a {@link Diff} costs one small object per level, and applying a change follows the segments directly,
+ * without ever parsing a string.  The string form uses the same dotted notation as the keys of
+ * {@link DiffEngine#calculate(String, Object, Object)}, e.g. <code>friend.idx2.name</code>.
+ *
+ * @author ttchiwandire@gmail.com
+ * @see Diff
+ */
+public final class DiffPath implements Serializable {
+    private static final long serialVersionUID = 4263177502934176381L;
+
+    static final int ROOT = 0;
+    static final int FIELD = 1;
+    static final int INDEX = 2;
+    static final int KEY = 3;
+
+    /**
+     * The path of the object a diff applies to.
+     */
+    public static final DiffPath EMPTY = new DiffPath(null, ROOT, null, 0);
+
+    private final DiffPath parent;
+    private final int kind;
+    private final Object segment;
+    private final int index;
+    private final int depth;
+
+    private DiffPath(DiffPath parent, int kind, Object segment, int index) {
+        this.parent = parent;
+        this.kind = kind;
+        this.segment = segment;
+        this.index = index;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    /**
+     * @param name the name of a {@link DiffField} field, preferably interned
+     * @return the path of that field of the object at this path
+     */
+    public DiffPath field(String name) {
+        return new DiffPath(this, FIELD, name, 0);
+    }
+
+    /**
+     * @param index the position of an item, starting at 0
+     * @return the path of that item of the list at this path
+     */
+    public DiffPath index(int index) {
+        return new DiffPath(this, INDEX, null, index);
+    }
+
+    /**
+     * @param key a map key
+     * @return the path of the value for that key of the map at this path
+     */
+    public DiffPath key(Object key) {
+        return new DiffPath(this, KEY, key, 0);
+    }
+
+    /**
+     * @return the parent path, or <code>null</code> for {@link #EMPTY}
+     */
+    public DiffPath getParent() {
+        return parent;
+    }
+
+    /**
+     * @return the number of segments of this path
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    int getKind() {
+        return kind;
+    }
+
+    String getFieldName() {
+        return (String) segment;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    Object getKey() {
+        return segment;
+    }
+
+    /**
+     * @return the segments of this path, from the first to the last one
+     */
+    DiffPath[] getSegments() {
+        DiffPath[] segments = new DiffPath[depth];
+        for (DiffPath path = this; path.depth > 0; path = path.parent)
+            segments[path.depth - 1] = path;
+        return segments;
+    }
+
+    private String getSegment() {
+        switch (kind) {
+            case INDEX:
+                return "idx" + (index + 1);
+            case KEY:
+                return String.valueOf(segment);
+            case FIELD:
+                return (String) segment;
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Returns the dotted string form of this path.  Item positions are rendered 1-based, like the keys of
+     * {@link DiffEngine#calculate(String, Object, Object)}.
+     *
+     * @return the string form of this path, empty for {@link #EMPTY}
+     */
+    @Override
+    public String toString() {
+        if (parent == null)
+            return getSegment();
+        String parentValue = parent.toString();
+        return parentValue.isEmpty() ? getSegment() : parentValue + "." + getSegment();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof DiffPath))
+            return false;
+        DiffPath other = (DiffPath) o;
+        return kind == other.kind && index == other.index && depth == other.depth
+                && (segment == null ? other.segment == null : segment.equals(other.segment))
+                && (parent == null ? other.parent == null : parent.equals(other.parent));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = parent == null ? 0 : parent.hashCode();
+        result = 31 * result + kind;
+        result = 31 * result + (segment == null ? 0 : segment.hashCode());
+        return 31 * result + index;
+    }
+}
@@ -0,0 +1,252 @@
+package com.perago.test;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The differences calculated by {@link DiffEngine#calculate(String, Object, Object)}, as a map from the
+ * key of each difference to its original value rendered as a string, sorted by key.
+ * <p/>
+ * Values are only rendered when they are read: each {@link Difference} holds the original and new values
+ * themselves, and the original value is turned into a string the first time it is read through
+ * {@link #get(Object)}, the entries, or {@link Difference#getValue()}, then kept.  Looking at the keys,
+ * the size, or the values held by the differences renders nothing, so a costly <code>toString()</code> is
+ * only paid for the values actually read.  Values are rendered by the {@link DataFormatter} registered for
+ * the data type of their {@link DiffField}, if any, else by the one registered for their class or its
+ * closest superclass, else by their <code>toString()</code>.  A <code>null</code> value is rendered as an
+ * empty string.
+ * <p/>
+ * Objects are tracked by identity: a {@link Diffable} object, iterable or map found again once compared, with
+ * the same counterpart, is not compared again.  If it had any differences, its key is mapped to the key where
+ * it was first found instead.  Cycles are cut without adding anything.
+ * <p/>
+ * Since values are rendered late, they must not be modified until they are read.  A result can be read
+ * from several threads, a value then possibly being rendered more than once.
+ *
+ * @author ttchiwandire@gmail.com
+ * @see DiffEngine#calculate(String, Object, Object)
+ * @see DataFormatter
+ */
+public final class DiffResult extends AbstractMap<String, String> {
+    /**
+     * A single difference: its key, and the original and new values found there.
+     */
+    public static final class Difference implements Map.Entry<String, String> {
+        private final String path;
+        private final Object original;
+        private final Object current;
+        private final DataFormatter<Object> formatter;
+        private String value;
+
+        Difference(String path, Object original, Object current, DataFormatter<Object> formatter) {
+            this.path = path;
+            this.original = original;
+            this.current = current;
+            this.formatter = formatter;
+        }
+
+        private Difference(String path, String value) {
+            this(path, value, null, null);
+            this.value = value;
+        }
+
+        /**
+         * @return the key of the difference, made of the tag followed by field names, indexes and map keys
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the original value, the original item count for <code>count</code> keys, or
+         *         <code>null</code> if there was none
+         */
+        public Object getOriginal() {
+            return original;
+        }
+
+        /**
+         * @return the new value, the new item count for <code>count</code> keys, or <code>null</code> if
+         *         there is none
+         */
+        public Object getCurrent() {
+            return current;
+        }
+
+        @Override
+        public String getKey() {
+            return path;
+        }
+
+        /**
+         * @return the original value rendered as a string, rendering it on first call
+         */
+        @Override
+        public String getValue() {
+            String rendered = value;
+            if (rendered == null) {
+                rendered = original == null ? "" : formatter != null ? formatter.format(original) : original.toString();
+                value = rendered;
+            }
+            return rendered;
+        }
+
+        @Override
+        public String setValue(String value) {
+            throw new UnsupportedOperationException("Differences can't be modified.");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return path.equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return path + "=" + getValue();
+        }
+    }
+
+    /**
+     * The formatters registered by class when the calculation started.  Never modified.
+     */
+    private final Map<Class<?>, DataFormatter<Object>> formatters;
+    private final TreeMap<String, Difference> differences = new TreeMap<>();
+    private Set<Map.Entry<String, String>> entries;
+
+    DiffResult(Map<Class<?>, DataFormatter<Object>> formatters) {
+        this.formatters = formatters;
+    }
+
+    /**
+     * Adds a difference, replacing any difference with the same key.
+     *
+     * @param formatter the formatter of the field the value was found in, or <code>null</code> to render the
+     *                  value with the formatter registered for its class, if any
+     */
+    void add(String path, Object original, Object current, DataFormatter<Object> formatter) {
+        if (formatter == null && original != null && !formatters.isEmpty())
+            formatter = getFormatter(original.getClass());
+        differences.put(path, new Difference(path, original, current, formatter));
+    }
+
+    /**
+     * Adds a pair of objects found again once compared, with the key where it was first found as its value.
+     */
+    void sameAs(String path, String earlier, Object original, Object current) {
+        Difference difference = new Difference(path, original, current, null);
+        difference.value = earlier;
+        differences.put(path, difference);
+    }
+
+    private DataFormatter<Object> getFormatter(Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            DataFormatter<Object> formatter = formatters.get(c);
+            if (formatter != null)
+                return formatter;
+        }
+        return null;
+    }
+
+    /**
+     * @param path the key of a difference
+     * @return the difference, or <code>null</code> if there is none with that key
+     */
+    public Difference getDifference(String path) {
+        return differences.get(path);
+    }
+
+    /**
+     * @return the differences, sorted by key, none of them rendered
+     */
+    public Collection<Difference> getDifferences() {
+        return Collections.unmodifiableCollection(differences.values());
+    }
+
+    @Override
+    public int size() {
+        return differences.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return differences.containsKey(key);
+    }
+
+    @Override
+    public String get(Object key) {
+        Difference difference = differences.get(key);
+        return difference == null ? null : difference.getValue();
+    }
+
+    /**
+     * Adds a difference that is already rendered.
+     *
+     * @return the previous value for that key, or <code>null</code> if there was none
+     */
+    @Override
+    public String put(String key, String value) {
+        Difference previous = differences.put(key, new Difference(key, value));
+        return previous == null ? null : previous.getValue();
+    }
+
+    @Override
+    public String remove(Object key) {
+        Difference previous = differences.remove(key);
+        return previous == null ? null : previous.getValue();
+    }
+
+    @Override
+    public void clear() {
+        differences.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        if (entries == null) {
+            entries = new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    Iterator<Difference> iterator = differences.values().iterator();
+                    return new Iterator<Map.Entry<String, String>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            return iterator.next();
+                        }
+
+                        @Override
+                        public void remove() {
+                            iterator.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return differences.size();
+                }
+            };
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,154 @@
+package com.perago.test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Reads the value of a field, either through its getter or directly.
+ * <p/>
+ * The getter is looked up once, when the accessor is created, following the same conventions as
+ * {@link DiffUtils#getValueForField(Field, Object)}, and compiled into a {@link MethodHandle}.
+ * Reading a value is then a direct handle invocation, with no method lookup and no exceptions
+ * thrown for fields that simply have no getter.
+ * <p/>
+ * Fields read as primitives also get a handle comparing their values on two objects at their own
+ * type, so that equal values are never boxed.
+ *
+ * @author ttchiwandire@gmail.com
+ * @see FieldDescriptor
+ */
+final class FieldAccessor {
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final MethodHandle handle;
+    private final MethodHandle primitiveEquals;
+    private final IllegalAccessException accessError;
+
+    private FieldAccessor(MethodHandle handle, MethodHandle primitiveEquals, IllegalAccessException accessError) {
+        this.handle = handle;
+        this.primitiveEquals = primitiveEquals;
+        this.accessError = accessError;
+    }
+
+    /**
+     * Creates the accessor for a field as seen from a given class.
+     * <p/>
+     * If neither the getter nor the field is accessible, the resulting accessor fails every read
+     * with the same {@link IllegalAccessException} that reflective access would have thrown.
+     *
+     * @param objectClass the (runtime) class of the objects the field will be read from
+     * @param field       the field to read
+     * @return an accessor that uses the field's getter if there is one, or the field itself otherwise
+     */
+    static FieldAccessor forField(Class<?> objectClass, Field field) {
+        Method getter = DiffUtils.findGetter(objectClass, field);
+        try {
+            MethodHandle handle = getter != null ? lookup.unreflect(getter) : lookup.unreflectGetter(field);
+            return new FieldAccessor(handle.asType(GETTER_TYPE), primitiveEquals(handle), null);
+        } catch (IllegalAccessException e) {
+            return new FieldAccessor(null, null, e);
+        }
+    }
+
+    /**
+     * Combines a getter handle returning a primitive with the matching <code>equal()</code> method below.
+     *
+     * @return a <code>(Object, Object)boolean</code> handle, or <code>null</code> if the getter does not
+     *         return a primitive
+     */
+    private static MethodHandle primitiveEquals(MethodHandle getter) throws IllegalAccessException {
+        Class<?> type = getter.type().returnType();
+        if (!type.isPrimitive() || type == void.class)
+            return null;
+        MethodHandle read = getter.asType(MethodType.methodType(type, Object.class));
+        try {
+            MethodHandle equal = lookup.findStatic(FieldAccessor.class, "equal", MethodType.methodType(boolean.class, type, type));
+            return MethodHandles.filterArguments(equal, 0, read, read);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the value of the field on an object.
+     *
+     * @param object the object on which to access the field
+     * @return the value of the field on that object
+     * @throws IllegalAccessException    if the field or its getter is not accessible
+     * @throws InvocationTargetException if the getter method throws an exception
+     */
+    /**
+     * @return whether this accessor can compare the field on two objects without boxing its value
+     * @see #primitiveEquals(Object, Object)
+     */
+    boolean comparesPrimitives() {
+        return primitiveEquals != null;
+    }
+
+    /**
+     * Compares the (primitive) field on two objects without boxing it.  Only valid if
+     * {@link #comparesPrimitives()} returns <code>true</code>.
+     *
+     * @param original the original object
+     * @param current  the new object
+     * @return whether the field has the same value on both objects; <code>false</code> if the getter
+     *         throws an exception, which {@link #get(Object)} then reports
+     */
+    boolean primitiveEquals(Object original, Object current) {
+        try {
+            return (boolean) primitiveEquals.invokeExact(original, current);
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    Object get(Object object) throws IllegalAccessException, InvocationTargetException {
+        if (handle == null)
+            throw accessError;
+        try {
+            return handle.invokeExact(object);
+        } catch (Throwable t) {
+            // Report anything thrown by a getter the way Method.invoke() would.
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    // Primitive equality, as the equals() of the wrapper types defines it.
+
+    private static boolean equal(int a, int b) {
+        return a == b;
+    }
+
+    private static boolean equal(long a, long b) {
+        return a == b;
+    }
+
+    private static boolean equal(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
+    private static boolean equal(float a, float b) {
+        return Float.floatToIntBits(a) == Float.floatToIntBits(b);
+    }
+
+    private static boolean equal(boolean a, boolean b) {
+        return a == b;
+    }
+
+    private static boolean equal(char a, char b) {
+        return a == b;
+    }
+
+    private static boolean equal(short a, short b) {
+        return a == b;
+    }
+
+    private static boolean equal(byte a, byte b) {
+        return a == b;
+    }
+}
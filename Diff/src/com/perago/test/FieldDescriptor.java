@@ -0,0 +1,77 @@
+package com.perago.test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Cached metadata for a single {@link DiffField}-annotated field.
+ *
+ * @author ttchiwandire@gmail.com
+ * @see ClassDescriptor
+ */
+class FieldDescriptor {
+    private final Field field;
+    private final String name;
+    private final String dataType;
+    private final FieldAccessor accessor;
+    private final FieldWriter writer;
+
+    FieldDescriptor(Class<?> objectClass, Field field, String dataType) {
+        this.field = field;
+        this.name = field.getName().intern();
+        this.dataType = dataType;
+        this.accessor = FieldAccessor.forField(objectClass, field);
+        this.writer = FieldWriter.forField(objectClass, field);
+    }
+
+    Field getField() {
+        return field;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Reads the value of this field on an object.
+     *
+     * @param object the object on which to access the field
+     * @return the value of the field on that object
+     * @throws IllegalAccessException    if the field or its getter is not accessible
+     * @throws InvocationTargetException if the getter method throws an exception
+     * @see FieldAccessor
+     */
+    Object getValue(Object object) throws IllegalAccessException, InvocationTargetException {
+        return accessor.get(object);
+    }
+
+    /**
+     * Checks whether this field has the same value on two objects, if that can be done without
+     * reading (and boxing) the values.
+     *
+     * @param original the original object
+     * @param current  the new object
+     * @return <code>true</code> if the field is known to be equal on both objects, <code>false</code> if it
+     *         differs or could not be compared this way
+     */
+    boolean isKnownEqual(Object original, Object current) {
+        return accessor.comparesPrimitives() && accessor.primitiveEquals(original, current);
+    }
+
+    /**
+     * Writes the value of this field on an object.
+     *
+     * @param object the object on which to write the field
+     * @param value  the new value of the field
+     * @throws IllegalAccessException    if the field or its setter is not accessible
+     * @throws InvocationTargetException if the setter method throws an exception
+     * @see FieldWriter
+     */
+    void setValue(Object object, Object value) throws IllegalAccessException, InvocationTargetException {
+        writer.set(object, value);
+    }
+}
@@ -0,0 +1,71 @@
+package com.perago.test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Writes the value of a field, either through its setter or directly.
+ * <p/>
+ * The counterpart of {@link FieldAccessor}: the setter is looked up once, when the writer is created
+ * (see {@link DiffUtils#findSetter(Class, Field)}), and compiled into a {@link MethodHandle}, falling
+ * back to a handle writing the field itself.
+ *
+ * @author ttchiwandire@gmail.com
+ * @see FieldDescriptor
+ */
+final class FieldWriter {
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final MethodHandle handle;
+    private final IllegalAccessException accessError;
+
+    private FieldWriter(MethodHandle handle, IllegalAccessException accessError) {
+        this.handle = handle;
+        this.accessError = accessError;
+    }
+
+    /**
+     * Creates the writer for a field as seen from a given class.
+     * <p/>
+     * If neither the setter nor the field is accessible, or the field is final and has no setter, the
+     * resulting writer fails every write with the {@link IllegalAccessException} reflective access would
+     * have thrown.
+     *
+     * @param objectClass the (runtime) class of the objects the field will be written to
+     * @param field       the field to write
+     * @return a writer that uses the field's setter if there is one, or the field itself otherwise
+     */
+    static FieldWriter forField(Class<?> objectClass, Field field) {
+        Method setter = DiffUtils.findSetter(objectClass, field);
+        try {
+            MethodHandle handle = setter != null ? lookup.unreflect(setter) : lookup.unreflectSetter(field);
+            return new FieldWriter(handle.asType(SETTER_TYPE), null);
+        } catch (IllegalAccessException e) {
+            return new FieldWriter(null, e);
+        }
+    }
+
+    /**
+     * Writes the value of the field on an object.
+     *
+     * @param object the object on which to write the field
+     * @param value  the new value of the field
+     * @throws IllegalAccessException    if the field or its setter is not accessible
+     * @throws InvocationTargetException if the setter method throws an exception, or the value is not
+     *                                   of the type of the field
+     */
+    void set(Object object, Object value) throws IllegalAccessException, InvocationTargetException {
+        if (handle == null)
+            throw accessError;
+        try {
+            handle.invokeExact(object, value);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+}
@@ -26,7 +26,7 @@ public class Test {
 		System.out.println("simpleTest Diff");
 		printDiff(diff);
 	
-		//a = de.apply(a, diff);
+		a = de.apply(a, de.calculateDiff(a, b));
 	
         System.out.println("a == b : " + a.equals(b));
 	}
@@ -0,0 +1,176 @@
+package com.perago.test;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Applies the diffs calculated by {@link DiffEngine#calculateDiff(Object, Object)} with
+ * {@link DiffEngine#apply(Object, Diff)}.
+ *
+ * @author ttchiwandire@gmail.com
+ */
+public class DiffTest {
+    @Diffable
+    public static class Bag implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @DiffField
+        public List<Object> items = new ArrayList<>();
+        @DiffField
+        public Map<String, Object> byKey = new LinkedHashMap<>();
+        @DiffField
+        public int count;
+        @DiffField
+        public Person owner;
+        @DiffField
+        public Set<String> tags = new HashSet<>();
+        @DiffField
+        public int[] sizes = {1, 2};
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Bag))
+                return false;
+            Bag bag = (Bag) o;
+            return items.equals(bag.items) && byKey.equals(bag.byKey) && count == bag.count
+                    && Objects.equals(owner, bag.owner) && tags.equals(bag.tags) && Arrays.equals(sizes, bag.sizes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(items, byKey, count, owner, tags);
+        }
+
+        @Override
+        public String toString() {
+            return "Bag" + items + byKey + count + owner + tags + Arrays.toString(sizes);
+        }
+    }
+
+    private final DiffEngine engine = new DiffEngine();
+
+    private static Person person(String name, String surname) {
+        Person person = new Person();
+        person.setName(name);
+        person.setSurname(surname);
+        return person;
+    }
+
+    /**
+     * Builds a bag whose content depends on <code>n</code>, each value of <code>n</code> giving a different bag.
+     */
+    private static Bag bag(int n) {
+        Bag bag = new Bag();
+        bag.count = n;
+        for (int i = 0; i < n; i++)
+            bag.items.add("item" + i);
+        if (n > 2)
+            bag.items.add(person("person" + n, null));
+        bag.byKey.put("key" + n, n);
+        bag.byKey.put("shared", "value");
+        if (n % 2 == 0) {
+            bag.owner = person("owner" + n, null);
+            bag.owner.setFriend(person(null, "friend" + n));
+        }
+        bag.tags.add("tag" + n);
+        bag.sizes = new int[]{n};
+        return bag;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T serialize(T object) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+    @Test
+    public void turnsTheOriginalIntoTheCurrentObject() {
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                Diff diff = engine.calculateDiff(bag(x), bag(y));
+                Bag target = bag(x);
+                assertSame(target, engine.apply(target, diff));
+                assertEquals(x + " -> " + y + ": " + diff, bag(y), target);
+            }
+        }
+    }
+
+    @Test
+    public void appliesSerializedDiffsToCopies() throws Exception {
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                Diff diff = serialize(engine.calculateDiff(bag(x), bag(y)));
+                assertEquals(x + " -> " + y + ": " + diff, bag(y), engine.apply(serialize(bag(x)), diff));
+            }
+        }
+    }
+
+    @Test
+    public void findsNoChangesBetweenEqualObjects() {
+        for (int n = 0; n < 8; n++) {
+            Diff diff = engine.calculateDiff(bag(n), bag(n));
+            assertTrue(diff.toString(), diff.isEmpty());
+            assertEquals(0, diff.size());
+        }
+    }
+
+    @Test
+    public void ordersTheChangesOfListsAndMaps() {
+        Bag original = bag(1);
+        Bag current = bag(1);
+        current.items.add(0, "first");
+        current.items.remove("item0");
+        current.byKey.remove("shared");
+        current.byKey.put("added", "value");
+
+        Diff diff = engine.calculateDiff(original, current);
+        List<String> changes = new ArrayList<>();
+        for (Diff.Change change : diff)
+            changes.add(change.toString());
+        assertEquals(Arrays.asList("SET items.idx1: item0 -> first", "REMOVE byKey.shared: value -> null",
+                "ADD byKey.added: null -> value"), changes);
+        assertEquals(current, engine.apply(original, diff));
+    }
+
+    @Test
+    public void replacesTheWholeObject() {
+        assertEquals("b", engine.apply("a", engine.calculateDiff("a", "b")));
+        assertEquals(bag(3), engine.apply((Bag) null, engine.calculateDiff(null, bag(3))));
+        assertEquals(null, engine.apply(bag(3), engine.calculateDiff(bag(3), null)));
+    }
+
+    @Test
+    public void rejectsATargetWithoutThePathsOfTheDiff() {
+        Diff diff = engine.calculateDiff(bag(4), bag(5));
+        try {
+            engine.apply(new Bag(), diff);
+            fail("Applied " + diff + " to an empty bag");
+        } catch (IllegalArgumentException e) {
+            assertEquals("No item at \"items.idx5\", the list has 0 items.", e.getMessage());
+        }
+    }
+}
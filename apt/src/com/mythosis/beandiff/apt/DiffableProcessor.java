@@ -0,0 +1,455 @@
+package com.mythosis.beandiff.apt;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Generates a <code>com.mythosis.beandiff.BeanAccessor</code> for every concrete class annotated (directly
+ * or by inheritance) with <code>@Diffable</code>.
+ * <p/>
+ * The generated class lives in the same package as the bean, is named after the bean's binary name with
+ * a <code>$$BeanAccessor</code> suffix, and is picked up by <code>DiffGenerator</code> at runtime.  It reads
+ * each <code>@DiffField</code> field through its getter, or directly if there is no getter, exactly like
+ * the reflective code would, and compares primitive fields without boxing them.  The generated class is
+ * only an accessor, replacing reflective reads: the diff itself is still done by <code>DiffGenerator</code>.
+ * <p/>
+ * To keep the results identical to reflective diffing, a field is only included if reflection could
+ * access it as well, that is if its getter (or the field itself, when there is no getter) is public and
+ * declared in a public class.  Other fields are left out of the generated accessor, and are handled
+ * reflectively at runtime.  Classes that generated code cannot reference at all, such as private nested
+ * classes, get no accessor.
+ * <p/>
+ * Classes annotated directly with <code>@Diffable(tracked = true)</code> also get a subclass named with a
+ * <code>$$Tracked</code> suffix, for <code>com.mythosis.beandiff.ChangeTracker</code>: it overrides the
+ * setter of each <code>@DiffField</code> field to tell its tracker before the field is written.
+ *
+ * @author tonior@gmail.com
+ */
+@SupportedAnnotationTypes(DiffableProcessor.DIFFABLE)
+public class DiffableProcessor extends AbstractProcessor {
+    static final String DIFFABLE = "com.mythosis.beandiff.Diffable";
+    static final String DIFF_FIELD = "com.mythosis.beandiff.DiffField";
+    static final String BEAN_ACCESSOR = "com.mythosis.beandiff.BeanAccessor";
+    static final String BEAN_ACCESSOR_SUFFIX = "$$BeanAccessor";
+    static final String CHANGE_TRACKER = "com.mythosis.beandiff.ChangeTracker";
+    static final String TRACKED_SUFFIX = "$$Tracked";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement diffable = processingEnv.getElementUtils().getTypeElement(DIFFABLE);
+        if (diffable == null)
+            return false;
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(diffable))) {
+            if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT))
+                continue;
+            if (!isReferenceable(type)) {
+                note("Not generating a BeanAccessor for " + type + ", it is not accessible from its package.", type);
+                continue;
+            }
+            try {
+                generateAccessor(type);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Could not generate BeanAccessor for " + type + ": " + e, type);
+            }
+            if (isTracked(type, diffable) && canSubclass(type)) {
+                try {
+                    generateTracked(type);
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Could not generate tracked subclass for " + type + ": " + e, type);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether code in the same package can refer to a type: it must be a top-level or member class,
+     * with no private class in its nesting.
+     */
+    private boolean isReferenceable(TypeElement type) {
+        for (Element e = type; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            if (!(e instanceof TypeElement))
+                return false;
+            NestingKind nesting = ((TypeElement) e).getNestingKind();
+            if (nesting != NestingKind.TOP_LEVEL && nesting != NestingKind.MEMBER)
+                return false;
+            if (e.getModifiers().contains(Modifier.PRIVATE))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a class is annotated directly with <code>@Diffable(tracked = true)</code>.
+     */
+    private boolean isTracked(TypeElement type, TypeElement diffable) {
+        for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+            if (!mirror.getAnnotationType().asElement().equals(diffable))
+                continue;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("tracked"))
+                    return Boolean.TRUE.equals(entry.getValue().getValue());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether generated code in the same package can subclass a class, with its no-argument constructor.
+     */
+    private boolean canSubclass(TypeElement type) {
+        if (type.getModifiers().contains(Modifier.FINAL)) {
+            note("Not generating a tracked subclass for " + type + ", it is final.", type);
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+            note("Not generating a tracked subclass for " + type + ", it is an inner class.", type);
+            return false;
+        }
+        if (noArgConstructor(type) == null) {
+            note("Not generating a tracked subclass for " + type + ", it has no accessible no-argument constructor.", type);
+            return false;
+        }
+        return true;
+    }
+
+    private ExecutableElement noArgConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))
+                return constructor;
+        }
+        return null;
+    }
+
+    private void generateAccessor(TypeElement type) throws IOException {
+        List<FieldAccess> fields = collectFields(type);
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = (packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1))
+                + BEAN_ACCESSOR_SUFFIX;
+        String qualifiedName = packageName.length() == 0 ? simpleName : packageName + "." + simpleName;
+        String beanType = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+        PrintWriter out = new PrintWriter(file.openWriter());
+        try {
+            if (packageName.length() > 0) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Generated by " + DiffableProcessor.class.getName() + " for {@link " + beanType + "}.  Do not edit.");
+            out.println(" */");
+            out.println("@SuppressWarnings({\"rawtypes\", \"unchecked\"})");
+            out.println("public final class " + simpleName + " implements " + BEAN_ACCESSOR + "<" + beanType + "> {");
+
+            out.print("    private static final String[] FIELD_NAMES = {");
+            for (int i = 0; i < fields.size(); i++)
+                out.print((i > 0 ? ", " : "") + "\"" + fields.get(i).name + "\"");
+            out.println("};");
+            out.print("    private static final boolean[] PRIMITIVE_FIELDS = {");
+            for (int i = 0; i < fields.size(); i++)
+                out.print((i > 0 ? ", " : "") + (fields.get(i).primitive != null));
+            out.println("};");
+            out.println();
+
+            out.println("    public String[] getFieldNames() {");
+            out.println("        return FIELD_NAMES.clone();");
+            out.println("    }");
+            out.println();
+            out.println("    public boolean[] getPrimitiveFields() {");
+            out.println("        return PRIMITIVE_FIELDS.clone();");
+            out.println("    }");
+            out.println();
+
+            out.println("    public Object getValue(" + beanType + " object, int index) {");
+            out.println("        switch (index) {");
+            for (int i = 0; i < fields.size(); i++)
+                out.println("            case " + i + ": return " + fields.get(i).expression("object") + ";");
+            out.println("            default: throw new IndexOutOfBoundsException(String.valueOf(index));");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+
+            out.println("    public boolean primitiveEquals(" + beanType + " original, " + beanType + " current, int index) {");
+            out.println("        switch (index) {");
+            for (int i = 0; i < fields.size(); i++) {
+                FieldAccess field = fields.get(i);
+                if (field.primitive != null)
+                    out.println("            case " + i + ": return " + field.primitiveEquals("original", "current") + ";");
+            }
+            out.println("            default: throw new IllegalArgumentException(\"Not a primitive field: \" + index);");
+            out.println("        }");
+            out.println("    }");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private void generateTracked(TypeElement type) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = (packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1))
+                + TRACKED_SUFFIX;
+        String qualifiedName = packageName.length() == 0 ? simpleName : packageName + "." + simpleName;
+        String beanType = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+        PrintWriter out = new PrintWriter(file.openWriter());
+        try {
+            if (packageName.length() > 0) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Generated by " + DiffableProcessor.class.getName() + " for {@link " + beanType + "}.  Do not edit.");
+            out.println(" */");
+            out.println("@SuppressWarnings({\"rawtypes\", \"unchecked\"})");
+            out.println("public class " + simpleName + " extends " + beanType
+                    + " implements " + CHANGE_TRACKER + ".Tracked {");
+            out.println("    private final transient " + CHANGE_TRACKER + " changeTracker;");
+            out.println();
+            out.println("    public " + simpleName + "(" + CHANGE_TRACKER + " changeTracker)"
+                    + throwsClause(noArgConstructor(type)) + " {");
+            out.println("        this.changeTracker = changeTracker;");
+            out.println("    }");
+            out.println();
+            out.println("    public " + CHANGE_TRACKER + " getChangeTracker() {");
+            out.println("        return changeTracker;");
+            out.println("    }");
+
+            DeclaredType declaredType = (DeclaredType) type.asType();
+            for (Map.Entry<String, ExecutableElement> entry : collectSetters(type).entrySet()) {
+                ExecutableElement setter = entry.getValue();
+                ExecutableType setterType = (ExecutableType) processingEnv.getTypeUtils().asMemberOf(declaredType, setter);
+                String returnType = processingEnv.getTypeUtils().erasure(setterType.getReturnType()).toString();
+                String parameterType = processingEnv.getTypeUtils().erasure(setterType.getParameterTypes().get(0)).toString();
+                String visibility = setter.getModifiers().contains(Modifier.PUBLIC) ? "public " : "protected ";
+                out.println();
+                out.println("    " + visibility + returnType + " " + setter.getSimpleName() + "(" + parameterType + " value)"
+                        + throwsClause(setter) + " {");
+                // The tracker is not known yet while the superclass constructor runs.
+                out.println("        if (changeTracker != null)");
+                out.println("            changeTracker.writing(this, \"" + entry.getKey() + "\");");
+                out.println("        " + (setterType.getReturnType().getKind() == TypeKind.VOID ? "" : "return ")
+                        + "super." + setter.getSimpleName() + "(value);");
+                out.println("    }");
+            }
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Finds the setters of the <code>@DiffField</code> fields of a class and its superclasses that a subclass
+     * can override: public or protected, neither static nor final, taking a single parameter.
+     *
+     * @return the setters, by field name
+     */
+    private Map<String, ExecutableElement> collectSetters(TypeElement type) {
+        TypeElement diffField = processingEnv.getElementUtils().getTypeElement(DIFF_FIELD);
+        List<ExecutableElement> methods = ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type));
+
+        Map<String, ExecutableElement> setters = new LinkedHashMap<String, ExecutableElement>();
+        for (TypeElement c = type; c != null; c = superclassOf(c)) {
+            for (VariableElement field : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+                String name = field.getSimpleName().toString();
+                if (!isAnnotated(field, diffField) || setters.containsKey(name))
+                    continue;
+                String setterName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+                for (ExecutableElement method : methods) {
+                    Set<Modifier> modifiers = method.getModifiers();
+                    if (method.getSimpleName().contentEquals(setterName) && method.getParameters().size() == 1
+                            && (modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.PROTECTED))
+                            && !modifiers.contains(Modifier.STATIC) && !modifiers.contains(Modifier.FINAL)) {
+                        setters.put(name, method);
+                        break;
+                    }
+                }
+                if (!setters.containsKey(name))
+                    note("Field " + c + "." + name + " has no setter that can be overridden, writes to it will not be tracked.", field);
+            }
+        }
+        return setters;
+    }
+
+    private String throwsClause(ExecutableElement method) {
+        StringBuilder clause = new StringBuilder();
+        for (TypeMirror thrown : method.getThrownTypes())
+            clause.append(clause.length() == 0 ? " throws " : ", ").append(processingEnv.getTypeUtils().erasure(thrown));
+        return clause.toString();
+    }
+
+    /**
+     * Collects the <code>@DiffField</code> fields of a class and its superclasses that generated code can
+     * read the same way reflection would.  Fields whose name is shadowed by another <code>@DiffField</code>
+     * field in the hierarchy are left out, since the runtime matches fields by name.
+     */
+    private List<FieldAccess> collectFields(TypeElement type) {
+        TypeElement diffField = processingEnv.getElementUtils().getTypeElement(DIFF_FIELD);
+        List<ExecutableElement> methods = ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type));
+
+        Map<String, FieldAccess> byName = new LinkedHashMap<String, FieldAccess>();
+        Set<String> duplicates = new HashSet<String>();
+        for (TypeElement c = type; c != null; c = superclassOf(c)) {
+            for (VariableElement field : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+                if (!isAnnotated(field, diffField))
+                    continue;
+                String name = field.getSimpleName().toString();
+                if (byName.containsKey(name) || duplicates.contains(name)) {
+                    byName.remove(name);
+                    duplicates.add(name);
+                    continue;
+                }
+                FieldAccess access = accessFor(type, c, field, methods);
+                if (access == null) {
+                    note("Field " + c + "." + name + " is not publicly accessible, it will be read reflectively.", field);
+                    duplicates.add(name);
+                    continue;
+                }
+                byName.put(name, access);
+            }
+        }
+        return new ArrayList<FieldAccess>(byName.values());
+    }
+
+    private FieldAccess accessFor(TypeElement type, TypeElement declaringClass, VariableElement field,
+                                  List<ExecutableElement> methods) {
+        String name = field.getSimpleName().toString();
+        String tail = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        TypeMirror fieldType = field.asType();
+
+        ExecutableElement getter = null;
+        if (fieldType.getKind() == TypeKind.BOOLEAN || isType(fieldType, "java.lang.Boolean"))
+            getter = findGetter(methods, "is" + tail);
+        if (getter == null)
+            getter = findGetter(methods, "get" + tail);
+
+        if (getter != null) {
+            TypeElement owner = (TypeElement) getter.getEnclosingElement();
+            if (!owner.getModifiers().contains(Modifier.PUBLIC))
+                return null;
+            TypeKind primitive = fieldType.getKind().isPrimitive() && getter.getReturnType().getKind() == fieldType.getKind()
+                    ? fieldType.getKind() : null;
+            String target = getter.getModifiers().contains(Modifier.STATIC)
+                    ? processingEnv.getTypeUtils().erasure(owner.asType()).toString()
+                    : null;
+            return new FieldAccess(name, primitive, target, getter.getSimpleName() + "()");
+        }
+
+        if (!field.getModifiers().contains(Modifier.PUBLIC) || !declaringClass.getModifiers().contains(Modifier.PUBLIC))
+            return null;
+        TypeKind primitive = fieldType.getKind().isPrimitive() ? fieldType.getKind() : null;
+        String owner = processingEnv.getTypeUtils().erasure(declaringClass.asType()).toString();
+        String target = field.getModifiers().contains(Modifier.STATIC) ? owner : null;
+        // Cast inherited fields to their declaring class, so that a field of the same name in a subclass
+        // cannot shadow them.
+        return new FieldAccess(name, primitive, target, name, declaringClass.equals(type) ? null : owner);
+    }
+
+    /**
+     * Finds a public, no-argument method, as <code>Class.getMethod()</code> would.
+     */
+    private ExecutableElement findGetter(List<ExecutableElement> methods, String name) {
+        for (ExecutableElement method : methods) {
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().isEmpty()
+                    && method.getModifiers().contains(Modifier.PUBLIC))
+                return method;
+        }
+        return null;
+    }
+
+    private TypeElement superclassOf(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED)
+            return null;
+        return (TypeElement) ((DeclaredType) superclass).asElement();
+    }
+
+    private boolean isAnnotated(Element element, TypeElement annotation) {
+        if (annotation == null)
+            return false;
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (mirror.getAnnotationType().asElement().equals(annotation))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isType(TypeMirror type, String name) {
+        return type.getKind() == TypeKind.DECLARED
+                && ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().contentEquals(name);
+    }
+
+    private void note(String message, Element element) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
+
+    /**
+     * How generated code reads one field.
+     */
+    private static class FieldAccess {
+        final String name;
+        final TypeKind primitive;
+        final String staticOwner;
+        final String member;
+        final String castTo;
+
+        FieldAccess(String name, TypeKind primitive, String staticOwner, String member) {
+            this(name, primitive, staticOwner, member, null);
+        }
+
+        FieldAccess(String name, TypeKind primitive, String staticOwner, String member, String castTo) {
+            this.name = name;
+            this.primitive = primitive;
+            this.staticOwner = staticOwner;
+            this.member = member;
+            this.castTo = castTo;
+        }
+
+        String expression(String object) {
+            if (staticOwner != null)
+                return staticOwner + "." + member;
+            if (castTo != null)
+                return "((" + castTo + ") " + object + ")." + member;
+            return object + "." + member;
+        }
+
+        String primitiveEquals(String original, String current) {
+            String o = expression(original);
+            String c = expression(current);
+            switch (primitive) {
+                case FLOAT:
+                    return "Float.floatToIntBits(" + o + ") == Float.floatToIntBits(" + c + ")";
+                case DOUBLE:
+                    return "Double.doubleToLongBits(" + o + ") == Double.doubleToLongBits(" + c + ")";
+                default:
+                    return o + " == " + c;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.mythosis.beandiff.bench;
+
+/**
+ * How much the new graph of a benchmark differs from the original one.
+ *
+ * @author tonior@gmail.com
+ */
+public enum Change {
+    /**
+     * One leaf value in a hundred changed: the usual update of a large entity.
+     */
+    MOSTLY_EQUAL(0.01),
+    /**
+     * Nine leaf values in ten changed.
+     */
+    MOSTLY_DIFFERENT(0.9);
+
+    private final double rate;
+
+    Change(double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * @return the share of leaf values changed
+     */
+    public double getRate() {
+        return rate;
+    }
+}
@@ -0,0 +1,75 @@
+package com.mythosis.beandiff.bench;
+
+import com.mythosis.beandiff.DiffGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the public entry points of {@link DiffGenerator} on every {@link Workload}, with mostly equal
+ * and mostly different inputs.
+ * <p/>
+ * Each benchmark is measured both for throughput and for the distribution of single call times (from which
+ * JMH reports percentiles); <code>ant bench</code> adds the GC profiler, reporting the allocation rate.
+ *
+ * @author tonior@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DiffBenchmark {
+    @Param
+    public Workload workload;
+
+    @Param
+    public Change change;
+
+    private DiffGenerator generator;
+    private Object original;
+    private Object current;
+
+    @Setup
+    public void setUp() {
+        generator = workload.newGenerator(0);
+        original = workload.createOriginal();
+        current = workload.createCurrent(change.getRate());
+    }
+
+    /**
+     * A full diff, collecting every difference into a map.
+     */
+    @Benchmark
+    public Map<String, String> diff() {
+        return generator.diff("bench", original, current);
+    }
+
+    /**
+     * A diff stopping at the first difference.
+     */
+    @Benchmark
+    public boolean hasDifferences() {
+        return generator.hasDifferences(original, current);
+    }
+
+    /**
+     * The rendering of a whole graph, as done for removed objects.
+     */
+    @Benchmark
+    public Map<String, String> resolveObject() {
+        return generator.resolveObject("bench", original);
+    }
+}
@@ -0,0 +1,164 @@
+package com.mythosis.beandiff.bench;
+
+import com.mythosis.beandiff.DiffField;
+import com.mythosis.beandiff.Diffable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The beans diffed by the benchmarks.  Member classes are public, so that the annotation processor
+ * generates a <code>BeanAccessor</code> for each of them, as it would for application beans.
+ *
+ * @author tonior@gmail.com
+ */
+public class Model {
+    private Model() {
+    }
+
+    /**
+     * A bean with only leaf fields.
+     */
+    @Diffable
+    public static class Flat {
+        @DiffField
+        public int id;
+        @DiffField
+        public long version;
+        @DiffField
+        public boolean active;
+        @DiffField
+        public double amount;
+        @DiffField
+        public String name;
+        @DiffField
+        public String email;
+        @DiffField
+        public String city;
+        @DiffField
+        public Integer rank;
+        @DiffField
+        public Status status;
+        @DiffField
+        public String note;
+    }
+
+    public enum Status {
+        NEW, OPEN, CLOSED
+    }
+
+    /**
+     * A link of a long chain of nested beans.
+     */
+    @Diffable
+    public static class Node {
+        @DiffField
+        public int level;
+        @DiffField
+        public String label;
+        @DiffField
+        public Node child;
+    }
+
+    /**
+     * A bean with a large list of beans.
+     */
+    @Diffable
+    public static class Order {
+        @DiffField
+        public String reference;
+        @DiffField
+        public List<Line> lines = new ArrayList<Line>();
+    }
+
+    @Diffable
+    public static class Line {
+        @DiffField
+        public int quantity;
+        @DiffField
+        public String product;
+        @DiffField
+        public double price;
+    }
+
+    /**
+     * A bean with a large map of beans.
+     */
+    @Diffable
+    public static class Catalog {
+        @DiffField
+        public String name;
+        @DiffField
+        public Map<String, Item> items = new LinkedHashMap<String, Item>();
+    }
+
+    @Diffable
+    public static class Item {
+        @DiffField
+        public String sku;
+        @DiffField
+        public String description;
+        @DiffField
+        public int stock;
+    }
+
+    /**
+     * A person and their friends, forming a graph full of cycles.
+     */
+    @Diffable
+    public static class Person {
+        @DiffField
+        public String name;
+        @DiffField
+        public int age;
+        @DiffField
+        public List<Person> friends = new ArrayList<Person>();
+    }
+
+    /**
+     * A bean whose fields are mostly ids, compared once resolved.
+     */
+    @Diffable
+    public static class Account {
+        @DiffField
+        public int number;
+        @DiffField(Workload.CUSTOMER)
+        public Integer customerId;
+        @DiffField(Workload.BRANCH)
+        public Integer branchId;
+        @DiffField(Workload.CURRENCY)
+        public Integer currencyId;
+    }
+
+    /**
+     * What resolved ids are compared as.
+     */
+    public static class Resolved {
+        private final String type;
+        private final int id;
+
+        public Resolved(String type, int id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Resolved))
+                return false;
+            Resolved resolved = (Resolved) o;
+            return id == resolved.id && type.equals(resolved.type);
+        }
+
+        public int hashCode() {
+            return 31 * type.hashCode() + id;
+        }
+
+        public String toString() {
+            return type + "#" + id;
+        }
+    }
+}
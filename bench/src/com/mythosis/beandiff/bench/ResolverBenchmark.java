@@ -0,0 +1,121 @@
+package com.mythosis.beandiff.bench;
+
+import com.mythosis.beandiff.BatchDataResolver;
+import com.mythosis.beandiff.CachingDataResolver;
+import com.mythosis.beandiff.DataResolver;
+import com.mythosis.beandiff.DiffGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the ways of resolving data on the {@link Workload#RESOLVED} workload, each resolver call
+ * burning <code>resolverCost</code> CPU tokens to stand for a lookup.
+ *
+ * @author tonior@gmail.com
+ * @see DiffBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ResolverBenchmark {
+    /**
+     * How resolved values are reused.
+     */
+    public enum Strategy {
+        /**
+         * Every value is resolved each time it is found.
+         */
+        PLAIN,
+        /**
+         * Resolvers are wrapped in a {@link CachingDataResolver} shared by all runs.
+         */
+        SHARED_CACHE,
+        /**
+         * Each value is resolved at most once per run.
+         */
+        PER_RUN_CACHE,
+        /**
+         * Values are resolved in one batch per data type before the diff.
+         */
+        BATCH
+    }
+
+    @Param
+    public Strategy strategy;
+
+    @Param({"100", "10000"})
+    public int resolverCost;
+
+    @Param
+    public Change change;
+
+    private DiffGenerator generator;
+    private Object original;
+    private Object current;
+
+    @Setup
+    public void setUp() {
+        generator = new DiffGenerator();
+        for (String type : new String[]{Workload.CUSTOMER, Workload.BRANCH, Workload.CURRENCY}) {
+            DataResolver<Integer, Model.Resolved> resolver = new Workload.IdResolver(type, resolverCost);
+            if (strategy == Strategy.SHARED_CACHE)
+                resolver = new CachingDataResolver<Integer, Model.Resolved>(resolver, 1000);
+            else if (strategy == Strategy.BATCH)
+                resolver = new Batch(type, resolverCost);
+            generator.registerDataResolver(type, resolver);
+        }
+        generator.setCacheResolvedValues(strategy == Strategy.PER_RUN_CACHE);
+        original = Workload.RESOLVED.createOriginal();
+        current = Workload.RESOLVED.createCurrent(change.getRate());
+    }
+
+    @Benchmark
+    public Map<String, String> diff() {
+        return generator.diff("bench", original, current);
+    }
+
+    /**
+     * Resolves a whole batch for the cost of a single lookup, as a single query would.
+     */
+    private static class Batch implements BatchDataResolver<Integer, Model.Resolved> {
+        private final int cost;
+        private final DataResolver<Integer, Model.Resolved> lookup;
+        private final DataResolver<Integer, Model.Resolved> row;
+
+        Batch(String type, int cost) {
+            this.cost = cost;
+            this.lookup = new Workload.IdResolver(type, cost);
+            this.row = new Workload.IdResolver(type, 0);
+        }
+
+        public Map<Integer, Model.Resolved> resolveAll(Collection<Integer> ids) {
+            Blackhole.consumeCPU(cost);
+            Map<Integer, Model.Resolved> resolved = new HashMap<Integer, Model.Resolved>();
+            for (Integer id : ids)
+                resolved.put(id, row.resolve(id));
+            return resolved;
+        }
+
+        public Model.Resolved resolve(Integer id) {
+            return lookup.resolve(id);
+        }
+    }
+}
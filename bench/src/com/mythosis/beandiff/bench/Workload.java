@@ -0,0 +1,232 @@
+package com.mythosis.beandiff.bench;
+
+import com.mythosis.beandiff.DataResolver;
+import com.mythosis.beandiff.DiffGenerator;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The shapes of object graphs benchmarked.
+ * <p/>
+ * Each workload builds a pair of graphs with the same structure, the new one having a given share of its
+ * leaf values changed.  Graphs are built from fixed seeds, so every run of a benchmark diffs the very same
+ * objects.
+ *
+ * @author tonior@gmail.com
+ */
+public enum Workload {
+    /**
+     * A single bean with ten leaf fields, measuring the fixed cost of a diff.
+     */
+    FLAT {
+        Object create(Random structure, Mutator mutator) {
+            return flat(mutator);
+        }
+    },
+    /**
+     * A chain of 500 nested beans.
+     */
+    DEEP {
+        Object create(Random structure, Mutator mutator) {
+            Model.Node root = null;
+            for (int level = 500; level > 0; level--) {
+                Model.Node node = new Model.Node();
+                node.level = level;
+                node.label = mutator.text("node " + level);
+                node.child = root;
+                root = node;
+            }
+            return root;
+        }
+    },
+    /**
+     * A bean with a list of 10,000 beans.
+     */
+    WIDE {
+        Object create(Random structure, Mutator mutator) {
+            Model.Order order = new Model.Order();
+            order.reference = "ORD-1";
+            for (int i = 0; i < 10000; i++) {
+                Model.Line line = new Model.Line();
+                line.quantity = mutator.number(1 + i % 7);
+                line.product = mutator.text("product " + i);
+                line.price = 9.99 + i % 100;
+                order.lines.add(line);
+            }
+            return order;
+        }
+    },
+    /**
+     * A bean with a map of 10,000 beans.
+     */
+    MAP {
+        Object create(Random structure, Mutator mutator) {
+            Model.Catalog catalog = new Model.Catalog();
+            catalog.name = "catalog";
+            for (int i = 0; i < 10000; i++) {
+                Model.Item item = new Model.Item();
+                item.sku = "SKU-" + i;
+                item.description = mutator.text("item " + i);
+                item.stock = mutator.number(i % 50);
+                catalog.items.put(item.sku, item);
+            }
+            return catalog;
+        }
+    },
+    /**
+     * 200 people with 5 friends each, picked at random, full of cycles.  Diffs recurse through the whole
+     * graph depth first, so it is kept small enough for the default thread stack size.
+     */
+    CYCLIC {
+        Object create(Random structure, Mutator mutator) {
+            List<Model.Person> people = new ArrayList<Model.Person>();
+            for (int i = 0; i < 200; i++) {
+                Model.Person person = new Model.Person();
+                person.name = mutator.text("person " + i);
+                person.age = mutator.number(20 + i % 60);
+                people.add(person);
+            }
+            for (Model.Person person : people)
+                for (int i = 0; i < 5; i++)
+                    person.friends.add(people.get(structure.nextInt(people.size())));
+            return people.get(0);
+        }
+    },
+    /**
+     * 2,000 accounts, each with three ids compared once resolved, taken from small sets so that the same
+     * values are resolved over and over.
+     */
+    RESOLVED {
+        Object create(Random structure, Mutator mutator) {
+            List<Model.Account> accounts = new ArrayList<Model.Account>();
+            for (int i = 0; i < 2000; i++) {
+                Model.Account account = new Model.Account();
+                account.number = i;
+                account.customerId = mutator.number(structure.nextInt(500));
+                account.branchId = mutator.number(structure.nextInt(20));
+                account.currencyId = mutator.number(structure.nextInt(5));
+                accounts.add(account);
+            }
+            return accounts;
+        }
+
+        void configure(DiffGenerator generator, int resolverCost) {
+            generator.registerDataResolver(CUSTOMER, new IdResolver(CUSTOMER, resolverCost));
+            generator.registerDataResolver(BRANCH, new IdResolver(BRANCH, resolverCost));
+            generator.registerDataResolver(CURRENCY, new IdResolver(CURRENCY, resolverCost));
+        }
+    };
+
+    static final String CUSTOMER = "customer";
+    static final String BRANCH = "branch";
+    static final String CURRENCY = "currency";
+
+    private static final long STRUCTURE_SEED = 42;
+    private static final long CHANGE_SEED = 7;
+
+    /**
+     * Builds a graph.
+     *
+     * @param structure the source of any random choice shaping the graph
+     * @param mutator   the source of the leaf values
+     * @return the root of the graph
+     */
+    abstract Object create(Random structure, Mutator mutator);
+
+    /**
+     * Registers the resolvers the workload needs, if any.
+     *
+     * @param generator    the generator to configure
+     * @param resolverCost the work done by each resolver call, in JMH <code>consumeCPU()</code> tokens
+     */
+    void configure(DiffGenerator generator, int resolverCost) {
+    }
+
+    /**
+     * @param resolverCost the work done by each resolver call, in JMH <code>consumeCPU()</code> tokens
+     * @return a generator ready to diff this workload
+     */
+    public DiffGenerator newGenerator(int resolverCost) {
+        DiffGenerator generator = new DiffGenerator();
+        configure(generator, resolverCost);
+        return generator;
+    }
+
+    /**
+     * Builds the original graph.
+     */
+    public Object createOriginal() {
+        return create(new Random(STRUCTURE_SEED), new Mutator(0));
+    }
+
+    /**
+     * Builds the new graph, with the same structure as the original one.
+     *
+     * @param changeRate the share of leaf values to change, between 0 and 1
+     */
+    public Object createCurrent(double changeRate) {
+        return create(new Random(STRUCTURE_SEED), new Mutator(changeRate));
+    }
+
+    private static Model.Flat flat(Mutator mutator) {
+        Model.Flat flat = new Model.Flat();
+        flat.id = 1;
+        flat.version = mutator.number(3);
+        flat.active = true;
+        flat.amount = 1250.5;
+        flat.name = mutator.text("Jane Doe");
+        flat.email = mutator.text("jane@example.com");
+        flat.city = mutator.text("Cape Town");
+        flat.rank = mutator.number(12);
+        flat.status = Model.Status.OPEN;
+        flat.note = mutator.text("no note");
+        return flat;
+    }
+
+    /**
+     * Produces leaf values, changing a share of them.  Changes are drawn from a fixed seed, independent from
+     * the structure of the graph.
+     */
+    static class Mutator {
+        private final double changeRate;
+        private final Random random = new Random(CHANGE_SEED);
+
+        Mutator(double changeRate) {
+            this.changeRate = changeRate;
+        }
+
+        String text(String value) {
+            return changes() ? value + "'" : value;
+        }
+
+        int number(int value) {
+            return changes() ? value + 1 : value;
+        }
+
+        private boolean changes() {
+            return random.nextDouble() < changeRate;
+        }
+    }
+
+    /**
+     * Resolves ids to {@link Model.Resolved} values, optionally burning some CPU to stand for a lookup.
+     */
+    static class IdResolver implements DataResolver<Integer, Model.Resolved> {
+        private final String type;
+        private final int cost;
+
+        IdResolver(String type, int cost) {
+            this.type = type;
+            this.cost = cost;
+        }
+
+        public Model.Resolved resolve(Integer id) {
+            if (cost > 0)
+                Blackhole.consumeCPU(cost);
+            return id == null ? null : new Model.Resolved(type, id);
+        }
+    }
+}
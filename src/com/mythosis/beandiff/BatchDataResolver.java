@@ -0,0 +1,35 @@
+package com.mythosis.beandiff;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A {@link DataResolver} that can resolve many values in a single call.
+ * <p/>
+ * When a <code>BatchDataResolver</code> is registered, {@link DiffGenerator} works in two phases: it
+ * first walks both objects to collect every value the resolver will be asked for, and resolves them all
+ * with one call to {@link #resolveAll(Collection)}; the objects are then compared, using the results.
+ * For example, a resolver looking an <code>id</code> up in a database can run a single query with an
+ * <code>IN (...)</code> clause, rather than one query per value.
+ * <p/>
+ * Only diffs that collect all the differences work this way.  Diffs reported to a {@link DiffListener},
+ * which may stop at any point, including {@link DiffGenerator#hasDifferences(Object, Object)} and
+ * {@link DiffGenerator#firstDifferences(Object, Object, int)}, resolve each value with
+ * {@link #resolve(Object)} when it is first compared, once per diff.
+ * <p/>
+ * Values that are not in the map returned by <code>resolveAll()</code>, <code>null</code> values, and
+ * values found while comparing that could not be collected beforehand (such as values inside resolved
+ * data) are resolved one at a time with {@link #resolve(Object)}.
+ *
+ * @author tonior@gmail.com
+ * @see DiffGenerator#registerDataResolver(String, DataResolver)
+ */
+public interface BatchDataResolver<I, O> extends DataResolver<I, O> {
+    /**
+     * Resolves a number of values at once.
+     *
+     * @param params the distinct, non-<code>null</code> values to resolve
+     * @return the resolved data, by value
+     */
+    public Map<I, O> resolveAll(Collection<I> params);
+}
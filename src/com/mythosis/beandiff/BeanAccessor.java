@@ -0,0 +1,64 @@
+package com.mythosis.beandiff;
+
+/**
+ * Reflection-free access to the {@link DiffField} fields of a {@link Diffable} class.
+ * <p/>
+ * Implementations are generated at compile time by the <code>beandiff-apt</code> annotation
+ * processor, one per <code>Diffable</code> class, and named after the class's binary name with a
+ * <code>$$BeanAccessor</code> suffix (for example <code>com.acme.Order$$BeanAccessor</code>).
+ * {@link DiffGenerator} looks for such a class the first time it sees a <code>Diffable</code> type,
+ * and uses it automatically when present, falling back to reflection otherwise.
+ * <p/>
+ * A generated accessor reads fields directly (or through their getters, following the same conventions
+ * as the reflective code), and compares primitive fields without boxing them.  Fields it cannot
+ * access from generated code are simply left out of {@link #getFieldNames()}, and are read
+ * reflectively instead.
+ * <p/>
+ * Only the reading of field values is generated: the objects are still diffed by
+ * <code>DiffGenerator</code>, which compares, resolves and reports the values the same way whether they
+ * were read by a generated accessor or reflectively.
+ * <p/>
+ * This interface is not meant to be implemented by hand.
+ *
+ * @author tonior@gmail.com
+ * @see Diffable
+ */
+public interface BeanAccessor<T> {
+    /**
+     * Returns the names of the fields this accessor can read.  A field's position in the returned
+     * array is the <code>index</code> used by the other methods.
+     *
+     * @return the field names
+     */
+    public String[] getFieldNames();
+
+    /**
+     * Returns, for each field in {@link #getFieldNames()}, whether it is of a primitive type and can
+     * therefore be compared with {@link #primitiveEquals(Object, Object, int)}.
+     *
+     * @return a flag per field
+     */
+    public boolean[] getPrimitiveFields();
+
+    /**
+     * Reads the value of a field on an object.
+     *
+     * @param object the object on which to access the field
+     * @param index  the field index
+     * @return the value of the field on that object, boxed if primitive
+     */
+    public Object getValue(T object, int index);
+
+    /**
+     * Compares a primitive field on two objects, without boxing.
+     * <p/>
+     * Floating point values are compared by their bit patterns, which is what the wrapper types'
+     * <code>equals()</code> does.
+     *
+     * @param original the original object
+     * @param current  the new object
+     * @param index    the index of a primitive field
+     * @return whether the field has the same value on both objects
+     */
+    public boolean primitiveEquals(T original, T current, int index);
+}
@@ -0,0 +1,229 @@
+package com.mythosis.beandiff;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads back the differences encoded by {@link BinaryDiffEncoder}.
+ * <p/>
+ * Decoding walks the buffer and passes each difference to a {@link DiffListener}, in the order in which it
+ * was found, just as the diff itself would have: no map is built, and paths are only rendered as strings if
+ * the listener asks for it.  Paths found one after the other share their parents, as they did when encoded.
+ * <pre>
+ * BinaryDiffDecoder.decode(buffer, Order.class, listener);
+ * </pre>
+ * Values that were not <code>null</code>, booleans, numbers of the primitive wrapper types, characters or
+ * strings are decoded as the string they were encoded as.
+ *
+ * @author tonior@gmail.com
+ * @see BinaryDiffEncoder
+ */
+public final class BinaryDiffDecoder {
+    private final ByteBuffer buffer;
+    private final PathDictionary dictionary;
+    private DiffPath previous;
+
+    private BinaryDiffDecoder(ByteBuffer buffer, PathDictionary dictionary) {
+        this.buffer = buffer;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Decodes a diff of objects of a given class.
+     *
+     * @param buffer    the buffer to read, from its current position
+     * @param rootClass the class of the objects diffed, whose {@link PathDictionary} is used
+     * @param listener  the listener to pass the differences to
+     * @return <code>true</code> if all the differences were decoded, <code>false</code> if the listener stopped
+     *         the decoding
+     * @throws IllegalArgumentException if the buffer does not hold a diff encoded with the same dictionary
+     * @see #decode(ByteBuffer, PathDictionary, DiffListener)
+     */
+    public static boolean decode(ByteBuffer buffer, Class<?> rootClass, DiffListener listener) {
+        return decode(buffer, PathDictionary.forClass(rootClass), listener);
+    }
+
+    /**
+     * Decodes a diff encoded with a given dictionary.
+     * <p/>
+     * Decoding stops at the end marker written by {@link BinaryDiffEncoder#finish()}, or at the limit of the
+     * buffer if there is none.  Once all the differences are decoded, the buffer is positioned right after the
+     * diff, so that diffs written one after the other in the same buffer can be decoded in turn.  If the
+     * listener stops the decoding, the buffer is left right after the last difference decoded.
+     *
+     * @param buffer     the buffer to read, from its current position
+     * @param dictionary the dictionary of field names the diff was encoded with
+     * @param listener   the listener to pass the differences to
+     * @return <code>true</code> if all the differences were decoded, <code>false</code> if the listener stopped
+     *         the decoding
+     * @throws IllegalArgumentException if the buffer does not hold a diff encoded with the same dictionary
+     */
+    public static boolean decode(ByteBuffer buffer, PathDictionary dictionary, DiffListener listener) {
+        try {
+            return new BinaryDiffDecoder(buffer, dictionary).decode(listener);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated binary diff.");
+        }
+    }
+
+    private boolean decode(DiffListener listener) {
+        byte version = buffer.get();
+        if (version != BinaryDiffEncoder.VERSION)
+            throw new IllegalArgumentException("Unknown binary diff version: " + version);
+        int checksum = (int) readFixed(4);
+        if (checksum != dictionary.getChecksum())
+            throw new IllegalArgumentException("Binary diff encoded with another path dictionary.");
+        while (buffer.hasRemaining()) {
+            byte kind = buffer.get();
+            if (kind == BinaryDiffEncoder.END)
+                return true;
+            DiffPath path = readPath();
+            boolean goOn;
+            switch (kind) {
+                case BinaryDiffEncoder.CHANGED:
+                    Object original = readValue();
+                    goOn = listener.changed(path, original, readValue());
+                    break;
+                case BinaryDiffEncoder.ADDED:
+                    goOn = listener.added(path, readValue());
+                    break;
+                case BinaryDiffEncoder.REMOVED:
+                    goOn = listener.removed(path, readValue());
+                    break;
+                case BinaryDiffEncoder.COUNT_CHANGED:
+                    int originalCount = (int) readVarint();
+                    goOn = listener.countChanged(path, originalCount, (int) readVarint());
+                    break;
+                case BinaryDiffEncoder.MOVED:
+                    DiffPath to = readPath();
+                    goOn = listener.moved(path, to, readValue());
+                    break;
+                case BinaryDiffEncoder.SAME_AS:
+                    goOn = listener.sameAs(path, readPath());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown binary diff record: " + kind);
+            }
+            if (!goOn)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a path, made of the first segments of the previous path followed by those read.
+     */
+    private DiffPath readPath() {
+        int common = (int) readVarint();
+        int count = (int) readVarint();
+        DiffPath path = null;
+        if (common > 0) {
+            if (previous == null || previous.getDepth() < common - 1)
+                throw new IllegalArgumentException("Binary diff path shares more segments than there are.");
+            path = previous;
+            while (path.getDepth() > common - 1)
+                path = path.getParent();
+        }
+        for (int i = 0; i < count; i++)
+            path = readSegment(path);
+        if (path == null)
+            throw new IllegalArgumentException("Empty binary diff path.");
+        previous = path;
+        return path;
+    }
+
+    private DiffPath readSegment(DiffPath parent) {
+        long header = readVarint();
+        int value = (int) (header >>> 2);
+        switch ((int) header & 3) {
+            case BinaryDiffEncoder.SEGMENT_INDEX:
+                return requireParent(parent).index(value);
+            case BinaryDiffEncoder.SEGMENT_KEY:
+                return requireParent(parent).key(readValue());
+            case BinaryDiffEncoder.SEGMENT_NAME:
+                return child(parent, readUtf(value));
+            default:
+                return child(parent, dictionary.getName(value));
+        }
+    }
+
+    private static DiffPath child(DiffPath parent, String name) {
+        return parent == null ? DiffPath.root(name) : parent.child(name);
+    }
+
+    private static DiffPath requireParent(DiffPath parent) {
+        if (parent == null)
+            throw new IllegalArgumentException("Binary diff path does not start with a name.");
+        return parent;
+    }
+
+    private Object readValue() {
+        byte type = buffer.get();
+        switch (type) {
+            case BinaryDiffEncoder.NULL:
+                return null;
+            case BinaryDiffEncoder.FALSE:
+                return Boolean.FALSE;
+            case BinaryDiffEncoder.TRUE:
+                return Boolean.TRUE;
+            case BinaryDiffEncoder.BYTE:
+                return buffer.get();
+            case BinaryDiffEncoder.SHORT:
+                return (short) readSignedVarint();
+            case BinaryDiffEncoder.INT:
+                return (int) readSignedVarint();
+            case BinaryDiffEncoder.LONG:
+                return readSignedVarint();
+            case BinaryDiffEncoder.FLOAT:
+                return Float.intBitsToFloat((int) readFixed(4));
+            case BinaryDiffEncoder.DOUBLE:
+                return Double.longBitsToDouble(readFixed(8));
+            case BinaryDiffEncoder.CHAR:
+                return (char) readVarint();
+            case BinaryDiffEncoder.STRING:
+            case BinaryDiffEncoder.TEXT:
+                return readUtf((int) readVarint());
+            default:
+                throw new IllegalArgumentException("Unknown binary diff value type: " + type);
+        }
+    }
+
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed binary diff varint.");
+    }
+
+    private long readSignedVarint() {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readFixed(int bytes) {
+        long value = 0;
+        for (int i = 0; i < bytes; i++)
+            value = value << 8 | (buffer.get() & 0xFF);
+        return value;
+    }
+
+    private String readUtf(int length) {
+        char[] chars = new char[length];
+        int count = 0;
+        int end = buffer.position() + length;
+        while (buffer.position() < end) {
+            int b = buffer.get() & 0xFF;
+            if (b < 0x80)
+                chars[count++] = (char) b;
+            else if (b < 0xE0)
+                chars[count++] = (char) ((b & 0x1F) << 6 | buffer.get() & 0x3F);
+            else
+                chars[count++] = (char) ((b & 0x0F) << 12 | (buffer.get() & 0x3F) << 6 | buffer.get() & 0x3F);
+        }
+        return new String(chars, 0, count);
+    }
+}
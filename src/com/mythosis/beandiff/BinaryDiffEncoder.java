@@ -0,0 +1,371 @@
+package com.mythosis.beandiff;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes differences in a compact binary form, straight into a {@link ByteBuffer}.
+ * <p/>
+ * The encoder is a {@link DiffListener}, writing each difference to the buffer as soon as it is found,
+ * without building any map or string:
+ * <pre>
+ * BinaryDiffEncoder encoder = new BinaryDiffEncoder(buffer, Order.class);
+ * generator.diff("", original, current, encoder);
+ * encoder.finish();
+ * </pre>
+ * The encoded diff is read back with {@link BinaryDiffDecoder}.  It is much smaller than the difference
+ * map, mostly because paths are not written as strings:
+ * <ul>
+ * <li>each path only holds the segments that differ from the previous path, since differences found one
+ * after the other mostly share their parents;</li>
+ * <li>field names are written as their ordinal in the {@link PathDictionary} of the root class;</li>
+ * <li>indexes, counts and integral numbers are written as variable-length integers, taking a single byte
+ * for values below 128.</li>
+ * </ul>
+ * Values keep their type when they are <code>null</code>, booleans, numbers of the primitive wrapper types,
+ * characters or strings.  Any other value, like keys and values in the difference map, is written as its
+ * <code>toString()</code>, and decoded as a string.
+ * <p/>
+ * If the buffer fills up, the difference that did not fit is taken back out, and the encoder stops the
+ * traversal: the diff then returns <code>false</code>, {@link #isOverflowed()} tells why, and the diff can
+ * be run again with a larger buffer.  An encoder is good for a single diff, and must not be shared between
+ * threads.
+ *
+ * <h3>Format</h3>
+ * A diff starts with a version byte and the 4-byte {@link PathDictionary#getChecksum() checksum} of its
+ * dictionary, followed by one record per difference, and ends with a 0 byte.  A record is a byte telling
+ * the kind of difference (see {@link DiffListener}), its path, then depending on the kind: the original and
+ * new values (changed), a value (added, removed), the original and new counts (count changed), a second
+ * path and a value (moved), or a second path (same as).  A path is the number of segments it shares with
+ * the previous path, the number of segments that follow, and these segments.  The low 2 bits of a segment's
+ * first varint tell its kind, the others its dictionary ordinal, inline name length, or index; key segments
+ * are followed by the key, encoded as a value.  Integers are unsigned or zig-zag LEB128 varints, floating
+ * point numbers big-endian, and strings their UTF-8 length followed by their UTF-8 bytes, surrogates being
+ * encoded on their own.
+ *
+ * @author tonior@gmail.com
+ * @see BinaryDiffDecoder
+ * @see PathDictionary
+ */
+public class BinaryDiffEncoder implements DiffListener {
+    static final byte VERSION = 1;
+
+    static final byte END = 0;
+    static final byte CHANGED = 1;
+    static final byte ADDED = 2;
+    static final byte REMOVED = 3;
+    static final byte COUNT_CHANGED = 4;
+    static final byte MOVED = 5;
+    static final byte SAME_AS = 6;
+
+    static final int SEGMENT_ORDINAL = 0;
+    static final int SEGMENT_NAME = 1;
+    static final int SEGMENT_INDEX = 2;
+    static final int SEGMENT_KEY = 3;
+
+    static final byte NULL = 0;
+    static final byte FALSE = 1;
+    static final byte TRUE = 2;
+    static final byte BYTE = 3;
+    static final byte SHORT = 4;
+    static final byte INT = 5;
+    static final byte LONG = 6;
+    static final byte FLOAT = 7;
+    static final byte DOUBLE = 8;
+    static final byte CHAR = 9;
+    static final byte STRING = 10;
+    static final byte TEXT = 11;
+
+    private final ByteBuffer buffer;
+    private final PathDictionary dictionary;
+    private final int start;
+    private DiffPath previous;
+    private DiffPath[] segments = new DiffPath[16];
+    private boolean overflowed;
+    private boolean finished;
+
+    /**
+     * Creates an encoder for diffs of objects of a given class.
+     *
+     * @param buffer    the buffer to write to, from its current position
+     * @param rootClass the class of the objects diffed, whose {@link PathDictionary} is used
+     * @throws BufferOverflowException if the buffer can't even hold the header and the end marker
+     */
+    public BinaryDiffEncoder(ByteBuffer buffer, Class<?> rootClass) {
+        this(buffer, PathDictionary.forClass(rootClass));
+    }
+
+    /**
+     * Creates an encoder using a given dictionary.
+     *
+     * @param buffer     the buffer to write to, from its current position
+     * @param dictionary the dictionary of field names
+     * @throws BufferOverflowException if the buffer can't even hold the header and the end marker
+     */
+    public BinaryDiffEncoder(ByteBuffer buffer, PathDictionary dictionary) {
+        this.buffer = buffer;
+        this.dictionary = dictionary;
+        this.start = buffer.position();
+        // The header, and the end marker.
+        if (buffer.remaining() < 6)
+            throw new BufferOverflowException();
+        buffer.put(VERSION);
+        writeFixed(dictionary.getChecksum(), 4);
+    }
+
+    public boolean changed(DiffPath path, Object original, Object current) {
+        int mark = begin(CHANGED, path);
+        if (mark < 0)
+            return false;
+        try {
+            writeValue(original);
+            writeValue(current);
+        } catch (BufferOverflowException e) {
+            return overflow(mark);
+        }
+        return end(mark);
+    }
+
+    public boolean added(DiffPath path, Object current) {
+        int mark = begin(ADDED, path);
+        if (mark < 0)
+            return false;
+        try {
+            writeValue(current);
+        } catch (BufferOverflowException e) {
+            return overflow(mark);
+        }
+        return end(mark);
+    }
+
+    public boolean removed(DiffPath path, Object original) {
+        int mark = begin(REMOVED, path);
+        if (mark < 0)
+            return false;
+        try {
+            writeValue(original);
+        } catch (BufferOverflowException e) {
+            return overflow(mark);
+        }
+        return end(mark);
+    }
+
+    public boolean countChanged(DiffPath path, int originalCount, int currentCount) {
+        int mark = begin(COUNT_CHANGED, path);
+        if (mark < 0)
+            return false;
+        try {
+            writeVarint(originalCount);
+            writeVarint(currentCount);
+        } catch (BufferOverflowException e) {
+            return overflow(mark);
+        }
+        return end(mark);
+    }
+
+    public boolean moved(DiffPath path, DiffPath to, Object value) {
+        int mark = begin(MOVED, path);
+        if (mark < 0)
+            return false;
+        try {
+            writePath(to);
+            writeValue(value);
+        } catch (BufferOverflowException e) {
+            return overflow(mark);
+        }
+        return end(mark);
+    }
+
+    public boolean sameAs(DiffPath path, DiffPath earlier) {
+        int mark = begin(SAME_AS, path);
+        if (mark < 0)
+            return false;
+        try {
+            writePath(earlier);
+        } catch (BufferOverflowException e) {
+            return overflow(mark);
+        }
+        return end(mark);
+    }
+
+    /**
+     * Ends the encoded diff.  Further differences can't be encoded.
+     *
+     * @return the number of bytes written to the buffer
+     */
+    public int finish() {
+        if (!finished) {
+            buffer.put(END);
+            finished = true;
+        }
+        return buffer.position() - start;
+    }
+
+    /**
+     * @return whether the buffer filled up, so that some differences could not be encoded
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Writes the kind and path of a record.
+     *
+     * @return the position of the record, to take it back out if it overflows, or -1 if it overflowed
+     */
+    private int begin(byte kind, DiffPath path) {
+        if (overflowed || finished)
+            return -1;
+        int mark = buffer.position();
+        try {
+            buffer.put(kind);
+            writePath(path);
+        } catch (BufferOverflowException e) {
+            overflow(mark);
+            return -1;
+        }
+        return mark;
+    }
+
+    /**
+     * Ends a record, taking it back out if it did not leave room for the end marker.
+     */
+    private boolean end(int mark) {
+        return buffer.hasRemaining() || overflow(mark);
+    }
+
+    private boolean overflow(int mark) {
+        buffer.position(mark);
+        overflowed = true;
+        return false;
+    }
+
+    /**
+     * Writes a path as the number of segments it shares with the previous path, followed by the others.
+     * Paths found one after the other share their parents by identity, so the common part is found without
+     * comparing any segment.
+     */
+    private void writePath(DiffPath path) {
+        int depth = path.getDepth();
+        if (segments.length <= depth)
+            segments = new DiffPath[Math.max(depth + 1, segments.length * 2)];
+        for (DiffPath p = path; p != null; p = p.getParent())
+            segments[p.getDepth()] = p;
+        int common = 0;
+        if (previous != null) {
+            DiffPath p = previous;
+            while (p.getDepth() > depth)
+                p = p.getParent();
+            while (p != null && p != segments[p.getDepth()])
+                p = p.getParent();
+            common = p == null ? 0 : p.getDepth() + 1;
+        }
+        writeVarint(common);
+        writeVarint(depth + 1 - common);
+        for (int i = common; i <= depth; i++)
+            writeSegment(segments[i]);
+        previous = path;
+    }
+
+    private void writeSegment(DiffPath segment) {
+        switch (segment.getKind()) {
+            case DiffPath.INDEX:
+                writeVarint((long) segment.getIndex() << 2 | SEGMENT_INDEX);
+                break;
+            case DiffPath.KEY:
+                writeVarint(SEGMENT_KEY);
+                writeValue(segment.getRawSegment());
+                break;
+            default:
+                String name = (String) segment.getRawSegment();
+                int ordinal = dictionary.getOrdinal(name);
+                if (ordinal >= 0) {
+                    writeVarint((long) ordinal << 2 | SEGMENT_ORDINAL);
+                } else {
+                    writeVarint((long) utfLength(name) << 2 | SEGMENT_NAME);
+                    writeUtf(name);
+                }
+        }
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            buffer.put(NULL);
+        } else if (value instanceof String) {
+            writeString(STRING, (String) value);
+        } else if (value instanceof Integer) {
+            buffer.put(INT);
+            writeSignedVarint((Integer) value);
+        } else if (value instanceof Long) {
+            buffer.put(LONG);
+            writeSignedVarint((Long) value);
+        } else if (value instanceof Boolean) {
+            buffer.put((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            buffer.put(DOUBLE);
+            writeFixed(Double.doubleToLongBits((Double) value), 8);
+        } else if (value instanceof Float) {
+            buffer.put(FLOAT);
+            writeFixed(Float.floatToIntBits((Float) value), 4);
+        } else if (value instanceof Short) {
+            buffer.put(SHORT);
+            writeSignedVarint((Short) value);
+        } else if (value instanceof Byte) {
+            buffer.put(BYTE);
+            buffer.put((Byte) value);
+        } else if (value instanceof Character) {
+            buffer.put(CHAR);
+            writeVarint((Character) value);
+        } else {
+            writeString(TEXT, value.toString());
+        }
+    }
+
+    private void writeString(byte type, String value) {
+        buffer.put(type);
+        writeVarint(utfLength(value));
+        writeUtf(value);
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void writeSignedVarint(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeFixed(long value, int bytes) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8)
+            buffer.put((byte) (value >>> shift));
+    }
+
+    private static int utfLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    private void writeUtf(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+}
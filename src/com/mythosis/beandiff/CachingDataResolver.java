@@ -0,0 +1,151 @@
+package com.mythosis.beandiff;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link DataResolver} that caches the results of another resolver.
+ * <p/>
+ * Resolvers often look data up in a database, and the same values tend to be resolved over and over: once
+ * for the original object and once for the new one, and again for every object referring to the same
+ * <code>id</code>.  Wrapping such a resolver in a <code>CachingDataResolver</code> before registering it
+ * makes every lookup but the first one a map access:
+ * <pre>
+ * generator.registerDataResolver("profile_id",
+ *         new CachingDataResolver&lt;Integer, Profile&gt;(profileResolver, 1000, 10, TimeUnit.MINUTES));
+ * </pre>
+ * The cache holds at most <code>maximumSize</code> results, evicting the least recently used one when
+ * full.  Results can also be given a time to live, after which they are resolved again.  <code>null</code>
+ * parameters and results are cached like any others.  Parameters must implement <code>equals()</code> and
+ * <code>hashCode()</code>.
+ * <p/>
+ * The cache is thread-safe, and the wrapped resolver is not called while holding its lock: two threads
+ * missing the same value at the same time may therefore both resolve it.
+ *
+ * @author tonior@gmail.com
+ * @see DiffGenerator#registerDataResolver(String, DataResolver)
+ * @see DiffGenerator#setCacheResolvedValues(boolean)
+ */
+public class CachingDataResolver<I, O> implements DataResolver<I, O> {
+    private final DataResolver<I, O> resolver;
+    private final long timeToLive;
+    private final Map<I, Result<O>> cache;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a cache whose results never expire.
+     *
+     * @param resolver    the resolver to cache the results of
+     * @param maximumSize the maximum number of results to keep
+     */
+    public CachingDataResolver(DataResolver<I, O> resolver, int maximumSize) {
+        this(resolver, maximumSize, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a cache whose results expire after a given time.
+     *
+     * @param resolver    the resolver to cache the results of
+     * @param maximumSize the maximum number of results to keep
+     * @param timeToLive  how long results are kept after being resolved, or 0 to keep them until evicted
+     * @param unit        the unit of <code>timeToLive</code>
+     */
+    public CachingDataResolver(DataResolver<I, O> resolver, final int maximumSize, long timeToLive, TimeUnit unit) {
+        if (resolver == null)
+            throw new IllegalArgumentException("Resolver is null.");
+        if (maximumSize < 1)
+            throw new IllegalArgumentException("Maximum size must be at least 1: " + maximumSize);
+        if (timeToLive < 0)
+            throw new IllegalArgumentException("Time to live is negative: " + timeToLive);
+        this.resolver = resolver;
+        this.timeToLive = unit.toNanos(timeToLive);
+        this.cache = new LinkedHashMap<I, Result<O>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<I, Result<O>> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for <code>param</code>, resolving and caching it if there is none, or if it
+     * has expired.
+     *
+     * @param param the input data to use for resolution
+     * @return the resolved data
+     */
+    public O resolve(I param) {
+        long now = timeToLive > 0 ? System.nanoTime() : 0;
+        synchronized (cache) {
+            Result<O> result = cache.get(param);
+            if (result != null && (timeToLive == 0 || now - result.resolvedAt < timeToLive)) {
+                hits++;
+                return result.value;
+            }
+            misses++;
+        }
+        O value = resolver.resolve(param);
+        synchronized (cache) {
+            cache.put(param, new Result<O>(value, now));
+        }
+        return value;
+    }
+
+    /**
+     * Removes the cached result for a parameter, if any.
+     *
+     * @param param the parameter
+     */
+    public void invalidate(I param) {
+        synchronized (cache) {
+            cache.remove(param);
+        }
+    }
+
+    /**
+     * Removes all the cached results.
+     */
+    public void invalidateAll() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return the number of results currently cached, including expired ones not yet replaced
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * @return the number of calls answered from the cache
+     */
+    public long getHitCount() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return the number of calls passed on to the wrapped resolver
+     */
+    public long getMissCount() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    private static class Result<O> {
+        final O value;
+        final long resolvedAt;
+
+        Result(O value, long resolvedAt) {
+            this.value = value;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
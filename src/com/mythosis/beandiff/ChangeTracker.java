@@ -0,0 +1,449 @@
+package com.mythosis.beandiff;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Records the changes made to a graph of {@link Diffable} objects since a baseline, so that diffs only visit
+ * what changed.
+ * <p/>
+ * A full {@link DiffGenerator#diff(String, Object, Object) diff()} compares two complete object graphs.  A
+ * long-lived graph edited a little at a time, and diffed after each edit, can instead be tracked: the tracker
+ * records the value each field had at the baseline the first time it is written, and
+ * {@link DiffGenerator#diffChanges(String, ChangeTracker, DiffListener) diffChanges()} compares the graph
+ * with its baseline state, only visiting the fields written since then, and the objects leading to them.
+ * The result is the same as a full diff between a copy of the graph taken at the baseline and the graph.
+ * <pre>
+ * ChangeTracker tracker = new ChangeTracker();
+ * Order order = tracker.create(Order.class);
+ * ...
+ * tracker.track(order);
+ * order.setStatus(Status.SHIPPED);
+ * Map&lt;String, String&gt; changes = generator.diffChanges("order", tracker);
+ * tracker.commit();
+ * </pre>
+ * Writes are recorded by the subclasses the <code>beandiff-apt</code> annotation processor generates for
+ * classes annotated with <code>@Diffable(tracked = true)</code>, whose setters call {@link #writing(Object,
+ * String)} before writing.  Tracked objects must be created with {@link #create(Class)}, and their fields
+ * only written through their setters: fields assigned in any other way, for instance by the class's own
+ * methods, are not seen.  Classes can also call <code>writing()</code> from their setters themselves, and
+ * implement {@link Tracked}.
+ * <p/>
+ * The rest of the graph is tracked by taking shallow copies at the baseline: of the fields of {@link Diffable}
+ * objects that are not tracked, which are always compared in full, and of iterables and maps, which are
+ * compared with their copies by identity, item by item, when a diff starts.  The cost of a diff is therefore
+ * proportional to the number of items in the graph's collections, but no field of an unchanged tracked
+ * object is ever read.
+ * <p/>
+ * Tracked diffs compare lists item by item: {@link DiffGenerator#setSequenceDiff(boolean) sequence diffs},
+ * fingerprints, parallel diffs, and resolving data ahead of the diff are not used.  Items with a
+ * {@link DiffKey} are matched by their current key.
+ * <p/>
+ * All methods are synchronized, but the graph must not be modified while it is diffed.  Objects that leave
+ * the graph are still tracked until {@link #track(Object)} is called again.
+ *
+ * @author tonior@gmail.com
+ * @see DiffGenerator#diffChanges(String, ChangeTracker, DiffListener)
+ * @see Diffable#tracked()
+ */
+public class ChangeTracker {
+    private static final Logger logger = Logger.getLogger(ChangeTracker.class.getSimpleName());
+    private static final String TRACKED_SUFFIX = "$$Tracked";
+
+    private static final ConcurrentMap<Class<?>, Constructor<?>> constructors =
+            new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+    /**
+     * An object whose writes are recorded by a tracker.  Implemented by the generated subclasses.
+     */
+    public interface Tracked {
+        /**
+         * @return the tracker the object reports its writes to
+         */
+        public ChangeTracker getChangeTracker();
+    }
+
+    private boolean tracking;
+    private Object root;
+    /**
+     * The objects and containers of the graph, with the objects and containers they were found in.
+     */
+    private final Map<Object, List<Object>> parents = new IdentityHashMap<Object, List<Object>>();
+    /**
+     * The baseline values of the fields written since the baseline, and of all the fields of untracked objects.
+     */
+    private final Map<Object, Map<String, Object>> baselineValues = new IdentityHashMap<Object, Map<String, Object>>();
+    private final Map<Object, Boolean> untracked = new IdentityHashMap<Object, Boolean>();
+    /**
+     * The shallow copies of the iterables and maps of the graph, taken at the baseline.
+     */
+    private final Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+    /**
+     * Creates an object whose writes are recorded by this tracker: an instance of the subclass generated for
+     * a class annotated with <code>@Diffable(tracked = true)</code>.
+     *
+     * @param type the class of the object
+     * @param <T>  the type of the object
+     * @return a new instance of the generated subclass of <code>type</code>, created with its no-argument
+     *         constructor
+     * @throws IllegalArgumentException if no subclass was generated for <code>type</code>
+     */
+    public <T> T create(Class<T> type) {
+        Constructor<?> constructor = getConstructor(type);
+        try {
+            return type.cast(constructor.newInstance(this));
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Could not instantiate " + constructor.getName() + ". " + e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Could not instantiate " + constructor.getName() + ". " + e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static Constructor<?> getConstructor(Class<?> type) {
+        Constructor<?> constructor = constructors.get(type);
+        if (constructor == null) {
+            ClassLoader loader = type.getClassLoader();
+            try {
+                if (loader == null)
+                    throw new ClassNotFoundException(type.getName() + TRACKED_SUFFIX);
+                Class<?> trackedClass = Class.forName(type.getName() + TRACKED_SUFFIX, true, loader);
+                constructor = trackedClass.getConstructor(ChangeTracker.class);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("No tracked subclass of " + type.getName() + " was generated: it" +
+                        " must be annotated with @Diffable(tracked = true) and compiled with beandiff-apt.");
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(type.getName() + TRACKED_SUFFIX + " is not a tracked subclass.");
+            }
+            constructors.putIfAbsent(type, constructor);
+        }
+        return constructor;
+    }
+
+    /**
+     * Starts tracking a graph, taking its current state as the baseline.  The whole graph is walked once, and
+     * anything tracked before is forgotten.
+     *
+     * @param root the root of the graph, the object passed to <code>diffChanges()</code>
+     */
+    public synchronized void track(Object root) {
+        parents.clear();
+        baselineValues.clear();
+        untracked.clear();
+        copies.clear();
+        this.root = root;
+        this.tracking = true;
+        register(root, null);
+    }
+
+    /**
+     * Records that a field of an object is about to be written.  The first time a field is written after the
+     * baseline, its current value is kept as its baseline value.  Objects that were not part of the graph at
+     * the baseline are ignored.
+     *
+     * @param object the object whose field is written
+     * @param field  the name of the field
+     */
+    public synchronized void writing(Object object, String field) {
+        if (!tracking || !parents.containsKey(object))
+            return;
+        Map<String, Object> values = baselineValues.get(object);
+        if (values != null && values.containsKey(field))
+            return;
+        FieldDescriptor descriptor = ClassDescriptor.forClass(object.getClass()).getField(field);
+        if (descriptor == null)
+            return;
+        Object value;
+        try {
+            value = descriptor.getValue(object);
+        } catch (IllegalAccessException e) {
+            // Diffs can't read the field either.
+            return;
+        } catch (InvocationTargetException e) {
+            return;
+        }
+        if (values == null)
+            baselineValues.put(object, values = new HashMap<String, Object>());
+        values.put(descriptor.getName(), value);
+    }
+
+    /**
+     * Takes the current state of the graph as the new baseline, typically once its changes have been diffed.
+     * Only the fields written and the collections modified since the previous baseline are looked at.
+     *
+     * @throws IllegalStateException if no graph is tracked
+     */
+    public synchronized void commit() {
+        checkTracking();
+        List<Object> written = new ArrayList<Object>();
+        List<Object> values = new ArrayList<Object>();
+        for (Iterator<Map.Entry<Object, Map<String, Object>>> i = baselineValues.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<Object, Map<String, Object>> entry = i.next();
+            Object object = entry.getKey();
+            ClassDescriptor descriptor = ClassDescriptor.forClass(object.getClass());
+            for (String field : entry.getValue().keySet()) {
+                Object value = read(descriptor.getField(field), object);
+                // Untracked objects keep the values of all their fields.
+                if (untracked.containsKey(object))
+                    entry.getValue().put(field, value);
+                written.add(object);
+                values.add(value);
+            }
+            if (!untracked.containsKey(object))
+                i.remove();
+        }
+        List<Object> modified = new ArrayList<Object>();
+        for (Map.Entry<Object, Object> entry : copies.entrySet()) {
+            if (!sameContent(entry.getKey(), entry.getValue()))
+                modified.add(entry.getKey());
+        }
+        for (Object container : modified) {
+            copies.put(container, copyOf(container));
+            for (Object item : itemsOf(container)) {
+                written.add(container);
+                values.add(item);
+            }
+        }
+        for (int i = 0; i < written.size(); i++)
+            register(values.get(i), written.get(i));
+    }
+
+    /**
+     * Works out what changed since the baseline: the objects written to, the untracked objects, the modified
+     * collections, and every object and collection leading to them.
+     *
+     * @return the baseline state of the graph, for the diff
+     * @throws IllegalStateException if no graph is tracked
+     */
+    synchronized Baseline getBaseline() {
+        checkTracking();
+        Map<Object, Boolean> touched = new IdentityHashMap<Object, Boolean>();
+        for (Object object : baselineValues.keySet())
+            touch(object, touched);
+        for (Map.Entry<Object, Object> entry : copies.entrySet()) {
+            if (!sameContent(entry.getKey(), entry.getValue()))
+                touch(entry.getKey(), touched);
+        }
+        return new Baseline(root, touched, baselineValues, copies);
+    }
+
+    private void checkTracking() {
+        if (!tracking)
+            throw new IllegalStateException("No graph is tracked, track() must be called first.");
+    }
+
+    private void touch(Object node, Map<Object, Boolean> touched) {
+        List<Object> pending = new ArrayList<Object>();
+        pending.add(node);
+        while (!pending.isEmpty()) {
+            Object next = pending.remove(pending.size() - 1);
+            if (touched.put(next, Boolean.TRUE) == null) {
+                List<Object> nodeParents = parents.get(next);
+                if (nodeParents != null)
+                    pending.addAll(nodeParents);
+            }
+        }
+    }
+
+    /**
+     * Adds the objects and collections reachable from a value to the graph, if they are not part of it yet,
+     * and links the value to its parent.
+     */
+    private void register(Object value, Object parent) {
+        List<Object> pending = new ArrayList<Object>();
+        pending.add(value);
+        pending.add(parent);
+        while (!pending.isEmpty()) {
+            Object nodeParent = pending.remove(pending.size() - 1);
+            Object node = pending.remove(pending.size() - 1);
+            if (node == null)
+                continue;
+            ClassDescriptor descriptor = ClassDescriptor.forClass(node.getClass());
+            if (!descriptor.isDiffable() && !(node instanceof Iterable) && !(node instanceof Map))
+                continue;
+            List<Object> nodeParents = parents.get(node);
+            boolean known = nodeParents != null;
+            if (!known)
+                parents.put(node, nodeParents = new ArrayList<Object>(1));
+            if (nodeParent != null && !containsIdentical(nodeParents, nodeParent))
+                nodeParents.add(nodeParent);
+            if (known)
+                continue;
+            if (descriptor.isDiffable()) {
+                boolean tracked = node instanceof Tracked && ((Tracked) node).getChangeTracker() == this;
+                Map<String, Object> values = tracked ? null : new HashMap<String, Object>();
+                for (FieldDescriptor field : descriptor.getFields()) {
+                    Object fieldValue = read(field, node);
+                    if (values != null)
+                        values.put(field.getName(), fieldValue);
+                    pending.add(fieldValue);
+                    pending.add(node);
+                }
+                if (!tracked) {
+                    baselineValues.put(node, values);
+                    untracked.put(node, Boolean.TRUE);
+                }
+            } else {
+                copies.put(node, copyOf(node));
+                for (Object item : itemsOf(node)) {
+                    pending.add(item);
+                    pending.add(node);
+                }
+            }
+        }
+    }
+
+    private static boolean containsIdentical(List<Object> list, Object object) {
+        for (Object item : list) {
+            if (item == object)
+                return true;
+        }
+        return false;
+    }
+
+    private static Object read(FieldDescriptor field, Object object) {
+        try {
+            return field.getValue(object);
+        } catch (IllegalAccessException e) {
+            logger.fine("Not tracking field \"" + field.getName() + "\". " + e);
+        } catch (InvocationTargetException e) {
+            logger.fine("Not tracking field \"" + field.getName() + "\". " + e);
+        }
+        return null;
+    }
+
+    private static Iterable<?> itemsOf(Object container) {
+        return container instanceof Map ? ((Map<?, ?>) container).values() : (Iterable<?>) container;
+    }
+
+    /**
+     * Copies an iterable or a map, keeping the order of its items and, for sorted collections, its comparator.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object copyOf(Object container) {
+        if (container instanceof SortedMap)
+            return new TreeMap<Object, Object>((SortedMap<Object, ?>) container);
+        if (container instanceof Map)
+            return new LinkedHashMap<Object, Object>((Map<?, ?>) container);
+        if (container instanceof SortedSet)
+            return new TreeSet<Object>((SortedSet<Object>) container);
+        if (container instanceof Collection)
+            return new ArrayList<Object>((Collection<?>) container);
+        List<Object> items = new ArrayList<Object>();
+        for (Object item : (Iterable<?>) container)
+            items.add(item);
+        return items;
+    }
+
+    /**
+     * Checks whether a collection still holds the very same items, in the same order, as its copy.
+     */
+    private static boolean sameContent(Object container, Object copy) {
+        if (container instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) container;
+            Map<?, ?> mapCopy = (Map<?, ?>) copy;
+            if (map.size() != mapCopy.size())
+                return false;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                Object value = mapCopy.get(entry.getKey());
+                if (value != entry.getValue() || (value == null && !mapCopy.containsKey(entry.getKey())))
+                    return false;
+            }
+            return true;
+        }
+        Iterator<?> items = ((Iterable<?>) container).iterator();
+        Iterator<?> copyItems = ((Iterable<?>) copy).iterator();
+        while (items.hasNext() && copyItems.hasNext()) {
+            if (items.next() != copyItems.next())
+                return false;
+        }
+        return !items.hasNext() && !copyItems.hasNext();
+    }
+
+    /**
+     * The state of a tracked graph at its baseline, as seen by a diff: the objects and collections that may
+     * have changed, and the baseline values that differ from the current ones.
+     */
+    static final class Baseline {
+        private final Object root;
+        private final Map<Object, Boolean> touched;
+        private final Map<Object, Map<String, Object>> values;
+        private final Map<Object, Object> copies;
+
+        Baseline(Object root, Map<Object, Boolean> touched, Map<Object, Map<String, Object>> values,
+                 Map<Object, Object> copies) {
+            this.root = root;
+            this.touched = touched;
+            this.values = values;
+            this.copies = copies;
+        }
+
+        /**
+         * @return the root of the graph
+         */
+        Object getRoot() {
+            return root;
+        }
+
+        /**
+         * @param object an object or a collection of the graph
+         * @return whether it, or anything reachable from it, may have changed since the baseline
+         */
+        boolean isTouched(Object object) {
+            return touched.containsKey(object);
+        }
+
+        /**
+         * @param object an object of the graph
+         * @return whether the baseline values of some of its fields differ from their current values
+         */
+        boolean isWritten(Object object) {
+            return values.containsKey(object);
+        }
+
+        /**
+         * @param object an object of the graph
+         * @param field  one of its fields
+         * @param value  the current value of the field
+         * @return the value of the field at the baseline
+         */
+        Object getValue(Object object, FieldDescriptor field, Object value) {
+            Map<String, Object> objectValues = values.get(object);
+            if (objectValues != null && objectValues.containsKey(field.getName()))
+                return objectValues.get(field.getName());
+            return value;
+        }
+
+        /**
+         * @param value any value found in the graph
+         * @return the copy of the value taken at the baseline if it is a collection of the graph, or the value
+         *         itself otherwise
+         */
+        Object getContent(Object value) {
+            Object copy = copies.get(value);
+            return copy != null ? copy : value;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.mythosis.beandiff;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Per-class metadata used by {@link DiffGenerator}.
+ * <p/>
+ * Finding the fields that take part in a diff means walking the superclass chain and checking
+ * every declared field for a {@link DiffField} annotation.  Since the answer never changes for
+ * a given class, it is computed once and cached, so repeated diffs of the same types do no
+ * reflective scanning at all.  Field accessors are resolved against the described class, which is
+ * the runtime class of the objects being diffed.
+ * <p/>
+ * If a {@link BeanAccessor} was generated for the class at compile time, the fields it covers are read
+ * through it rather than reflectively.
+ * <p/>
+ * Fields are kept cheapest first (see {@link FieldDescriptor#getCost()}), so that a traversal that
+ * stops at the first difference finds it with as little work as possible.
+ * <p/>
+ * The {@link DiffKey} fields of the class, if any, are kept separately, to match items of collections.
+ *
+ * @author tonior@gmail.com
+ * @see FieldDescriptor
+ */
+class ClassDescriptor {
+    private static final Logger logger = Logger.getLogger(ClassDescriptor.class.getSimpleName());
+    private static final String BEAN_ACCESSOR_SUFFIX = "$$BeanAccessor";
+
+    private static final ConcurrentMap<Class<?>, ClassDescriptor> descriptors =
+            new ConcurrentHashMap<Class<?>, ClassDescriptor>();
+
+    private static final Comparator<FieldDescriptor> byCost = new Comparator<FieldDescriptor>() {
+        public int compare(FieldDescriptor f1, FieldDescriptor f2) {
+            return f1.getCost() - f2.getCost();
+        }
+    };
+
+    private final Class<?> type;
+    private final boolean diffable;
+    private final FieldDescriptor[] fields;
+    private final Map<String, FieldDescriptor> fieldsByName = new HashMap<String, FieldDescriptor>();
+    private final int containerFieldCount;
+    private final FieldAccessor[] keyFields;
+
+    private ClassDescriptor(Class<?> type) {
+        this.type = type;
+        this.diffable = type.isAnnotationPresent(Diffable.class);
+        if (diffable) {
+            BeanAccessor<Object> generated = loadBeanAccessor(type);
+            Map<String, Integer> generatedFields = new HashMap<String, Integer>();
+            if (generated != null) {
+                String[] names = generated.getFieldNames();
+                for (int i = 0; i < names.length; i++)
+                    generatedFields.put(names[i], i);
+            }
+            List<FieldDescriptor> diffFields = new ArrayList<FieldDescriptor>();
+            List<FieldAccessor> keys = new ArrayList<FieldAccessor>();
+            for (Field field : ObjectUtils.getAllFields(type)) {
+                DiffField annotation = field.getAnnotation(DiffField.class);
+                boolean key = field.isAnnotationPresent(DiffKey.class);
+                if (annotation != null || key) {
+                    Integer index = generatedFields.get(field.getName());
+                    FieldAccessor accessor = index != null
+                            ? FieldAccessor.forBeanAccessor(generated, index)
+                            : FieldAccessor.forField(type, field);
+                    if (annotation != null)
+                        diffFields.add(new FieldDescriptor(field, annotation.value(), accessor));
+                    if (key)
+                        keys.add(accessor);
+                }
+            }
+            this.fields = diffFields.toArray(new FieldDescriptor[diffFields.size()]);
+            this.keyFields = keys.toArray(new FieldAccessor[keys.size()]);
+            // The sort is stable, so fields of the same cost keep their declaration order.
+            Arrays.sort(fields, byCost);
+            for (FieldDescriptor field : fields) {
+                if (!fieldsByName.containsKey(field.getName()))
+                    fieldsByName.put(field.getName(), field);
+            }
+        } else {
+            this.fields = new FieldDescriptor[0];
+            this.keyFields = new FieldAccessor[0];
+        }
+        int containers = 0;
+        for (FieldDescriptor field : fields) {
+            if (field.getCost() == FieldDescriptor.COST_CONTAINER)
+                containers++;
+        }
+        this.containerFieldCount = containers;
+    }
+
+    /**
+     * Loads the {@link BeanAccessor} generated for a class, if there is one.
+     *
+     * @param type the class
+     * @return the generated accessor, or <code>null</code> if none was generated
+     */
+    @SuppressWarnings("unchecked")
+    private static BeanAccessor<Object> loadBeanAccessor(Class<?> type) {
+        ClassLoader loader = type.getClassLoader();
+        if (loader == null)
+            return null;
+        Class<?> accessorClass;
+        try {
+            accessorClass = Class.forName(type.getName() + BEAN_ACCESSOR_SUFFIX, true, loader);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        try {
+            return (BeanAccessor<Object>) accessorClass.newInstance();
+        } catch (InstantiationException e) {
+            logger.warning("Could not instantiate " + accessorClass.getName() + ", using reflection. " + e);
+        } catch (IllegalAccessException e) {
+            logger.warning("Could not instantiate " + accessorClass.getName() + ", using reflection. " + e);
+        } catch (ClassCastException e) {
+            logger.warning(accessorClass.getName() + " is not a BeanAccessor, using reflection.");
+        }
+        return null;
+    }
+
+    /**
+     * Returns the descriptor for a class, building and caching it on first use.
+     *
+     * @param type the class to describe
+     * @return the (shared) descriptor for that class
+     */
+    public static ClassDescriptor forClass(Class<?> type) {
+        ClassDescriptor descriptor = descriptors.get(type);
+        if (descriptor == null) {
+            descriptor = new ClassDescriptor(type);
+            ClassDescriptor existing = descriptors.putIfAbsent(type, descriptor);
+            if (existing != null)
+                descriptor = existing;
+        }
+        return descriptor;
+    }
+
+    /**
+     * @return the described class
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return whether the described class is annotated with {@link Diffable}
+     */
+    public boolean isDiffable() {
+        return diffable;
+    }
+
+    /**
+     * Returns the {@link DiffField}-annotated fields of the class, including those of its
+     * superclasses, ordered by increasing {@link FieldDescriptor#getCost() cost}.  Fields of the same
+     * cost are in the same order as {@link ObjectUtils#getAllFields(Class)}.
+     * <p/>
+     * The returned array is shared and must not be modified.  It is empty for classes that are
+     * not {@link Diffable}.
+     *
+     * @return the fields to take into account when diffing
+     */
+    public FieldDescriptor[] getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns a {@link DiffField}-annotated field by name.  If several fields of the class and its
+     * superclasses have that name, the first one in {@link #getFields()} is returned.
+     *
+     * @param name the field name
+     * @return the field, or <code>null</code> if there is no such field
+     */
+    public FieldDescriptor getField(String name) {
+        return fieldsByName.get(name);
+    }
+
+    /**
+     * @return the number of fields declared as iterables or maps
+     */
+    public int getContainerFieldCount() {
+        return containerFieldCount;
+    }
+
+    /**
+     * @return whether the class has {@link DiffKey} fields
+     */
+    public boolean hasKey() {
+        return keyFields.length > 0;
+    }
+
+    /**
+     * Returns the key of an object: the value of its {@link DiffKey} field, or the list of the values of
+     * its <code>DiffKey</code> fields if there are several.
+     *
+     * @param object an object of the described class
+     * @return the object's key
+     * @throws IllegalAccessException    if a key field or its getter is not accessible
+     * @throws InvocationTargetException if a getter method throws an exception
+     */
+    public Object getKey(Object object) throws IllegalAccessException, InvocationTargetException {
+        if (keyFields.length == 1)
+            return keyFields[0].get(object);
+        Object[] values = new Object[keyFields.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = keyFields[i].get(object);
+        return Arrays.asList(values);
+    }
+}
@@ -0,0 +1,369 @@
+package com.mythosis.beandiff;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State shared by all levels of a single {@link DiffGenerator#diff(String, Object, Object) diff()} or
+ * {@link DiffGenerator#resolveObject(String, Object) resolveObject()} run.
+ * <p/>
+ * The recursion reports every difference straight to the context, which passes it on to the run's
+ * {@link DiffListener}, so each one is handled exactly once, no matter how deep in the object graph it
+ * was found.  Once the listener asks to stop, the context is marked as stopped, and the recursion
+ * unwinds without looking at anything else.
+ * <p/>
+ * The context also remembers, by identity, each pair of objects (or single object, when resolving) being
+ * visited, with the path where it was found.  A pair found again while it is still being diffed is part of
+ * a cycle, and is skipped.  Only {@link Diffable} objects, iterables and maps are tracked.  A
+ * <em>memoizing</em> context also remembers the pairs once they have been diffed: a pair found again is not
+ * diffed again, and if it had any differences, a reference to the earlier path is reported instead.  Other
+ * contexts forget them, so that a pair found again is diffed again, and its differences reported at each
+ * path.
+ * <p/>
+ * Contexts of subtrees diffed in parallel are not <em>forkable</em>: their subtrees are always diffed
+ * sequentially, so that tasks never wait for other tasks, and a bounded executor cannot deadlock.  They
+ * know the pairs being diffed above them, to cut cycles, but not the pairs visited by other tasks or by
+ * the rest of the run.  So they record each pair they enter or find again along with their differences,
+ * and the pairs are looked up in the parent context as the differences are replayed, in traversal order:
+ * when memoizing, the differences of a pair visited earlier in the run are dropped, and a reference to its
+ * earlier path is reported instead, exactly as in a sequential diff.
+ * <p/>
+ * Finally, the context counts the work done by the run, for {@link DiffMetrics}.  Forked contexts count
+ * their own, which is added to that of their parent when joined.  Resolver calls are only timed when the
+ * context is <em>timed</em>.
+ *
+ * @author tonior@gmail.com
+ */
+class DiffContext {
+    private final DiffListener listener;
+    private final RecordingDiffListener recording;
+    private final boolean forkable;
+    private final boolean memoizing;
+    private final Map<Object, Visit> visits = new IdentityHashMap<Object, Visit>();
+    private final List<Visit> inProgress = new ArrayList<Visit>();
+    private Fingerprinter fingerprinter;
+    private ChangeTracker.Baseline baseline;
+    private Map<DataResolver<?, ?>, Map<Object, Object>> resolved;
+    private Map<DataResolver<?, ?>, Map<Object, Object>> prefetched;
+    private boolean stopped;
+    private int differences;
+
+    private final boolean timed;
+    private long nodes;
+    private long fieldsRead;
+    private long resolverCalls;
+    private long resolverTime;
+    private int maxDepth;
+
+    /**
+     * @param listener  the listener of the run
+     * @param forkable  whether subtrees may be split into parallel tasks
+     * @param memoizing whether pairs already diffed are skipped, and referenced, rather than diffed again
+     * @param timed     whether resolver calls are timed
+     */
+    DiffContext(DiffListener listener, boolean forkable, boolean memoizing, boolean timed) {
+        this(listener, null, forkable, memoizing, timed);
+    }
+
+    private DiffContext(DiffListener listener, RecordingDiffListener recording, boolean forkable, boolean memoizing,
+                        boolean timed) {
+        this.listener = listener;
+        this.recording = recording;
+        this.forkable = forkable;
+        this.memoizing = memoizing;
+        this.timed = timed;
+    }
+
+    /**
+     * Creates the context of a subtree diffed in parallel.  The new context is not forkable, knows the
+     * pairs currently being diffed in this one, and records the pairs it visits along with its differences.
+     * Must be called by the thread using this context.
+     *
+     * @param recording the listener of the new context, whose differences are replayed to this context
+     * @return a context for the subtree
+     */
+    public DiffContext fork(RecordingDiffListener recording) {
+        DiffContext context = new DiffContext(recording, recording, false, memoizing, timed);
+        context.prefetched = prefetched;
+        context.baseline = baseline;
+        for (Visit visit : inProgress)
+            context.push(visit.path, visit.original, visit.current);
+        return context;
+    }
+
+    /**
+     * @return the fingerprinter of this run, created on first use
+     */
+    public Fingerprinter getFingerprinter() {
+        if (fingerprinter == null)
+            fingerprinter = new Fingerprinter();
+        return fingerprinter;
+    }
+
+    /**
+     * Sets the baseline of a tracked graph, whose state at the baseline stands for the original objects.
+     *
+     * @param baseline the baseline, or <code>null</code> for a diff of two objects
+     */
+    public void setBaseline(ChangeTracker.Baseline baseline) {
+        this.baseline = baseline;
+    }
+
+    /**
+     * @return the baseline of the tracked graph diffed, or <code>null</code> for a diff of two objects
+     */
+    public ChangeTracker.Baseline getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * Sets values resolved ahead of the diff, by resolver.  The map is shared with forked contexts, and must
+     * not be modified afterwards.
+     *
+     * @param prefetched the resolved values, by value, by resolver
+     */
+    public void setPrefetched(Map<DataResolver<?, ?>, Map<Object, Object>> prefetched) {
+        this.prefetched = prefetched;
+    }
+
+    /**
+     * @return whether values were resolved ahead of the diff
+     */
+    public boolean hasPrefetched() {
+        return prefetched != null;
+    }
+
+    /**
+     * Resolves a value, resolving each value at most once per resolver for the whole run.  Values resolved
+     * ahead of the diff are used first.
+     *
+     * @param resolver the resolver
+     * @param value    the value to resolve
+     * @return the resolved value
+     */
+    public Object resolve(DataResolver<Object, Object> resolver, Object value) {
+        Map<Object, Object> values = prefetched == null ? null : prefetched.get(resolver);
+        if (values != null && values.containsKey(value))
+            return values.get(value);
+        if (resolved == null)
+            resolved = new IdentityHashMap<DataResolver<?, ?>, Map<Object, Object>>();
+        values = resolved.get(resolver);
+        if (values == null)
+            resolved.put(resolver, values = new HashMap<Object, Object>());
+        Object result = values.get(value);
+        if (result == null && !values.containsKey(value)) {
+            result = callResolver(resolver, value);
+            values.put(value, result);
+        }
+        return result;
+    }
+
+    /**
+     * Calls a resolver, counting (and timing, if this context is timed) the call.
+     *
+     * @param resolver the resolver
+     * @param value    the value to resolve
+     * @return the resolved value
+     */
+    public Object callResolver(DataResolver<Object, Object> resolver, Object value) {
+        resolverCalls++;
+        if (!timed)
+            return resolver.resolve(value);
+        long start = System.nanoTime();
+        try {
+            return resolver.resolve(value);
+        } finally {
+            resolverTime += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Counts resolver calls made outside of this context, such as ahead of the diff.
+     *
+     * @param calls the number of calls
+     * @param time  the time spent in them, in nanoseconds
+     */
+    public void resolverCalled(int calls, long time) {
+        resolverCalls += calls;
+        resolverTime += time;
+    }
+
+    /**
+     * @return whether resolver calls are timed
+     */
+    public boolean isTimed() {
+        return timed;
+    }
+
+    /**
+     * Counts a pair of values compared, or a value resolved.
+     *
+     * @param path where the values are found
+     */
+    public void visited(DiffPath path) {
+        nodes++;
+        if (path.getDepth() > maxDepth)
+            maxDepth = path.getDepth();
+    }
+
+    /**
+     * Counts a field value read.
+     */
+    public void fieldRead() {
+        fieldsRead++;
+    }
+
+    /**
+     * Adds the work counted by a forked context to this one.  The differences of the forked context are not
+     * added, since they are counted again when replayed to this context.
+     *
+     * @param fork a context returned by {@link #fork(RecordingDiffListener)}, no longer in use
+     */
+    public void join(DiffContext fork) {
+        nodes += fork.nodes;
+        fieldsRead += fork.fieldsRead;
+        resolverCalls += fork.resolverCalls;
+        resolverTime += fork.resolverTime;
+        if (fork.maxDepth > maxDepth)
+            maxDepth = fork.maxDepth;
+    }
+
+    /**
+     * Returns the work counted so far.
+     *
+     * @param rootClass the class of the objects compared
+     * @param duration  the duration of the run, in nanoseconds
+     * @return the statistics of the run
+     */
+    public DiffStatistics getStatistics(Class<?> rootClass, long duration) {
+        return new DiffStatistics(rootClass, duration, nodes, fieldsRead, resolverCalls, resolverTime, differences,
+                maxDepth);
+    }
+
+    /**
+     * @return whether subtrees of this run may be split into parallel tasks
+     */
+    public boolean isForkable() {
+        return forkable;
+    }
+
+    /**
+     * @return whether the listener has asked to stop the traversal
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Marks the start of the diff of a pair of objects, unless it was visited before.
+     *
+     * @param path     where the pair is found
+     * @param original the original object
+     * @param current  the new object, or <code>null</code> when resolving <code>original</code>
+     * @return the visit, to pass to {@link #exit(Visit)} once the pair is diffed, or <code>null</code> if the
+     *         pair must not be diffed, being diffed already, or having been diffed before in a memoizing context
+     *         (in which case any reference to its earlier path has been reported, or recorded to be resolved
+     *         when replayed)
+     */
+    public Visit enter(DiffPath path, Object original, Object current) {
+        for (Visit visit = visits.get(original); visit != null; visit = visit.next) {
+            if (visit.current == current) {
+                if (recording != null)
+                    recording.revisited(path, original, current);
+                else if (!visit.inProgress && visit.differs)
+                    sameAs(path, visit.path);
+                return null;
+            }
+        }
+        if (recording != null)
+            recording.entered(path, original, current);
+        return push(path, original, current);
+    }
+
+    private Visit push(DiffPath path, Object original, Object current) {
+        Visit visit = new Visit(path, original, current, visits.get(original), differences);
+        visits.put(original, visit);
+        inProgress.add(visit);
+        return visit;
+    }
+
+    /**
+     * Marks the end of the diff of a pair of objects.
+     *
+     * @param visit the visit returned by {@link #enter(DiffPath, Object, Object)}
+     */
+    public void exit(Visit visit) {
+        visit.inProgress = false;
+        visit.differs = differences > visit.differencesBefore;
+        inProgress.remove(inProgress.size() - 1);
+        if (!memoizing) {
+            // Pairs are exited in the reverse order they were entered, so the visit is the first of its chain.
+            if (visit.next != null)
+                visits.put(visit.original, visit.next);
+            else
+                visits.remove(visit.original);
+        }
+        if (recording != null)
+            recording.exited();
+    }
+
+    public void changed(DiffPath path, Object original, Object current) {
+        if (!stopped && !listener.changed(path, original, current))
+            stopped = true;
+        differences++;
+    }
+
+    public void added(DiffPath path, Object current) {
+        if (!stopped && !listener.added(path, current))
+            stopped = true;
+        differences++;
+    }
+
+    public void removed(DiffPath path, Object original) {
+        if (!stopped && !listener.removed(path, original))
+            stopped = true;
+        differences++;
+    }
+
+    public void countChanged(DiffPath path, int originalCount, int currentCount) {
+        if (!stopped && !listener.countChanged(path, originalCount, currentCount))
+            stopped = true;
+        differences++;
+    }
+
+    public void moved(DiffPath path, DiffPath to, Object value) {
+        if (!stopped && !listener.moved(path, to, value))
+            stopped = true;
+        differences++;
+    }
+
+    public void sameAs(DiffPath path, DiffPath earlier) {
+        if (!stopped && !listener.sameAs(path, earlier))
+            stopped = true;
+        differences++;
+    }
+
+    /**
+     * A pair of objects visited during the run.
+     */
+    static class Visit {
+        final DiffPath path;
+        final Object original;
+        final Object current;
+        final Visit next;
+        final int differencesBefore;
+        boolean inProgress = true;
+        boolean differs;
+
+        Visit(DiffPath path, Object original, Object current, Visit next, int differencesBefore) {
+            this.path = path;
+            this.original = original;
+            this.current = current;
+            this.next = next;
+            this.differencesBefore = differencesBefore;
+        }
+    }
+}
@@ -2,15 +2,94 @@ package com.mythosis.beandiff;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * A generator is thread-safe: one instance can be shared by any number of threads diffing at the same time,
+ * without them contending for any lock.
+ *
  * @author tonior@gmail.com
  */
 public class DiffGenerator {
     private static final Logger logger = Logger.getLogger(DiffGenerator.class.getSimpleName());
+    private static final String COUNT = "count";
 
-    private final Map<String, DataResolver> resolvers = new HashMap<String, DataResolver>();
+    /**
+     * Default minimum number of items for an iterable or map to be split into parallel tasks.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1000;
+
+    /**
+     * Default maximum number of concurrent calls to the resolver of a data type, in asynchronous diffs.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_RESOLUTIONS = 16;
+
+    /**
+     * Returned when a field cannot be read.
+     */
+    static final Object UNREADABLE = new Object();
+
+    /**
+     * A listener that stops the traversal at the first difference.
+     */
+    private static final DiffListener FIRST_DIFFERENCE = new DiffListener() {
+        public boolean changed(DiffPath path, Object original, Object current) {
+            return false;
+        }
+
+        public boolean added(DiffPath path, Object current) {
+            return false;
+        }
+
+        public boolean removed(DiffPath path, Object original) {
+            return false;
+        }
+
+        public boolean countChanged(DiffPath path, int originalCount, int currentCount) {
+            return false;
+        }
+
+        public boolean moved(DiffPath path, DiffPath to, Object value) {
+            return false;
+        }
+
+        public boolean sameAs(DiffPath path, DiffPath earlier) {
+            return false;
+        }
+    };
+
+    /**
+     * The registered resolvers, by data type.  Never modified: registering or unregistering a resolver
+     * replaces the whole map, so that diffs read it without locking.
+     */
+    private volatile Map<String, DataResolver<Object, Object>> resolvers = Collections.emptyMap();
+    private final Map<String, Integer> maxConcurrentResolutions = new HashMap<String, Integer>();
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<String, Semaphore>();
+
+    private static ExecutorService defaultAsyncExecutor;
+    private volatile ExecutorService asyncExecutor;
+
+    private volatile DiffMetrics metrics;
+
+    private volatile ExecutorService parallelExecutor;
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private volatile boolean sequenceDiff;
+    private volatile boolean fingerprints;
+    private volatile boolean cacheResolvedValues;
+    private volatile boolean sharedObjectReferences;
 
     /**
      * Calculates the difference between two objects.
@@ -37,115 +116,1164 @@ public class DiffGenerator {
      * @see DiffField
      */
     public Map<String, String> diff(String tag, Object original, Object current) {
-        if (tag == null) tag = "";
-        final String prefix = tag.equals("") ? "" : (tag + ".");
-        Map<String, String> returnValue = new TreeMap<String, String>();
+        MapDiffListener listener = new MapDiffListener();
+        diff(tag, original, current, listener, true);
+        return listener.getDifferences();
+    }
 
-        if (original != null && current != null && original.getClass() != current.getClass())
-            throw new RuntimeException("'original' and 'current' arguments not same,  This usually happens with" +
-                    " persistent collections (since they are accessed with a proxy object.). system will try to diff anyway." +
-                    " Original:" + original.getClass().getName() + " Current:" + current.getClass().getName());
+    /**
+     * Calculates the difference between two objects, reporting each difference to a listener as it is found.
+     * <p/>
+     * The objects are compared exactly as by {@link #diff(String, Object, Object)}, but rather than being
+     * collected in a map, differences are handed to <code>listener</code> in traversal order, and nothing
+     * is buffered.  The listener can stop the traversal at any point by returning <code>false</code>.
+     * <p/>
+     * Since the listener may stop after the first few differences, values are not resolved ahead of the
+     * diff, even with a {@link BatchDataResolver} registered: each value is resolved when it is first
+     * compared, and only once per diff.
+     *
+     * @param tag      initial path name
+     * @param original original object
+     * @param current  new object
+     * @param listener the listener to report differences to
+     * @return <code>true</code> if the objects were compared completely, <code>false</code> if the listener
+     *         stopped the traversal
+     * @throws IllegalArgumentException If the two objects to compare are not of the same class.
+     * @see DiffListener
+     */
+    public boolean diff(String tag, Object original, Object current, DiffListener listener) {
+        return diff(tag, original, current, listener, false);
+    }
+
+    /**
+     * Calculates the difference between two objects, reporting each difference to a listener.
+     *
+     * @param prefetch whether values are resolved ahead of the diff, which only pays off if the listener
+     *                 collects all the differences
+     * @return <code>true</code> if the objects were compared completely
+     * @see #diff(String, Object, Object, DiffListener)
+     */
+    private boolean diff(String tag, Object original, Object current, DiffListener listener, boolean prefetch) {
+        DiffMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        DiffContext context = new DiffContext(listener, true, sharedObjectReferences, metrics != null);
+        if (prefetch)
+            prefetch(context, original, current, null);
+        diff(context, DiffPath.root(tag), original, current);
+        if (metrics != null)
+            report(metrics, context, original != null ? original : current, start);
+        return !context.isStopped();
+    }
+
+    /**
+     * Takes a snapshot of an object graph, to diff it later against what it has become, without keeping a
+     * copy of the graph.
+     *
+     * @param object the object to take a snapshot of
+     * @return the snapshot, holding the values of its {@link DiffField} fields, recursively
+     * @see Snapshot
+     */
+    public Snapshot snapshot(Object object) {
+        return Snapshot.capture(object);
+    }
+
+    /**
+     * Calculates the difference between a snapshot and an object.
+     *
+     * @param tag      initial key name for difference map
+     * @param original a snapshot of the original object, or <code>null</code>
+     * @param current  new object
+     * @return a map like the one returned by {@link #diff(String, Object, Object)}
+     * @throws IllegalArgumentException If the two objects to compare are not of the same class.
+     * @see #diff(String, Snapshot, Object, DiffListener)
+     */
+    public Map<String, String> diff(String tag, Snapshot original, Object current) {
+        if (original == null)
+            return diff(tag, (Object) null, current);
+        MapDiffListener listener = new MapDiffListener();
+        diff(tag, original, current, listener);
+        return listener.getDifferences();
+    }
+
+    /**
+     * Calculates the difference between a snapshot and an object, reporting each difference to a listener as
+     * it is found.
+     * <p/>
+     * The differences are those a {@link #diff(String, Object, Object, DiffListener) diff()} would find
+     * between a copy of the original object taken along with the snapshot and the new object.  Lists are
+     * compared item by item, even if {@link #setSequenceDiff(boolean) sequence diffs} are enabled, and the
+     * objects are diffed on the calling thread.
+     * <p/>
+     * A <code>null</code> snapshot stands for a <code>null</code> original object, so that calls passing a
+     * literal <code>null</code> original, which resolve to this method, behave as they always did.
+     *
+     * @param tag      initial path name
+     * @param original a snapshot of the original object, or <code>null</code>
+     * @param current  new object
+     * @param listener the listener to report differences to
+     * @return <code>true</code> if the objects were compared completely, <code>false</code> if the listener
+     *         stopped the traversal
+     * @throws IllegalArgumentException If the two objects to compare are not of the same class.
+     * @see Snapshot
+     */
+    public boolean diff(String tag, Snapshot original, Object current, DiffListener listener) {
+        if (original == null)
+            return diff(tag, (Object) null, current, listener);
+        DiffMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        DiffContext context = new DiffContext(listener, false, sharedObjectReferences, metrics != null);
+        diff(context, DiffPath.root(tag), original.getRoot(), current);
+        if (metrics != null)
+            report(metrics, context, current, start);
+        return !context.isStopped();
+    }
+
+    /**
+     * Calculates the changes made to a tracked graph since its baseline.
+     *
+     * @param tag     initial key name for difference map
+     * @param tracker the tracker of the graph
+     * @return a map like the one returned by {@link #diff(String, Object, Object)}
+     * @throws IllegalStateException if the tracker does not track any graph
+     * @see #diffChanges(String, ChangeTracker, DiffListener)
+     */
+    public Map<String, String> diffChanges(String tag, ChangeTracker tracker) {
+        MapDiffListener listener = new MapDiffListener();
+        diffChanges(tag, tracker, listener);
+        return listener.getDifferences();
+    }
+
+    /**
+     * Calculates the changes made to a tracked graph since its baseline, reporting each difference to a
+     * listener as it is found.
+     * <p/>
+     * The differences are those a {@link #diff(String, Object, Object, DiffListener) diff()} would find
+     * between a copy of the graph taken at the baseline and the graph, but only the fields written since the
+     * baseline, and the objects and collections leading to them, are visited.  Lists are compared item by
+     * item, even if {@link #setSequenceDiff(boolean) sequence diffs} are enabled, and the graph is diffed on
+     * the calling thread.  The baseline is not moved: see {@link ChangeTracker#commit()}.
+     *
+     * @param tag      initial path name
+     * @param tracker  the tracker of the graph
+     * @param listener the listener to report differences to
+     * @return <code>true</code> if the changes were compared completely, <code>false</code> if the listener
+     *         stopped the traversal
+     * @throws IllegalStateException if the tracker does not track any graph
+     * @see ChangeTracker
+     */
+    public boolean diffChanges(String tag, ChangeTracker tracker, DiffListener listener) {
+        DiffMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        ChangeTracker.Baseline baseline = tracker.getBaseline();
+        DiffContext context = new DiffContext(listener, false, sharedObjectReferences, metrics != null);
+        context.setBaseline(baseline);
+        diff(context, DiffPath.root(tag), baseline.getRoot(), baseline.getRoot());
+        if (metrics != null)
+            report(metrics, context, baseline.getRoot(), start);
+        return !context.isStopped();
+    }
+
+    /**
+     * Checks whether two objects differ at all.
+     * <p/>
+     * The objects are compared as by {@link #diff(String, Object, Object)}, but the comparison stops at
+     * the first difference found, and nothing is rendered or collected.  Since fields are compared
+     * cheapest first, this is much faster than a full diff for objects that differ, and no slower for
+     * objects that don't.
+     *
+     * @param original original object
+     * @param current  new object
+     * @return <code>true</code> if there is at least one difference between the two objects
+     * @throws IllegalArgumentException If the two objects to compare are not of the same class.
+     */
+    public boolean hasDifferences(Object original, Object current) {
+        return !diff(null, original, current, FIRST_DIFFERENCE);
+    }
+
+    /**
+     * Calculates at most <code>n</code> of the differences between two objects.
+     * <p/>
+     * The objects are compared as by {@link #diff(String, Object, Object)}, but the comparison stops as
+     * soon as <code>n</code> differences have been found.  Which differences are returned depends on the
+     * traversal order, in which fields are compared cheapest first.
+     *
+     * @param original original object
+     * @param current  new object
+     * @param n        the maximum number of differences to return
+     * @return a map like the one returned by <code>diff()</code> with an empty tag, with at most
+     *         <code>n</code> entries
+     * @throws IllegalArgumentException If the two objects to compare are not of the same class.
+     */
+    public Map<String, String> firstDifferences(Object original, Object current, int n) {
+        if (n <= 0)
+            return new TreeMap<String, String>();
+        MapDiffListener listener = new MapDiffListener(n);
+        diff(null, original, current, listener);
+        return listener.getDifferences();
+    }
+
+    /**
+     * Calculates the difference between two objects asynchronously, resolving data concurrently.
+     * <p/>
+     * The objects are compared as by {@link #diff(String, Object, Object)}, on a thread of the
+     * {@link #setAsyncExecutor(ExecutorService) asynchronous executor}.  Before comparing them, every value
+     * that a registered {@link DataResolver DataResolver} will be asked for is collected from both objects,
+     * and they are all resolved concurrently, on the same executor, rather than one after the other in the
+     * middle of the comparison.  Each distinct value is resolved once per diff, and the number of concurrent
+     * calls to the resolver of each data type is bounded (see
+     * {@link #setMaxConcurrentResolutions(String, int)}).  This mostly pays off with resolvers doing
+     * remote lookups.
+     * <p/>
+     * Values found inside resolved data, which can't be collected beforehand, are resolved during the
+     * comparison as usual.  Resolvers must be thread-safe.
+     *
+     * @param tag      initial key name for difference map
+     * @param original original object
+     * @param current  new object
+     * @return the future result of {@link #diff(String, Object, Object)}; if the two objects are not of the
+     *         same class, or a resolver fails, <code>get()</code> throws an <code>ExecutionException</code>
+     */
+    public Future<Map<String, String>> diffAsync(final String tag, final Object original, final Object current) {
+        final ExecutorService executor = getAsyncExecutor();
+        FutureTask<Map<String, String>> task = new FutureTask<Map<String, String>>(new Callable<Map<String, String>>() {
+            public Map<String, String> call() {
+                DiffMetrics metrics = DiffGenerator.this.metrics;
+                long start = metrics == null ? 0 : System.nanoTime();
+                MapDiffListener listener = new MapDiffListener();
+                DiffContext context = new DiffContext(listener, true, sharedObjectReferences, metrics != null);
+                prefetch(context, original, current, executor);
+                diff(context, DiffPath.root(tag), original, current);
+                if (metrics != null)
+                    report(metrics, context, original != null ? original : current, start);
+                return listener.getDifferences();
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Calculates the difference between two objects found at <code>path</code>, reporting it to
+     * <code>context</code>.
+     *
+     * @see #diff(String, Object, Object)
+     */
+    private void diff(DiffContext context, DiffPath path, Object original, Object current) {
+        context.visited(path);
+        // The very same object (or null on both sides) has no differences, unless it is part of a tracked
+        // graph and changed since its baseline.
+        ChangeTracker.Baseline baseline = context.getBaseline();
+        if (original == current && (baseline == null || !baseline.isTouched(original)))
+            return;
+        if (original instanceof Snapshot.Node) {
+            diffSnapshot(context, path, (Snapshot.Node) original, current);
+            return;
+        }
+        if (original != null && current != null)
+            checkSameClass(original.getClass(), current.getClass());
 
         // Special case when either or both values are null is handled below
         if (original != null && current != null) {
+            // The collections of a tracked graph are compared with their copies taken at the baseline.
+            if (baseline != null)
+                original = baseline.getContent(original);
             final Class<?> objectClass = original.getClass();
-            logger.finer("Diffing objects of type: " + objectClass.getSimpleName());
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("Diffing objects of type: " + objectClass.getSimpleName());
             // Check whether the class is Diffable.  Diffable classes are handled specially.
-            if (objectClass.isAnnotationPresent(Diffable.class)) {
+            final ClassDescriptor descriptor = ClassDescriptor.forClass(objectClass);
+            if (descriptor.isDiffable() || original instanceof Iterable || original instanceof Map) {
+                if (fingerprints && baseline == null && context.getFingerprinter().sameContent(original, current))
+                    return;
+                // Pairs being diffed (cycles), or already diffed elsewhere if shared objects are referenced, are
+                // not diffed again.
+                DiffContext.Visit visit = context.enter(path, original, current);
+                if (visit == null)
+                    return;
+                try {
+                    diffNode(context, path, descriptor, original, current);
+                } finally {
+                    context.exit(visit);
+                }
+                // If class isn't Diffable, not iterable, and not a map, simply use equals() to find any differences
+            } else if (!original.equals(current)) {
+                context.changed(path, original, current);
+            }
+            // Special case when either, but not both, is null.
+        } else {
+            if (original == null)
+                context.added(path, current);
+            else
+                resolveObject(context, path, original);
+        }
+    }
+
+    /**
+     * Diffs a node of a snapshot with the object found at the same path in the graph.
+     *
+     * @see #diff(String, Snapshot, Object, DiffListener)
+     */
+    private void diffSnapshot(DiffContext context, DiffPath path, Snapshot.Node original, Object current) {
+        if (current == null) {
+            resolveObject(context, path, original);
+            return;
+        }
+        checkSameClass(original.getType(), current.getClass());
+        DiffContext.Visit visit = context.enter(path, original, current);
+        if (visit == null)
+            return;
+        try {
+            diffNode(context, path, ClassDescriptor.forClass(original.getType()), original.getContent(), current);
+        } finally {
+            context.exit(visit);
+        }
+    }
+
+    private static void checkSameClass(Class<?> originalClass, Class<?> currentClass) {
+        if (originalClass != currentClass)
+            throw new RuntimeException("'original' and 'current' arguments not same,  This usually happens with" +
+                    " persistent collections (since they are accessed with a proxy object.). system will try to diff anyway." +
+                    " Original:" + originalClass.getName() + " Current:" + currentClass.getName());
+    }
+
+    /**
+     * @return the class of a value, or of the object a snapshot node stands for
+     */
+    private static Class<?> typeOf(Object value) {
+        return value instanceof Snapshot.Node ? ((Snapshot.Node) value).getType() : value.getClass();
+    }
+
+    /**
+     * Diffs two {@link Diffable} objects, iterables or maps, of the same class.
+     *
+     * @see #diff(DiffContext, DiffPath, Object, Object)
+     */
+    private void diffNode(DiffContext context, DiffPath path, ClassDescriptor descriptor, Object original,
+                          Object current) {
+        final Class<?> objectClass = descriptor.getType();
+        if (descriptor.isDiffable()) {
+            if (logger.isLoggable(Level.FINER))
                 logger.finer(objectClass.getSimpleName() + " is Diffable");
-                for (Field field : ObjectUtils.getAllFields(objectClass)) {
-                    // Only check fields annotated with DiffField.
-                    if (field.isAnnotationPresent(DiffField.class)) {
-                        Object originalFieldValue;
-                        Object currentFieldValue;
-                        try {
-                            originalFieldValue = ObjectUtils.getValueForField(field, original);
-                        } catch (IllegalAccessException e) {
-                            logger.severe("Error accessing field \"" + field.getName() + "\" in diff. Skipping." + e);
-                            continue;
-                        } catch (InvocationTargetException e) {
-                            logger.severe("Error accessing field \"" + field.getName() + "\" in diff. Skipping." + e);
-                            continue;
-                        }
-                        try {
-                            currentFieldValue = ObjectUtils.getValueForField(field, current);
-                        } catch (IllegalAccessException e) {
-                            logger.severe("Error accessing field \"" + field.getName() + "\" in diff. Skipping." + e);
-                            continue;
-                        } catch (InvocationTargetException e) {
-                            logger.severe("Error accessing field \"" + field.getName() + "\" in diff. Skipping." + e);
-                            continue;
-                        }
-                        // Resolve the data, in case some sort of lookup or any other processing is needed.
-                        DiffField annotation = field.getAnnotation(DiffField.class);
-                        String dataType = annotation.value();
-                        DataResolver resolver;
-                        synchronized (this) {
-                            resolver = resolvers.get(dataType);
-                        }
-                        if (resolver != null) {
-                            logger.finer("Resolving data...");
-                            originalFieldValue = resolver.resolve(originalFieldValue);
-                            currentFieldValue = resolver.resolve(currentFieldValue);
-                            logger.finer("Both data resolved.");
-                        }
-                        // Recursively call diff() on the two values, appending the field name to the tag.
-                        returnValue.putAll(this.diff(prefix + field.getName(), originalFieldValue, currentFieldValue));
-                    }
+            // Several large iterables or maps side by side are diffed in parallel.
+            if (canFork(context) && descriptor.getContainerFieldCount() > 1) {
+                diffFieldsInParallel(context, path, descriptor, original, current);
+                return;
+            }
+            // Only fields annotated with DiffField are described.
+            FieldDescriptor[] fields = descriptor.getFields();
+            for (int i = 0; i < fields.length; i++) {
+                FieldDescriptor field = fields[i];
+                if (context.isStopped())
+                    return;
+                Object originalFieldValue;
+                if (original instanceof Snapshot.Bean) {
+                    // Snapshots keep the values of the fields in the same order.
+                    originalFieldValue = ((Snapshot.Bean) original).getValue(i);
+                } else {
+                    // Primitive fields may be comparable without reading (and boxing) them, unless the
+                    // original object is part of a tracked graph and was written to since its baseline.
+                    if ((context.getBaseline() == null || !context.getBaseline().isWritten(original))
+                            && field.isKnownEqual(original, current))
+                        continue;
+                    originalFieldValue = readField(context, field, original);
+                    if (originalFieldValue != UNREADABLE && context.getBaseline() != null)
+                        originalFieldValue = context.getBaseline().getValue(original, field, originalFieldValue);
                 }
-            } else {
-                // For non-Diffable classes...
+                if (originalFieldValue == UNREADABLE)
+                    continue;
+                Object currentFieldValue = readField(context, field, current);
+                if (currentFieldValue == UNREADABLE)
+                    continue;
+                // Resolve the data, in case some sort of lookup or any other processing is needed.
+                DataResolver<Object, Object> resolver = getResolver(field);
+                if (resolver != null) {
+                    if (logger.isLoggable(Level.FINER))
+                        logger.finer("Resolving data...");
+                    originalFieldValue = resolve(context, resolver, originalFieldValue);
+                    currentFieldValue = resolve(context, resolver, currentFieldValue);
+                    if (logger.isLoggable(Level.FINER))
+                        logger.finer("Both data resolved.");
+                }
+                // Recursively call diff() on the two values, appending the field name to the path.
+                diff(context, path.child(field.getName()), originalFieldValue, currentFieldValue);
+            }
+        } else {
+            // For non-Diffable classes...
 
+            if (logger.isLoggable(Level.FINER))
                 logger.finer(objectClass.getSimpleName() + " is not Diffable.");
-                // Iterate through iterable objects
-                if (original instanceof Iterable) {
+            // Iterate through iterable objects
+            if (original instanceof Iterable) {
+                if (logger.isLoggable(Level.FINER))
                     logger.finer(objectClass.getSimpleName() + " is Iterable.");
-                    int i = 0;
-                    Iterator<?> oIterator = ((Iterable<?>) original).iterator();
-                    Iterator<?> cIterator = ((Iterable<?>) current).iterator();
-                    while (oIterator.hasNext() && cIterator.hasNext()) {
+                if (diffByKey(context, path, (Iterable<?>) original, (Iterable<?>) current))
+                    return;
+                if (sequenceDiff && context.getBaseline() == null && !(original instanceof Snapshot.Node)
+                        && original instanceof List
+                        && diffSequence(context, path, ((List<?>) original).toArray(), ((List<?>) current).toArray()))
+                    return;
+                if (canFork(context) && isLarge(original) && isLarge(current)) {
+                    diffItemsInParallel(context, path, ((Collection<?>) original).toArray(),
+                            ((Collection<?>) current).toArray());
+                    return;
+                }
+                int i = 0;
+                Iterator<?> oIterator = ((Iterable<?>) original).iterator();
+                Iterator<?> cIterator = ((Iterable<?>) current).iterator();
+                while (oIterator.hasNext() && cIterator.hasNext()) {
+                    if (context.isStopped())
+                        return;
+                    if (logger.isLoggable(Level.FINER))
                         logger.finer("Checking item with index: " + i);
-                        Object oObj = oIterator.next();
-                        Object cObj = cIterator.next();
-                        // Recursively call diff() on the corresponding values, appending the index.
-                        returnValue.putAll(this.diff(prefix + "idx" + ++i, oObj, cObj));
-                    }
+                    Object oObj = oIterator.next();
+                    Object cObj = cIterator.next();
+                    // Recursively call diff() on the corresponding values, appending the index.
+                    diff(context, path.index(++i), oObj, cObj);
+                }
 
-                    // If the item count is different, record it.
-                    if (oIterator.hasNext()) {
-                        while (oIterator.hasNext()) {
-                            oIterator.next();
-                            i++;
-                        }
-                        returnValue.put(prefix + "count", Integer.toString(i));
-                    } else if (cIterator.hasNext()) {
-                        returnValue.put(prefix + "count", Integer.toString(i));
-                    }
-                    // Iterate through map keys
-                } else if (original instanceof Map) {
-                    Map<?, ?> oMap = (Map<?, ?>) original;
-                    Map<?, ?> cMap = (Map<?, ?>) current;
-                    for (Object key : oMap.keySet()) {
-                        Object oObj = oMap.get(key);
-                        Object cObj = cMap.get(key);
+                // If the item count is different, record it.
+                if (oIterator.hasNext() || cIterator.hasNext()) {
+                    int originalCount = i;
+                    int currentCount = i;
+                    for (; oIterator.hasNext(); originalCount++)
+                        oIterator.next();
+                    for (; cIterator.hasNext(); currentCount++)
+                        cIterator.next();
+                    context.countChanged(path.child(COUNT), originalCount, currentCount);
+                }
+                // Iterate through map keys
+            } else if (original instanceof Map) {
+                Map<?, ?> oMap = (Map<?, ?>) original;
+                Map<?, ?> cMap = (Map<?, ?>) current;
+                if (oMap instanceof SortedMap && cMap instanceof SortedMap
+                        && sameOrder((SortedMap<?, ?>) oMap, (SortedMap<?, ?>) cMap)) {
+                    if (canFork(context) && isLarge(oMap))
+                        diffSortedMapsInParallel(context, path, (SortedMap<?, ?>) oMap, (SortedMap<?, ?>) cMap);
+                    else
+                        diffSortedMaps(context, path, (SortedMap<?, ?>) oMap, (SortedMap<?, ?>) cMap);
+                } else if (canFork(context) && isLarge(oMap)) {
+                    diffEntriesInParallel(context, path, oMap, cMap);
+                } else {
+                    int matched = 0;
+                    for (Map.Entry<?, ?> entry : oMap.entrySet()) {
+                        if (context.isStopped())
+                            return;
                         // Recursively call diff() on the corresponding vaues, appending the key.
-                        returnValue.putAll(this.diff(prefix + key.toString(), oObj, cObj));
+                        if (diffEntry(context, path, entry, cMap))
+                            matched++;
                     }
-                    // If class isn't Diffable, not iterable, and not a map, simply use equals() to find any differences
-                } else if (!original.equals(current)) {
-                    returnValue.put(tag, original.toString());
+                    // Unless every new key was matched, look for the added ones.
+                    if (matched < cMap.size())
+                        diffAddedEntries(context, path, oMap, cMap);
                 }
             }
-            // Special case when either, but not both, is null.  If both are null, there is no difference to record.
-        } else if (original != current) {
-            if (original == null)
-                returnValue.put(tag, "");
+        }
+    }
+
+    /**
+     * Diffs the fields of two {@link Diffable} objects, running the subtrees of large iterable and map
+     * fields as parallel tasks, while the other fields are diffed on the calling thread.
+     * <p/>
+     * All fields are read and resolved up front, in order, on the calling thread.  Differences are then
+     * reported field by field, in the same order as a sequential diff.
+     */
+    private void diffFieldsInParallel(DiffContext context, DiffPath path, ClassDescriptor descriptor,
+                                      Object original, Object current) {
+        FieldDescriptor[] fields = descriptor.getFields();
+        Object[] originalValues = new Object[fields.length];
+        Object[] currentValues = new Object[fields.length];
+        boolean[] forked = new boolean[fields.length];
+        List<Future<DiffTask>> tasks = new ArrayList<Future<DiffTask>>();
+        for (int i = 0; i < fields.length; i++) {
+            FieldDescriptor field = fields[i];
+            originalValues[i] = UNREADABLE;
+            if (field.isKnownEqual(original, current))
+                continue;
+            Object originalFieldValue = readField(context, field, original);
+            if (originalFieldValue == UNREADABLE)
+                continue;
+            Object currentFieldValue = readField(context, field, current);
+            if (currentFieldValue == UNREADABLE)
+                continue;
+            originalValues[i] = originalFieldValue;
+            currentValues[i] = currentFieldValue;
+            DataResolver<Object, Object> resolver = getResolver(field);
+            if (resolver != null) {
+                originalValues[i] = resolve(context, resolver, originalValues[i]);
+                currentValues[i] = resolve(context, resolver, currentValues[i]);
+            }
+            if (isLarge(originalValues[i]) || isLarge(currentValues[i])) {
+                tasks.add(fork(new SubtreeTask(context, path.child(field.getName()), originalValues[i], currentValues[i])));
+                forked[i] = true;
+            }
+        }
+        try {
+            for (int i = 0; i < fields.length && !context.isStopped(); i++) {
+                if (originalValues[i] == UNREADABLE)
+                    continue;
+                if (forked[i])
+                    join(context, tasks.remove(0));
+                else
+                    diff(context, path.child(fields[i].getName()), originalValues[i], currentValues[i]);
+            }
+        } finally {
+            cancel(tasks);
+        }
+    }
+
+    /**
+     * Diffs the corresponding items of two large iterables, split in chunks run as parallel tasks.  The
+     * first chunk is diffed on the calling thread while the others run.
+     */
+    private void diffItemsInParallel(DiffContext context, DiffPath path, Object[] oItems, Object[] cItems) {
+        int common = Math.min(oItems.length, cItems.length);
+        int chunk = chunkSize(common);
+        List<Future<DiffTask>> tasks = new ArrayList<Future<DiffTask>>();
+        for (int from = chunk; from < common; from += chunk)
+            tasks.add(fork(new ItemsTask(context, path, oItems, cItems, from, Math.min(from + chunk, common))));
+        try {
+            for (int i = 0; i < chunk && i < common && !context.isStopped(); i++)
+                diff(context, path.index(i + 1), oItems[i], cItems[i]);
+            while (!tasks.isEmpty() && !context.isStopped())
+                join(context, tasks.remove(0));
+        } finally {
+            cancel(tasks);
+        }
+        if (oItems.length != cItems.length)
+            context.countChanged(path.child(COUNT), oItems.length, cItems.length);
+    }
+
+    /**
+     * Diffs the values of two large maps, split in chunks of keys run as parallel tasks.  The first chunk is
+     * diffed on the calling thread while the others run.
+     */
+    private void diffEntriesInParallel(DiffContext context, DiffPath path, Map<?, ?> oMap, Map<?, ?> cMap) {
+        Object[] entries = oMap.entrySet().toArray();
+        int chunk = chunkSize(entries.length);
+        List<Future<DiffTask>> tasks = new ArrayList<Future<DiffTask>>();
+        for (int from = chunk; from < entries.length; from += chunk)
+            tasks.add(fork(new EntriesTask(context, path, entries, cMap, from, Math.min(from + chunk, entries.length))));
+        try {
+            for (int i = 0; i < chunk && i < entries.length && !context.isStopped(); i++)
+                diffEntry(context, path, (Map.Entry<?, ?>) entries[i], cMap);
+            while (!tasks.isEmpty() && !context.isStopped())
+                join(context, tasks.remove(0));
+        } finally {
+            cancel(tasks);
+        }
+        diffAddedEntries(context, path, oMap, cMap);
+    }
+
+    /**
+     * Diffs two large sorted maps with the same ordering, split in ranges of keys merged as parallel tasks.
+     * Each range starts at a key of the original map, so that differences are reported in the same order as
+     * a single merge.  The first range is merged on the calling thread while the others run.
+     */
+    private void diffSortedMapsInParallel(DiffContext context, DiffPath path, SortedMap<?, ?> oMap,
+                                          SortedMap<?, ?> cMap) {
+        Object[] keys = oMap.keySet().toArray();
+        int chunk = chunkSize(keys.length);
+        List<Future<DiffTask>> tasks = new ArrayList<Future<DiffTask>>();
+        for (int from = chunk; from < keys.length; from += chunk)
+            tasks.add(fork(new SortedEntriesTask(context, path, range(oMap, keys, from, from + chunk),
+                    range(cMap, keys, from, from + chunk))));
+        try {
+            diffSortedMaps(context, path, range(oMap, keys, 0, chunk), range(cMap, keys, 0, chunk));
+            while (!tasks.isEmpty() && !context.isStopped())
+                join(context, tasks.remove(0));
+        } finally {
+            cancel(tasks);
+        }
+    }
+
+    /**
+     * @return the entries of a sorted map from <code>keys[from]</code> included, or from its first key if
+     *         <code>from</code> is 0, to <code>keys[to]</code> excluded, or to its last key if <code>to</code> is
+     *         past the last of the keys
+     */
+    @SuppressWarnings("unchecked")
+    private static SortedMap<?, ?> range(SortedMap<?, ?> map, Object[] keys, int from, int to) {
+        SortedMap<Object, Object> sortedMap = (SortedMap<Object, Object>) map;
+        if (from == 0)
+            return to < keys.length ? sortedMap.headMap(keys[to]) : sortedMap;
+        return to < keys.length ? sortedMap.subMap(keys[from], keys[to]) : sortedMap.tailMap(keys[from]);
+    }
+
+    /**
+     * Base class of parallel tasks: diffs part of the graph into a {@link RecordingDiffListener}, in a
+     * context that is not allowed to fork again.
+     */
+    private abstract class DiffTask implements Callable<DiffTask> {
+        private final RecordingDiffListener recording = new RecordingDiffListener();
+        private final DiffContext context;
+
+        DiffTask(DiffContext parent) {
+            this.context = parent.fork(recording);
+        }
+
+        public DiffTask call() {
+            run(context);
+            return this;
+        }
+
+        protected abstract void run(DiffContext context);
+    }
+
+    private class SubtreeTask extends DiffTask {
+        private final DiffPath path;
+        private final Object original;
+        private final Object current;
+
+        SubtreeTask(DiffContext parent, DiffPath path, Object original, Object current) {
+            super(parent);
+            this.path = path;
+            this.original = original;
+            this.current = current;
+        }
+
+        protected void run(DiffContext context) {
+            diff(context, path, original, current);
+        }
+    }
+
+    private class ItemsTask extends DiffTask {
+        private final DiffPath path;
+        private final Object[] oItems;
+        private final Object[] cItems;
+        private final int from;
+        private final int to;
+
+        ItemsTask(DiffContext parent, DiffPath path, Object[] oItems, Object[] cItems, int from, int to) {
+            super(parent);
+            this.path = path;
+            this.oItems = oItems;
+            this.cItems = cItems;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void run(DiffContext context) {
+            for (int i = from; i < to; i++)
+                diff(context, path.index(i + 1), oItems[i], cItems[i]);
+        }
+    }
+
+    private class EntriesTask extends DiffTask {
+        private final DiffPath path;
+        private final Object[] entries;
+        private final Map<?, ?> cMap;
+        private final int from;
+        private final int to;
+
+        EntriesTask(DiffContext parent, DiffPath path, Object[] entries, Map<?, ?> cMap, int from, int to) {
+            super(parent);
+            this.path = path;
+            this.entries = entries;
+            this.cMap = cMap;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void run(DiffContext context) {
+            for (int i = from; i < to; i++)
+                diffEntry(context, path, (Map.Entry<?, ?>) entries[i], cMap);
+        }
+    }
+
+    private class SortedEntriesTask extends DiffTask {
+        private final DiffPath path;
+        private final SortedMap<?, ?> oMap;
+        private final SortedMap<?, ?> cMap;
+
+        SortedEntriesTask(DiffContext parent, DiffPath path, SortedMap<?, ?> oMap, SortedMap<?, ?> cMap) {
+            super(parent);
+            this.path = path;
+            this.oMap = oMap;
+            this.cMap = cMap;
+        }
+
+        protected void run(DiffContext context) {
+            diffSortedMaps(context, path, oMap, cMap);
+        }
+    }
+
+    /**
+     * Diffs an entry of the original map with the value of the same key in the new map, or reports it as
+     * removed (with <code>resolveObject()</code>) if the new map doesn't have that key.
+     *
+     * @return whether the new map has the key
+     */
+    private boolean diffEntry(DiffContext context, DiffPath path, Map.Entry<?, ?> entry, Map<?, ?> cMap) {
+        Object key = entry.getKey();
+        Object cObj = cMap.get(key);
+        if (cObj == null && !cMap.containsKey(key)) {
+            resolveObject(context, path.key(key), entry.getValue());
+            return false;
+        }
+        diff(context, path.key(key), entry.getValue(), cObj);
+        return true;
+    }
+
+    /**
+     * Reports the entries of the new map whose keys are not in the original map as added.
+     */
+    private void diffAddedEntries(DiffContext context, DiffPath path, Map<?, ?> oMap, Map<?, ?> cMap) {
+        for (Map.Entry<?, ?> entry : cMap.entrySet()) {
+            if (context.isStopped())
+                return;
+            if (!oMap.containsKey(entry.getKey()))
+                context.added(path.key(entry.getKey()), entry.getValue());
+        }
+    }
+
+    /**
+     * Diffs two sorted maps with the same ordering in a single pass, merging their entries in key order, with
+     * no lookups.  Keys found in only one of the maps are reported as removed or added.
+     */
+    @SuppressWarnings("unchecked")
+    private void diffSortedMaps(DiffContext context, DiffPath path, SortedMap<?, ?> oMap, SortedMap<?, ?> cMap) {
+        Comparator<Object> comparator = (Comparator<Object>) oMap.comparator();
+        Iterator<? extends Map.Entry<?, ?>> oIterator = oMap.entrySet().iterator();
+        Iterator<? extends Map.Entry<?, ?>> cIterator = cMap.entrySet().iterator();
+        Map.Entry<?, ?> oEntry = oIterator.hasNext() ? oIterator.next() : null;
+        Map.Entry<?, ?> cEntry = cIterator.hasNext() ? cIterator.next() : null;
+        while ((oEntry != null || cEntry != null) && !context.isStopped()) {
+            int order;
+            if (oEntry == null)
+                order = 1;
+            else if (cEntry == null)
+                order = -1;
+            else if (comparator != null)
+                order = comparator.compare(oEntry.getKey(), cEntry.getKey());
             else
-                returnValue.putAll(resolveObject(tag, original));
-//            returnValue.put(tag, original == null ? "" : original.toString());
+                order = ((Comparable<Object>) oEntry.getKey()).compareTo(cEntry.getKey());
+            if (order < 0) {
+                resolveObject(context, path.key(oEntry.getKey()), oEntry.getValue());
+            } else if (order > 0) {
+                context.added(path.key(cEntry.getKey()), cEntry.getValue());
+            } else {
+                diff(context, path.key(oEntry.getKey()), oEntry.getValue(), cEntry.getValue());
+            }
+            if (order <= 0)
+                oEntry = oIterator.hasNext() ? oIterator.next() : null;
+            if (order >= 0)
+                cEntry = cIterator.hasNext() ? cIterator.next() : null;
+        }
+    }
+
+    private static boolean sameOrder(SortedMap<?, ?> oMap, SortedMap<?, ?> cMap) {
+        Comparator<?> comparator = oMap.comparator();
+        return comparator == null ? cMap.comparator() == null : comparator.equals(cMap.comparator());
+    }
+
+    /**
+     * Diffs two iterables whose items have a {@link DiffKey}, matching items by key rather than by position.
+     * <p/>
+     * Items with the same key are diffed recursively, with the key as their path segment.  Original items
+     * with no match are reported as removed (with <code>resolveObject()</code>), and new items with no match
+     * as added.  Both iterables are indexed before anything is reported, in linear time.
+     *
+     * @return <code>false</code> if some items have no key, or keys are not unique, in which case nothing
+     *         was reported
+     */
+    private boolean diffByKey(DiffContext context, DiffPath path, Iterable<?> original, Iterable<?> current) {
+        Map<Object, Object> oItems = indexByKey(original);
+        if (oItems == null)
+            return false;
+        Map<Object, Object> cItems = indexByKey(current);
+        if (cItems == null)
+            return false;
+        int originalCount = oItems.size();
+        int currentCount = cItems.size();
+        for (Map.Entry<Object, Object> entry : oItems.entrySet()) {
+            if (context.isStopped())
+                return true;
+            DiffPath itemPath = path.key(entry.getKey());
+            Object oItem = entry.getValue();
+            Object cItem = cItems.remove(entry.getKey());
+            if (cItem != null && cItem.getClass() == typeOf(oItem)) {
+                diff(context, itemPath, oItem, cItem);
+            } else {
+                resolveObject(context, itemPath, oItem);
+                if (cItem != null)
+                    context.added(itemPath, cItem);
+            }
+        }
+        for (Map.Entry<Object, Object> entry : cItems.entrySet()) {
+            if (context.isStopped())
+                return true;
+            context.added(path.key(entry.getKey()), entry.getValue());
+        }
+        if (originalCount != currentCount)
+            context.countChanged(path.child(COUNT), originalCount, currentCount);
+        return true;
+    }
+
+    /**
+     * Indexes the items of an iterable by their {@link DiffKey}, keeping their order.
+     *
+     * @return the items by key, or <code>null</code> if some items are <code>null</code>, have no key or a
+     *         <code>null</code> key, or share a key
+     */
+    private static Map<Object, Object> indexByKey(Iterable<?> items) {
+        Map<Object, Object> index = new LinkedHashMap<Object, Object>();
+        for (Object item : items) {
+            if (item == null)
+                return null;
+            ClassDescriptor descriptor = ClassDescriptor.forClass(typeOf(item));
+            if (!descriptor.hasKey())
+                return null;
+            Object key;
+            try {
+                key = item instanceof Snapshot.Bean ? ((Snapshot.Bean) item).getKey() : descriptor.getKey(item);
+            } catch (IllegalAccessException e) {
+                logger.severe("Error accessing key of " + item.getClass().getName() + ", matching items by position. " + e);
+                return null;
+            } catch (InvocationTargetException e) {
+                logger.severe("Error accessing key of " + item.getClass().getName() + ", matching items by position. " + e);
+                return null;
+            }
+            if (key == null || index.put(key, item) != null)
+                return null;
+        }
+        return index;
+    }
+
+    /**
+     * Diffs two lists as sequences: items are matched by content, using {@link SequenceDiff}, and only
+     * the differences between matched stretches are reported.
+     * <p/>
+     * Between two stretches of matching items, original items that are equal to a new item elsewhere in the
+     * list are reported as moved.  The others are paired in order with the new items of the same gap, and
+     * diffed recursively, like positional items.  Whatever is left is reported as removed (with
+     * <code>resolveObject()</code>) or added.  Original items are identified by their position in the
+     * original list, and added items by their position in the new list.
+     *
+     * @return <code>false</code> if the lists differ too much, in which case nothing was reported
+     */
+    private boolean diffSequence(DiffContext context, DiffPath path, Object[] oItems, Object[] cItems) {
+        int[] matches = SequenceDiff.match(oItems, cItems);
+        if (matches == null)
+            return false;
+
+        // Unmatched new items by value, to find the unmatched original items that were moved.
+        boolean[] cMatched = new boolean[cItems.length];
+        for (int match : matches) {
+            if (match >= 0)
+                cMatched[match] = true;
+        }
+        Map<Object, LinkedList<Integer>> unmatched = new HashMap<Object, LinkedList<Integer>>();
+        for (int j = 0; j < cItems.length; j++) {
+            if (!cMatched[j]) {
+                LinkedList<Integer> positions = unmatched.get(cItems[j]);
+                if (positions == null)
+                    unmatched.put(cItems[j], positions = new LinkedList<Integer>());
+                positions.add(j);
+            }
+        }
+        int[] movedTo = new int[oItems.length];
+        for (int i = 0; i < oItems.length; i++) {
+            movedTo[i] = -1;
+            LinkedList<Integer> positions = matches[i] < 0 ? unmatched.get(oItems[i]) : null;
+            if (positions != null && !positions.isEmpty()) {
+                movedTo[i] = positions.removeFirst();
+                cMatched[movedTo[i]] = true;
+            }
+        }
+
+        int i = 0;
+        int j = 0;
+        while (i < oItems.length || j < cItems.length) {
+            // Find the end of the gap, i.e. the next pair of matching items.
+            int iEnd = i;
+            while (iEnd < oItems.length && matches[iEnd] < 0)
+                iEnd++;
+            int jEnd = iEnd < oItems.length ? matches[iEnd] : cItems.length;
+            for (; i < iEnd; i++) {
+                if (context.isStopped())
+                    return true;
+                if (movedTo[i] >= 0) {
+                    context.moved(path.index(i + 1), path.index(movedTo[i] + 1), oItems[i]);
+                    continue;
+                }
+                while (j < jEnd && cMatched[j])
+                    j++;
+                if (j < jEnd && (oItems[i] == null || cItems[j] == null || oItems[i].getClass() == cItems[j].getClass())) {
+                    diff(context, path.index(i + 1), oItems[i], cItems[j++]);
+                } else {
+                    resolveObject(context, path.index(i + 1), oItems[i]);
+                }
+            }
+            for (; j < jEnd && !context.isStopped(); j++) {
+                if (!cMatched[j])
+                    context.added(path.index(j + 1), cItems[j]);
+            }
+            // Skip the matching pair.
+            i = iEnd + 1;
+            j = jEnd + 1;
+        }
+        if (oItems.length != cItems.length)
+            context.countChanged(path.child(COUNT), oItems.length, cItems.length);
+        return true;
+    }
+
+    private boolean canFork(DiffContext context) {
+        return parallelExecutor != null && context.isForkable();
+    }
+
+    private boolean isLarge(Object value) {
+        int size;
+        if (value instanceof Collection)
+            size = ((Collection<?>) value).size();
+        else if (value instanceof Map)
+            size = ((Map<?, ?>) value).size();
+        else
+            return false;
+        return size >= parallelThreshold;
+    }
+
+    private int chunkSize(int items) {
+        int tasks = 4 * Runtime.getRuntime().availableProcessors();
+        return Math.max(parallelThreshold, (items + tasks - 1) / tasks);
+    }
+
+    private Future<DiffTask> fork(DiffTask task) {
+        return parallelExecutor.submit(task);
+    }
+
+    /**
+     * Waits for a parallel task, and replays its differences to <code>context</code>, adding the work it did.
+     */
+    private void join(DiffContext context, Future<DiffTask> task) {
+        DiffTask done = await(task);
+        done.recording.replay(context);
+        context.join(done.context);
+    }
+
+    /**
+     * Reports the statistics of a completed run.
+     *
+     * @param root  the original object, or the new one if the original is <code>null</code>
+     * @param start when the run started, as returned by <code>System.nanoTime()</code>
+     */
+    private static void report(DiffMetrics metrics, DiffContext context, Object root, long start) {
+        long duration = System.nanoTime() - start;
+        metrics.diffCompleted(context.getStatistics(root == null ? null : root.getClass(), duration));
+    }
+
+    /**
+     * Waits for a task, rethrowing whatever it threw.
+     */
+    private static <T> T await(Future<T> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a diff task.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException("Diff task failed.", cause);
         }
+    }
+
+    private void cancel(List<Future<DiffTask>> tasks) {
+        for (Future<DiffTask> task : tasks)
+            task.cancel(false);
+    }
 
-        return returnValue;
+    /**
+     * Reads the value of a field, counting the read.
+     *
+     * @see #readField(FieldDescriptor, Object)
+     */
+    private static Object readField(DiffContext context, FieldDescriptor field, Object object) {
+        context.fieldRead();
+        return readField(field, object);
+    }
+
+    /**
+     * Reads the value of a field, logging any error.
+     *
+     * @return the value, or {@link #UNREADABLE} if the field could not be read
+     */
+    static Object readField(FieldDescriptor field, Object object) {
+        try {
+            return field.getValue(object);
+        } catch (IllegalAccessException e) {
+            logger.severe("Error accessing field \"" + field.getName() + "\" in diff. Skipping." + e);
+        } catch (InvocationTargetException e) {
+            logger.severe("Error accessing field \"" + field.getName() + "\" in diff. Skipping." + e);
+        }
+        return UNREADABLE;
+    }
+
+    private Object resolve(DiffContext context, DataResolver<Object, Object> resolver, Object value) {
+        if (cacheResolvedValues || context.hasPrefetched() || resolver instanceof BatchDataResolver)
+            return context.resolve(resolver, value);
+        return context.callResolver(resolver, value);
+    }
+
+    /**
+     * Resolves, ahead of the diff, the values that registered resolvers will be asked for.
+     * <p/>
+     * Without an executor, only the values of {@link BatchDataResolver BatchDataResolvers} are resolved, with
+     * one call per data type, on the calling thread; nothing is done if no such resolver is registered.  With
+     * an executor, the values of all resolvers are resolved, concurrently, on the executor, with at most
+     * {@link #setMaxConcurrentResolutions(String, int) a maximum} of calls at a time per data type.  Calls
+     * that have not started yet when the results are needed are run on the calling thread, so that waiting
+     * for them cannot deadlock a bounded executor.
+     */
+    private void prefetch(DiffContext context, Object original, Object current, Executor executor) {
+        Map<String, DataResolver<Object, Object>> registered = resolvers;
+        boolean batch = false;
+        for (DataResolver<Object, Object> resolver : registered.values())
+            batch |= resolver instanceof BatchDataResolver;
+        if (!batch && (executor == null || registered.isEmpty()))
+            return;
+        Map<String, Set<Object>> values = new HashMap<String, Set<Object>>();
+        Map<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+        collectValues(original, registered, executor != null, values, visited);
+        collectValues(current, registered, executor != null, values, visited);
+
+        List<Resolution> resolutions = new ArrayList<Resolution>();
+        for (Map.Entry<String, Set<Object>> entry : values.entrySet()) {
+            DataResolver<Object, Object> resolver = registered.get(entry.getKey());
+            Semaphore permits = executor == null ? null : getPermits(entry.getKey());
+            if (resolver instanceof BatchDataResolver) {
+                if (logger.isLoggable(Level.FINER))
+                    logger.finer("Resolving " + entry.getValue().size() + " values in batch...");
+                resolutions.add(new Resolution(resolver, entry.getValue(), permits));
+            } else {
+                for (Object value : entry.getValue())
+                    resolutions.add(new Resolution(resolver, Collections.singleton(value), permits));
+            }
+        }
+        if (executor != null) {
+            for (Resolution resolution : resolutions) {
+                try {
+                    executor.execute(resolution.task);
+                } catch (RejectedExecutionException e) {
+                    // Run below, on this thread.
+                }
+            }
+        }
+        Map<DataResolver<?, ?>, Map<Object, Object>> prefetched = new IdentityHashMap<DataResolver<?, ?>, Map<Object, Object>>();
+        for (Resolution resolution : resolutions) {
+            // Does nothing if the resolution was already started by the executor.
+            resolution.task.run();
+            Map<Object, Object> resolved = await(resolution.task);
+            context.resolverCalled(1, resolution.time);
+            if (resolved == null)
+                continue;
+            Map<Object, Object> resolverValues = prefetched.get(resolution.resolver);
+            if (resolverValues == null)
+                prefetched.put(resolution.resolver, resolverValues = new HashMap<Object, Object>());
+            resolverValues.putAll(resolved);
+        }
+        context.setPrefetched(prefetched);
+    }
+
+    /**
+     * Collects the values of the fields with a resolver in an object graph, by data type, following the same
+     * fields, items and entries as <code>diff()</code>.  The values of fields with any resolver are not
+     * followed, since they are compared once resolved.
+     *
+     * @param all whether to collect the values of all resolvers, or only of {@link BatchDataResolver
+     *            BatchDataResolvers}
+     */
+    private static void collectValues(Object object, Map<String, DataResolver<Object, Object>> registered, boolean all,
+                                      Map<String, Set<Object>> values, Map<Object, Boolean> visited) {
+        if (object == null)
+            return;
+        ClassDescriptor descriptor = ClassDescriptor.forClass(object.getClass());
+        if (!descriptor.isDiffable() && !(object instanceof Iterable) && !(object instanceof Map))
+            return;
+        if (visited.put(object, Boolean.TRUE) != null)
+            return;
+        if (descriptor.isDiffable()) {
+            for (FieldDescriptor field : descriptor.getFields()) {
+                Object value = readField(field, object);
+                if (value == UNREADABLE)
+                    continue;
+                DataResolver<Object, Object> resolver = registered.get(field.getDataType());
+                if (resolver == null) {
+                    collectValues(value, registered, all, values, visited);
+                } else if ((all || resolver instanceof BatchDataResolver) && value != null) {
+                    Set<Object> typeValues = values.get(field.getDataType());
+                    if (typeValues == null)
+                        values.put(field.getDataType(), typeValues = new LinkedHashSet<Object>());
+                    typeValues.add(value);
+                }
+            }
+        } else if (object instanceof Iterable) {
+            for (Object item : (Iterable<?>) object)
+                collectValues(item, registered, all, values, visited);
+        } else {
+            for (Object value : ((Map<?, ?>) object).values())
+                collectValues(value, registered, all, values, visited);
+        }
+    }
+
+    /**
+     * Resolves values with a resolver, either all at once with a {@link BatchDataResolver}, or one by one,
+     * holding a permit while doing so, and timing the call.  Run through its {@link #task}.
+     */
+    private static class Resolution implements Callable<Map<Object, Object>> {
+        final FutureTask<Map<Object, Object>> task = new FutureTask<Map<Object, Object>>(this);
+        final DataResolver<Object, Object> resolver;
+        private final Collection<Object> values;
+        private final Semaphore permits;
+        /**
+         * Written by the task, read once it is done.
+         */
+        long time;
+
+        Resolution(DataResolver<Object, Object> resolver, Collection<Object> values, Semaphore permits) {
+            this.resolver = resolver;
+            this.values = values;
+            this.permits = permits;
+        }
+
+        public Map<Object, Object> call() throws InterruptedException {
+            if (permits != null)
+                permits.acquire();
+            long start = System.nanoTime();
+            try {
+                if (resolver instanceof BatchDataResolver)
+                    return ((BatchDataResolver<Object, Object>) resolver).resolveAll(values);
+                Map<Object, Object> resolved = new HashMap<Object, Object>();
+                for (Object value : values)
+                    resolved.put(value, resolver.resolve(value));
+                return resolved;
+            } finally {
+                time = System.nanoTime() - start;
+                if (permits != null)
+                    permits.release();
+            }
+        }
+    }
+
+    private Semaphore getPermits(String forType) {
+        Semaphore semaphore = permits.get(forType);
+        if (semaphore == null) {
+            synchronized (this) {
+                semaphore = permits.get(forType);
+                if (semaphore == null) {
+                    Integer max = maxConcurrentResolutions.get(forType);
+                    semaphore = new Semaphore(max == null ? DEFAULT_MAX_CONCURRENT_RESOLUTIONS : max, true);
+                    permits.put(forType, semaphore);
+                }
+            }
+        }
+        return semaphore;
+    }
+
+    private DataResolver<Object, Object> getResolver(FieldDescriptor field) {
+        return resolvers.get(field.getDataType());
     }
 
     /**
@@ -159,77 +1287,118 @@ public class DiffGenerator {
      * @return a map with all the data in the object, according to normal {@link DiffGenerator DiffGenerator} rules
      */
     public Map<String, String> resolveObject(String tag, Object object) {
-        if (tag == null) tag = "";
-        final String prefix = tag.equals("") ? "" : (tag + ".");
-        Map<String, String> returnValue = new TreeMap<String, String>();
+        DiffMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        MapDiffListener listener = new MapDiffListener();
+        DiffContext context = new DiffContext(listener, true, sharedObjectReferences, metrics != null);
+        prefetch(context, object, null, null);
+        resolveObject(context, DiffPath.root(tag), object);
+        if (metrics != null)
+            report(metrics, context, object, start);
+        return listener.getDifferences();
+    }
 
+    /**
+     * Resolves an object found at <code>path</code>, reporting all its data to <code>context</code> as removed.
+     *
+     * @see #resolveObject(String, Object)
+     */
+    private void resolveObject(DiffContext context, DiffPath path, Object object) {
+        context.visited(path);
         if (object == null)
-            returnValue.put(tag, "");
+            context.removed(path, null);
         else {
-            final Class<?> objectClass = object.getClass();
-            logger.finer("Resolving object of type: " + objectClass.getSimpleName());
+            if (context.getBaseline() != null)
+                object = context.getBaseline().getContent(object);
+            final Class<?> objectClass = typeOf(object);
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("Resolving object of type: " + objectClass.getSimpleName());
             // Check whether the class is Diffable.  Diffable classes are handled specially.
-            if (objectClass.isAnnotationPresent(Diffable.class)) {
-                logger.finer(objectClass.getSimpleName() + " is Diffable");
-                for (Field field : ObjectUtils.getAllFields(objectClass)) {
-                    // Only check fields annotated with DiffField.
-                    if (field.isAnnotationPresent(DiffField.class)) {
-                        Object fieldValue;
-                        try {
-                            fieldValue = ObjectUtils.getValueForField(field, object);
-                        } catch (IllegalAccessException e) {
-                            logger.severe("Error accessing field \"" + field.getName() + "\" in diff. Skipping." + e);
-                            continue;
-                        } catch (InvocationTargetException e) {
-                            logger.severe("Error accessing field \"" + field.getName() + "\" in diff. Skipping." + e);
-                            continue;
-                        }
-                        // Resolve the data, in case some sort of lookup or any other processing is needed.
-                        DiffField annotation = field.getAnnotation(DiffField.class);
-                        String dataType = annotation.value();
-                        DataResolver resolver;
-                        synchronized (this) {
-                            resolver = resolvers.get(dataType);
-                        }
-                        if (resolver != null) {
-                            logger.finer("Resolving data...");
-                            fieldValue = resolver.resolve(fieldValue);
-                            logger.finer("Data resolved.");
-                        }
-                        // Recursively call resolveObject() on the two values, appending the field name to the tag.
-                        returnValue.putAll(this.resolveObject(prefix + field.getName(), fieldValue));
-                    }
+            final ClassDescriptor descriptor = ClassDescriptor.forClass(objectClass);
+            if (descriptor.isDiffable() || object instanceof Iterable || object instanceof Map
+                    || object instanceof Snapshot.Node) {
+                // Objects being resolved (cycles), or already resolved elsewhere if shared objects are referenced,
+                // are not resolved again.
+                DiffContext.Visit visit = context.enter(path, object, null);
+                if (visit == null)
+                    return;
+                try {
+                    resolveNode(context, path, descriptor,
+                            object instanceof Snapshot.Node ? ((Snapshot.Node) object).getContent() : object);
+                } finally {
+                    context.exit(visit);
                 }
+                // If class isn't Diffable, not iterable, and not a map, simply add the object as a string
             } else {
-                // For non-Diffable classes...
+                context.removed(path, object);
+            }
+        }
+    }
 
+    /**
+     * Resolves a {@link Diffable} object, an iterable or a map.
+     *
+     * @see #resolveObject(DiffContext, DiffPath, Object)
+     */
+    private void resolveNode(DiffContext context, DiffPath path, ClassDescriptor descriptor, Object object) {
+        final Class<?> objectClass = descriptor.getType();
+        if (descriptor.isDiffable()) {
+            if (logger.isLoggable(Level.FINER))
+                logger.finer(objectClass.getSimpleName() + " is Diffable");
+            // Only fields annotated with DiffField are described.
+            FieldDescriptor[] fields = descriptor.getFields();
+            for (int i = 0; i < fields.length; i++) {
+                FieldDescriptor field = fields[i];
+                if (context.isStopped())
+                    return;
+                Object fieldValue = object instanceof Snapshot.Bean
+                        ? ((Snapshot.Bean) object).getValue(i)
+                        : readField(context, field, object);
+                if (fieldValue == UNREADABLE)
+                    continue;
+                if (context.getBaseline() != null)
+                    fieldValue = context.getBaseline().getValue(object, field, fieldValue);
+                // Resolve the data, in case some sort of lookup or any other processing is needed.
+                DataResolver<Object, Object> resolver = getResolver(field);
+                if (resolver != null) {
+                    if (logger.isLoggable(Level.FINER))
+                        logger.finer("Resolving data...");
+                    fieldValue = resolve(context, resolver, fieldValue);
+                    if (logger.isLoggable(Level.FINER))
+                        logger.finer("Data resolved.");
+                }
+                // Recursively call resolveObject() on the two values, appending the field name to the path.
+                resolveObject(context, path.child(field.getName()), fieldValue);
+            }
+        } else {
+            // For non-Diffable classes...
+
+            if (logger.isLoggable(Level.FINER))
                 logger.finer(objectClass.getSimpleName() + " is not Diffable.");
-                // Iterate through iterable objects
-                if (object instanceof Iterable) {
+            // Iterate through iterable objects
+            if (object instanceof Iterable) {
+                if (logger.isLoggable(Level.FINER))
                     logger.finer(objectClass.getSimpleName() + " is Iterable.");
-                    int i = 0;
-                    for (Object o : ((Iterable<?>) object)) {
+                int i = 0;
+                for (Object o : ((Iterable<?>) object)) {
+                    if (context.isStopped())
+                        return;
+                    if (logger.isLoggable(Level.FINER))
                         logger.finer("Checking item with index: " + i);
-                        // Recursively call resolveObject() on the corresponding values, appending the index.
-                        returnValue.putAll(this.resolveObject(prefix + "idx" + ++i, o));
-                    }
-                    // Iterate through map keys
-                } else if (object instanceof Map) {
-                    Map<?, ?> oMap = (Map<?, ?>) object;
-                    for (Object key : oMap.keySet()) {
-                        Object obj = oMap.get(key);
-                        // Recursively call resolveObject() on the corresponding vaues, appending the key.
-                        returnValue.putAll(this.resolveObject(prefix + key.toString(), obj));
-                    }
-                    // If class isn't Diffable, not iterable, and not a map, simply add the object as a string
-                } else {
-                    returnValue.put(tag, object.toString());
+                    // Recursively call resolveObject() on the corresponding values, appending the index.
+                    resolveObject(context, path.index(++i), o);
+                }
+                // Iterate through map keys
+            } else if (object instanceof Map) {
+                Map<?, ?> oMap = (Map<?, ?>) object;
+                for (Map.Entry<?, ?> entry : oMap.entrySet()) {
+                    if (context.isStopped())
+                        return;
+                    // Recursively call resolveObject() on the corresponding vaues, appending the key.
+                    resolveObject(context, path.key(entry.getKey()), entry.getValue());
                 }
             }
-
         }
-
-        return returnValue;
     }
 
     /**
@@ -247,12 +1416,22 @@ public class DiffGenerator {
      * @see DiffGenerator#unregisterDataResolver(String)
      * @see DiffField
      */
-    public synchronized DataResolver registerDataResolver(String forType, DataResolver resolver) {
-        DataResolver old = resolvers.get(forType);
-        resolvers.put(forType, resolver);
+    public synchronized DataResolver<?, ?> registerDataResolver(String forType, DataResolver<?, ?> resolver) {
+        Map<String, DataResolver<Object, Object>> updated = new HashMap<String, DataResolver<Object, Object>>(resolvers);
+        DataResolver<?, ?> old = updated.put(forType, anyValue(resolver));
+        resolvers = Collections.unmodifiableMap(updated);
         return old;
     }
 
+    /**
+     * Resolvers are kept as resolvers of any value: they are only given the values of fields declaring their
+     * data type.
+     */
+    @SuppressWarnings("unchecked")
+    private static DataResolver<Object, Object> anyValue(DataResolver<?, ?> resolver) {
+        return (DataResolver<Object, Object>) resolver;
+    }
+
     /**
      * Unregisters a {@link DataResolver DataResolver}.
      *
@@ -262,7 +1441,202 @@ public class DiffGenerator {
      * @see DiffField
      */
     public synchronized void unregisterDataResolver(String forType) {
-        resolvers.remove(forType);
+        Map<String, DataResolver<Object, Object>> updated = new HashMap<String, DataResolver<Object, Object>>(resolvers);
+        updated.remove(forType);
+        resolvers = Collections.unmodifiableMap(updated);
+    }
+
+    /**
+     * Sets whether lists are diffed as sequences rather than item by item.  Off by default.
+     * <p/>
+     * By default, the items of two iterables are compared by position: <code>idx1</code> with
+     * <code>idx1</code>, <code>idx2</code> with <code>idx2</code>, and so on, so that an item inserted at the
+     * head of a list shows every following item as changed.  When diffing lists as sequences, items are first
+     * matched by content (with <code>equals()</code>), using a longest common subsequence.  Matching items are
+     * not diffed further, items equal to an item at another position are reported as
+     * {@link DiffListener#moved(DiffPath, DiffPath, Object) moved}, and only the remaining items are diffed
+     * recursively, paired in order between matching stretches, or reported as removed or added.
+     * <p/>
+     * Matching relies on the items' <code>equals()</code> and <code>hashCode()</code>: {@link Diffable Diffable}
+     * items that don't override them only match themselves, and are then compared by position, as before.
+     * Lists that differ by more than a thousand items are also compared by position.  Other iterables, such as
+     * sets, are always compared by position.  Items that have a {@link DiffKey DiffKey} are matched by key
+     * instead, whatever this setting.
+     *
+     * @param sequenceDiff whether to diff lists as sequences
+     */
+    public void setSequenceDiff(boolean sequenceDiff) {
+        this.sequenceDiff = sequenceDiff;
+    }
+
+    /**
+     * Sets the executor running asynchronous diffs and their data resolution.
+     * <p/>
+     * By default, a shared executor is used, running each task on a virtual thread if the JVM supports them
+     * (Java 21 and later), or on a cached pool of daemon threads otherwise.
+     *
+     * @param executor the executor to use, or <code>null</code> to go back to the default one
+     * @see #diffAsync(String, Object, Object)
+     */
+    public void setAsyncExecutor(ExecutorService executor) {
+        this.asyncExecutor = executor;
+    }
+
+    /**
+     * Sets the maximum number of concurrent calls to the resolver of a data type, in asynchronous diffs.
+     * Defaults to {@link #DEFAULT_MAX_CONCURRENT_RESOLUTIONS}.  The limit applies to all the asynchronous
+     * diffs of this generator together.
+     *
+     * @param forType the field/data type
+     * @param max     the maximum number of concurrent calls, at least 1
+     * @see #diffAsync(String, Object, Object)
+     */
+    public synchronized void setMaxConcurrentResolutions(String forType, int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("Maximum concurrent resolutions must be at least 1: " + max);
+        maxConcurrentResolutions.put(forType, max);
+        permits.remove(forType);
+    }
+
+    private ExecutorService getAsyncExecutor() {
+        ExecutorService executor = asyncExecutor;
+        return executor != null ? executor : getDefaultAsyncExecutor();
+    }
+
+    /**
+     * Creates the default asynchronous executor on first use: a virtual thread per task executor if
+     * available, looked up reflectively since this library is built for older JVMs, or a cached pool of
+     * daemon threads otherwise.
+     */
+    private static synchronized ExecutorService getDefaultAsyncExecutor() {
+        if (defaultAsyncExecutor == null) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                defaultAsyncExecutor = (ExecutorService) factory.invoke(null);
+            } catch (NoSuchMethodException e) {
+                logger.finer("Virtual threads not available.");
+            } catch (IllegalAccessException e) {
+                logger.warning("Could not create a virtual thread executor. " + e);
+            } catch (InvocationTargetException e) {
+                logger.warning("Could not create a virtual thread executor. " + e.getCause());
+            }
+            if (defaultAsyncExecutor == null) {
+                defaultAsyncExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "beandiff-async-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        return defaultAsyncExecutor;
+    }
+
+    /**
+     * Sets the metrics told about every completed diff run, or disables metrics if <code>metrics</code> is
+     * <code>null</code>, which is the default.
+     * <p/>
+     * Without metrics, diffs only count their work, as cheaply as incrementing a few fields; resolver calls
+     * and runs are only timed with metrics.
+     *
+     * @param metrics the metrics, or <code>null</code>
+     * @see JmxDiffMetrics
+     */
+    public void setMetrics(DiffMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets whether values are resolved at most once per diff run.  Off by default.
+     * <p/>
+     * When on, each {@link DataResolver DataResolver} is called only once per distinct value (as per
+     * <code>equals()</code>) in a single <code>diff()</code> or <code>resolveObject()</code> call: the original
+     * and new values of a field, and every other field referring to the same value, share the result.  The
+     * results are forgotten at the end of the call, so they never go stale.  To also keep results between
+     * calls, wrap resolvers in a {@link CachingDataResolver CachingDataResolver}.
+     *
+     * @param cacheResolvedValues whether to resolve values once per run
+     */
+    public void setCacheResolvedValues(boolean cacheResolvedValues) {
+        this.cacheResolvedValues = cacheResolvedValues;
+    }
+
+    /**
+     * Sets whether subtrees with the same content are skipped, based on their structural fingerprints.  Off
+     * by default.
+     * <p/>
+     * When on, the first time two {@link Diffable Diffable} objects, iterables or maps are compared, a 64-bit
+     * hash of the content of each is computed (see {@link Fingerprinter}), caching those of every object
+     * below them for the rest of the run.  When the two hashes are equal, the objects are not compared at
+     * all, and no {@link DataResolver DataResolver} is called for them.  Comparing two large graphs that
+     * differ in a few leaves then costs one pass over each graph to hash it, plus the comparison of the
+     * subtrees leading to the differences.
+     * <p/>
+     * Only subtrees made of <code>Diffable</code> objects, iterables, maps, strings, primitive wrappers and
+     * enums are hashed; others are always compared.  Differences hidden by a hash collision are possible in
+     * theory, but unlikely enough to be ignored in practice.  Registered resolvers must return equal results
+     * for equal values.
+     *
+     * @param fingerprints whether to skip subtrees with the same fingerprint
+     */
+    public void setFingerprints(boolean fingerprints) {
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Sets whether objects found again are reported as references to where they were first diffed.  Off by
+     * default.
+     * <p/>
+     * Cycles are always cut: a {@link Diffable Diffable} object, iterable or map found again, with the same
+     * counterpart, while it is still being diffed is skipped.  By default, an object found again once it has
+     * been diffed, such as the same address referenced as both the billing and the shipping address, is
+     * diffed again, so that each path lists its own differences.  When on, it is not: if it had any
+     * differences, {@link DiffListener#sameAs(DiffPath, DiffPath) sameAs()} is reported instead, which
+     * <code>diff()</code> maps to the earlier path rather than to a value.  This makes the cost of a diff
+     * grow with the number of distinct objects rather than with the number of references to them.
+     *
+     * @param sharedObjectReferences whether to diff shared objects once, and report references to them
+     */
+    public void setSharedObjectReferences(boolean sharedObjectReferences) {
+        this.sharedObjectReferences = sharedObjectReferences;
+    }
+
+    /**
+     * Sets the executor used to diff large object graphs in parallel, or <code>null</code> (the default) to
+     * diff on the calling thread only.
+     * <p/>
+     * With an executor, iterables and maps of at least {@link #setParallelThreshold(int) threshold} items
+     * are split in chunks diffed by parallel tasks, as are the large iterable and map fields of a
+     * {@link Diffable Diffable} object that has several of them.  The differences found are still reported
+     * in the same order as a sequential diff, and an early stop cancels the tasks not yet joined.
+     * <p/>
+     * The parallel tasks never split their own work further, so any executor can be used, including a
+     * bounded one.  The calling thread waits for the tasks, so <code>diff()</code> should not be called
+     * from a thread of the executor itself.  Registered {@link DataResolver DataResolvers}, and the
+     * getters of the objects being diffed, must be thread-safe.
+     *
+     * @param executor the executor running parallel tasks, or <code>null</code>
+     * @see DiffGenerator#setParallelThreshold(int)
+     */
+    public void setParallelExecutor(ExecutorService executor) {
+        this.parallelExecutor = executor;
+    }
+
+    /**
+     * Sets the minimum number of items for an iterable or a map to be diffed in parallel.  Defaults to
+     * {@link #DEFAULT_PARALLEL_THRESHOLD}.  Only iterables that are collections, and thus know their size,
+     * are split.
+     *
+     * @param threshold the minimum number of items, at least 1
+     * @see DiffGenerator#setParallelExecutor(ExecutorService)
+     */
+    public void setParallelThreshold(int threshold) {
+        if (threshold < 1)
+            throw new IllegalArgumentException("Parallel threshold must be at least 1: " + threshold);
+        this.parallelThreshold = threshold;
     }
 
     public static void main(String[] args) throws NoSuchFieldException {
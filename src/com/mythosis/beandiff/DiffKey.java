@@ -0,0 +1,32 @@
+package com.mythosis.beandiff;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Indicates that the field to which this annotation applies identifies its object within a
+ * collection.
+ * <p/>
+ * When {@link DiffGenerator#diff(String, Object, Object) DiffGenerator.diff()} compares two iterables
+ * whose items are all of a class with a key, items are matched by key rather than by position: items
+ * with the same key are diffed with each other, whatever their order, and the others are reported as
+ * removed or added.  The key also replaces the item index in the difference keys, e.g.
+ * <code>order.lines.A42.price</code> rather than <code>order.lines.idx3.price</code>.
+ * <p/>
+ * If several fields of a class are annotated, the key is the list of their values, in field order.
+ * The field does not need to be a {@link DiffField} as well.  Key values must implement
+ * <code>equals()</code> and <code>hashCode()</code>.
+ * <p/>
+ * Note that this annotation has no meaning if used in a class that is not annotated
+ * with {@link Diffable}.
+ *
+ * @see Diffable
+ * @see DiffField
+ * @see DiffGenerator#diff(String, Object, Object)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface DiffKey {
+}
@@ -0,0 +1,90 @@
+package com.mythosis.beandiff;
+
+/**
+ * Receives the differences between two objects as they are found.
+ * <p/>
+ * A listener passed to {@link DiffGenerator#diff(String, Object, Object, DiffListener)} is notified of
+ * each difference in traversal order, as soon as it is found; nothing is buffered.  Every method returns
+ * whether the traversal should go on: returning <code>false</code> stops it right away, and no further
+ * events are delivered.
+ * <p/>
+ * Values passed to a listener are the ones actually compared, that is after any {@link DataResolver}
+ * registered for the field's data type has been applied.
+ *
+ * @author tonior@gmail.com
+ * @see DiffGenerator#diff(String, Object, Object, DiffListener)
+ */
+public interface DiffListener {
+    /**
+     * Called when a value differs between the two objects.  Neither value is <code>null</code>.
+     *
+     * @param path     where the difference occurs
+     * @param original the original value
+     * @param current  the new value
+     * @return <code>true</code> to continue, <code>false</code> to stop the traversal
+     */
+    public boolean changed(DiffPath path, Object original, Object current);
+
+    /**
+     * Called when a value is present in the new object but was <code>null</code> in the original one, or when
+     * a key is only found in the new map.
+     *
+     * @param path    where the difference occurs
+     * @param current the new value
+     * @return <code>true</code> to continue, <code>false</code> to stop the traversal
+     */
+    public boolean added(DiffPath path, Object current);
+
+    /**
+     * Called when a value is present in the original object but is <code>null</code> in the new one, or when
+     * a key is only found in the original map.
+     * <p/>
+     * If the value is {@link Diffable}, an iterable or a map, this is called once for each value found
+     * inside it, with the same rules as {@link DiffGenerator#resolveObject(String, Object) resolveObject()},
+     * rather than once for the value itself.  <code>original</code> may therefore be <code>null</code>,
+     * for a <code>null</code> field of a removed object.
+     *
+     * @param path     where the difference occurs
+     * @param original the original value
+     * @return <code>true</code> to continue, <code>false</code> to stop the traversal
+     */
+    public boolean removed(DiffPath path, Object original);
+
+    /**
+     * Called when an iterable has a different number of items in the two objects.  This is reported after
+     * the items the two have in common have been compared.
+     *
+     * @param path          the path of the iterable's item count, i.e. the iterable's path followed by
+     *                      <code>count</code>
+     * @param originalCount the number of items in the original iterable
+     * @param currentCount  the number of items in the new iterable
+     * @return <code>true</code> to continue, <code>false</code> to stop the traversal
+     */
+    public boolean countChanged(DiffPath path, int originalCount, int currentCount);
+
+    /**
+     * Called when an item of a list was moved to another position.  Only reported when lists are diffed
+     * as sequences (see {@link DiffGenerator#setSequenceDiff(boolean)}), for items that are equal in both
+     * lists but could not be matched in the same order as the other items.
+     *
+     * @param path  the path of the item in the original list
+     * @param to    the path of the item in the new list
+     * @param value the item
+     * @return <code>true</code> to continue, <code>false</code> to stop the traversal
+     */
+    public boolean moved(DiffPath path, DiffPath to, Object value);
+
+    /**
+     * Called when the objects found at <code>path</code> are the very same objects (by identity) as those
+     * already diffed, or resolved, at <code>earlier</code>, and differences were reported there.  They are
+     * not diffed again: the differences at <code>earlier</code> apply to this path as well.  Only reported
+     * for {@link Diffable} objects, iterables and maps, and only if
+     * {@link DiffGenerator#setSharedObjectReferences(boolean) shared object references} are on: otherwise,
+     * objects found again are diffed again.
+     *
+     * @param path    where the objects are found again
+     * @param earlier where the objects were first found
+     * @return <code>true</code> to continue, <code>false</code> to stop the traversal
+     */
+    public boolean sameAs(DiffPath path, DiffPath earlier);
+}
@@ -0,0 +1,26 @@
+package com.mythosis.beandiff;
+
+/**
+ * Receives the statistics of every diff run of a {@link DiffGenerator}.
+ * <p/>
+ * Once set with {@link DiffGenerator#setMetrics(DiffMetrics)}, the metrics are told, at the end of each
+ * completed <code>diff()</code>, <code>diffAsync()</code> or <code>resolveObject()</code> call, how much work
+ * it took: how many objects were compared and fields read, how often and for how long resolvers were called,
+ * and so on.  Runs that throw are not reported.
+ * <p/>
+ * Implementations are called on the thread that ran the diff, possibly from many threads at a time, so they
+ * must be thread-safe, and should be quick.  {@link JmxDiffMetrics} aggregates the statistics by root class
+ * and exposes them through JMX.
+ *
+ * @author tonior@gmail.com
+ * @see DiffGenerator#setMetrics(DiffMetrics)
+ * @see JmxDiffMetrics
+ */
+public interface DiffMetrics {
+    /**
+     * Called when a diff run completes.
+     *
+     * @param statistics the statistics of the run
+     */
+    public void diffCompleted(DiffStatistics statistics);
+}
@@ -0,0 +1,172 @@
+package com.mythosis.beandiff;
+
+/**
+ * The location of a difference within an object graph.
+ * <p/>
+ * A path is a chain of segments leading from the <code>tag</code> given to
+ * {@link DiffGenerator#diff(String, Object, Object) DiffGenerator.diff()} down to the difference: field
+ * names, item indexes (<code>idx1</code>, <code>idx2</code>, ...) for iterables, and keys for maps.  Its
+ * string form is the dotted key used in the difference map, e.g. <code>order.lines.idx2.price</code>.
+ * <p/>
+ * Paths are cheap to create: each one only links to its parent, and keeps its segment as is (the
+ * interned field name, the index, or the map key).  The string form is built the first time
+ * {@link #toString()} is called, and cached, so paths that turn out not to lead to any difference are
+ * never rendered at all.
+ * <p/>
+ * Two paths are equal, and ordered, exactly like their string forms, so a <code>DiffPath</code> can be
+ * used directly as a map key, and sorts like the keys of the difference map.
+ *
+ * @author tonior@gmail.com
+ * @see DiffGenerator
+ */
+public final class DiffPath implements Comparable<DiffPath> {
+    static final int NAME = 0;
+    static final int INDEX = 1;
+    static final int KEY = 2;
+
+    private static final String INDEX_PREFIX = "idx";
+    private static final DiffPath EMPTY = new DiffPath(null, NAME, "", 0);
+
+    private final DiffPath parent;
+    private final int kind;
+    private final Object segment;
+    private final int index;
+    private final int depth;
+    private String rendered;
+
+    private DiffPath(DiffPath parent, int kind, Object segment, int index) {
+        this.parent = parent;
+        this.kind = kind;
+        this.segment = segment;
+        this.index = index;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    /**
+     * Returns the root path for a tag.
+     *
+     * @param tag the initial key name; <code>null</code> is treated as the empty string
+     * @return a path with no parent, whose string form is <code>tag</code>
+     */
+    public static DiffPath root(String tag) {
+        if (tag == null || tag.length() == 0)
+            return EMPTY;
+        return new DiffPath(null, NAME, tag, 0);
+    }
+
+    /**
+     * Returns a child path named after a field, or any other fixed name.
+     *
+     * @param name the segment name, preferably interned
+     * @return the child path
+     */
+    public DiffPath child(String name) {
+        return new DiffPath(this, NAME, name, 0);
+    }
+
+    /**
+     * Returns a child path for the item at a given (1-based) position of an iterable.
+     *
+     * @param index the item index, starting at 1
+     * @return the child path, rendered as <code>idx&lt;index&gt;</code>
+     */
+    public DiffPath index(int index) {
+        return new DiffPath(this, INDEX, null, index);
+    }
+
+    /**
+     * Returns a child path for a map key.
+     *
+     * @param key the map key, rendered with its <code>toString()</code> only when needed
+     * @return the child path
+     */
+    public DiffPath key(Object key) {
+        return new DiffPath(this, KEY, key, 0);
+    }
+
+    /**
+     * @return the parent path, or <code>null</code> for a root path
+     */
+    public DiffPath getParent() {
+        return parent;
+    }
+
+    /**
+     * @return the number of segments between this path and its root
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the kind of the last segment of this path: {@link #NAME}, {@link #INDEX} or {@link #KEY}
+     */
+    int getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the name of a {@link #NAME} segment, or the key of a {@link #KEY} segment
+     */
+    Object getRawSegment() {
+        return segment;
+    }
+
+    /**
+     * @return the (1-based) index of an {@link #INDEX} segment
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the string form of the last segment of this path
+     */
+    public String getSegment() {
+        switch (kind) {
+            case INDEX:
+                return INDEX_PREFIX + index;
+            case KEY:
+                return segment.toString();
+            default:
+                return (String) segment;
+        }
+    }
+
+    /**
+     * Returns the dotted string form of this path, as used for the keys of the difference map.  Segments
+     * are separated by dots, except that nothing is prepended to the children of a path whose string
+     * form is empty.
+     *
+     * @return the string form of this path
+     */
+    @Override
+    public String toString() {
+        String value = rendered;
+        if (value == null) {
+            String name = getSegment();
+            if (parent == null) {
+                value = name;
+            } else {
+                String parentValue = parent.toString();
+                value = parentValue.length() == 0 ? name : parentValue + "." + name;
+            }
+            rendered = value;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof DiffPath && toString().equals(o.toString()));
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    public int compareTo(DiffPath o) {
+        return toString().compareTo(o.toString());
+    }
+}
@@ -0,0 +1,98 @@
+package com.mythosis.beandiff;
+
+/**
+ * The statistics of a single diff run, as reported to {@link DiffMetrics}.
+ * <p/>
+ * Counts cover the whole run, including the subtrees diffed in parallel and the values resolved ahead of
+ * the diff.  Times are in nanoseconds; resolver time is the sum of the time spent in each call, so it can
+ * exceed the duration of the run when resolvers are called concurrently.
+ *
+ * @author tonior@gmail.com
+ * @see DiffMetrics
+ */
+public final class DiffStatistics {
+    private final Class<?> rootClass;
+    private final long duration;
+    private final long nodes;
+    private final long fieldsRead;
+    private final long resolverCalls;
+    private final long resolverTime;
+    private final long differences;
+    private final int maxDepth;
+
+    DiffStatistics(Class<?> rootClass, long duration, long nodes, long fieldsRead, long resolverCalls,
+                   long resolverTime, long differences, int maxDepth) {
+        this.rootClass = rootClass;
+        this.duration = duration;
+        this.nodes = nodes;
+        this.fieldsRead = fieldsRead;
+        this.resolverCalls = resolverCalls;
+        this.resolverTime = resolverTime;
+        this.differences = differences;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return the class of the objects compared, or <code>null</code> if both were <code>null</code>
+     */
+    public Class<?> getRootClass() {
+        return rootClass;
+    }
+
+    /**
+     * @return how long the run took, in nanoseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the number of pairs of values compared (or of values resolved, for objects only found on one
+     *         side), at every level
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the number of field values read
+     */
+    public long getFieldsRead() {
+        return fieldsRead;
+    }
+
+    /**
+     * @return the number of calls to {@link DataResolver DataResolvers}, a batch counting as one call
+     */
+    public long getResolverCalls() {
+        return resolverCalls;
+    }
+
+    /**
+     * @return the total time spent in {@link DataResolver DataResolvers}, in nanoseconds
+     */
+    public long getResolverTime() {
+        return resolverTime;
+    }
+
+    /**
+     * @return the number of differences found, including those the listener was not told about after it
+     *         stopped the traversal
+     */
+    public long getDifferences() {
+        return differences;
+    }
+
+    /**
+     * @return the depth of the deepest path reached, the root being at depth 0
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public String toString() {
+        return "DiffStatistics[" + (rootClass == null ? null : rootClass.getName()) + ", duration=" + duration +
+                "ns, nodes=" + nodes + ", fieldsRead=" + fieldsRead + ", resolverCalls=" + resolverCalls +
+                ", resolverTime=" + resolverTime + "ns, differences=" + differences + ", maxDepth=" + maxDepth + "]";
+    }
+}
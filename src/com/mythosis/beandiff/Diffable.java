@@ -16,4 +16,10 @@ import java.lang.annotation.*;
 @Target(ElementType.TYPE)
 @Inherited
 public @interface Diffable {
+    /**
+     * Whether the <code>beandiff-apt</code> annotation processor generates a subclass recording the writes
+     * made through the class's setters, for {@link ChangeTracker}.  Only applies to the class annotated
+     * directly, not to its subclasses.
+     */
+    boolean tracked() default false;
 }
@@ -0,0 +1,172 @@
+package com.mythosis.beandiff;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Reads the value of a field, either through its getter or directly.
+ * <p/>
+ * The getter is looked up once, when the accessor is created, following the same conventions as
+ * {@link ObjectUtils#getValueForField(Field, Object)}.  Reading a value is then a single reflective
+ * call, with no method lookup and no exceptions thrown for fields that simply have no getter.
+ * Accessible primitive fields with no getter are compared with the typed reads of {@link Field}, such as
+ * <code>getInt()</code>, without boxing them; getters can only be called reflectively, which boxes.
+ * When a {@link BeanAccessor} has been generated for the class, the accessor delegates to it instead,
+ * and no reflection is involved at all.  Accessors that can compare a field without boxing it implement
+ * {@link PrimitiveComparator}.
+ *
+ * @author tonior@gmail.com
+ * @see FieldDescriptor
+ */
+abstract class FieldAccessor {
+
+    /**
+     * Creates the accessor for a field as seen from a given class.
+     *
+     * @param objectClass the (runtime) class of the objects the field will be read from
+     * @param field       the field to read
+     * @return an accessor that uses the field's getter if there is one, or the field itself otherwise
+     */
+    public static FieldAccessor forField(Class<?> objectClass, Field field) {
+        Method getter = ObjectUtils.findGetter(objectClass, field);
+        if (getter != null)
+            return new GetterAccessor(getter);
+        // Only fields that can be read without an IllegalAccessException are compared as primitives.
+        if (field.getType().isPrimitive() && Modifier.isPublic(field.getModifiers())
+                && Modifier.isPublic(field.getDeclaringClass().getModifiers()))
+            return new PrimitiveFieldAccessor(field);
+        return new DirectAccessor(field);
+    }
+
+    /**
+     * Creates an accessor that reads a field through a generated {@link BeanAccessor}.
+     *
+     * @param generated the generated accessor
+     * @param index     the index of the field in {@link BeanAccessor#getFieldNames()}
+     * @return an accessor for that field
+     */
+    public static FieldAccessor forBeanAccessor(BeanAccessor<Object> generated, int index) {
+        if (generated.getPrimitiveFields()[index])
+            return new GeneratedPrimitiveAccessor(generated, index);
+        return new GeneratedAccessor(generated, index);
+    }
+
+    /**
+     * Reads the value of the field on an object.
+     *
+     * @param object the object on which to access the field
+     * @return the value of the field on that object
+     * @throws IllegalAccessException    if the field or its getter is not accessible
+     * @throws InvocationTargetException if the getter method throws an exception
+     */
+    public abstract Object get(Object object) throws IllegalAccessException, InvocationTargetException;
+
+    /**
+     * @return the primitive type the field is read as, if its getter (or the field itself, when there is no
+     *         getter) is declared with one, or <code>null</code> otherwise
+     */
+    public Class<?> getPrimitiveType() {
+        return null;
+    }
+
+    /**
+     * Compares a primitive field on two objects without boxing it.  The field is compared as its own type,
+     * whatever {@link #getPrimitiveType()} returns.
+     */
+    interface PrimitiveComparator {
+        /**
+         * @param original the original object
+         * @param current  the new object
+         * @return whether the field has the same value on both objects
+         */
+        public boolean primitiveEquals(Object original, Object current);
+    }
+
+    private static class GetterAccessor extends FieldAccessor {
+        private final Method getter;
+
+        GetterAccessor(Method getter) {
+            this.getter = getter;
+        }
+
+        public Object get(Object object) throws IllegalAccessException, InvocationTargetException {
+            return getter.invoke(object);
+        }
+
+        public Class<?> getPrimitiveType() {
+            return getter.getReturnType().isPrimitive() ? getter.getReturnType() : null;
+        }
+    }
+
+    private static class DirectAccessor extends FieldAccessor {
+        final Field field;
+
+        DirectAccessor(Field field) {
+            this.field = field;
+        }
+
+        public Object get(Object object) throws IllegalAccessException {
+            return field.get(object);
+        }
+
+        public Class<?> getPrimitiveType() {
+            return field.getType().isPrimitive() ? field.getType() : null;
+        }
+    }
+
+    private static class PrimitiveFieldAccessor extends DirectAccessor implements PrimitiveComparator {
+        PrimitiveFieldAccessor(Field field) {
+            super(field);
+        }
+
+        public boolean primitiveEquals(Object original, Object current) {
+            Class<?> type = field.getType();
+            try {
+                if (type == int.class)
+                    return field.getInt(original) == field.getInt(current);
+                if (type == long.class)
+                    return field.getLong(original) == field.getLong(current);
+                if (type == double.class)
+                    return Double.doubleToLongBits(field.getDouble(original)) == Double.doubleToLongBits(field.getDouble(current));
+                if (type == boolean.class)
+                    return field.getBoolean(original) == field.getBoolean(current);
+                if (type == float.class)
+                    return Float.floatToIntBits(field.getFloat(original)) == Float.floatToIntBits(field.getFloat(current));
+                if (type == char.class)
+                    return field.getChar(original) == field.getChar(current);
+                if (type == short.class)
+                    return field.getShort(original) == field.getShort(current);
+                return field.getByte(original) == field.getByte(current);
+            } catch (IllegalAccessException e) {
+                // Let the regular read report it.
+                return false;
+            }
+        }
+    }
+
+    private static class GeneratedAccessor extends FieldAccessor {
+        final BeanAccessor<Object> generated;
+        final int index;
+
+        GeneratedAccessor(BeanAccessor<Object> generated, int index) {
+            this.generated = generated;
+            this.index = index;
+        }
+
+        public Object get(Object object) {
+            return generated.getValue(object, index);
+        }
+    }
+
+    private static class GeneratedPrimitiveAccessor extends GeneratedAccessor implements PrimitiveComparator {
+        GeneratedPrimitiveAccessor(BeanAccessor<Object> generated, int index) {
+            super(generated, index);
+        }
+
+        public boolean primitiveEquals(Object original, Object current) {
+            return generated.primitiveEquals(original, current, index);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.mythosis.beandiff;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+
+/**
+ * Cached metadata for a single {@link DiffField}-annotated field.
+ *
+ * @author tonior@gmail.com
+ * @see ClassDescriptor
+ */
+class FieldDescriptor {
+    /**
+     * Cost of a plain value compared with <code>equals()</code>: primitives, wrappers, strings and enums.
+     */
+    static final int COST_VALUE = 0;
+    /**
+     * Cost of a field whose value may go through a {@link DataResolver}, or whose type is not known well
+     * enough to tell how it will be compared.
+     */
+    static final int COST_OBJECT = 1;
+    /**
+     * Cost of a nested {@link Diffable} object.
+     */
+    static final int COST_DIFFABLE = 2;
+    /**
+     * Cost of an iterable or a map, which may hold any number of values.
+     */
+    static final int COST_CONTAINER = 3;
+
+    private final Field field;
+    private final String name;
+    private final String dataType;
+    private final FieldAccessor accessor;
+    private final FieldAccessor.PrimitiveComparator comparator;
+    private final int cost;
+
+    FieldDescriptor(Field field, String dataType, FieldAccessor accessor) {
+        this.field = field;
+        this.name = field.getName().intern();
+        this.dataType = dataType;
+        this.accessor = accessor;
+        this.comparator = accessor instanceof FieldAccessor.PrimitiveComparator
+                ? (FieldAccessor.PrimitiveComparator) accessor : null;
+        this.cost = costOf(field.getType(), dataType);
+    }
+
+    private static int costOf(Class<?> type, String dataType) {
+        if (Iterable.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type))
+            return COST_CONTAINER;
+        if (type.isAnnotationPresent(Diffable.class))
+            return COST_DIFFABLE;
+        if (dataType.length() == 0 && (type.isPrimitive() || type.isEnum() || type == String.class
+                || type == Boolean.class || type == Character.class
+                || (Number.class.isAssignableFrom(type) && type.getName().startsWith("java.lang."))))
+            return COST_VALUE;
+        return COST_OBJECT;
+    }
+
+    /**
+     * @return the underlying field
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * @return the field name, as used in the keys of the difference map
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the data type given in the field's {@link DiffField} annotation, used to look up a
+     *         {@link DataResolver}
+     */
+    public String getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Returns a rough estimate of how expensive comparing this field is, based on its declared type:
+     * one of {@link #COST_VALUE}, {@link #COST_OBJECT}, {@link #COST_DIFFABLE} or {@link #COST_CONTAINER}.
+     *
+     * @return the estimated cost, lower meaning cheaper
+     */
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * @return the primitive type the field is read as, boxed by {@link #getValue(Object)}, or
+     *         <code>null</code> if it is not read as a primitive
+     */
+    public Class<?> getPrimitiveType() {
+        // Generated accessors only compare primitives when the getter returns the field's own type.
+        return comparator != null ? field.getType() : accessor.getPrimitiveType();
+    }
+
+    /**
+     * Reads the value of this field on an object.
+     *
+     * @param object the object on which to access the field
+     * @return the value of the field on that object
+     * @throws IllegalAccessException    if the field or its getter is not accessible
+     * @throws InvocationTargetException if the getter method throws an exception
+     * @see FieldAccessor
+     */
+    public Object getValue(Object object) throws IllegalAccessException, InvocationTargetException {
+        return accessor.get(object);
+    }
+
+    /**
+     * Checks whether this field has the same value on two objects, if that can be done without
+     * reading (and boxing) the values.
+     *
+     * @param original the original object
+     * @param current  the new object
+     * @return <code>true</code> if the field is known to be equal on both objects, <code>false</code> if it
+     *         differs or could not be compared this way
+     */
+    public boolean isKnownEqual(Object original, Object current) {
+        return comparator != null && comparator.primitiveEquals(original, current);
+    }
+}
@@ -0,0 +1,167 @@
+package com.mythosis.beandiff;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Computes structural fingerprints of object graphs, so that subtrees with the same content can be
+ * skipped without being compared field by field.
+ * <p/>
+ * The fingerprint of a {@link Diffable} object is a 64-bit hash of its class and of the fingerprints of
+ * its {@link DiffField} values; that of an iterable or a map, of its class and of the fingerprints of its
+ * items or entries, in iteration order.  Leaves are hashed from their content, and only for types whose
+ * equality is fully determined by it: strings, primitive wrappers and enums.  Any other leaf, a value that
+ * cannot be read, or a cycle, makes the fingerprint of the subtree unknown, and the subtree is then always
+ * compared.  Equal fingerprints therefore mean equal content, barring a 64-bit hash collision.
+ * <p/>
+ * Field values are hashed as read, before any {@link DataResolver} is applied, so resolvers are never
+ * called for skipped subtrees; they are assumed to return equal results for equal values.
+ * <p/>
+ * Fingerprints of objects are cached by identity, for the lifetime of the fingerprinter, which is a single
+ * diff run: each object is hashed at most once per run, however deep the comparison goes.
+ *
+ * @author tonior@gmail.com
+ * @see DiffGenerator#setFingerprints(boolean)
+ */
+class Fingerprinter {
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private static final long NULL = 0x5bd1e9955bd1e995L;
+    private static final long STRING = 1;
+    private static final long INTEGER = 2;
+    private static final long LONG = 3;
+    private static final long SHORT = 4;
+    private static final long BYTE = 5;
+    private static final long DOUBLE = 6;
+    private static final long FLOAT = 7;
+    private static final long BOOLEAN = 8;
+    private static final long CHARACTER = 9;
+
+    /**
+     * Marks fingerprints that are unknown.
+     */
+    private static final Object UNKNOWN = new Object();
+    /**
+     * Marks objects whose fingerprint is being computed.
+     */
+    private static final Object IN_PROGRESS = new Object();
+
+    private final Map<Object, Object> fingerprints = new IdentityHashMap<Object, Object>();
+    private final Map<Class<?>, Long> classHashes = new HashMap<Class<?>, Long>();
+
+    /**
+     * Checks whether two objects are known to have the same content.
+     *
+     * @param original the original object
+     * @param current  the new object
+     * @return <code>true</code> if both objects have the same, known, fingerprint
+     */
+    public boolean sameContent(Object original, Object current) {
+        Object fingerprint = fingerprint(original);
+        return fingerprint != UNKNOWN && fingerprint.equals(fingerprint(current));
+    }
+
+    /**
+     * @return the fingerprint of a value, as a <code>Long</code>, or {@link #UNKNOWN}
+     */
+    private Object fingerprint(Object value) {
+        if (value == null)
+            return NULL;
+        Class<?> type = value.getClass();
+        if (type == String.class)
+            return hash(STRING, (String) value);
+        if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+            long tag = type == Integer.class ? INTEGER : type == Long.class ? LONG : type == Short.class ? SHORT : BYTE;
+            return mix(tag * MULTIPLIER + ((Number) value).longValue());
+        }
+        if (type == Double.class)
+            return mix(DOUBLE * MULTIPLIER + Double.doubleToLongBits((Double) value));
+        if (type == Float.class)
+            return mix(FLOAT * MULTIPLIER + Float.floatToIntBits((Float) value));
+        if (type == Boolean.class)
+            return mix(BOOLEAN * MULTIPLIER + ((Boolean) value ? 1 : 0));
+        if (type == Character.class)
+            return mix(CHARACTER * MULTIPLIER + (Character) value);
+        if (value instanceof Enum)
+            return mix(classHash(((Enum<?>) value).getDeclaringClass()) * MULTIPLIER + ((Enum<?>) value).ordinal());
+
+        ClassDescriptor descriptor = ClassDescriptor.forClass(type);
+        if (!descriptor.isDiffable() && !(value instanceof Iterable) && !(value instanceof Map))
+            return UNKNOWN;
+        Object fingerprint = fingerprints.get(value);
+        if (fingerprint == IN_PROGRESS)
+            return UNKNOWN;
+        if (fingerprint == null) {
+            fingerprints.put(value, IN_PROGRESS);
+            fingerprint = nodeFingerprint(descriptor, value);
+            fingerprints.put(value, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private Object nodeFingerprint(ClassDescriptor descriptor, Object node) {
+        long hash = classHash(descriptor.getType());
+        if (descriptor.isDiffable()) {
+            for (FieldDescriptor field : descriptor.getFields()) {
+                Object value;
+                try {
+                    value = field.getValue(node);
+                } catch (IllegalAccessException e) {
+                    return UNKNOWN;
+                } catch (InvocationTargetException e) {
+                    return UNKNOWN;
+                }
+                Object fingerprint = fingerprint(value);
+                if (fingerprint == UNKNOWN)
+                    return UNKNOWN;
+                hash = mix(hash * MULTIPLIER + (Long) fingerprint);
+            }
+        } else if (node instanceof Iterable) {
+            for (Object item : (Iterable<?>) node) {
+                Object fingerprint = fingerprint(item);
+                if (fingerprint == UNKNOWN)
+                    return UNKNOWN;
+                hash = mix(hash * MULTIPLIER + (Long) fingerprint);
+            }
+        } else {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) node).entrySet()) {
+                Object key = fingerprint(entry.getKey());
+                Object value = key == UNKNOWN ? UNKNOWN : fingerprint(entry.getValue());
+                if (value == UNKNOWN)
+                    return UNKNOWN;
+                hash = mix(mix(hash * MULTIPLIER + (Long) key) * MULTIPLIER + (Long) value);
+            }
+        }
+        return hash;
+    }
+
+    private long classHash(Class<?> type) {
+        Long hash = classHashes.get(type);
+        if (hash == null) {
+            hash = hash(0, type.getName());
+            classHashes.put(type, hash);
+        }
+        return hash;
+    }
+
+    private static long hash(long tag, String value) {
+        long hash = tag * MULTIPLIER + value.length();
+        for (int i = 0; i < value.length(); i++)
+            hash = (hash + value.charAt(i)) * MULTIPLIER;
+        return mix(hash);
+    }
+
+    /**
+     * The 64-bit finalizer of MurmurHash3, spreading every input bit over the whole result.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
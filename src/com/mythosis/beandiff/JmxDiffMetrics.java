@@ -0,0 +1,252 @@
+package com.mythosis.beandiff;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * {@link DiffMetrics} aggregating the statistics of diff runs by root class, and exposing them through JMX.
+ * <p/>
+ * The first run for each root class registers an MBean named
+ * <code>com.mythosis.beandiff:type=DiffMetrics,name=&lt;name&gt;,class=&lt;root class name&gt;</code>, whose
+ * attributes are the totals of all the runs for that class so far (see {@link ClassMetrics}).  This tells
+ * which entity types make diffs expensive, and whether it is because of their size, their depth, or their
+ * resolvers:
+ * <pre>
+ * generator.setMetrics(new JmxDiffMetrics("orders"));
+ * </pre>
+ * Runs comparing two <code>null</code> objects are not recorded.  Counters are updated without locking.
+ *
+ * @author tonior@gmail.com
+ * @see DiffGenerator#setMetrics(DiffMetrics)
+ */
+public class JmxDiffMetrics implements DiffMetrics {
+    private static final Logger logger = Logger.getLogger(JmxDiffMetrics.class.getSimpleName());
+
+    /**
+     * The attributes of the MBean of a root class.
+     */
+    public interface ClassMetrics {
+        /**
+         * @return the number of runs
+         */
+        public long getDiffCount();
+
+        /**
+         * @return the total duration of the runs, in milliseconds
+         */
+        public long getTotalTimeMillis();
+
+        /**
+         * @return the mean duration of a run, in microseconds
+         */
+        public long getMeanTimeMicros();
+
+        /**
+         * @return the total number of pairs of values compared
+         */
+        public long getNodeCount();
+
+        /**
+         * @return the total number of field values read
+         */
+        public long getFieldReadCount();
+
+        /**
+         * @return the total number of resolver calls
+         */
+        public long getResolverCallCount();
+
+        /**
+         * @return the total time spent in resolvers, in milliseconds
+         */
+        public long getResolverTimeMillis();
+
+        /**
+         * @return the total number of differences found
+         */
+        public long getDifferenceCount();
+
+        /**
+         * @return the depth of the deepest path reached by any run
+         */
+        public int getMaxDepth();
+
+        /**
+         * Sets all the totals back to zero.
+         */
+        public void reset();
+    }
+
+    private final MBeanServer server;
+    private final String name;
+    private final ConcurrentMap<Class<?>, Totals> totals = new ConcurrentHashMap<Class<?>, Totals>();
+
+    /**
+     * Creates metrics registering their MBeans with the platform MBean server.
+     *
+     * @param name the <code>name</code> key of the MBeans, telling apart the metrics of different generators
+     */
+    public JmxDiffMetrics(String name) {
+        this(ManagementFactory.getPlatformMBeanServer(), name);
+    }
+
+    /**
+     * Creates metrics registering their MBeans with a given server.
+     *
+     * @param server the MBean server, or <code>null</code> to only aggregate the statistics
+     * @param name   the <code>name</code> key of the MBeans, telling apart the metrics of different generators
+     */
+    public JmxDiffMetrics(MBeanServer server, String name) {
+        if (name == null)
+            throw new IllegalArgumentException("Name is null.");
+        this.server = server;
+        this.name = name;
+    }
+
+    public void diffCompleted(DiffStatistics statistics) {
+        Class<?> rootClass = statistics.getRootClass();
+        if (rootClass == null)
+            return;
+        Totals classTotals = totals.get(rootClass);
+        if (classTotals == null) {
+            classTotals = new Totals();
+            Totals existing = totals.putIfAbsent(rootClass, classTotals);
+            if (existing != null)
+                classTotals = existing;
+            else
+                register(rootClass, classTotals);
+        }
+        classTotals.add(statistics);
+    }
+
+    /**
+     * Returns the totals of the runs for a root class.
+     *
+     * @param rootClass the root class
+     * @return the totals, or <code>null</code> if no run was recorded for this class
+     */
+    public ClassMetrics getMetrics(Class<?> rootClass) {
+        return totals.get(rootClass);
+    }
+
+    /**
+     * Unregisters all the MBeans registered by these metrics.  The statistics of later runs are still
+     * aggregated, but not exposed through JMX.
+     */
+    public void unregister() {
+        if (server == null)
+            return;
+        for (Class<?> rootClass : totals.keySet()) {
+            try {
+                server.unregisterMBean(objectName(rootClass));
+            } catch (InstanceNotFoundException e) {
+                // Not registered, or already unregistered.
+            } catch (JMException e) {
+                logger.warning("Could not unregister the diff metrics of " + rootClass.getName() + ". " + e);
+            }
+        }
+    }
+
+    private void register(Class<?> rootClass, Totals classTotals) {
+        if (server == null)
+            return;
+        try {
+            server.registerMBean(new StandardMBean(classTotals, ClassMetrics.class), objectName(rootClass));
+        } catch (InstanceAlreadyExistsException e) {
+            logger.warning("Diff metrics of " + rootClass.getName() + " already registered under name " + name + ".");
+        } catch (JMException e) {
+            logger.warning("Could not register the diff metrics of " + rootClass.getName() + ". " + e);
+        }
+    }
+
+    private ObjectName objectName(Class<?> rootClass) throws JMException {
+        return new ObjectName("com.mythosis.beandiff:type=DiffMetrics,name=" + ObjectName.quote(name) +
+                ",class=" + rootClass.getName());
+    }
+
+    /**
+     * The totals of the runs for a root class.
+     */
+    private static class Totals implements ClassMetrics {
+        private final AtomicLong diffs = new AtomicLong();
+        private final AtomicLong time = new AtomicLong();
+        private final AtomicLong nodes = new AtomicLong();
+        private final AtomicLong fieldsRead = new AtomicLong();
+        private final AtomicLong resolverCalls = new AtomicLong();
+        private final AtomicLong resolverTime = new AtomicLong();
+        private final AtomicLong differences = new AtomicLong();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+
+        void add(DiffStatistics statistics) {
+            diffs.incrementAndGet();
+            time.addAndGet(statistics.getDuration());
+            nodes.addAndGet(statistics.getNodes());
+            fieldsRead.addAndGet(statistics.getFieldsRead());
+            resolverCalls.addAndGet(statistics.getResolverCalls());
+            resolverTime.addAndGet(statistics.getResolverTime());
+            differences.addAndGet(statistics.getDifferences());
+            int depth = statistics.getMaxDepth();
+            int max = maxDepth.get();
+            while (depth > max && !maxDepth.compareAndSet(max, depth))
+                max = maxDepth.get();
+        }
+
+        public long getDiffCount() {
+            return diffs.get();
+        }
+
+        public long getTotalTimeMillis() {
+            return time.get() / 1000000;
+        }
+
+        public long getMeanTimeMicros() {
+            long count = diffs.get();
+            return count == 0 ? 0 : time.get() / count / 1000;
+        }
+
+        public long getNodeCount() {
+            return nodes.get();
+        }
+
+        public long getFieldReadCount() {
+            return fieldsRead.get();
+        }
+
+        public long getResolverCallCount() {
+            return resolverCalls.get();
+        }
+
+        public long getResolverTimeMillis() {
+            return resolverTime.get() / 1000000;
+        }
+
+        public long getDifferenceCount() {
+            return differences.get();
+        }
+
+        public int getMaxDepth() {
+            return maxDepth.get();
+        }
+
+        public void reset() {
+            diffs.set(0);
+            time.set(0);
+            nodes.set(0);
+            fieldsRead.set(0);
+            resolverCalls.set(0);
+            resolverTime.set(0);
+            differences.set(0);
+            maxDepth.set(0);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.mythosis.beandiff;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects differences into the sorted map returned by {@link DiffGenerator#diff(String, Object, Object)}.
+ * <p/>
+ * Each entry maps the dotted path of a difference to the original value: its <code>toString()</code>,
+ * the empty string if it was <code>null</code>, or the original item count for iterables whose size
+ * changed.  Moved list items are keyed by their original position.  If
+ * {@link DiffGenerator#setSharedObjectReferences(boolean) shared object references} are on, objects already
+ * diffed at another path are mapped to that path.
+ * <p/>
+ * A listener can be given a maximum number of differences, after which it stops the traversal.
+ *
+ * @author tonior@gmail.com
+ */
+class MapDiffListener implements DiffListener {
+    private final Map<String, String> differences = new TreeMap<String, String>();
+    private final int maxDifferences;
+
+    /**
+     * Creates a listener that collects all the differences.
+     */
+    MapDiffListener() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a listener that stops the traversal once it has collected <code>maxDifferences</code>
+     * differences.
+     *
+     * @param maxDifferences the maximum number of differences to collect
+     */
+    MapDiffListener(int maxDifferences) {
+        this.maxDifferences = maxDifferences;
+    }
+
+    public boolean changed(DiffPath path, Object original, Object current) {
+        return add(path, original.toString());
+    }
+
+    public boolean added(DiffPath path, Object current) {
+        return add(path, "");
+    }
+
+    public boolean removed(DiffPath path, Object original) {
+        return add(path, original == null ? "" : original.toString());
+    }
+
+    public boolean countChanged(DiffPath path, int originalCount, int currentCount) {
+        return add(path, Integer.toString(originalCount));
+    }
+
+    public boolean moved(DiffPath path, DiffPath to, Object value) {
+        return add(path, value == null ? "" : value.toString());
+    }
+
+    public boolean sameAs(DiffPath path, DiffPath earlier) {
+        return add(path, earlier.toString());
+    }
+
+    private boolean add(DiffPath path, String value) {
+        differences.put(path.toString(), value);
+        return differences.size() < maxDifferences;
+    }
+
+    /**
+     * @return the sorted map of all the differences collected so far
+     */
+    public Map<String, String> getDifferences() {
+        return differences;
+    }
+}
@@ -17,11 +17,11 @@ class ObjectUtils {
     /**
      * Reflectively attempts to access a field.
      * <p/>
-     * The method first tries to use a getter method using traditional beans naming conventions.  If it
-     * fails, and the field was a <code>boolean</code> or <code>Boolean</code>, it tries a
-     * <code>get</code>-prefixed getter (as opposed to the conventional <code>is</code>-prefixed getter
-     * for <code>booleans</code> and <code>Booleans</code>.  Finally, it tries to access the field
-     * directly.
+     * The method first tries to use a getter method using traditional beans naming conventions
+     * (see {@link #findGetter(Class, Field)}).  If there is none, it tries to access the field directly.
+     * <p/>
+     * Note that the getter is looked up on every call; {@link FieldAccessor} should be preferred when
+     * the same field is read repeatedly.
      *
      * @param field  the field to access
      * @param object the object on which to access the field
@@ -31,25 +31,45 @@ class ObjectUtils {
      *                                if the getter method throws an exception
      */
     public static Object getValueForField(Field field, Object object) throws IllegalAccessException, InvocationTargetException {
+        Method getter = findGetter(object.getClass(), field);
+        return getter != null ? getter.invoke(object) : field.get(object);
+    }
 
-        String boolPrefix = "is";
-        String normalPrefix = "get";
+    /**
+     * Finds the getter method for a field using traditional beans naming conventions.
+     * <p/>
+     * If the field is a <code>boolean</code> or <code>Boolean</code>, the conventional
+     * <code>is</code>-prefixed getter is preferred, falling back to a <code>get</code>-prefixed one.
+     * Only public, no-argument methods are considered.  Unlike {@link Class#getMethod(String, Class[])},
+     * a missing getter is reported by returning <code>null</code> rather than by throwing an exception.
+     *
+     * @param objectClass the class on which to look for the getter
+     * @param field       the field to find a getter for
+     * @return the getter, or <code>null</code> if there is none
+     */
+    public static Method findGetter(Class<?> objectClass, Field field) {
         String methodTail = field.getName().substring(0, 1).toUpperCase() + field.getName().substring(1);
-        if (field.getType() == Boolean.class || field.getType() == boolean.class)
-            try {
-                String methodName = boolPrefix + methodTail;
-                Method getter = object.getClass().getMethod(methodName);
-                return getter.invoke(object);
-            } catch (NoSuchMethodException noSuchMethodException) {
-                logger.fine("Didn't find proper boolean getter, trying normal getter.");
+        Method[] methods = objectClass.getMethods();
+        if (field.getType() == Boolean.class || field.getType() == boolean.class) {
+            Method getter = findNoArgMethod(methods, "is" + methodTail);
+            if (getter != null)
+                return getter;
+            logger.fine("Didn't find proper boolean getter, trying normal getter.");
+        }
+        return findNoArgMethod(methods, "get" + methodTail);
+    }
+
+    private static Method findNoArgMethod(Method[] methods, String name) {
+        Method found = null;
+        for (Method method : methods) {
+            if (method.getParameterTypes().length == 0 && method.getName().equals(name)) {
+                // Prefer the real method over a compiler-generated bridge with a less specific return type.
+                if (!method.isBridge())
+                    return method;
+                found = method;
             }
-        String methodName = normalPrefix + methodTail;
-        try {
-            Method getter = object.getClass().getMethod(methodName);
-            return getter.invoke(object);
-        } catch (NoSuchMethodException e) {
-            return field.get(object);
         }
+        return found;
     }
 
     /**
@@ -0,0 +1,178 @@
+package com.mythosis.beandiff;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The path segment names of a binary diff, by ordinal.
+ * <p/>
+ * {@link BinaryDiffEncoder} writes each field name found in a path as its ordinal in the dictionary, rather
+ * than as a string, and {@link BinaryDiffDecoder} turns it back into the name.  The dictionary of a root class
+ * lists the {@link DiffField} names of the class, then those of every {@link Diffable} class reachable from it
+ * through the declared types of its fields, including the type arguments of collections and maps.  It is
+ * built once per class and cached.  Names missing from the dictionary, such as fields only declared by
+ * subclasses, are written out in full.
+ * <p/>
+ * Since ordinals depend on the fields of the classes, a diff must be decoded with the same dictionary it
+ * was encoded with.  The dictionary of a class changes when its fields do, so diffs stored for a long time
+ * should be kept along with the {@link #getNames() names} of their dictionary, which can be rebuilt with
+ * {@link #of(String[])}.  Encoded diffs carry a {@link #getChecksum() checksum} of their dictionary, so
+ * that decoding with the wrong one fails rather than producing wrong paths.
+ *
+ * @author tonior@gmail.com
+ * @see BinaryDiffEncoder
+ * @see BinaryDiffDecoder
+ */
+public final class PathDictionary {
+    /**
+     * The name of the segment used for the item counts of iterables, always at ordinal 0.
+     */
+    static final String COUNT = "count";
+
+    private static final ConcurrentMap<Class<?>, PathDictionary> dictionaries =
+            new ConcurrentHashMap<Class<?>, PathDictionary>();
+
+    private final String[] names;
+    private final Map<String, Integer> ordinals;
+    private final int checksum;
+
+    private PathDictionary(List<String> names) {
+        this.names = names.toArray(new String[names.size()]);
+        this.ordinals = new HashMap<String, Integer>();
+        int hash = 1;
+        for (int i = 0; i < this.names.length; i++) {
+            ordinals.put(this.names[i], i);
+            hash = 31 * hash + this.names[i].hashCode();
+        }
+        this.checksum = hash;
+    }
+
+    /**
+     * Returns the dictionary for diffs of objects of a class, building and caching it on first use.
+     *
+     * @param rootClass the class of the objects diffed
+     * @return the (shared) dictionary for that class
+     */
+    public static PathDictionary forClass(Class<?> rootClass) {
+        PathDictionary dictionary = dictionaries.get(rootClass);
+        if (dictionary == null) {
+            dictionary = new PathDictionary(collectNames(rootClass));
+            PathDictionary existing = dictionaries.putIfAbsent(rootClass, dictionary);
+            if (existing != null)
+                dictionary = existing;
+        }
+        return dictionary;
+    }
+
+    /**
+     * Rebuilds a dictionary from its names, as returned by {@link #getNames()}.
+     *
+     * @param names the names, by ordinal
+     * @return the dictionary
+     */
+    public static PathDictionary of(String... names) {
+        if (names.length == 0 || !COUNT.equals(names[0]))
+            throw new IllegalArgumentException("Not the names of a path dictionary: " + Arrays.toString(names));
+        return new PathDictionary(Arrays.asList(names));
+    }
+
+    /**
+     * Lists the names of the classes reachable from a root class, breadth first.
+     */
+    private static List<String> collectNames(Class<?> rootClass) {
+        List<String> names = new ArrayList<String>();
+        Set<String> known = new HashSet<String>();
+        names.add(COUNT);
+        known.add(COUNT);
+        Set<Class<?>> visited = new HashSet<Class<?>>();
+        LinkedList<Class<?>> pending = new LinkedList<Class<?>>();
+        pending.add(rootClass);
+        visited.add(rootClass);
+        while (!pending.isEmpty()) {
+            ClassDescriptor descriptor = ClassDescriptor.forClass(pending.removeFirst());
+            for (FieldDescriptor field : descriptor.getFields()) {
+                if (known.add(field.getName()))
+                    names.add(field.getName());
+                List<Class<?>> types = new ArrayList<Class<?>>();
+                collectClasses(field.getField().getGenericType(), types);
+                for (Class<?> type : types) {
+                    if (type.isAnnotationPresent(Diffable.class) && visited.add(type))
+                        pending.add(type);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Collects the classes named in a declared type: the type itself, its array component, and its type
+     * arguments, recursively.
+     */
+    private static void collectClasses(Type type, List<Class<?>> classes) {
+        if (type instanceof Class) {
+            Class<?> c = (Class<?>) type;
+            classes.add(c.isArray() ? c.getComponentType() : c);
+        } else if (type instanceof ParameterizedType) {
+            collectClasses(((ParameterizedType) type).getRawType(), classes);
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments())
+                collectClasses(argument, classes);
+        } else if (type instanceof GenericArrayType) {
+            collectClasses(((GenericArrayType) type).getGenericComponentType(), classes);
+        } else if (type instanceof WildcardType) {
+            for (Type bound : ((WildcardType) type).getUpperBounds())
+                collectClasses(bound, classes);
+        }
+    }
+
+    /**
+     * @param name a segment name
+     * @return the ordinal of the name, or -1 if it is not in the dictionary
+     */
+    int getOrdinal(String name) {
+        Integer ordinal = ordinals.get(name);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * @param ordinal an ordinal
+     * @return the name with that ordinal
+     * @throws IllegalArgumentException if there is no such ordinal in the dictionary
+     */
+    String getName(int ordinal) {
+        if (ordinal < 0 || ordinal >= names.length)
+            throw new IllegalArgumentException("No name with ordinal " + ordinal + " in the path dictionary.");
+        return names[ordinal];
+    }
+
+    /**
+     * @return a copy of the names, by ordinal
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * @return a checksum of the names, identifying the dictionary in encoded diffs
+     */
+    public int getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return "PathDictionary" + Arrays.toString(names);
+    }
+}
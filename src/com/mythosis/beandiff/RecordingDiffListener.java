@@ -0,0 +1,169 @@
+package com.mythosis.beandiff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffers differences, so that they can be replayed later, in the same order, to another listener.
+ * <p/>
+ * Used for subtrees diffed in parallel: each task records its own differences, and the results are
+ * replayed in traversal order once the task is done, so that listeners see exactly the same events as
+ * with a sequential diff.  The pairs of objects the task entered and found again are recorded too, and
+ * entered in the context they are replayed to, which drops the differences of pairs it already visited.
+ *
+ * @author tonior@gmail.com
+ */
+class RecordingDiffListener implements DiffListener {
+    private static final int CHANGED = 0;
+    private static final int ADDED = 1;
+    private static final int REMOVED = 2;
+    private static final int COUNT_CHANGED = 3;
+    private static final int MOVED = 4;
+    private static final int SAME_AS = 5;
+    private static final int ENTERED = 6;
+    private static final int EXITED = 7;
+    private static final int REVISITED = 8;
+
+    private final List<Event> events = new ArrayList<Event>();
+
+    public boolean changed(DiffPath path, Object original, Object current) {
+        events.add(new Event(CHANGED, path, original, current, 0, 0));
+        return true;
+    }
+
+    public boolean added(DiffPath path, Object current) {
+        events.add(new Event(ADDED, path, null, current, 0, 0));
+        return true;
+    }
+
+    public boolean removed(DiffPath path, Object original) {
+        events.add(new Event(REMOVED, path, original, null, 0, 0));
+        return true;
+    }
+
+    public boolean countChanged(DiffPath path, int originalCount, int currentCount) {
+        events.add(new Event(COUNT_CHANGED, path, null, null, originalCount, currentCount));
+        return true;
+    }
+
+    public boolean moved(DiffPath path, DiffPath to, Object value) {
+        Event event = new Event(MOVED, path, value, null, 0, 0);
+        event.to = to;
+        events.add(event);
+        return true;
+    }
+
+    public boolean sameAs(DiffPath path, DiffPath earlier) {
+        Event event = new Event(SAME_AS, path, null, null, 0, 0);
+        event.to = earlier;
+        events.add(event);
+        return true;
+    }
+
+    /**
+     * Records the start of the diff of a pair of objects.
+     *
+     * @see DiffContext#enter(DiffPath, Object, Object)
+     */
+    void entered(DiffPath path, Object original, Object current) {
+        events.add(new Event(ENTERED, path, original, current, 0, 0));
+    }
+
+    /**
+     * Records the end of the diff of the pair entered last.
+     */
+    void exited() {
+        events.add(new Event(EXITED, null, null, null, 0, 0));
+    }
+
+    /**
+     * Records a pair of objects found again, which is not diffed again.
+     */
+    void revisited(DiffPath path, Object original, Object current) {
+        events.add(new Event(REVISITED, path, original, current, 0, 0));
+    }
+
+    /**
+     * Replays the recorded differences, in order, stopping if the context is stopped.  Recorded pairs are
+     * entered in the context, and the differences found within a pair that the context already visited are
+     * skipped.
+     *
+     * @param context the context to report the differences to
+     */
+    public void replay(DiffContext context) {
+        List<DiffContext.Visit> entered = new ArrayList<DiffContext.Visit>();
+        // The depth of the recorded pairs within the pair being skipped, if any.
+        int skipped = 0;
+        try {
+            for (Event event : events) {
+                if (context.isStopped())
+                    return;
+                if (event.kind == ENTERED) {
+                    DiffContext.Visit visit = skipped > 0 ? null : context.enter(event.path, event.original, event.current);
+                    if (visit != null)
+                        entered.add(visit);
+                    else
+                        skipped++;
+                } else if (event.kind == EXITED) {
+                    if (skipped > 0)
+                        skipped--;
+                    else
+                        context.exit(entered.remove(entered.size() - 1));
+                } else if (skipped == 0) {
+                    replay(context, event);
+                }
+            }
+        } finally {
+            // Only left open if the context was stopped.
+            while (!entered.isEmpty())
+                context.exit(entered.remove(entered.size() - 1));
+        }
+    }
+
+    private static void replay(DiffContext context, Event event) {
+        switch (event.kind) {
+            case CHANGED:
+                context.changed(event.path, event.original, event.current);
+                break;
+            case ADDED:
+                context.added(event.path, event.current);
+                break;
+            case REMOVED:
+                context.removed(event.path, event.original);
+                break;
+            case MOVED:
+                context.moved(event.path, event.to, event.original);
+                break;
+            case SAME_AS:
+                context.sameAs(event.path, event.to);
+                break;
+            case REVISITED:
+                // Reports the reference to the earlier path, as found in the context.
+                DiffContext.Visit visit = context.enter(event.path, event.original, event.current);
+                if (visit != null)
+                    context.exit(visit);
+                break;
+            default:
+                context.countChanged(event.path, event.originalCount, event.currentCount);
+        }
+    }
+
+    private static class Event {
+        final int kind;
+        final DiffPath path;
+        final Object original;
+        final Object current;
+        final int originalCount;
+        final int currentCount;
+        DiffPath to;
+
+        Event(int kind, DiffPath path, Object original, Object current, int originalCount, int currentCount) {
+            this.kind = kind;
+            this.path = path;
+            this.original = original;
+            this.current = current;
+            this.originalCount = originalCount;
+            this.currentCount = currentCount;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.mythosis.beandiff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches the items of two sequences, for diffing lists by content rather than by position.
+ * <p/>
+ * The items the two sequences have in common are found with Myers' O(ND) difference algorithm, after
+ * trimming any common prefix and suffix, so that the usual cases (items appended, prepended, or changed
+ * in a few places) take linear time.  Items are compared with <code>equals()</code>, their hash codes
+ * being computed once and compared first.
+ * <p/>
+ * Since the work grows with the square of the number of differences, the search gives up past
+ * {@link #MAX_EDIT_DISTANCE} inserted and removed items, leaving it to the caller to fall back to a
+ * positional comparison.
+ *
+ * @author tonior@gmail.com
+ * @see DiffGenerator#setSequenceDiff(boolean)
+ */
+class SequenceDiff {
+    /**
+     * Maximum number of inserted and removed items searched for.
+     */
+    static final int MAX_EDIT_DISTANCE = 1000;
+
+    private final Object[] a;
+    private final Object[] b;
+    private final int[] aHashes;
+    private final int[] bHashes;
+
+    private SequenceDiff(Object[] a, Object[] b) {
+        this.a = a;
+        this.b = b;
+        this.aHashes = hashes(a);
+        this.bHashes = hashes(b);
+    }
+
+    /**
+     * Finds a longest common subsequence of two sequences.
+     *
+     * @param a the original items
+     * @param b the new items
+     * @return for each item of <code>a</code>, the index of the matching item of <code>b</code>, or -1 if it
+     *         has no match; <code>null</code> if the sequences differ by more than {@link #MAX_EDIT_DISTANCE}
+     *         items
+     */
+    static int[] match(Object[] a, Object[] b) {
+        return new SequenceDiff(a, b).match();
+    }
+
+    private int[] match() {
+        int[] matches = new int[a.length];
+        for (int i = 0; i < matches.length; i++)
+            matches[i] = -1;
+        int start = 0;
+        int aEnd = a.length;
+        int bEnd = b.length;
+        while (start < aEnd && start < bEnd && equal(start, start)) {
+            matches[start] = start;
+            start++;
+        }
+        while (aEnd > start && bEnd > start && equal(aEnd - 1, bEnd - 1))
+            matches[--aEnd] = --bEnd;
+        if (start < aEnd && start < bEnd && !myers(start, aEnd, start, bEnd, matches))
+            return null;
+        return matches;
+    }
+
+    /**
+     * Runs the greedy forward search of Myers' algorithm on <code>a[aStart..aEnd)</code> and
+     * <code>b[bStart..bEnd)</code>, then walks back the furthest reaching paths to record the matching items.
+     *
+     * @return <code>false</code> if the edit distance exceeds {@link #MAX_EDIT_DISTANCE}
+     */
+    private boolean myers(int aStart, int aEnd, int bStart, int bEnd, int[] matches) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int limit = Math.min(n + m, MAX_EDIT_DISTANCE);
+        int offset = limit + 1;
+        int[] v = new int[2 * limit + 3];
+        // trace.get(d)[k + d] is the furthest x reached on diagonal k with d edits.
+        List<int[]> trace = new ArrayList<int[]>();
+        int distance = -1;
+        for (int d = 0; d <= limit && distance < 0; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+                    x = v[offset + k + 1];
+                else
+                    x = v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && equal(aStart + x, bStart + y)) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m)
+                    distance = d;
+            }
+            int[] snapshot = new int[2 * d + 1];
+            System.arraycopy(v, offset - d, snapshot, 0, snapshot.length);
+            trace.add(snapshot);
+        }
+        if (distance < 0)
+            return false;
+
+        int x = n;
+        int y = m;
+        for (int d = distance; d > 0; d--) {
+            int[] previous = trace.get(d - 1);
+            int k = x - y;
+            int previousK;
+            if (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]))
+                previousK = k + 1;
+            else
+                previousK = k - 1;
+            int previousX = previous[previousK + d - 1];
+            int previousY = previousX - previousK;
+            // Follow the snake back to the end of the edit made at step d.
+            int snakeX = previousK == k + 1 ? previousX : previousX + 1;
+            while (x > snakeX) {
+                x--;
+                y--;
+                matches[aStart + x] = bStart + y;
+            }
+            x = previousX;
+            y = previousY;
+        }
+        while (x > 0) {
+            x--;
+            y--;
+            matches[aStart + x] = bStart + y;
+        }
+        return true;
+    }
+
+    private boolean equal(int i, int j) {
+        if (aHashes[i] != bHashes[j])
+            return false;
+        Object o1 = a[i];
+        Object o2 = b[j];
+        return o1 == o2 || (o1 != null && o1.equals(o2));
+    }
+
+    private static int[] hashes(Object[] items) {
+        int[] hashes = new int[items.length];
+        for (int i = 0; i < items.length; i++)
+            hashes[i] = items[i] == null ? 0 : items[i].hashCode();
+        return hashes;
+    }
+}
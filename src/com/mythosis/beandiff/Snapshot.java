@@ -0,0 +1,368 @@
+package com.mythosis.beandiff;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * The state of an object graph at some point in time, as far as diffs are concerned.
+ * <p/>
+ * Diffing against what an object was before usually means keeping a deep copy of it until the diff runs.  A
+ * snapshot, taken with {@link DiffGenerator#snapshot(Object)}, only keeps what a diff reads: the values of
+ * the {@link DiffField} fields of each {@link Diffable} object, and the items of each iterable and map.
+ * Values read as primitives are packed into a single <code>long</code> array per object, the other values
+ * into a single object array, strings are interned, and nothing else of the original objects is retained.
+ * <pre>
+ * Snapshot before = generator.snapshot(order);
+ * ...
+ * Map&lt;String, String&gt; changes = generator.diff("order", before, order);
+ * </pre>
+ * {@link DiffGenerator#diff(String, Snapshot, Object) Diffing} a snapshot with an object gives the same
+ * differences as diffing a deep copy of the graph taken at the same time, with the following exceptions:
+ * lists are compared item by item, even if {@link DiffGenerator#setSequenceDiff(boolean) sequence diffs}
+ * are enabled, and values that are neither <code>Diffable</code>, iterables nor maps, including map keys,
+ * are kept as they are, so they must not be modified afterwards.  Objects shared by several parts of the
+ * graph are shared in the snapshot as well, and cycles are kept.
+ * <p/>
+ * Snapshots are immutable, and can be diffed any number of times, from any thread.
+ *
+ * @author tonior@gmail.com
+ * @see DiffGenerator#snapshot(Object)
+ * @see DiffGenerator#diff(String, Snapshot, Object)
+ */
+public final class Snapshot {
+    private static final Logger logger = Logger.getLogger(Snapshot.class.getSimpleName());
+
+    private static final ConcurrentMap<ClassDescriptor, Layout> layouts = new ConcurrentHashMap<ClassDescriptor, Layout>();
+
+    private final Object root;
+    private final int nodeCount;
+
+    private Snapshot(Object root, int nodeCount) {
+        this.root = root;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * Takes a snapshot of a graph.  The graph is walked iteratively, so it can be of any depth.
+     *
+     * @param object the root of the graph
+     * @return the snapshot
+     */
+    static Snapshot capture(Object object) {
+        Map<Object, Node> nodes = new IdentityHashMap<Object, Node>();
+        List<Object> pending = new ArrayList<Object>();
+        Object root = capture(object, nodes, pending);
+        while (!pending.isEmpty()) {
+            Node node = (Node) pending.remove(pending.size() - 1);
+            Object source = pending.remove(pending.size() - 1);
+            node.fill(source, nodes, pending);
+        }
+        return new Snapshot(root, nodes.size());
+    }
+
+    /**
+     * Captures a value: the node standing for it if it is a <code>Diffable</code> object, an iterable or a
+     * map, queuing the node to be filled if it is a new one, or the value itself otherwise.
+     */
+    private static Object capture(Object value, Map<Object, Node> nodes, List<Object> pending) {
+        if (value == null)
+            return null;
+        if (value instanceof String)
+            return ((String) value).intern();
+        Node node = nodes.get(value);
+        if (node != null)
+            return node;
+        ClassDescriptor descriptor = ClassDescriptor.forClass(value.getClass());
+        if (descriptor.isDiffable())
+            node = new Bean(descriptor);
+        else if (value instanceof Iterable)
+            node = new Items(value.getClass());
+        else if (value instanceof Map)
+            node = new Entries(value.getClass());
+        else
+            return value;
+        nodes.put(value, node);
+        pending.add(value);
+        pending.add(node);
+        return node;
+    }
+
+    /**
+     * @return the class of the root of the graph, or <code>null</code> if it was <code>null</code>
+     */
+    public Class<?> getType() {
+        return root instanceof Node ? ((Node) root).getType() : root == null ? null : root.getClass();
+    }
+
+    /**
+     * @return the number of <code>Diffable</code> objects, iterables and maps in the snapshot
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the node standing for the root of the graph, or the root itself if it is a plain value
+     */
+    Object getRoot() {
+        return root;
+    }
+
+    /**
+     * A <code>Diffable</code> object, iterable or map of a snapshot.
+     */
+    interface Node {
+        /**
+         * @return the class of the object the node stands for
+         */
+        Class<?> getType();
+
+        /**
+         * @return what the diff compares with the current object: the node itself, or a map of its entries
+         */
+        Object getContent();
+
+        void fill(Object source, Map<Object, Node> nodes, List<Object> pending);
+    }
+
+    /**
+     * The values of the fields of a <code>Diffable</code> object, in the order of
+     * {@link ClassDescriptor#getFields()}, and its {@link DiffKey}.
+     */
+    static final class Bean implements Node {
+        private final ClassDescriptor descriptor;
+        private final Layout layout;
+        private long[] primitives;
+        private Object[] values;
+        private BitSet unreadable;
+        private Object key;
+
+        Bean(ClassDescriptor descriptor) {
+            this.descriptor = descriptor;
+            this.layout = Layout.forClass(descriptor);
+        }
+
+        public Class<?> getType() {
+            return descriptor.getType();
+        }
+
+        public Object getContent() {
+            return this;
+        }
+
+        public void fill(Object source, Map<Object, Node> nodes, List<Object> pending) {
+            FieldDescriptor[] fields = descriptor.getFields();
+            primitives = new long[layout.primitiveCount];
+            values = new Object[layout.valueCount];
+            for (int i = 0; i < fields.length; i++) {
+                Object value = DiffGenerator.readField(fields[i], source);
+                if (value == DiffGenerator.UNREADABLE) {
+                    if (unreadable == null)
+                        unreadable = new BitSet(fields.length);
+                    unreadable.set(i);
+                } else if (layout.primitiveTypes[i] != null) {
+                    primitives[layout.slots[i]] = pack(value);
+                } else {
+                    values[layout.slots[i]] = capture(value, nodes, pending);
+                }
+            }
+            if (descriptor.hasKey()) {
+                try {
+                    key = descriptor.getKey(source);
+                } catch (IllegalAccessException e) {
+                    logger.severe("Error accessing key of " + getType().getName() + " in snapshot. " + e);
+                } catch (InvocationTargetException e) {
+                    logger.severe("Error accessing key of " + getType().getName() + " in snapshot. " + e);
+                }
+            }
+        }
+
+        /**
+         * @param index the index of a field in {@link ClassDescriptor#getFields()}
+         * @return the value of the field, or {@link DiffGenerator#UNREADABLE} if it could not be read
+         */
+        Object getValue(int index) {
+            if (unreadable != null && unreadable.get(index))
+                return DiffGenerator.UNREADABLE;
+            Class<?> primitiveType = layout.primitiveTypes[index];
+            return primitiveType == null ? values[layout.slots[index]] : unpack(primitiveType, primitives[layout.slots[index]]);
+        }
+
+        /**
+         * @return the key of the object, or <code>null</code> if it has none, or it could not be read
+         */
+        Object getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * The items of an iterable, in iteration order.
+     */
+    static final class Items extends AbstractList<Object> implements Node, RandomAccess {
+        private final Class<?> type;
+        private Object[] items;
+
+        Items(Class<?> type) {
+            this.type = type;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        public Object getContent() {
+            return this;
+        }
+
+        public void fill(Object source, Map<Object, Node> nodes, List<Object> pending) {
+            Object[] sourceItems;
+            if (source instanceof Collection) {
+                sourceItems = ((Collection<?>) source).toArray();
+            } else {
+                List<Object> list = new ArrayList<Object>();
+                for (Object item : (Iterable<?>) source)
+                    list.add(item);
+                sourceItems = list.toArray();
+            }
+            for (int i = 0; i < sourceItems.length; i++)
+                sourceItems[i] = capture(sourceItems[i], nodes, pending);
+            items = sourceItems;
+        }
+
+        @Override
+        public Object get(int index) {
+            return items[index];
+        }
+
+        @Override
+        public int size() {
+            return items.length;
+        }
+    }
+
+    /**
+     * The entries of a map, in iteration order, and the comparator of a sorted map.
+     */
+    static final class Entries implements Node {
+        private final Class<?> type;
+        private Object[] keys;
+        private Object[] values;
+        private Comparator<?> comparator;
+        private boolean sorted;
+
+        Entries(Class<?> type) {
+            this.type = type;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        /**
+         * @return a new map of the entries, sorted by the same comparator if the map was sorted
+         */
+        @SuppressWarnings("unchecked")
+        public Object getContent() {
+            Map<Object, Object> map = sorted
+                    ? new TreeMap<Object, Object>((Comparator<Object>) comparator)
+                    : new LinkedHashMap<Object, Object>(keys.length * 4 / 3 + 1);
+            for (int i = 0; i < keys.length; i++)
+                map.put(keys[i], values[i]);
+            return map;
+        }
+
+        public void fill(Object source, Map<Object, Node> nodes, List<Object> pending) {
+            Map<?, ?> map = (Map<?, ?>) source;
+            if (map instanceof SortedMap) {
+                sorted = true;
+                comparator = ((SortedMap<?, ?>) map).comparator();
+            }
+            keys = new Object[map.size()];
+            values = new Object[keys.length];
+            int i = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                keys[i] = entry.getKey() instanceof String ? ((String) entry.getKey()).intern() : entry.getKey();
+                values[i++] = capture(entry.getValue(), nodes, pending);
+            }
+        }
+    }
+
+    /**
+     * Where the value of each field of a class is kept: in the array of primitives, for fields read as
+     * primitives, or in the array of other values.
+     */
+    private static final class Layout {
+        private final Class<?>[] primitiveTypes;
+        private final int[] slots;
+        private final int primitiveCount;
+        private final int valueCount;
+
+        private Layout(ClassDescriptor descriptor) {
+            FieldDescriptor[] fields = descriptor.getFields();
+            primitiveTypes = new Class<?>[fields.length];
+            slots = new int[fields.length];
+            int primitives = 0;
+            int values = 0;
+            for (int i = 0; i < fields.length; i++) {
+                primitiveTypes[i] = fields[i].getPrimitiveType();
+                slots[i] = primitiveTypes[i] != null ? primitives++ : values++;
+            }
+            primitiveCount = primitives;
+            valueCount = values;
+        }
+
+        static Layout forClass(ClassDescriptor descriptor) {
+            Layout layout = layouts.get(descriptor);
+            if (layout == null) {
+                layout = new Layout(descriptor);
+                layouts.putIfAbsent(descriptor, layout);
+            }
+            return layout;
+        }
+    }
+
+    private static long pack(Object value) {
+        if (value instanceof Double)
+            return Double.doubleToRawLongBits((Double) value);
+        if (value instanceof Float)
+            return Float.floatToRawIntBits((Float) value);
+        if (value instanceof Boolean)
+            return (Boolean) value ? 1 : 0;
+        if (value instanceof Character)
+            return (Character) value;
+        return ((Number) value).longValue();
+    }
+
+    private static Object unpack(Class<?> type, long bits) {
+        if (type == int.class)
+            return (int) bits;
+        if (type == long.class)
+            return bits;
+        if (type == double.class)
+            return Double.longBitsToDouble(bits);
+        if (type == boolean.class)
+            return bits != 0;
+        if (type == float.class)
+            return Float.intBitsToFloat((int) bits);
+        if (type == char.class)
+            return (char) bits;
+        if (type == short.class)
+            return (short) bits;
+        return (byte) bits;
+    }
+}
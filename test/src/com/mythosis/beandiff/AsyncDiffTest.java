@@ -0,0 +1,233 @@
+package com.mythosis.beandiff;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link DiffGenerator#diffAsync(String, Object, Object)} finds the same differences as
+ * {@link DiffGenerator#diff(String, Object, Object)}, resolving values on the asynchronous executor, with a
+ * bounded number of concurrent calls per data type.
+ *
+ * @author tonior@gmail.com
+ */
+public class AsyncDiffTest {
+    @Diffable
+    public static class Line {
+        @DiffField
+        public int quantity;
+        @DiffField("product")
+        public Integer product;
+    }
+
+    @Diffable
+    public static class Order {
+        @DiffField
+        public String status;
+        @DiffField("customer")
+        public Integer customer;
+        @DiffField
+        public List<Line> lines = new ArrayList<Line>();
+    }
+
+    /**
+     * Resolves ids to names, recording the values, the threads and the highest number of concurrent calls.
+     */
+    private static class SlowResolver implements DataResolver<Integer, String> {
+        final String prefix;
+        final long delay;
+        final List<Integer> resolved = Collections.synchronizedList(new ArrayList<Integer>());
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        SlowResolver(String prefix, long delay) {
+            this.prefix = prefix;
+            this.delay = delay;
+        }
+
+        public String resolve(Integer id) {
+            int now = running.incrementAndGet();
+            try {
+                resolved.add(id);
+                threads.add(Thread.currentThread().getName());
+                for (int max = maxRunning.get(); now > max && !maxRunning.compareAndSet(max, now); )
+                    max = maxRunning.get();
+                if (delay > 0)
+                    Thread.sleep(delay);
+                return id == null ? null : prefix + id;
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "test-async-" + count.incrementAndGet());
+        }
+    });
+
+    @After
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    private static Order order(String status, Integer customer, int... products) {
+        Order order = new Order();
+        order.status = status;
+        order.customer = customer;
+        for (int product : products) {
+            Line line = new Line();
+            line.quantity = 1;
+            line.product = product;
+            order.lines.add(line);
+        }
+        return order;
+    }
+
+    private static Order randomOrder(Random random) {
+        Order order = new Order();
+        order.status = "status" + random.nextInt(2);
+        order.customer = random.nextInt(4) == 0 ? null : random.nextInt(3);
+        for (int i = random.nextInt(6); i > 0; i--) {
+            Line line = new Line();
+            line.quantity = random.nextInt(2);
+            line.product = random.nextInt(5) == 0 ? null : random.nextInt(8);
+            order.lines.add(line);
+        }
+        return order;
+    }
+
+    @Test
+    public void matchesSynchronousDiffs() throws Exception {
+        DiffGenerator generator = new DiffGenerator();
+        generator.registerDataResolver("product", new SlowResolver("product", 0));
+        generator.registerDataResolver("customer", new SlowResolver("customer", 0));
+        DiffGenerator async = new DiffGenerator();
+        async.registerDataResolver("product", new SlowResolver("product", 0));
+        async.registerDataResolver("customer", new SlowResolver("customer", 0));
+        async.setAsyncExecutor(executor);
+        Random random = new Random(1);
+        for (int round = 0; round < 300; round++) {
+            Order original = random.nextInt(10) == 0 ? null : randomOrder(random);
+            Order current = random.nextInt(10) == 0 ? null : randomOrder(random);
+            assertEquals("round " + round, generator.diff("o", original, current),
+                    async.diffAsync("o", original, current).get());
+        }
+    }
+
+    @Test
+    public void resolvesEachValueOnceOnTheExecutor() throws Exception {
+        SlowResolver products = new SlowResolver("product", 0);
+        DiffGenerator generator = new DiffGenerator();
+        generator.registerDataResolver("product", products);
+        generator.setAsyncExecutor(executor);
+        Map<String, String> differences =
+                generator.diffAsync("o", order("new", 1, 1, 2, 3, 2), order("new", 1, 1, 4, 3, 5)).get();
+        assertEquals("product2", differences.get("o.lines.idx2.product"));
+        // Every distinct value, although the first and third lines are equal.
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3, 4, 5)),
+                new HashSet<Integer>(products.resolved));
+        assertEquals(5, products.resolved.size());
+        for (String thread : products.threads)
+            assertTrue(thread, thread.startsWith("test-async-"));
+    }
+
+    @Test
+    public void boundsConcurrentResolutionsPerDataType() throws Exception {
+        SlowResolver products = new SlowResolver("product", 20);
+        SlowResolver customers = new SlowResolver("customer", 20);
+        DiffGenerator generator = new DiffGenerator();
+        generator.registerDataResolver("product", products);
+        generator.registerDataResolver("customer", customers);
+        generator.setAsyncExecutor(executor);
+        generator.setMaxConcurrentResolutions("product", 2);
+        generator.setMaxConcurrentResolutions("customer", 1);
+        int[] original = new int[12];
+        int[] current = new int[12];
+        for (int i = 0; i < original.length; i++) {
+            original[i] = i;
+            current[i] = i + original.length;
+        }
+        // The limits apply to concurrent diffs together.
+        List<Future<Map<String, String>>> diffs = new ArrayList<Future<Map<String, String>>>();
+        for (int i = 0; i < 3; i++)
+            diffs.add(generator.diffAsync("o", order("new", i, original), order("new", i + 3, current)));
+        for (Future<Map<String, String>> diff : diffs)
+            assertEquals(13, diff.get().size());
+        assertEquals(3 * 24, products.resolved.size());
+        assertTrue("" + products.maxRunning, products.maxRunning.get() <= 2);
+        assertEquals(1, customers.maxRunning.get());
+    }
+
+    @Test
+    public void rejectsAMaximumBelowOne() {
+        try {
+            new DiffGenerator().setMaxConcurrentResolutions("product", 0);
+            fail("Allowed no concurrent resolution");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Maximum concurrent resolutions must be at least 1: 0", e.getMessage());
+        }
+    }
+
+    @Test
+    public void reportsFailuresThroughTheFuture() throws Exception {
+        DiffGenerator generator = new DiffGenerator();
+        generator.registerDataResolver("product", new DataResolver<Integer, String>() {
+            public String resolve(Integer id) {
+                throw new IllegalStateException("No product " + id);
+            }
+        });
+        generator.setAsyncExecutor(executor);
+        try {
+            generator.diffAsync("o", order("new", 1, 7), order("new", 1, 8)).get();
+            fail("Resolved a failing resolver");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().startsWith("No product "));
+        }
+        try {
+            generator.diffAsync("o", order("new", 1), "order").get();
+            fail("Compared objects of different classes");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("arguments not same"));
+        }
+    }
+
+    @Test
+    public void runsOnTheDefaultExecutorUnlessOneIsSet() throws Exception {
+        SlowResolver products = new SlowResolver("product", 0);
+        DiffGenerator generator = new DiffGenerator();
+        generator.registerDataResolver("product", products);
+        generator.setAsyncExecutor(executor);
+        generator.setAsyncExecutor(null);
+        assertEquals(1, generator.diffAsync("o", order("new", 1, 1), order("new", 1, 2)).get().size());
+        assertEquals(2, products.resolved.size());
+        for (String thread : products.threads)
+            assertFalse(thread, thread.startsWith("test-async-"));
+    }
+}
@@ -0,0 +1,236 @@
+package com.mythosis.beandiff;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the values of {@link BatchDataResolver BatchDataResolvers} are resolved ahead of full diffs,
+ * with one call per data type, and that the results match those of plain resolvers.
+ *
+ * @author tonior@gmail.com
+ */
+public class BatchDataResolverTest {
+    @Diffable
+    public static class Line {
+        @DiffField
+        public int quantity;
+        @DiffField("product")
+        public Integer product;
+    }
+
+    @Diffable
+    public static class Order {
+        @DiffField
+        public String status;
+        @DiffField("customer")
+        public Integer customer;
+        @DiffField
+        public List<Line> lines = new ArrayList<Line>();
+        @DiffField
+        public Map<String, Line> byName = new HashMap<String, Line>();
+    }
+
+    /**
+     * Resolves ids to names, recording its calls.  Odd ids can be left out of the batches.
+     */
+    private static class NameResolver implements BatchDataResolver<Integer, String> {
+        final String prefix;
+        final boolean skipOdd;
+        final List<Set<Integer>> batches = new ArrayList<Set<Integer>>();
+        final List<Integer> resolved = new ArrayList<Integer>();
+
+        NameResolver(String prefix, boolean skipOdd) {
+            this.prefix = prefix;
+            this.skipOdd = skipOdd;
+        }
+
+        public String resolve(Integer id) {
+            resolved.add(id);
+            return id == null ? null : prefix + id;
+        }
+
+        public Map<Integer, String> resolveAll(Collection<Integer> ids) {
+            Set<Integer> batch = new HashSet<Integer>(ids);
+            assertEquals("duplicate ids", ids.size(), batch.size());
+            batches.add(batch);
+            Map<Integer, String> names = new HashMap<Integer, String>();
+            for (Integer id : ids)
+                if (!skipOdd || id % 2 == 0)
+                    names.put(id, prefix + id);
+            return names;
+        }
+    }
+
+    /**
+     * Resolves ids to names one at a time.
+     */
+    private static class PlainResolver implements DataResolver<Integer, String> {
+        final String prefix;
+
+        PlainResolver(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public String resolve(Integer id) {
+            return id == null ? null : prefix + id;
+        }
+    }
+
+    private static Line line(int quantity, Integer product) {
+        Line line = new Line();
+        line.quantity = quantity;
+        line.product = product;
+        return line;
+    }
+
+    private static Order order(String status, Integer customer, Integer... products) {
+        Order order = new Order();
+        order.status = status;
+        order.customer = customer;
+        for (Integer product : products)
+            order.lines.add(line(1, product));
+        return order;
+    }
+
+    private static Set<Integer> set(Integer... values) {
+        return new HashSet<Integer>(Arrays.asList(values));
+    }
+
+    private static Map<String, String> map(String... entries) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < entries.length; i += 2)
+            map.put(entries[i], entries[i + 1]);
+        return map;
+    }
+
+    @Test
+    public void resolvesTheDistinctValuesOfBothObjectsInOneCall() {
+        NameResolver products = new NameResolver("product", false);
+        DiffGenerator generator = new DiffGenerator();
+        generator.registerDataResolver("product", products);
+        Order original = order("new", 1, 1, 2, 2, null);
+        Order current = order("new", 1, 2, 3);
+        // Also reached through the map.
+        current.byName.put("first", current.lines.get(0));
+        current.byName.put("other", line(2, 4));
+
+        assertEquals(map("o.byName.first", "", "o.byName.other", "", "o.lines.count", "4",
+                "o.lines.idx1.product", "product1", "o.lines.idx2.product", "product2"),
+                generator.diff("o", original, current));
+        assertEquals(1, products.batches.size());
+        assertEquals(set(1, 2, 3, 4), products.batches.get(0));
+        assertEquals(0, products.resolved.size());
+    }
+
+    @Test
+    public void callsEachBatchResolverOnce() {
+        NameResolver products = new NameResolver("product", false);
+        NameResolver customers = new NameResolver("customer", false);
+        DiffGenerator generator = new DiffGenerator();
+        generator.registerDataResolver("product", products);
+        generator.registerDataResolver("customer", customers);
+        assertEquals(map("o.customer", "customer1", "o.lines.idx1.product", "product5"),
+                generator.diff("o", order("new", 1, 5, 6), order("new", 2, 7, 6)));
+        assertEquals(1, products.batches.size());
+        assertEquals(set(5, 6, 7), products.batches.get(0));
+        assertEquals(1, customers.batches.size());
+        assertEquals(set(1, 2), customers.batches.get(0));
+        assertEquals(0, products.resolved.size() + customers.resolved.size());
+
+        // Each diff resolves its own values.
+        generator.diff("o", order("new", 1, 5), order("new", 1, 8));
+        assertEquals(2, products.batches.size());
+        assertEquals(set(5, 6, 7), products.batches.get(0));
+        assertEquals(set(5, 8), products.batches.get(1));
+        assertEquals(2, customers.batches.size());
+        assertEquals(set(1, 2), customers.batches.get(0));
+        assertEquals(set(1), customers.batches.get(1));
+    }
+
+    @Test
+    public void resolvesMissingValuesOneAtATime() {
+        NameResolver products = new NameResolver("product", true);
+        DiffGenerator generator = new DiffGenerator();
+        generator.registerDataResolver("product", products);
+        assertEquals(map("o.lines.idx1.product", "product1", "o.lines.idx2.product", "product2",
+                "o.lines.idx4.product", "product3"),
+                generator.diff("o", order("new", 1, 1, 2, 3, 3), order("new", 1, 4, 5, 3, 6)));
+        assertEquals(1, products.batches.size());
+        assertEquals(set(1, 2, 3, 4, 5, 6), products.batches.get(0));
+        // Each odd value once, in the order compared.
+        assertEquals(Arrays.asList(1, 5, 3), products.resolved);
+    }
+
+    @Test
+    public void resolvesObjectsInBatch() {
+        NameResolver products = new NameResolver("product", false);
+        DiffGenerator generator = new DiffGenerator();
+        generator.registerDataResolver("product", products);
+        assertEquals(map("o.customer", "1", "o.lines.idx1.product", "product1",
+                "o.lines.idx1.quantity", "1", "o.lines.idx2.product", "product2", "o.lines.idx2.quantity", "1",
+                "o.status", "new"), generator.resolveObject("o", order("new", 1, 1, 2)));
+        assertEquals(1, products.batches.size());
+        assertEquals(set(1, 2), products.batches.get(0));
+        assertEquals(0, products.resolved.size());
+    }
+
+    @Test
+    public void leavesPlainResolversToTheDiff() {
+        final NameResolver products = new NameResolver("product", false);
+        DiffGenerator generator = new DiffGenerator();
+        generator.registerDataResolver("product", products);
+        generator.registerDataResolver("customer", new PlainResolver("customer") {
+            public String resolve(Integer id) {
+                // Not resolved before the products are.
+                assertEquals(1, products.batches.size());
+                return super.resolve(id);
+            }
+        });
+        assertEquals(map("o.customer", "customer1"), generator.diff("o", order("new", 1, 1), order("new", 2, 1)));
+    }
+
+    @Test
+    public void matchesPlainResolvers() {
+        DiffGenerator plain = new DiffGenerator();
+        plain.registerDataResolver("product", new PlainResolver("product"));
+        plain.registerDataResolver("customer", new PlainResolver("customer"));
+        Random random = new Random(1);
+        for (int round = 0; round < 300; round++) {
+            NameResolver products = new NameResolver("product", random.nextBoolean());
+            DiffGenerator batch = new DiffGenerator();
+            batch.registerDataResolver("product", products);
+            batch.registerDataResolver("customer", new NameResolver("customer", random.nextBoolean()));
+            Order original = random.nextInt(10) == 0 ? null : randomOrder(random);
+            Order current = random.nextInt(10) == 0 ? null : randomOrder(random);
+            String message = "round " + round;
+            assertEquals(message, plain.diff("o", original, current), batch.diff("o", original, current));
+            assertEquals(message, plain.resolveObject("o", current), batch.resolveObject("o", current));
+            // At most one call per diff, none if there is nothing to resolve.
+            assertTrue(message, products.batches.size() <= 2);
+        }
+    }
+
+    private static Order randomOrder(Random random) {
+        Order order = new Order();
+        order.status = "status" + random.nextInt(2);
+        order.customer = random.nextInt(4) == 0 ? null : random.nextInt(3);
+        for (int i = random.nextInt(5); i > 0; i--)
+            order.lines.add(line(random.nextInt(2), random.nextInt(4) == 0 ? null : random.nextInt(6)));
+        for (int i = random.nextInt(3); i > 0; i--)
+            order.byName.put("key" + random.nextInt(3), line(random.nextInt(2), random.nextInt(6)));
+        return order;
+    }
+}
@@ -0,0 +1,299 @@
+package com.mythosis.beandiff;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trips through {@link BinaryDiffEncoder} and {@link BinaryDiffDecoder}.
+ *
+ * @author tonior@gmail.com
+ */
+public class BinaryDiffEncoderTest {
+    @Diffable
+    public static class Item {
+        @DiffField
+        public String name;
+        @DiffField
+        public int quantity;
+        @DiffField
+        public long total;
+        @DiffField
+        public double weight;
+        @DiffField
+        public Character grade;
+        @DiffField
+        public Boolean shipped;
+        @DiffField
+        public BigDecimal price;
+
+        Item(String name, int quantity) {
+            this.name = name;
+            this.quantity = quantity;
+            this.total = Long.MIN_VALUE + quantity;
+            this.weight = quantity / 3.0;
+            this.grade = (char) ('a' + quantity % 26);
+            this.shipped = quantity % 2 == 0;
+            this.price = new BigDecimal(quantity + ".5");
+        }
+    }
+
+    @Diffable
+    public static class Order {
+        @DiffField
+        public String customer;
+        @DiffField
+        public List<Item> items = new ArrayList<Item>();
+        @DiffField
+        public Map<String, Item> byCode = new LinkedHashMap<String, Item>();
+        @DiffField
+        public Item gift;
+    }
+
+    @Diffable
+    public static class Parcel {
+        @DiffField
+        public String label;
+    }
+
+    private static Order order(String customer, int items) {
+        Order order = new Order();
+        order.customer = customer;
+        for (int i = 0; i < items; i++) {
+            Item item = new Item("item" + i, customer.length() * 10 + i);
+            order.items.add(item);
+            order.byCode.put("code" + i, item);
+        }
+        return order;
+    }
+
+    private static ByteBuffer encode(DiffGenerator generator, Object original, Object current, int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocate(capacity);
+        BinaryDiffEncoder encoder = new BinaryDiffEncoder(buffer, original.getClass());
+        assertTrue(generator.diff("order", original, current, encoder));
+        assertFalse(encoder.isOverflowed());
+        int length = encoder.finish();
+        assertEquals(buffer.position(), length);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void encodeInto(ByteBuffer buffer, Order original, Order current) {
+        BinaryDiffEncoder encoder = new BinaryDiffEncoder(buffer, Order.class);
+        assertTrue(new DiffGenerator().diff("order", original, current, encoder));
+        encoder.finish();
+    }
+
+    @Test
+    public void decodesTheSameDifferencesAsTheMap() {
+        DiffGenerator generator = new DiffGenerator();
+        Order original = order("ann", 4);
+        Order current = order("bob", 6);
+        current.items.remove(1);
+        current.byCode.remove("code2");
+        current.gift = new Item("gift", 3);
+
+        ByteBuffer buffer = encode(generator, original, current, 4096);
+        MapDiffListener decoded = new MapDiffListener();
+        assertTrue(BinaryDiffDecoder.decode(buffer, Order.class, decoded));
+        assertFalse(buffer.hasRemaining());
+        assertEquals(generator.diff("order", original, current), decoded.getDifferences());
+    }
+
+    @Test
+    public void keepsTheTypeOfPrimitiveValues() {
+        Order original = order("ann", 1);
+        Order current = order("ann", 1);
+        current.items.set(0, new Item("other", 7));
+
+        EventLog decoded = new EventLog();
+        BinaryDiffDecoder.decode(encode(new DiffGenerator(), original, current, 4096), Order.class, decoded);
+        EventLog expected = new EventLog();
+        new DiffGenerator().diff("order", original, current, expected);
+        assertEquals(expected.events, decoded.events);
+        assertEquals(Integer.valueOf(30), decoded.valueAt("order.items.idx1.quantity"));
+        assertEquals(Long.valueOf(Long.MIN_VALUE + 30), decoded.valueAt("order.items.idx1.total"));
+        assertEquals(Double.valueOf(10.0), decoded.valueAt("order.items.idx1.weight"));
+        assertEquals(Character.valueOf('e'), decoded.valueAt("order.items.idx1.grade"));
+        assertEquals(Boolean.TRUE, decoded.valueAt("order.items.idx1.shipped"));
+        // Other values are decoded as their string.
+        assertEquals("30.5", decoded.valueAt("order.items.idx1.price"));
+    }
+
+    @Test
+    public void rollsBackTheDifferenceThatOverflows() {
+        DiffGenerator generator = new DiffGenerator();
+        Order original = order("ann", 20);
+        Order current = order("bobby", 20);
+        EventLog all = new EventLog();
+        generator.diff("order", original, current, all);
+
+        ByteBuffer buffer = ByteBuffer.allocate(200);
+        BinaryDiffEncoder encoder = new BinaryDiffEncoder(buffer, Order.class);
+        assertFalse(generator.diff("order", original, current, encoder));
+        assertTrue(encoder.isOverflowed());
+        int length = encoder.finish();
+        assertTrue(length <= 200);
+        buffer.flip();
+        assertEquals(length, buffer.limit());
+
+        EventLog decoded = new EventLog();
+        assertTrue(BinaryDiffDecoder.decode(buffer, Order.class, decoded));
+        assertFalse(buffer.hasRemaining());
+        assertTrue(decoded.events.size() > 0);
+        assertTrue(decoded.events.size() < all.events.size());
+        assertEquals(all.events.subList(0, decoded.events.size()), decoded.events);
+    }
+
+    @Test
+    public void overflowsAtEveryBufferSizeWithoutCorruptingTheDiff() {
+        DiffGenerator generator = new DiffGenerator();
+        Order original = order("ann", 3);
+        Order current = order("bobby", 3);
+        EventLog all = new EventLog();
+        generator.diff("order", original, current, all);
+
+        for (int capacity = 6; ; capacity++) {
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            BinaryDiffEncoder encoder = new BinaryDiffEncoder(buffer, Order.class);
+            boolean done = generator.diff("order", original, current, encoder);
+            encoder.finish();
+            buffer.flip();
+            EventLog decoded = new EventLog();
+            BinaryDiffDecoder.decode(buffer, Order.class, decoded);
+            assertFalse(buffer.hasRemaining());
+            if (done) {
+                assertEquals(all.events, decoded.events);
+                return;
+            }
+            assertTrue(encoder.isOverflowed());
+            assertEquals(all.events.subList(0, decoded.events.size()), decoded.events);
+        }
+    }
+
+    @Test
+    public void roundTripsStringsOutsideTheBasicPlane() {
+        String[] values = {"\uD83D\uDE00 smile", "caf\u00e9 \u4e2d", "lone \uD83D high", "lone \uDE00 low", ""};
+        for (String value : values) {
+            Order original = order("ann", 1);
+            Order current = order("ann", 1);
+            current.customer = value;
+            current.byCode.put(value, new Item(value, 1));
+
+            EventLog decoded = new EventLog();
+            BinaryDiffDecoder.decode(encode(new DiffGenerator(), original, current, 4096), Order.class, decoded);
+            EventLog expected = new EventLog();
+            new DiffGenerator().diff("order", original, current, expected);
+            assertEquals(value, expected.events, decoded.events);
+            assertEquals(value, decoded.valueAt("order.customer.current"));
+        }
+    }
+
+    @Test
+    public void decodesDiffsWrittenOneAfterTheOther() {
+        Order first = order("ann", 2);
+        Order second = order("bob", 3);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        encodeInto(buffer, first, second);
+        encodeInto(buffer, second, first);
+        buffer.flip();
+
+        MapDiffListener forward = new MapDiffListener();
+        MapDiffListener backward = new MapDiffListener();
+        assertTrue(BinaryDiffDecoder.decode(buffer, Order.class, forward));
+        assertTrue(BinaryDiffDecoder.decode(buffer, Order.class, backward));
+        assertFalse(buffer.hasRemaining());
+        assertEquals(new DiffGenerator().diff("order", first, second), forward.getDifferences());
+        assertEquals(new DiffGenerator().diff("order", second, first), backward.getDifferences());
+    }
+
+    @Test
+    public void rejectsADiffEncodedWithAnotherDictionary() {
+        ByteBuffer buffer = encode(new DiffGenerator(), order("ann", 1), order("bob", 1), 4096);
+        assertTrue(PathDictionary.forClass(Order.class).getChecksum() != PathDictionary.forClass(Parcel.class).getChecksum());
+        try {
+            BinaryDiffDecoder.decode(buffer, Parcel.class, new MapDiffListener());
+            fail("Decoded with the wrong dictionary");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Binary diff encoded with another path dictionary.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void decodesWithARebuiltDictionary() {
+        PathDictionary dictionary = PathDictionary.forClass(Order.class);
+        PathDictionary rebuilt = PathDictionary.of(dictionary.getNames());
+        assertEquals(dictionary.getChecksum(), rebuilt.getChecksum());
+
+        Order original = order("ann", 2);
+        Order current = order("bob", 2);
+        MapDiffListener decoded = new MapDiffListener();
+        assertTrue(BinaryDiffDecoder.decode(encode(new DiffGenerator(), original, current, 4096), rebuilt, decoded));
+        assertEquals(new DiffGenerator().diff("order", original, current), decoded.getDifferences());
+    }
+
+    /**
+     * Logs every event with its values, keeping the values themselves to check their types.
+     */
+    private static class EventLog implements DiffListener {
+        final List<String> events = new ArrayList<String>();
+        final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+        Object valueAt(String path) {
+            return values.get(path);
+        }
+
+        private boolean log(String event) {
+            events.add(event);
+            return true;
+        }
+
+        public boolean changed(DiffPath path, Object original, Object current) {
+            values.put(path.toString(), original);
+            values.put(path + ".current", current);
+            return log("changed " + path + " " + typed(original) + " " + typed(current));
+        }
+
+        public boolean added(DiffPath path, Object current) {
+            return log("added " + path + " " + typed(current));
+        }
+
+        public boolean removed(DiffPath path, Object original) {
+            return log("removed " + path + " " + typed(original));
+        }
+
+        public boolean countChanged(DiffPath path, int originalCount, int currentCount) {
+            return log("count " + path + " " + originalCount + " " + currentCount);
+        }
+
+        public boolean moved(DiffPath path, DiffPath to, Object value) {
+            return log("moved " + path + " " + to + " " + typed(value));
+        }
+
+        public boolean sameAs(DiffPath path, DiffPath earlier) {
+            return log("same " + path + " " + earlier);
+        }
+
+        /**
+         * Renders a value as it is decoded: values of other types than these come back as strings.
+         */
+        private static String typed(Object value) {
+            if (value == null)
+                return "null";
+            if (value instanceof Boolean || value instanceof Number && value.getClass().getName().startsWith("java.lang.")
+                    || value instanceof Character || value instanceof String)
+                return value.getClass().getSimpleName() + ":" + value;
+            return "String:" + value;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.mythosis.beandiff;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the least recently used and time to live evictions of {@link CachingDataResolver}.
+ *
+ * @author tonior@gmail.com
+ */
+public class CachingDataResolverTest {
+    @Diffable
+    public static class Order {
+        @DiffField("product")
+        public Integer product;
+        @DiffField("product")
+        public Integer alternative;
+    }
+
+    /**
+     * Records the values it is asked to resolve.
+     */
+    private static class RecordingResolver implements DataResolver<Integer, String> {
+        final List<Integer> resolved = new ArrayList<Integer>();
+
+        public String resolve(Integer param) {
+            resolved.add(param);
+            return param == null || param < 0 ? null : "product" + param;
+        }
+    }
+
+    private final RecordingResolver resolver = new RecordingResolver();
+
+    private static Order order(Integer product, Integer alternative) {
+        Order order = new Order();
+        order.product = product;
+        order.alternative = alternative;
+        return order;
+    }
+
+    @Test
+    public void resolvesEachValueOnce() {
+        CachingDataResolver<Integer, String> cache = new CachingDataResolver<Integer, String>(resolver, 10);
+        assertEquals("product1", cache.resolve(1));
+        assertEquals("product1", cache.resolve(1));
+        assertEquals("product2", cache.resolve(2));
+        assertEquals("product1", cache.resolve(1));
+        assertEquals(Arrays.asList(1, 2), resolver.resolved);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void cachesNullParametersAndResults() {
+        CachingDataResolver<Integer, String> cache = new CachingDataResolver<Integer, String>(resolver, 10);
+        assertEquals(null, cache.resolve(null));
+        assertEquals(null, cache.resolve(null));
+        assertEquals(null, cache.resolve(-1));
+        assertEquals(null, cache.resolve(-1));
+        assertEquals(Arrays.asList(null, -1), resolver.resolved);
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedResult() {
+        CachingDataResolver<Integer, String> cache = new CachingDataResolver<Integer, String>(resolver, 2);
+        cache.resolve(1);
+        cache.resolve(2);
+        // Using 1 makes 2 the least recently used result, evicted to make room for 3.
+        cache.resolve(1);
+        cache.resolve(3);
+        assertEquals(2, cache.size());
+        cache.resolve(1);
+        cache.resolve(3);
+        assertEquals(Arrays.asList(1, 2, 3), resolver.resolved);
+        cache.resolve(2);
+        assertEquals(Arrays.asList(1, 2, 3, 2), resolver.resolved);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void matchesALeastRecentlyUsedList() {
+        Random random = new Random(1);
+        for (int maximumSize = 1; maximumSize < 8; maximumSize++) {
+            RecordingResolver recording = new RecordingResolver();
+            CachingDataResolver<Integer, String> cache = new CachingDataResolver<Integer, String>(recording, maximumSize);
+            // The cached values, least recently used first.
+            LinkedList<Integer> used = new LinkedList<Integer>();
+            int misses = 0;
+            for (int i = 0; i < 1000; i++) {
+                Integer value = random.nextInt(10);
+                String message = "size " + maximumSize + ", step " + i;
+                if (random.nextInt(20) == 0) {
+                    cache.invalidate(value);
+                    used.remove(value);
+                    continue;
+                }
+                if (!used.remove(value)) {
+                    misses++;
+                    if (used.size() == maximumSize)
+                        used.removeFirst();
+                }
+                used.addLast(value);
+                assertEquals(message, "product" + value, cache.resolve(value));
+                assertEquals(message, misses, recording.resolved.size());
+                assertEquals(message, used.size(), cache.size());
+            }
+            assertEquals(misses, cache.getMissCount());
+            assertEquals(recording.resolved.size(), cache.getMissCount());
+        }
+    }
+
+    @Test
+    public void resolvesExpiredResultsAgain() throws InterruptedException {
+        CachingDataResolver<Integer, String> expiring =
+                new CachingDataResolver<Integer, String>(resolver, 10, 20, TimeUnit.MILLISECONDS);
+        expiring.resolve(1);
+        Thread.sleep(50);
+        assertEquals("product1", expiring.resolve(1));
+        assertEquals(Arrays.asList(1, 1), resolver.resolved);
+        // The expired result is replaced, not added.
+        assertEquals(1, expiring.size());
+        assertEquals(0, expiring.getHitCount());
+        assertEquals(2, expiring.getMissCount());
+    }
+
+    @Test
+    public void keepsResultsForTheirTimeToLive() throws InterruptedException {
+        CachingDataResolver<Integer, String> lasting =
+                new CachingDataResolver<Integer, String>(resolver, 10, 1, TimeUnit.HOURS);
+        lasting.resolve(1);
+        Thread.sleep(50);
+        lasting.resolve(1);
+        assertEquals(Arrays.asList(1), resolver.resolved);
+        assertEquals(1, lasting.getHitCount());
+    }
+
+    @Test
+    public void evictsBeforeResultsExpire() {
+        CachingDataResolver<Integer, String> cache =
+                new CachingDataResolver<Integer, String>(resolver, 1, 1, TimeUnit.HOURS);
+        cache.resolve(1);
+        cache.resolve(2);
+        cache.resolve(1);
+        assertEquals(Arrays.asList(1, 2, 1), resolver.resolved);
+    }
+
+    @Test
+    public void forgetsInvalidatedResults() {
+        CachingDataResolver<Integer, String> cache = new CachingDataResolver<Integer, String>(resolver, 10);
+        cache.resolve(1);
+        cache.resolve(2);
+        cache.invalidate(1);
+        cache.resolve(1);
+        cache.resolve(2);
+        assertEquals(Arrays.asList(1, 2, 1), resolver.resolved);
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        cache.resolve(2);
+        assertEquals(Arrays.asList(1, 2, 1, 2), resolver.resolved);
+    }
+
+    @Test
+    public void cachesAcrossDiffs() {
+        CachingDataResolver<Integer, String> cache = new CachingDataResolver<Integer, String>(resolver, 10);
+        DiffGenerator generator = new DiffGenerator();
+        generator.registerDataResolver("product", cache);
+        assertEquals("product1", generator.diff("order", order(1, 2), order(3, 2)).get("order.product"));
+        assertEquals(3, resolver.resolved.size());
+        assertEquals("product3", generator.diff("order", order(3, 2), order(1, 2)).get("order.product"));
+        assertEquals(3, resolver.resolved.size());
+    }
+
+    @Test
+    public void rejectsInvalidArguments() {
+        try {
+            new CachingDataResolver<Integer, String>(null, 10);
+            fail("Cached no resolver");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Resolver is null.", e.getMessage());
+        }
+        try {
+            new CachingDataResolver<Integer, String>(resolver, 0);
+            fail("Cached no result");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Maximum size must be at least 1: 0", e.getMessage());
+        }
+        try {
+            new CachingDataResolver<Integer, String>(resolver, 10, -1, TimeUnit.SECONDS);
+            fail("Cached results for a negative time");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Time to live is negative: -1", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.mythosis.beandiff;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the diffs of graphs tracked by {@link ChangeTracker} with full diffs against copies taken at the
+ * baseline.
+ *
+ * @author tonior@gmail.com
+ */
+public class ChangeTrackerTest {
+    @Diffable(tracked = true)
+    public static class Item {
+        @DiffField
+        private String name;
+        @DiffField
+        private int price;
+        @DiffField
+        private List<String> tags = new ArrayList<String>();
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getPrice() {
+            return price;
+        }
+
+        public void setPrice(int price) {
+            this.price = price;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public void setTags(List<String> tags) {
+            this.tags = tags;
+        }
+    }
+
+    @Diffable
+    public static class Customer {
+        @DiffField
+        public String name;
+        @DiffField
+        public Item favourite;
+    }
+
+    @Diffable(tracked = true)
+    public static class Order {
+        @DiffField
+        private String status;
+        @DiffField
+        private List<Item> items = new ArrayList<Item>();
+        @DiffField
+        private Map<String, Item> byName = new HashMap<String, Item>();
+        @DiffField
+        private Customer customer;
+        @DiffField
+        private Order parent;
+
+        public String getStatus() {
+            return status;
+        }
+
+        public void setStatus(String status) {
+            this.status = status;
+        }
+
+        public List<Item> getItems() {
+            return items;
+        }
+
+        public void setItems(List<Item> items) {
+            this.items = items;
+        }
+
+        public Map<String, Item> getByName() {
+            return byName;
+        }
+
+        public void setByName(Map<String, Item> byName) {
+            this.byName = byName;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+
+        public void setCustomer(Customer customer) {
+            this.customer = customer;
+        }
+
+        public Order getParent() {
+            return parent;
+        }
+
+        public void setParent(Order parent) {
+            this.parent = parent;
+        }
+    }
+
+    private static final ChangeTracker copier = new ChangeTracker();
+
+    private final DiffGenerator generator = new DiffGenerator();
+    private ChangeTracker tracker;
+    private Order order;
+
+    @Before
+    public void createOrder() {
+        tracker = new ChangeTracker();
+        order = tracker.create(Order.class);
+        order.setStatus("new");
+        for (int i = 0; i < 3; i++) {
+            Item item = item("item" + i, i);
+            order.getItems().add(item);
+            order.getByName().put(item.getName(), item);
+        }
+        order.setCustomer(new Customer());
+        order.getCustomer().name = "ann";
+        tracker.track(order);
+    }
+
+    private Item item(String name, int price) {
+        Item item = tracker.create(Item.class);
+        item.setName(name);
+        item.setPrice(price);
+        return item;
+    }
+
+    /**
+     * Copies a graph, sharing and cycles included, with objects of the same classes that no tracked graph holds.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object value, Map<Object, Object> copies) {
+        if (value == null || copies.containsKey(value))
+            return copies.get(value);
+        if (value instanceof Order) {
+            Order order = (Order) value;
+            Order copy = copier.create(Order.class);
+            copies.put(value, copy);
+            copy.setStatus(order.getStatus());
+            copy.setItems((List<Item>) copy(order.getItems(), copies));
+            copy.setByName((Map<String, Item>) copy(order.getByName(), copies));
+            copy.setCustomer((Customer) copy(order.getCustomer(), copies));
+            copy.setParent((Order) copy(order.getParent(), copies));
+            return copy;
+        }
+        if (value instanceof Item) {
+            Item item = (Item) value;
+            Item copy = copier.create(Item.class);
+            copies.put(value, copy);
+            copy.setName(item.getName());
+            copy.setPrice(item.getPrice());
+            copy.setTags((List<String>) copy(item.getTags(), copies));
+            return copy;
+        }
+        if (value instanceof Customer) {
+            Customer customer = (Customer) value;
+            Customer copy = new Customer();
+            copies.put(value, copy);
+            copy.name = customer.name;
+            copy.favourite = (Item) copy(customer.favourite, copies);
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<Object>();
+            copies.put(value, copy);
+            for (Object item : (List<?>) value)
+                copy.add(copy(item, copies));
+            return copy;
+        }
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new HashMap<Object, Object>();
+            copies.put(value, copy);
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+                copy.put(entry.getKey(), copy(entry.getValue(), copies));
+            return copy;
+        }
+        return value;
+    }
+
+    private static Object copy(Order order) {
+        return copy(order, new IdentityHashMap<Object, Object>());
+    }
+
+    private static Map<String, String> map(String... entries) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < entries.length; i += 2)
+            map.put(entries[i], entries[i + 1]);
+        return map;
+    }
+
+    @Test
+    public void createsTrackedSubclasses() {
+        assertTrue(order instanceof ChangeTracker.Tracked);
+        assertEquals(tracker, ((ChangeTracker.Tracked) order).getChangeTracker());
+        try {
+            tracker.create(Customer.class);
+            fail("Created an untracked class");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("No tracked subclass of " + Customer.class.getName()));
+        }
+    }
+
+    @Test
+    public void findsNothingBeforeAnyChange() {
+        assertEquals(map(), generator.diffChanges("order", tracker));
+    }
+
+    @Test
+    public void reportsFieldsWrittenThroughSetters() {
+        order.setStatus("shipped");
+        order.getItems().get(1).setPrice(7);
+        // Written back to its baseline value.
+        order.getItems().get(2).setName("other");
+        order.getItems().get(2).setName("item2");
+        // The item is also found in the map.
+        assertEquals(map("order.byName.item1.price", "1", "order.items.idx2.price", "1", "order.status", "new"),
+                generator.diffChanges("order", tracker));
+    }
+
+    @Test
+    public void reportsChangesToCollectionsAndUntrackedObjects() {
+        Object baseline = copy(order);
+        order.getItems().add(item("item3", 3));
+        order.getByName().remove("item0");
+        order.getItems().get(0).getTags().add("sale");
+        order.getCustomer().name = "bob";
+        Map<String, String> changes = generator.diffChanges("order", tracker);
+        assertEquals(generator.diff("order", baseline, order), changes);
+        assertEquals(map("order.byName.item0.name", "item0", "order.byName.item0.price", "0", "order.customer.name", "ann",
+                "order.items.count", "3", "order.items.idx1.tags.count", "0"), changes);
+    }
+
+    @Test
+    public void committingMovesTheBaseline() {
+        order.setStatus("paid");
+        Item added = item("item3", 3);
+        order.getItems().add(added);
+        tracker.commit();
+        assertEquals(map(), generator.diffChanges("order", tracker));
+
+        // Objects added before the commit are tracked from then on.
+        Object baseline = copy(order);
+        added.setPrice(30);
+        assertEquals(map("order.items.idx4.price", "3"), generator.diffChanges("order", tracker));
+        assertEquals(generator.diff("order", baseline, order), generator.diffChanges("order", tracker));
+    }
+
+    @Test
+    public void ignoresObjectsOutsideTheGraph() {
+        Item outside = item("outside", 1);
+        outside.setPrice(2);
+        assertEquals(map(), generator.diffChanges("order", tracker));
+    }
+
+    @Test
+    public void requiresAGraphToTrack() {
+        try {
+            generator.diffChanges("order", new ChangeTracker());
+            fail("Diffed changes of no graph");
+        } catch (IllegalStateException e) {
+            assertEquals("No graph is tracked, track() must be called first.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void matchesFullDiffsAgainstTheBaseline() {
+        DiffGenerator referencing = new DiffGenerator();
+        referencing.setSharedObjectReferences(true);
+        Random random = new Random(1);
+        for (int round = 0; round < 100; round++) {
+            createOrder();
+            Object baseline = copy(order);
+            for (int step = 0; step < 20; step++) {
+                for (int i = random.nextInt(4); i > 0; i--)
+                    edit(random);
+                String message = "round " + round + ", step " + step;
+                assertEquals(message, generator.diff("order", baseline, order), generator.diffChanges("order", tracker));
+                assertEquals(message, referencing.diff("order", baseline, order), referencing.diffChanges("order", tracker));
+                if (random.nextInt(3) == 0) {
+                    tracker.commit();
+                    baseline = copy(order);
+                    assertEquals(map(), generator.diffChanges("order", tracker));
+                }
+            }
+        }
+    }
+
+    private void edit(Random random) {
+        List<Item> items = new ArrayList<Item>(order.getItems());
+        items.addAll(order.getByName().values());
+        Item any = items.isEmpty() ? null : items.get(random.nextInt(items.size()));
+        Item itemToAdd = any == null || random.nextBoolean() ? item("item" + random.nextInt(5), random.nextInt(3)) : any;
+        switch (random.nextInt(13)) {
+            case 0:
+                order.setStatus("status" + random.nextInt(4));
+                break;
+            case 1:
+                order.getItems().add(itemToAdd);
+                break;
+            case 2:
+                if (!order.getItems().isEmpty())
+                    order.getItems().remove(random.nextInt(order.getItems().size()));
+                break;
+            case 3:
+                if (any != null)
+                    any.setName("item" + random.nextInt(5));
+                break;
+            case 4:
+                if (any != null)
+                    any.setPrice(random.nextInt(3));
+                break;
+            case 5:
+                order.getByName().put("key" + random.nextInt(4), itemToAdd);
+                break;
+            case 6:
+                order.getByName().remove("key" + random.nextInt(4));
+                break;
+            case 7:
+                if (order.getCustomer() == null)
+                    order.setCustomer(new Customer());
+                order.getCustomer().name = "customer" + random.nextInt(3);
+                break;
+            case 8:
+                if (order.getCustomer() != null)
+                    order.getCustomer().favourite = any;
+                break;
+            case 9:
+                if (any != null)
+                    any.getTags().add("tag" + random.nextInt(3));
+                break;
+            case 10:
+                if (any != null)
+                    any.getTags().clear();
+                break;
+            case 11:
+                if (random.nextBoolean())
+                    order.setItems(new ArrayList<Item>(order.getItems()));
+                else if (any != null)
+                    any.setTags(new ArrayList<String>());
+                break;
+            default:
+                order.setParent(random.nextBoolean() ? null : order);
+                break;
+        }
+    }
+}
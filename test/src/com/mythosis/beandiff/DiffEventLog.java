@@ -0,0 +1,68 @@
+package com.mythosis.beandiff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link DiffListener} that logs each event it receives as a line of text, in the order received, and
+ * optionally stops the traversal once it has logged a given number of events.
+ *
+ * @author tonior@gmail.com
+ */
+class DiffEventLog implements DiffListener {
+    private final List<String> events = new ArrayList<String>();
+    private final int limit;
+
+    DiffEventLog() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param limit the number of events after which the traversal is stopped
+     */
+    DiffEventLog(int limit) {
+        this.limit = limit;
+    }
+
+    public boolean changed(DiffPath path, Object original, Object current) {
+        return log("changed " + path + ": " + original + " -> " + current);
+    }
+
+    public boolean added(DiffPath path, Object current) {
+        return log("added " + path + ": " + current);
+    }
+
+    public boolean removed(DiffPath path, Object original) {
+        return log("removed " + path + ": " + original);
+    }
+
+    public boolean countChanged(DiffPath path, int originalCount, int currentCount) {
+        return log("countChanged " + path + ": " + originalCount + " -> " + currentCount);
+    }
+
+    public boolean moved(DiffPath path, DiffPath to, Object value) {
+        return log("moved " + path + " -> " + to + ": " + value);
+    }
+
+    public boolean sameAs(DiffPath path, DiffPath earlier) {
+        return log("sameAs " + path + ": " + earlier);
+    }
+
+    /**
+     * Logs an event.
+     *
+     * @param event the event
+     * @return whether the traversal should go on
+     */
+    protected boolean log(String event) {
+        events.add(event);
+        return events.size() < limit;
+    }
+
+    /**
+     * @return the events logged so far
+     */
+    public List<String> getEvents() {
+        return events;
+    }
+}
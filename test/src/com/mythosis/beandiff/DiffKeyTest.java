@@ -0,0 +1,164 @@
+package com.mythosis.beandiff;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link DiffGenerator} matches the items of collections by {@link DiffKey}.
+ *
+ * @author tonior@gmail.com
+ */
+public class DiffKeyTest {
+    @Diffable
+    public static class Line {
+        @DiffKey
+        @DiffField
+        public String sku;
+        @DiffField
+        public int quantity;
+        @DiffField
+        public String note;
+    }
+
+    @Diffable
+    public static class Cell {
+        @DiffKey
+        public int row;
+        @DiffKey
+        public int column;
+        @DiffField
+        public String value;
+    }
+
+    @Diffable
+    public static class Order {
+        @DiffField
+        public List<Line> lines = new ArrayList<Line>();
+        @DiffField
+        public Set<Line> extras = new HashSet<Line>();
+        @DiffField
+        public List<Cell> cells = new ArrayList<Cell>();
+    }
+
+    private final DiffGenerator generator = new DiffGenerator();
+
+    private static Line line(String sku, int quantity) {
+        Line line = new Line();
+        line.sku = sku;
+        line.quantity = quantity;
+        return line;
+    }
+
+    private static Cell cell(int row, int column, String value) {
+        Cell cell = new Cell();
+        cell.row = row;
+        cell.column = column;
+        cell.value = value;
+        return cell;
+    }
+
+    private static Order order(Line... lines) {
+        Order order = new Order();
+        order.lines.addAll(Arrays.asList(lines));
+        return order;
+    }
+
+    private static Map<String, String> map(String... entries) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < entries.length; i += 2)
+            map.put(entries[i], entries[i + 1]);
+        return map;
+    }
+
+    @Test
+    public void matchesItemsWhateverTheirOrder() {
+        Order original = order(line("A", 1), line("B", 2), line("C", 3));
+        Order current = order(line("C", 3), line("A", 1), line("B", 2));
+        assertEquals(map(), generator.diff("o", original, current));
+        current.lines.get(1).quantity = 5;
+        assertEquals(map("o.lines.A.quantity", "1"), generator.diff("o", original, current));
+    }
+
+    @Test
+    public void reportsUnmatchedItemsAsRemovedAndAdded() {
+        Order original = order(line("A", 1), line("B", 2));
+        Order current = order(line("C", 3), line("A", 1));
+        assertEquals(map("o.lines.B.note", "", "o.lines.B.quantity", "2", "o.lines.B.sku", "B", "o.lines.C", ""),
+                generator.diff("o", original, current));
+        current.lines.add(line("D", 4));
+        assertEquals("2", generator.diff("o", original, current).get("o.lines.count"));
+    }
+
+    @Test
+    public void matchesItemsOfSets() {
+        Order original = order();
+        Order current = order();
+        for (int i = 0; i < 20; i++) {
+            original.extras.add(line("E" + i, i));
+            current.extras.add(line("E" + (i + 1), i + 1));
+        }
+        assertEquals(map("o.extras.E0.note", "", "o.extras.E0.quantity", "0", "o.extras.E0.sku", "E0", "o.extras.E20", ""),
+                generator.diff("o", original, current));
+    }
+
+    @Test
+    public void usesAllTheKeyFields() {
+        Order original = order();
+        original.cells.add(cell(1, 1, "a"));
+        original.cells.add(cell(1, 2, "b"));
+        Order current = order();
+        current.cells.add(cell(1, 2, "c"));
+        current.cells.add(cell(1, 1, "a"));
+        // The key fields need not be diffed.
+        assertEquals(map("o.cells.[1, 2].value", "b"), generator.diff("o", original, current));
+    }
+
+    @Test
+    public void matchesByPositionWithoutUniqueKeys() {
+        Order original = order(line("A", 1), line("B", 2));
+        Order current = order(line("B", 2), line("A", 1));
+        // Duplicate keys.
+        current.lines.add(line("A", 3));
+        assertEquals(map("o.lines.count", "2", "o.lines.idx1.quantity", "1", "o.lines.idx1.sku", "A",
+                "o.lines.idx2.quantity", "2", "o.lines.idx2.sku", "B"), generator.diff("o", original, current));
+        // No key.
+        current.lines.set(2, line(null, 3));
+        assertTrue(generator.diff("o", original, current).containsKey("o.lines.idx1.sku"));
+        // No item.
+        current.lines.set(2, null);
+        assertTrue(generator.diff("o", original, current).containsKey("o.lines.idx1.sku"));
+    }
+
+    @Test
+    public void reportsTheChangesOfEachKey() {
+        Random random = new Random(1);
+        for (int round = 0; round < 500; round++) {
+            List<Line> original = new ArrayList<Line>();
+            List<Line> current = new ArrayList<Line>();
+            Map<String, String> expected = new LinkedHashMap<String, String>();
+            for (int i = 0; i < 10; i++) {
+                Line line = line("K" + i, random.nextInt(3));
+                Line changed = line("K" + i, random.nextInt(3));
+                original.add(line);
+                current.add(changed);
+                if (line.quantity != changed.quantity)
+                    expected.put("l.K" + i + ".quantity", String.valueOf(line.quantity));
+            }
+            Collections.shuffle(original, random);
+            Collections.shuffle(current, random);
+            assertEquals("round " + round, expected, generator.diff("l", original, current));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.mythosis.beandiff;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link DiffGenerator#hasDifferences(Object, Object)} and
+ * {@link DiffGenerator#firstDifferences(Object, Object, int)} stop at the first differences, and only resolve
+ * the values they compare.
+ *
+ * @author tonior@gmail.com
+ */
+public class EarlyExitTest {
+    @Diffable
+    public static class Line {
+        @DiffField
+        public int quantity;
+        @DiffField("product")
+        public Integer product;
+    }
+
+    @Diffable
+    public static class Order {
+        @DiffField
+        public String status;
+        @DiffField
+        public List<Line> lines = new ArrayList<Line>();
+    }
+
+    /**
+     * Resolves product ids to names, counting its calls.
+     */
+    private static class ProductResolver implements BatchDataResolver<Integer, String> {
+        final List<Integer> resolved = new ArrayList<Integer>();
+        int batches;
+
+        public String resolve(Integer id) {
+            resolved.add(id);
+            return "product" + id;
+        }
+
+        public Map<Integer, String> resolveAll(Collection<Integer> ids) {
+            batches++;
+            Map<Integer, String> names = new HashMap<Integer, String>();
+            for (Integer id : ids)
+                names.put(id, "product" + id);
+            return names;
+        }
+    }
+
+    private final DiffGenerator generator = new DiffGenerator();
+    private final ProductResolver resolver = new ProductResolver();
+
+    {
+        generator.registerDataResolver("product", resolver);
+    }
+
+    private static Order order(String status, int lines) {
+        Order order = new Order();
+        order.status = status;
+        for (int i = 0; i < lines; i++) {
+            Line line = new Line();
+            line.quantity = i;
+            line.product = i;
+            order.lines.add(line);
+        }
+        return order;
+    }
+
+    private static Map<String, String> map(String... entries) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < entries.length; i += 2)
+            map.put(entries[i], entries[i + 1]);
+        return map;
+    }
+
+    @Test
+    public void findsWhetherObjectsDiffer() {
+        assertFalse(generator.hasDifferences(order("new", 3), order("new", 3)));
+        assertFalse(generator.hasDifferences(null, null));
+        assertTrue(generator.hasDifferences(order("new", 3), order("paid", 3)));
+        assertTrue(generator.hasDifferences(order("new", 3), order("new", 4)));
+        assertTrue(generator.hasDifferences(null, order("new", 0)));
+    }
+
+    @Test
+    public void returnsAtMostTheFirstDifferences() {
+        Order original = order("new", 5);
+        Order current = order("paid", 5);
+        for (Line line : current.lines)
+            line.quantity++;
+        Map<String, String> all = generator.diff("", original, current);
+        assertEquals(6, all.size());
+        assertEquals(map(), generator.firstDifferences(original, current, 0));
+        for (int n = 1; n <= 7; n++) {
+            Map<String, String> first = generator.firstDifferences(original, current, n);
+            assertEquals(Math.min(n, all.size()), first.size());
+            assertTrue(all.entrySet().containsAll(first.entrySet()));
+        }
+    }
+
+    @Test
+    public void resolvesOnlyTheValuesCompared() {
+        Order original = order("new", 100);
+        Order current = order("new", 100);
+        current.lines.get(1).product = 1000;
+        assertTrue(generator.hasDifferences(original, current));
+        assertEquals(0, resolver.batches);
+        // At most the products of the first line, which is equal, and of the second one, which differs.
+        assertTrue(resolver.resolved.toString(), resolver.resolved.size() <= 4);
+
+        resolver.resolved.clear();
+        assertEquals(map("lines.idx2.product", "product1"), generator.firstDifferences(original, current, 1));
+        assertEquals(0, resolver.batches);
+        assertTrue(resolver.resolved.toString(), resolver.resolved.size() <= 4);
+
+        // Values of objects known to be equal are not resolved.
+        resolver.resolved.clear();
+        assertFalse(generator.hasDifferences(original, original));
+        assertEquals(0, resolver.resolved.size());
+    }
+
+    @Test
+    public void resolvesAllTheValuesInBatchForFullDiffs() {
+        Order original = order("new", 100);
+        Order current = order("new", 100);
+        current.lines.get(1).product = 1000;
+        assertEquals(map("x.lines.idx2.product", "product1"), generator.diff("x", original, current));
+        assertEquals(1, resolver.batches);
+        assertEquals(0, resolver.resolved.size());
+    }
+}
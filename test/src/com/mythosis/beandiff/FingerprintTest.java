@@ -0,0 +1,192 @@
+package com.mythosis.beandiff;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the structural fingerprints of {@link Fingerprinter}, and that {@link DiffGenerator} skips subtrees with
+ * the same fingerprint without changing the differences it finds.
+ *
+ * @author tonior@gmail.com
+ */
+public class FingerprintTest {
+    public enum Color {
+        RED, GREEN
+    }
+
+    @Diffable
+    public static class Node {
+        @DiffField
+        public String name;
+        @DiffField
+        public int value;
+        @DiffField
+        public Color color;
+        @DiffField("reference")
+        public Integer reference;
+        @DiffField
+        public List<Node> children = new ArrayList<Node>();
+        @DiffField
+        public Map<String, Object> attributes = new HashMap<String, Object>();
+        @DiffField
+        public Object other;
+    }
+
+    /**
+     * Counts the values it is asked to resolve.
+     */
+    private static class CountingResolver implements DataResolver<Integer, String> {
+        int calls;
+
+        public String resolve(Integer reference) {
+            calls++;
+            return reference == null ? null : "ref" + reference;
+        }
+    }
+
+    private static Node node(String name, int value, Node... children) {
+        Node node = new Node();
+        node.name = name;
+        node.value = value;
+        node.color = Color.RED;
+        node.reference = value;
+        node.children.addAll(Arrays.asList(children));
+        node.attributes.put("size", value * 2L);
+        return node;
+    }
+
+    /**
+     * Builds a random tree, the same for the same seed.
+     */
+    private static Node tree(Random random, int depth) {
+        Node node = node("n" + random.nextInt(3), random.nextInt(3));
+        node.color = random.nextBoolean() ? Color.RED : Color.GREEN;
+        if (random.nextInt(4) == 0)
+            node.attributes.put("flag", random.nextBoolean());
+        if (depth > 0) {
+            for (int i = random.nextInt(4); i > 0; i--)
+                node.children.add(tree(random, depth - 1));
+        }
+        return node;
+    }
+
+    private static Map<String, String> map(String... entries) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < entries.length; i += 2)
+            map.put(entries[i], entries[i + 1]);
+        return map;
+    }
+
+    @Test
+    public void matchesEqualContent() {
+        Fingerprinter fingerprinter = new Fingerprinter();
+        assertTrue(fingerprinter.sameContent(node("a", 1, node("b", 2)), node("a", 1, node("b", 2))));
+        assertTrue(fingerprinter.sameContent(null, null));
+        assertTrue(fingerprinter.sameContent(Arrays.<Object>asList("x", 1, 'c', 2.5, true),
+                Arrays.<Object>asList("x", 1, 'c', 2.5, true)));
+        assertFalse(fingerprinter.sameContent(node("a", 1, node("b", 2)), node("a", 1, node("b", 3))));
+        assertFalse(fingerprinter.sameContent(node("a", 1), null));
+        Node green = node("a", 1);
+        green.color = Color.GREEN;
+        assertFalse(fingerprinter.sameContent(node("a", 1), green));
+    }
+
+    @Test
+    public void tellsValuesOfDifferentTypesApart() {
+        Fingerprinter fingerprinter = new Fingerprinter();
+        assertFalse(fingerprinter.sameContent(Arrays.<Object>asList(1), Arrays.<Object>asList(1L)));
+        assertFalse(fingerprinter.sameContent(Arrays.<Object>asList("1"), Arrays.<Object>asList(1)));
+        assertFalse(fingerprinter.sameContent(Arrays.asList(0.0), Arrays.asList(-0.0)));
+        assertFalse(fingerprinter.sameContent(Arrays.asList("a", "b"), Arrays.asList("b", "a")));
+        assertFalse(fingerprinter.sameContent(Arrays.asList("ab", ""), Arrays.asList("a", "b")));
+        assertFalse(fingerprinter.sameContent(new ArrayList<String>(), new HashMap<String, String>()));
+    }
+
+    @Test
+    public void leavesOtherValuesAndCyclesUnknown() {
+        Fingerprinter fingerprinter = new Fingerprinter();
+        Date date = new Date(0);
+        assertFalse(fingerprinter.sameContent(date, date));
+        Node original = node("a", 1);
+        original.other = new Date(0);
+        Node current = node("a", 1);
+        current.other = new Date(0);
+        assertFalse(fingerprinter.sameContent(original, current));
+
+        Node cycle = node("a", 1);
+        cycle.children.add(cycle);
+        assertFalse(fingerprinter.sameContent(cycle, cycle));
+    }
+
+    @Test
+    public void skipsSubtreesWithTheSameContent() {
+        CountingResolver counting = new CountingResolver();
+        DiffGenerator full = new DiffGenerator();
+        full.registerDataResolver("reference", counting);
+        CountingResolver skipped = new CountingResolver();
+        DiffGenerator skipping = new DiffGenerator();
+        skipping.registerDataResolver("reference", skipped);
+        skipping.setFingerprints(true);
+
+        // Distinct objects, with the same content but for the last child.
+        Node original = node("root", 0, node("a", 1, node("b", 2)), node("c", 3));
+        Node current = node("root", 0, node("a", 1, node("b", 2)), node("c", 4));
+        Map<String, String> differences = full.diff("r", original, current);
+        assertEquals(map("r.children.idx2.attributes.size", "6", "r.children.idx2.reference", "ref3",
+                "r.children.idx2.value", "3"), differences);
+        assertEquals(differences, skipping.diff("r", original, current));
+        // Every node resolves its reference on both sides, but the skipped ones.
+        assertEquals(8, counting.calls);
+        assertEquals(4, skipped.calls);
+    }
+
+    @Test
+    public void findsTheSameDifferencesAsAFullComparison() {
+        DiffGenerator full = new DiffGenerator();
+        DiffGenerator skipping = new DiffGenerator();
+        skipping.setFingerprints(true);
+        for (int seed = 0; seed < 500; seed++) {
+            Random random = new Random(seed);
+            Node original = tree(random, 3);
+            // Mostly the same tree, with a few random changes.
+            random = new Random(seed);
+            Node current = tree(random, 3);
+            Random changes = new Random(-seed);
+            edit(changes, current);
+            String message = "seed " + seed;
+            assertEquals(message, full.diff("t", original, current), skipping.diff("t", original, current));
+            assertEquals(message, full.hasDifferences(original, current), skipping.hasDifferences(original, current));
+        }
+    }
+
+    private static void edit(Random random, Node node) {
+        switch (random.nextInt(6)) {
+            case 0:
+                node.value++;
+                break;
+            case 1:
+                node.attributes.put("size", 0L);
+                break;
+            case 2:
+                node.other = "other";
+                break;
+            default:
+                break;
+        }
+        for (Node child : node.children)
+            if (random.nextInt(3) == 0)
+                edit(random, child);
+    }
+}
@@ -0,0 +1,139 @@
+package com.mythosis.beandiff;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks how {@link DiffGenerator} diffs maps: keys found in either map are reported, and sorted maps with the
+ * same ordering are merged in key order.
+ *
+ * @author tonior@gmail.com
+ */
+public class MapDiffTest {
+    @Diffable
+    public static class Price {
+        @DiffField
+        public int amount;
+        @DiffField
+        public String currency;
+    }
+
+    private final DiffGenerator generator = new DiffGenerator();
+
+    private static Price price(int amount) {
+        Price price = new Price();
+        price.amount = amount;
+        price.currency = "EUR";
+        return price;
+    }
+
+    private static Map<String, String> map(String... entries) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < entries.length; i += 2)
+            map.put(entries[i], entries[i + 1]);
+        return map;
+    }
+
+    private static List<String> events(DiffGenerator generator, Object original, Object current) {
+        DiffEventLog log = new DiffEventLog();
+        generator.diff("m", original, current, log);
+        return log.getEvents();
+    }
+
+    @Test
+    public void reportsRemovedChangedAndAddedKeys() {
+        Map<String, Object> original = new HashMap<String, Object>();
+        original.put("removed", "a");
+        original.put("changed", "b");
+        original.put("same", "c");
+        original.put("price", price(1));
+        Map<String, Object> current = new HashMap<String, Object>();
+        current.put("changed", "x");
+        current.put("same", "c");
+        current.put("added", "d");
+        current.put("price", price(2));
+        assertEquals(map("m.added", "", "m.changed", "b", "m.price.amount", "1", "m.removed", "a"),
+                generator.diff("m", original, current));
+        assertEquals(map("m.added", "d", "m.changed", "x", "m.price.amount", "2", "m.removed", ""),
+                generator.diff("m", current, original));
+    }
+
+    @Test
+    public void tellsNullValuesFromMissingKeys() {
+        Map<String, String> nullValue = new HashMap<String, String>();
+        nullValue.put("k", null);
+        Map<String, String> value = new HashMap<String, String>();
+        value.put("k", "v");
+        Map<String, String> empty = new HashMap<String, String>();
+        assertEquals(map(), generator.diff("m", nullValue, new HashMap<String, String>(nullValue)));
+        assertEquals(map("m.k", ""), generator.diff("m", nullValue, empty));
+        assertEquals(map("m.k", ""), generator.diff("m", empty, nullValue));
+        assertEquals(map("m.k", ""), generator.diff("m", nullValue, value));
+        assertEquals(map("m.k", "v"), generator.diff("m", value, nullValue));
+    }
+
+    @Test
+    public void mergesSortedMapsInKeyOrder() {
+        SortedMap<Integer, Object> original = new TreeMap<Integer, Object>();
+        SortedMap<Integer, Object> current = new TreeMap<Integer, Object>();
+        original.put(1, "a");
+        original.put(3, "c");
+        original.put(4, price(4));
+        current.put(2, "b");
+        current.put(3, "x");
+        current.put(4, price(5));
+        current.put(5, "e");
+        assertEquals(Arrays.asList("removed m.1: a", "added m.2: b", "changed m.3: c -> x", "changed m.4.amount: 4 -> 5",
+                "added m.5: e"), events(generator, original, current));
+    }
+
+    @Test
+    public void mergesWithTheComparatorOfTheMaps() {
+        SortedMap<String, String> original = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        SortedMap<String, String> current = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        original.put("A", "1");
+        original.put("b", "2");
+        current.put("a", "1");
+        current.put("B", "3");
+        assertEquals(Arrays.asList("changed m.b: 2 -> 3"), events(generator, original, current));
+    }
+
+    /**
+     * Maps odd keys to prices and even keys to strings, since the values of a key must be of the same class.
+     */
+    private static void put(Map<Integer, Object> map, int key, int value) {
+        map.put(key, key % 2 == 1 ? price(value) : "v" + value);
+    }
+
+    @Test
+    public void findsTheSameDifferencesInSortedAndHashMaps() {
+        Random random = new Random(1);
+        for (int round = 0; round < 1000; round++) {
+            SortedMap<Integer, Object> original = new TreeMap<Integer, Object>();
+            SortedMap<Integer, Object> current = new TreeMap<Integer, Object>();
+            for (int i = random.nextInt(20); i > 0; i--)
+                put(original, random.nextInt(30), random.nextInt(3));
+            for (int i = random.nextInt(20); i > 0; i--)
+                put(current, random.nextInt(30), random.nextInt(3));
+            String message = original + " -> " + current;
+            Map<String, String> expected = generator.diff("m", new HashMap<Integer, Object>(original),
+                    new HashMap<Integer, Object>(current));
+            assertEquals(message, expected, generator.diff("m", original, current));
+            // A different ordering, merged as unsorted maps.
+            SortedMap<Integer, Object> reversed = new TreeMap<Integer, Object>(Collections.reverseOrder());
+            reversed.putAll(current);
+            assertEquals(message, expected, generator.diff("m", original, reversed));
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.mythosis.beandiff;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the diffs of {@link DiffGenerator} split in parallel tasks with sequential diffs of the same graphs.
+ *
+ * @author tonior@gmail.com
+ */
+public class ParallelDiffTest {
+    @Diffable
+    public static class Item {
+        @DiffField
+        public String name;
+        @DiffField
+        public int quantity;
+        @DiffField
+        public List<String> tags = new ArrayList<String>();
+    }
+
+    @Diffable
+    public static class Catalog {
+        @DiffField
+        public String title;
+        @DiffField
+        public List<Item> items = new ArrayList<Item>();
+        @DiffField
+        public Map<String, Item> byKey = new HashMap<String, Item>();
+        @DiffField
+        public SortedMap<String, Item> sorted = new TreeMap<String, Item>();
+    }
+
+    private static final int THRESHOLD = 8;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final DiffGenerator sequential = new DiffGenerator();
+
+    @After
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static DiffGenerator parallel(ExecutorService executor) {
+        DiffGenerator generator = new DiffGenerator();
+        generator.setParallelExecutor(executor);
+        generator.setParallelThreshold(THRESHOLD);
+        return generator;
+    }
+
+    private static Item item(Random random, int i) {
+        Item item = new Item();
+        item.name = "item" + i;
+        item.quantity = random.nextInt(3);
+        for (int j = random.nextInt(3); j > 0; j--)
+            item.tags.add("tag" + random.nextInt(3));
+        return item;
+    }
+
+    /**
+     * Builds a catalog of <code>size</code> items, each also found under a key of both maps.
+     */
+    private static Catalog catalog(Random random, int size) {
+        Catalog catalog = new Catalog();
+        catalog.title = "catalog";
+        for (int i = 0; i < size; i++) {
+            Item item = item(random, i);
+            catalog.items.add(item);
+            catalog.byKey.put(item.name, item);
+            catalog.sorted.put(item.name, item);
+        }
+        return catalog;
+    }
+
+    /**
+     * Copies a catalog, sharing included.
+     */
+    private static Catalog copy(Catalog catalog) {
+        Map<Item, Item> copies = new IdentityHashMap<Item, Item>();
+        Catalog copy = new Catalog();
+        copy.title = catalog.title;
+        for (Item item : catalog.items)
+            copy.items.add(copy(item, copies));
+        for (Map.Entry<String, Item> entry : catalog.byKey.entrySet())
+            copy.byKey.put(entry.getKey(), copy(entry.getValue(), copies));
+        for (Map.Entry<String, Item> entry : catalog.sorted.entrySet())
+            copy.sorted.put(entry.getKey(), copy(entry.getValue(), copies));
+        return copy;
+    }
+
+    private static Item copy(Item item, Map<Item, Item> copies) {
+        Item copy = copies.get(item);
+        if (copy == null) {
+            copies.put(item, copy = new Item());
+            copy.name = item.name;
+            copy.quantity = item.quantity;
+            copy.tags.addAll(item.tags);
+        }
+        return copy;
+    }
+
+    /**
+     * Makes a few random changes to a catalog.
+     */
+    private static void edit(Random random, Catalog catalog) {
+        for (int i = random.nextInt(2 + catalog.items.size() / 4); i > 0; i--) {
+            int size = catalog.items.size();
+            Item any = size == 0 ? null : catalog.items.get(random.nextInt(size));
+            switch (random.nextInt(7)) {
+                case 0:
+                    catalog.title = "title" + random.nextInt(3);
+                    break;
+                case 1:
+                    catalog.items.add(item(random, random.nextInt(2 * size + 1)));
+                    break;
+                case 2:
+                    if (any != null)
+                        any.quantity = random.nextInt(3);
+                    break;
+                case 3:
+                    if (any != null)
+                        any.tags.add("tag" + random.nextInt(3));
+                    break;
+                case 4:
+                    catalog.byKey.remove("item" + random.nextInt(size + 1));
+                    catalog.sorted.remove("item" + random.nextInt(size + 1));
+                    break;
+                case 5:
+                    Item item = any == null || random.nextBoolean() ? item(random, random.nextInt(2 * size + 1)) : any;
+                    catalog.byKey.put(item.name, item);
+                    catalog.sorted.put(item.name, item);
+                    break;
+                default:
+                    if (size > 0)
+                        catalog.items.remove(random.nextInt(size));
+                    break;
+            }
+        }
+    }
+
+    private static List<String> events(DiffGenerator generator, Object original, Object current) {
+        DiffEventLog log = new DiffEventLog();
+        assertTrue(generator.diff("c", original, current, log));
+        return log.getEvents();
+    }
+
+    @Test
+    public void reportsTheSameEventsAsSequentially() {
+        DiffGenerator parallel = parallel(executor);
+        Random random = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            Catalog original = catalog(random, random.nextInt(5 * THRESHOLD));
+            Catalog current = copy(original);
+            edit(random, current);
+            String message = "round " + round;
+            assertEquals(message, events(sequential, original, current), events(parallel, original, current));
+            assertEquals(message, sequential.diff("c", original, current), parallel.diff("c", original, current));
+        }
+    }
+
+    @Test
+    public void splitsEachKindOfContainer() {
+        Random random = new Random(2);
+        Catalog original = catalog(random, 10 * THRESHOLD);
+        Catalog current = copy(original);
+        current.items.get(3 * THRESHOLD).quantity = 5;
+        current.items.add(item(random, 0));
+        // Items of the maps are also in the list, so they are replaced rather than changed.
+        current.byKey.put("item" + 5 * THRESHOLD, item(random, 5 * THRESHOLD));
+        current.byKey.put("new", item(random, 1));
+        current.sorted.put("item" + 7 * THRESHOLD, item(random, 0));
+        current.sorted.remove("item" + 9 * THRESHOLD);
+
+        // Iterables, maps and sorted maps diffed on their own, and as fields diffed in parallel.
+        DiffGenerator parallel = parallel(executor);
+        assertEquals(events(sequential, original.items, current.items), events(parallel, original.items, current.items));
+        assertEquals(events(sequential, original.byKey, current.byKey), events(parallel, original.byKey, current.byKey));
+        assertEquals(events(sequential, original.sorted, current.sorted),
+                events(parallel, original.sorted, current.sorted));
+        List<String> events = events(sequential, original, current);
+        assertEquals(events, events(parallel, original, current));
+        assertEquals(Arrays.asList("changed c.items.idx25.quantity: " + original.items.get(3 * THRESHOLD).quantity + " -> 5",
+                "countChanged c.items.count: 80 -> 81"), events.subList(0, 2));
+    }
+
+    @Test
+    public void referencesSharedObjectsAsSequentially() {
+        DiffGenerator referencing = new DiffGenerator();
+        referencing.setSharedObjectReferences(true);
+        DiffGenerator parallel = parallel(executor);
+        parallel.setSharedObjectReferences(true);
+        Random random = new Random(3);
+        for (int round = 0; round < 100; round++) {
+            Catalog original = catalog(random, random.nextInt(5 * THRESHOLD));
+            Catalog current = copy(original);
+            edit(random, current);
+            assertEquals("round " + round, events(referencing, original, current), events(parallel, original, current));
+        }
+    }
+
+    @Test
+    public void stopsWhereTheSequentialDiffStops() {
+        Random random = new Random(4);
+        Catalog original = catalog(random, 10 * THRESHOLD);
+        Catalog current = copy(original);
+        for (Item item : current.items)
+            item.quantity++;
+        current.title = "other";
+        List<String> all = events(sequential, original, current);
+        DiffGenerator parallel = parallel(executor);
+        for (int limit = 1; limit < all.size(); limit += 7) {
+            DiffEventLog log = new DiffEventLog(limit);
+            assertFalse(parallel.diff("c", original, current, log));
+            assertEquals(all.subList(0, limit), log.getEvents());
+        }
+        assertTrue(parallel.hasDifferences(original, current));
+        assertEquals(sequential.firstDifferences(original, current, 3), parallel.firstDifferences(original, current, 3));
+    }
+
+    @Test(timeout = 10000)
+    public void completesOnASingleThread() {
+        ExecutorService single = Executors.newFixedThreadPool(1);
+        try {
+            DiffGenerator parallel = parallel(single);
+            Random random = new Random(5);
+            for (int round = 0; round < 20; round++) {
+                Catalog original = catalog(random, 10 * THRESHOLD);
+                // Large subtrees within the tasks.
+                for (Item item : original.items)
+                    for (int i = 0; i < THRESHOLD; i++)
+                        item.tags.add("tag" + i);
+                Catalog current = copy(original);
+                edit(random, current);
+                assertEquals(events(sequential, original, current), events(parallel, original, current));
+            }
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void countsTheSameWorkAsSequentially() {
+        final List<DiffStatistics> statistics = new ArrayList<DiffStatistics>();
+        DiffMetrics metrics = new DiffMetrics() {
+            public void diffCompleted(DiffStatistics diffStatistics) {
+                statistics.add(diffStatistics);
+            }
+        };
+        DiffGenerator timed = new DiffGenerator();
+        timed.setMetrics(metrics);
+        DiffGenerator parallel = parallel(executor);
+        parallel.setMetrics(metrics);
+        Random random = new Random(6);
+        Catalog original = catalog(random, 10 * THRESHOLD);
+        Catalog current = copy(original);
+        edit(random, current);
+        timed.diff("c", original, current);
+        parallel.diff("c", original, current);
+        DiffStatistics expected = statistics.get(0);
+        DiffStatistics actual = statistics.get(1);
+        assertEquals(expected.getNodes(), actual.getNodes());
+        assertEquals(expected.getFieldsRead(), actual.getFieldsRead());
+        assertEquals(expected.getDifferences(), actual.getDifferences());
+        assertEquals(expected.getMaxDepth(), actual.getMaxDepth());
+    }
+
+    @Test
+    public void replaysRecordedEventsInOrder() {
+        RecordingDiffListener recording = new RecordingDiffListener();
+        DiffPath root = DiffPath.root("r");
+        recording.changed(root.child("a"), "x", "y");
+        recording.added(root.child("b"), "z");
+        recording.removed(root.child("c"), "w");
+        recording.countChanged(root.child("list").child("count"), 1, 2);
+        recording.moved(root.index(1), root.index(2), "v");
+        recording.sameAs(root.child("d"), root.child("a"));
+
+        DiffEventLog log = new DiffEventLog();
+        recording.replay(new DiffContext(log, true, false, false));
+        assertEquals(Arrays.asList("changed r.a: x -> y", "added r.b: z", "removed r.c: w",
+                "countChanged r.list.count: 1 -> 2", "moved r.idx1 -> r.idx2: v", "sameAs r.d: r.a"), log.getEvents());
+
+        // Stopped by the listener.
+        log = new DiffEventLog(2);
+        DiffContext context = new DiffContext(log, true, false, false);
+        recording.replay(context);
+        assertTrue(context.isStopped());
+        assertEquals(2, log.getEvents().size());
+    }
+
+    @Test
+    public void resolvesVisitsOfForksInTheirParent() {
+        Object original = new ArrayList<Object>();
+        Object current = new ArrayList<Object>();
+        Object cycle = new ArrayList<Object>();
+        DiffPath root = DiffPath.root("r");
+        DiffEventLog log = new DiffEventLog();
+        DiffContext parent = new DiffContext(log, true, true, false);
+        DiffContext.Visit visit = parent.enter(root.child("a"), original, current);
+        parent.changed(root.child("a").child("x"), "1", "2");
+        parent.exit(visit);
+        DiffContext.Visit outer = parent.enter(root.child("cycle"), cycle, cycle);
+        parent.visited(root);
+
+        // The fork knows the pairs being diffed above it, but not those diffed before.
+        RecordingDiffListener recording = new RecordingDiffListener();
+        DiffContext fork = parent.fork(recording);
+        assertFalse(fork.isForkable());
+        assertNull(fork.enter(root.child("cycle").child("again"), cycle, cycle));
+        DiffContext.Visit forked = fork.enter(root.child("cycle").child("b"), original, current);
+        assertNotNull(forked);
+        fork.changed(root.child("cycle").child("b").child("x"), "1", "2");
+        fork.exit(forked);
+        fork.changed(root.child("cycle").child("y"), "3", "4");
+        fork.visited(root.child("cycle").child("b"));
+        fork.visited(root.child("cycle").child("b").child("x"));
+
+        recording.replay(parent);
+        parent.join(fork);
+        parent.exit(outer);
+        assertEquals(Arrays.asList("changed r.a.x: 1 -> 2", "sameAs r.cycle.b: r.a", "changed r.cycle.y: 3 -> 4"),
+                log.getEvents());
+        DiffStatistics statistics = parent.getStatistics(null, 0);
+        assertEquals(3, statistics.getNodes());
+        assertEquals(3, statistics.getMaxDepth());
+    }
+}
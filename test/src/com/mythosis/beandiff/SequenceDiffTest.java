@@ -0,0 +1,171 @@
+package com.mythosis.beandiff;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the matches found by {@link SequenceDiff}, and the sequence diffs of {@link DiffGenerator}.
+ *
+ * @author tonior@gmail.com
+ */
+public class SequenceDiffTest {
+    private static Object[] items(String letters) {
+        Object[] items = new Object[letters.length()];
+        for (int i = 0; i < items.length; i++)
+            items[i] = String.valueOf(letters.charAt(i));
+        return items;
+    }
+
+    private static Object[] range(int from, int to) {
+        Object[] items = new Object[to - from];
+        for (int i = from; i < to; i++)
+            items[i - from] = i;
+        return items;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * The length of a longest common subsequence, by dynamic programming.
+     */
+    private static int lcsLength(Object[] a, Object[] b) {
+        int[][] lengths = new int[a.length + 1][b.length + 1];
+        for (int i = 1; i <= a.length; i++) {
+            for (int j = 1; j <= b.length; j++) {
+                lengths[i][j] = equal(a[i - 1], b[j - 1]) ? lengths[i - 1][j - 1] + 1
+                        : Math.max(lengths[i - 1][j], lengths[i][j - 1]);
+            }
+        }
+        return lengths[a.length][b.length];
+    }
+
+    /**
+     * Checks that the matches pair equal items, in increasing order, and returns how many there are.
+     */
+    private static int checkMatches(Object[] a, Object[] b, int[] matches) {
+        assertEquals(a.length, matches.length);
+        int count = 0;
+        int last = -1;
+        for (int i = 0; i < matches.length; i++) {
+            if (matches[i] < 0)
+                continue;
+            String pair = Arrays.toString(a) + " " + Arrays.toString(b) + " " + Arrays.toString(matches);
+            assertTrue(pair, matches[i] > last);
+            assertTrue(pair, equal(a[i], b[matches[i]]));
+            last = matches[i];
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void matchesTheClassicExample() {
+        Object[] a = items("ABCABBA");
+        Object[] b = items("CBABAC");
+        int[] matches = SequenceDiff.match(a, b);
+        assertEquals(4, checkMatches(a, b, matches));
+    }
+
+    @Test
+    public void matchesCommonPrefixAndSuffix() {
+        assertArrayEquals(new int[]{0, 1, -1, 3, 4}, SequenceDiff.match(items("abXde"), items("abYde")));
+        assertArrayEquals(new int[]{1, 2, 3}, SequenceDiff.match(items("abc"), items("Zabc")));
+        assertArrayEquals(new int[]{0, 1, 2}, SequenceDiff.match(items("abc"), items("abcZ")));
+        assertArrayEquals(new int[]{0, -1, 1}, SequenceDiff.match(items("aZb"), items("ab")));
+    }
+
+    @Test
+    public void matchesEmptyAndDisjointSequences() {
+        assertArrayEquals(new int[0], SequenceDiff.match(new Object[0], items("abc")));
+        assertArrayEquals(new int[]{-1, -1}, SequenceDiff.match(items("ab"), new Object[0]));
+        assertArrayEquals(new int[]{-1, -1, -1}, SequenceDiff.match(items("abc"), items("xyz")));
+    }
+
+    @Test
+    public void findsALongestCommonSubsequence() {
+        Random random = new Random(1);
+        for (int t = 0; t < 5000; t++) {
+            Object[] a = new Object[random.nextInt(12)];
+            Object[] b = new Object[random.nextInt(12)];
+            for (int i = 0; i < a.length; i++)
+                a[i] = random.nextInt(5) == 0 ? null : random.nextInt(4);
+            for (int i = 0; i < b.length; i++)
+                b[i] = random.nextInt(5) == 0 ? null : random.nextInt(4);
+            assertEquals(lcsLength(a, b), checkMatches(a, b, SequenceDiff.match(a, b)));
+        }
+    }
+
+    @Test
+    public void comparesItemsWithTheSameHashCode() {
+        // "Aa" and "BB" have the same hash code.
+        Object[] a = {"Aa", "BB", "Aa", "BB"};
+        Object[] b = {"BB", "BB", "Aa"};
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertEquals(lcsLength(a, b), checkMatches(a, b, SequenceDiff.match(a, b)));
+    }
+
+    @Test
+    public void givesUpPastTheMaximumEditDistance() {
+        int half = SequenceDiff.MAX_EDIT_DISTANCE / 2;
+        assertNotNull(SequenceDiff.match(range(0, half), range(half, 2 * half)));
+        assertNull(SequenceDiff.match(range(0, half + 1), range(half + 1, 2 * half + 1)));
+        // Trimming the common prefix and suffix costs nothing.
+        Object[] a = range(0, 10 * SequenceDiff.MAX_EDIT_DISTANCE);
+        Object[] b = range(-1, 10 * SequenceDiff.MAX_EDIT_DISTANCE);
+        assertNotNull(SequenceDiff.match(a, b));
+    }
+
+    @Test
+    public void reportsOnlyTheInsertedItem() {
+        DiffGenerator generator = new DiffGenerator();
+        generator.setSequenceDiff(true);
+        List<Integer> original = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++)
+            original.add(i);
+        List<Integer> current = new ArrayList<Integer>(original);
+        current.add(0, -1);
+
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("list.count", "1000");
+        expected.put("list.idx1", "");
+        assertEquals(expected, generator.diff("list", original, current));
+    }
+
+    @Test
+    public void reportsMovedChangedAndAddedItems() {
+        DiffGenerator generator = new DiffGenerator();
+        generator.setSequenceDiff(true);
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("l.count", "4");
+        expected.put("l.idx1", "a");
+        expected.put("l.idx4", "");
+        expected.put("l.idx6", "");
+        assertEquals(expected, generator.diff("l", Arrays.asList("a", "b", "c", "d"), Arrays.asList("b", "c", "a", "x", "d", "e")));
+        // A changed item is diffed in place, as by a positional comparison.
+        assertEquals(new DiffGenerator().diff("l", Arrays.asList(1, 2, 3), Arrays.asList(1, 5, 3)),
+                generator.diff("l", Arrays.asList(1, 2, 3), Arrays.asList(1, 5, 3)));
+    }
+
+    @Test
+    public void fallsBackToPositionalDiffs() {
+        DiffGenerator generator = new DiffGenerator();
+        generator.setSequenceDiff(true);
+        List<Object> original = Arrays.asList(range(0, SequenceDiff.MAX_EDIT_DISTANCE));
+        List<Object> current = Arrays.asList(range(SequenceDiff.MAX_EDIT_DISTANCE, 2 * SequenceDiff.MAX_EDIT_DISTANCE + 1));
+        assertEquals(new DiffGenerator().diff("l", original, current), generator.diff("l", original, current));
+    }
+}
@@ -0,0 +1,205 @@
+package com.mythosis.beandiff;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks how {@link DiffGenerator} diffs cycles, and objects found at several paths of a graph, with and without
+ * {@link DiffGenerator#setSharedObjectReferences(boolean) shared object references}, sequentially and in parallel.
+ *
+ * @author tonior@gmail.com
+ */
+public class SharedObjectsTest {
+    @Diffable
+    public static class Person {
+        @DiffField
+        public String name;
+        @DiffField
+        public Person friend;
+    }
+
+    @Diffable
+    public static class Address {
+        @DiffField
+        public String street;
+        @DiffField
+        public String city;
+    }
+
+    @Diffable
+    public static class Customer {
+        @DiffField
+        public String name;
+        @DiffField
+        public Address billing;
+        @DiffField
+        public Address shipping;
+    }
+
+    @Diffable
+    public static class Shop {
+        @DiffField
+        public List<Customer> customers = new ArrayList<Customer>();
+    }
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static Person person(String name) {
+        Person person = new Person();
+        person.name = name;
+        return person;
+    }
+
+    private static Address address(String street, String city) {
+        Address address = new Address();
+        address.street = street;
+        address.city = city;
+        return address;
+    }
+
+    private static Customer customer(String name, Address billing, Address shipping) {
+        Customer customer = new Customer();
+        customer.name = name;
+        customer.billing = billing;
+        customer.shipping = shipping;
+        return customer;
+    }
+
+    /**
+     * Builds a shop whose customers all bill to, and every other one ships to, the same address.
+     */
+    private static Shop shop(int customers, Address shared) {
+        Shop shop = new Shop();
+        for (int i = 0; i < customers; i++)
+            shop.customers.add(customer("c" + i, shared, i % 2 == 0 ? shared : address("street" + i, "city")));
+        return shop;
+    }
+
+    private static Map<String, String> map(String... entries) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < entries.length; i += 2)
+            map.put(entries[i], entries[i + 1]);
+        return map;
+    }
+
+    private DiffGenerator parallel(DiffGenerator generator) {
+        generator.setParallelExecutor(executor);
+        generator.setParallelThreshold(4);
+        return generator;
+    }
+
+    private static DiffGenerator referencing() {
+        DiffGenerator generator = new DiffGenerator();
+        generator.setSharedObjectReferences(true);
+        return generator;
+    }
+
+    private static List<String> events(DiffGenerator generator, Object original, Object current) {
+        DiffEventLog log = new DiffEventLog();
+        generator.diff("shop", original, current, log);
+        return log.getEvents();
+    }
+
+    @Test
+    public void cutsSelfCycles() {
+        Person original = person("ann");
+        original.friend = original;
+        Person current = person("bob");
+        current.friend = current;
+        Map<String, String> expected = map("p.name", "ann");
+        assertEquals(expected, new DiffGenerator().diff("p", original, current));
+        assertEquals(expected, referencing().diff("p", original, current));
+        assertEquals(expected, new DiffGenerator().resolveObject("p", original));
+    }
+
+    @Test
+    public void cutsCyclesThroughOtherObjects() {
+        Person ann = person("ann");
+        ann.friend = person("bob");
+        ann.friend.friend = ann;
+        Person current = person("ann");
+        current.friend = person("carl");
+        current.friend.friend = current;
+        assertEquals(map("p.friend.name", "bob"), new DiffGenerator().diff("p", ann, current));
+    }
+
+    @Test
+    public void diffsSharedObjectsAtEachPath() {
+        Address original = address("main", "paris");
+        Address current = address("high", "paris");
+        Customer oCustomer = customer("ann", original, original);
+        Customer cCustomer = customer("ann", current, current);
+        assertEquals(map("root.billing.street", "main", "root.shipping.street", "main"),
+                new DiffGenerator().diff("root", oCustomer, cCustomer));
+    }
+
+    @Test
+    public void referencesSharedObjectsOnRequest() {
+        Address original = address("main", "paris");
+        Address current = address("high", "paris");
+        Customer oCustomer = customer("ann", original, original);
+        Customer cCustomer = customer("ann", current, current);
+        DiffGenerator generator = referencing();
+        assertEquals(map("root.billing.street", "main", "root.shipping", "root.billing"),
+                generator.diff("root", oCustomer, cCustomer));
+        assertEquals(map("root.billing.city", "paris", "root.billing.street", "main", "root.name", "ann",
+                "root.shipping", "root.billing"), generator.resolveObject("root", oCustomer));
+
+        // Shared objects without differences are not referenced.
+        Customer same = customer("bob", current, current);
+        assertEquals(map("root.name", "ann"), generator.diff("root", cCustomer, same));
+    }
+
+    @Test
+    public void diffsSharedObjectsInParallelAsSequentially() {
+        Address original = address("main", "paris");
+        Address current = address("high", "lyon");
+        Shop oShop = shop(40, original);
+        Shop cShop = shop(45, current);
+        cShop.customers.get(7).name = "changed";
+
+        List<String> sequential = events(new DiffGenerator(), oShop, cShop);
+        assertEquals(events(parallel(new DiffGenerator()), oShop, cShop), sequential);
+        // Each customer billing to the shared address reports its differences.
+        assertEquals("changed shop.customers.idx1.billing.street: main -> high", sequential.get(0));
+        assertEquals("changed shop.customers.idx2.billing.street: main -> high", sequential.get(4));
+
+        List<String> referenced = events(referencing(), oShop, cShop);
+        assertEquals(events(parallel(referencing()), oShop, cShop), referenced);
+        assertEquals("sameAs shop.customers.idx1.shipping: shop.customers.idx1.billing", referenced.get(2));
+        assertEquals("sameAs shop.customers.idx2.billing: shop.customers.idx1.billing", referenced.get(3));
+    }
+
+    @Test
+    public void cutsCyclesInParallelAsSequentially() {
+        List<Person> original = new ArrayList<Person>();
+        List<Person> current = new ArrayList<Person>();
+        for (int i = 0; i < 30; i++) {
+            Person oPerson = person("p" + i);
+            oPerson.friend = i % 3 == 0 ? oPerson : i > 0 ? original.get(i - 1) : null;
+            original.add(oPerson);
+            Person cPerson = person(i % 4 == 0 ? "q" + i : "p" + i);
+            cPerson.friend = i % 3 == 0 ? cPerson : i > 0 ? current.get(i - 1) : null;
+            current.add(cPerson);
+        }
+        assertEquals(events(new DiffGenerator(), original, current),
+                events(parallel(new DiffGenerator()), original, current));
+        assertEquals(events(referencing(), original, current), events(parallel(referencing()), original, current));
+        assertEquals(new DiffGenerator().diff("shop", original, current),
+                parallel(new DiffGenerator()).diff("shop", original, current));
+    }
+}
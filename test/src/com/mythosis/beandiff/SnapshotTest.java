@@ -0,0 +1,406 @@
+package com.mythosis.beandiff;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the diffs of {@link Snapshot snapshots} with full diffs against deep copies taken at the same time.
+ *
+ * @author tonior@gmail.com
+ */
+public class SnapshotTest {
+    @Diffable
+    public static class Line {
+        @DiffKey
+        @DiffField
+        public String sku;
+        @DiffField
+        public int quantity;
+        @DiffField
+        public Line next;
+    }
+
+    @Diffable
+    public static class Item {
+        @DiffField
+        private String name;
+        @DiffField
+        private double price;
+        @DiffField
+        public float weight;
+        @DiffField
+        public long stock;
+        @DiffField
+        public boolean fragile;
+        @DiffField
+        public char grade;
+        @DiffField
+        public short shelf;
+        @DiffField
+        public byte bin;
+        @DiffField
+        public Integer discount;
+        @DiffField
+        public List<String> tags = new ArrayList<String>();
+        @DiffField
+        public Item other;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public void setPrice(double price) {
+            this.price = price;
+        }
+    }
+
+    @Diffable
+    public static class Order {
+        @DiffField
+        public String status;
+        @DiffField
+        public List<Item> items = new ArrayList<Item>();
+        @DiffField
+        public Map<String, Item> byName = new HashMap<String, Item>();
+        @DiffField
+        public TreeMap<Integer, String> notes = new TreeMap<Integer, String>(Collections.reverseOrder());
+        @DiffField
+        public Set<String> labels = new HashSet<String>();
+        @DiffField
+        public List<Line> lines = new ArrayList<Line>();
+        @DiffField
+        public Order parent;
+        @DiffField
+        public Item main;
+    }
+
+    private final DiffGenerator generator = new DiffGenerator();
+
+    private static Item item(String name, double price) {
+        Item item = new Item();
+        item.setName(name);
+        item.setPrice(price);
+        return item;
+    }
+
+    private static Order order() {
+        Order order = new Order();
+        order.status = "new";
+        for (int i = 0; i < 3; i++) {
+            Item item = item("item" + i, i);
+            order.items.add(item);
+            order.byName.put(item.getName(), item);
+        }
+        order.notes.put(1, "one");
+        order.labels.add("urgent");
+        return order;
+    }
+
+    /**
+     * Deep copies a graph, sharing and cycles included.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object value, Map<Object, Object> copies) {
+        if (value == null || copies.containsKey(value))
+            return copies.get(value);
+        if (value instanceof Order) {
+            Order order = (Order) value;
+            Order copy = new Order();
+            copies.put(value, copy);
+            copy.status = order.status;
+            copy.items = (List<Item>) copy(order.items, copies);
+            copy.byName = (Map<String, Item>) copy(order.byName, copies);
+            copy.notes = new TreeMap<Integer, String>(order.notes);
+            copy.labels = new HashSet<String>(order.labels);
+            copy.lines = (List<Line>) copy(order.lines, copies);
+            copy.parent = (Order) copy(order.parent, copies);
+            copy.main = (Item) copy(order.main, copies);
+            return copy;
+        }
+        if (value instanceof Item) {
+            Item item = (Item) value;
+            Item copy = item(item.getName(), item.getPrice());
+            copies.put(value, copy);
+            copy.weight = item.weight;
+            copy.stock = item.stock;
+            copy.fragile = item.fragile;
+            copy.grade = item.grade;
+            copy.shelf = item.shelf;
+            copy.bin = item.bin;
+            copy.discount = item.discount;
+            copy.tags = (List<String>) copy(item.tags, copies);
+            copy.other = (Item) copy(item.other, copies);
+            return copy;
+        }
+        if (value instanceof Line) {
+            Line line = (Line) value;
+            Line copy = new Line();
+            copies.put(value, copy);
+            copy.sku = line.sku;
+            copy.quantity = line.quantity;
+            copy.next = (Line) copy(line.next, copies);
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<Object>();
+            copies.put(value, copy);
+            for (Object item : (List<?>) value)
+                copy.add(copy(item, copies));
+            return copy;
+        }
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new HashMap<Object, Object>();
+            copies.put(value, copy);
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+                copy.put(entry.getKey(), copy(entry.getValue(), copies));
+            return copy;
+        }
+        return value;
+    }
+
+    private static Object copy(Order order) {
+        return copy(order, new IdentityHashMap<Object, Object>());
+    }
+
+    private static Map<String, String> map(String... entries) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < entries.length; i += 2)
+            map.put(entries[i], entries[i + 1]);
+        return map;
+    }
+
+    @Test
+    public void keepsTheStateOfTheGraph() {
+        Order order = order();
+        Snapshot snapshot = generator.snapshot(order);
+        assertEquals(Order.class, snapshot.getType());
+        assertEquals(map(), generator.diff("order", snapshot, order));
+
+        Object copy = copy(order);
+        order.status = "shipped";
+        order.items.get(0).setPrice(5);
+        order.items.remove(2);
+        order.notes.put(2, "two");
+        order.labels.clear();
+        // The changed item is also found in the map.
+        assertEquals(map("order.byName.item0.price", "0.0", "order.items.count", "3", "order.items.idx1.price", "0.0",
+                "order.labels.count", "1", "order.notes.2", "", "order.status", "new"), generator.diff("order", snapshot, order));
+        assertEquals(generator.diff("order", copy, order), generator.diff("order", snapshot, order));
+        // Snapshots are not changed by diffs.
+        assertEquals(generator.diff("order", snapshot, order), generator.diff("order", snapshot, order));
+    }
+
+    @Test
+    public void packsPrimitiveValues() {
+        Item item = item("item", 1.5);
+        item.weight = -0.5f;
+        item.stock = Long.MIN_VALUE;
+        item.fragile = true;
+        item.grade = '\uffff';
+        item.shelf = Short.MIN_VALUE;
+        item.bin = -1;
+        item.discount = 10;
+        Snapshot snapshot = generator.snapshot(item);
+        Object copy = copy(item, new IdentityHashMap<Object, Object>());
+        assertEquals(map(), generator.diff("item", snapshot, item));
+
+        item.setPrice(Double.NaN);
+        item.weight = 0.5f;
+        item.stock = Long.MAX_VALUE;
+        item.fragile = false;
+        item.grade = 'a';
+        item.shelf = Short.MAX_VALUE;
+        item.bin = 1;
+        item.discount = null;
+        Map<String, String> differences = generator.diff("item", snapshot, item);
+        assertEquals(generator.diff("item", copy, item), differences);
+        assertEquals(8, differences.size());
+    }
+
+    @Test
+    public void keepsSharedObjectsAndCycles() {
+        Order order = order();
+        order.parent = order;
+        order.main = order.items.get(1);
+        order.main.other = order.main;
+        Snapshot snapshot = generator.snapshot(order);
+        // The order, its items, their tags, and its two lists, map, sorted map and set.
+        assertEquals(1 + 3 + 3 + 5, snapshot.getNodeCount());
+        Object copy = copy(order);
+
+        order.main.setName("main");
+        order.parent = null;
+        assertEquals(generator.diff("order", copy, order), generator.diff("order", snapshot, order));
+    }
+
+    @Test
+    public void resolvesARemovedGraph() {
+        Order order = order();
+        Line line = new Line();
+        line.sku = "sku";
+        order.lines.add(line);
+        Snapshot snapshot = generator.snapshot(order);
+        assertEquals(generator.diff("order", copy(order), null), generator.diff("order", snapshot, null));
+    }
+
+    @Test
+    public void snapshotsValuesThatAreNotDiffable() {
+        assertEquals(map(), generator.diff("value", generator.snapshot(null), null));
+        assertEquals(generator.diff("value", "abc", "abd"), generator.diff("value", generator.snapshot("abc"), "abd"));
+        assertEquals(generator.diff("value", (Object) null, "abc"), generator.diff("value", null, "abc"));
+    }
+
+    @Test
+    public void rejectsObjectsOfAnotherClass() {
+        try {
+            generator.diff("order", generator.snapshot(new Order()), new Item());
+            fail("Diffed objects of different classes");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(Item.class.getName()));
+        }
+    }
+
+    @Test
+    public void matchesFullDiffsAgainstCopies() {
+        DiffGenerator referencing = new DiffGenerator();
+        referencing.setSharedObjectReferences(true);
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            Order order = new Order();
+            for (int i = random.nextInt(10); i > 0; i--)
+                edit(order, random);
+            Snapshot snapshot = generator.snapshot(order);
+            Object copy = copy(order);
+            for (int step = 0; step < 10; step++) {
+                for (int i = random.nextInt(4); i > 0; i--)
+                    edit(order, random);
+                String message = "round " + round + ", step " + step;
+                assertEquals(message, generator.diff("order", copy, order), generator.diff("order", snapshot, order));
+                assertEquals(message, generator.diff("order", copy, null), generator.diff("order", snapshot, null));
+                assertEquals(message, referencing.diff("order", copy, order), referencing.diff("order", snapshot, order));
+            }
+        }
+    }
+
+    private static void edit(Order order, Random random) {
+        List<Item> items = new ArrayList<Item>(order.items);
+        items.addAll(order.byName.values());
+        Item any = items.isEmpty() ? null : items.get(random.nextInt(items.size()));
+        Item itemToAdd = any == null || random.nextBoolean() ? item("item" + random.nextInt(5), random.nextInt(3)) : any;
+        switch (random.nextInt(16)) {
+            case 0:
+                order.status = random.nextBoolean() ? null : "status" + random.nextInt(4);
+                break;
+            case 1:
+                order.items.add(itemToAdd);
+                break;
+            case 2:
+                if (!order.items.isEmpty())
+                    order.items.remove(random.nextInt(order.items.size()));
+                break;
+            case 3:
+                if (any != null)
+                    any.setName("item" + random.nextInt(5));
+                break;
+            case 4:
+                if (any != null) {
+                    any.setPrice(random.nextInt(3));
+                    any.weight = random.nextInt(2);
+                    any.stock = random.nextInt(2) - 1;
+                }
+                break;
+            case 5:
+                order.byName.put("key" + random.nextInt(4), itemToAdd);
+                break;
+            case 6:
+                order.byName.remove("key" + random.nextInt(4));
+                break;
+            case 7:
+                if (any != null) {
+                    any.fragile = random.nextBoolean();
+                    any.grade = (char) ('a' + random.nextInt(2));
+                    any.shelf = (short) random.nextInt(2);
+                    any.bin = (byte) -random.nextInt(2);
+                    any.discount = random.nextBoolean() ? null : random.nextInt(2);
+                }
+                break;
+            case 8:
+                if (any != null)
+                    any.tags.add("tag" + random.nextInt(3));
+                break;
+            case 9:
+                if (any != null)
+                    any.tags.clear();
+                break;
+            case 10:
+                if (random.nextBoolean())
+                    order.notes.put(random.nextInt(4), "note" + random.nextInt(2));
+                else
+                    order.notes.remove(random.nextInt(4));
+                break;
+            case 11:
+                if (random.nextBoolean())
+                    order.labels.add("label" + random.nextInt(4));
+                else
+                    order.labels.remove("label" + random.nextInt(4));
+                break;
+            case 12:
+                addLine(order, "sku" + random.nextInt(5), random);
+                break;
+            case 13:
+                if (!order.lines.isEmpty()) {
+                    Line line = order.lines.get(random.nextInt(order.lines.size()));
+                    if (random.nextBoolean())
+                        line.quantity++;
+                    else
+                        line.next = random.nextBoolean() ? null : order.lines.get(0);
+                }
+                break;
+            case 14:
+                order.parent = random.nextBoolean() ? null : order;
+                break;
+            default:
+                order.main = any;
+                if (any != null && random.nextBoolean())
+                    any.other = any;
+                break;
+        }
+    }
+
+    /**
+     * Inserts a line at a random position, unless the order has a line with the same key.
+     */
+    private static void addLine(Order order, String sku, Random random) {
+        for (Line line : order.lines) {
+            if (line.sku.equals(sku))
+                return;
+        }
+        Line line = new Line();
+        line.sku = sku;
+        line.quantity = random.nextInt(2);
+        order.lines.add(random.nextInt(order.lines.size() + 1), line);
+    }
+}
@@ -0,0 +1,195 @@
+package com.mythosis.beandiff.apt;
+
+import com.mythosis.beandiff.BeanAccessor;
+import com.mythosis.beandiff.DiffGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles a sample {@link com.mythosis.beandiff.Diffable} class with and without the annotation processor, and
+ * checks that diffing it through the generated {@link BeanAccessor} gives the same results as reflection.
+ * <p/>
+ * The processor is not on the compile classpath of the tests, only on their runtime classpath.
+ *
+ * @author tonior@gmail.com
+ */
+public class DiffableProcessorTest {
+    private static final String PROCESSOR = "com.mythosis.beandiff.apt.DiffableProcessor";
+    private static final String SAMPLE = "package sample;\n"
+            + "\n"
+            + "import com.mythosis.beandiff.DiffField;\n"
+            + "import com.mythosis.beandiff.Diffable;\n"
+            + "import java.util.ArrayList;\n"
+            + "import java.util.List;\n"
+            + "\n"
+            + "@Diffable\n"
+            + "public class Sample {\n"
+            + "    @DiffField public int count;\n"
+            + "    @DiffField public double ratio;\n"
+            + "    @DiffField public boolean flag;\n"
+            + "    @DiffField public char letter;\n"
+            + "    @DiffField private long total;\n"
+            + "    @DiffField private String name;\n"
+            + "    @DiffField private int hidden;\n"
+            + "    @DiffField public List<Part> parts = new ArrayList<Part>();\n"
+            + "    @DiffField public Part main;\n"
+            + "\n"
+            + "    public Sample(int seed) {\n"
+            + "        count = seed % 3;\n"
+            + "        ratio = new double[]{0.5, 0.0, -0.0, Double.NaN}[seed % 4];\n"
+            + "        flag = seed % 2 == 0;\n"
+            + "        letter = (char) ('a' + seed % 3);\n"
+            + "        total = seed % 5 * 1000000000L;\n"
+            + "        name = seed % 3 == 0 ? null : \"n\" + seed % 2;\n"
+            + "        hidden = seed % 2;\n"
+            + "        for (int i = 0; i < seed % 3; i++)\n"
+            + "            parts.add(new Part(\"p\" + i, seed % (i + 2)));\n"
+            + "        main = seed % 2 == 0 ? null : new Part(\"main\", seed % 4 / 2f);\n"
+            + "    }\n"
+            + "\n"
+            + "    public boolean isFlag() {\n"
+            + "        return flag;\n"
+            + "    }\n"
+            + "\n"
+            + "    public long getTotal() {\n"
+            + "        return total;\n"
+            + "    }\n"
+            + "\n"
+            + "    public String getName() {\n"
+            + "        return name;\n"
+            + "    }\n"
+            + "\n"
+            + "    int getHidden() {\n"
+            + "        return hidden;\n"
+            + "    }\n"
+            + "\n"
+            + "    @Diffable\n"
+            + "    public static class Part {\n"
+            + "        @DiffField public String label;\n"
+            + "        @DiffField public float weight;\n"
+            + "\n"
+            + "        public Part(String label, float weight) {\n"
+            + "            this.label = label;\n"
+            + "            this.weight = weight;\n"
+            + "        }\n"
+            + "    }\n"
+            + "}\n";
+
+    private File root;
+    private final DiffGenerator generator = new DiffGenerator();
+
+    @Before
+    public void writeSample() throws IOException {
+        root = File.createTempFile("beandiff-apt", "");
+        assertTrue(root.delete() && root.mkdir());
+        File source = new File(root, "src/sample/Sample.java");
+        assertTrue(source.getParentFile().mkdirs());
+        Writer out = new FileWriter(source);
+        try {
+            out.write(SAMPLE);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void deleteSample() {
+        delete(root);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File child : files)
+                delete(child);
+        file.delete();
+    }
+
+    /**
+     * Compiles the sample into a directory of its own, and returns a class loader for it.
+     *
+     * @param options the annotation processing options
+     */
+    private ClassLoader compile(String name, String... options) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("No compiler, the tests must run on a JDK", compiler);
+        File classes = new File(root, name);
+        assertTrue(classes.mkdir());
+        List<String> arguments = new ArrayList<String>(Arrays.asList(options));
+        arguments.addAll(Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d", classes.getPath(),
+                "-s", classes.getPath(), new File(root, "src/sample/Sample.java").getPath()));
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        int status = compiler.run(null, messages, messages, arguments.toArray(new String[arguments.size()]));
+        assertEquals(messages.toString(), 0, status);
+        return new URLClassLoader(new URL[]{classes.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+    private static Object sample(ClassLoader loader, int seed) throws Exception {
+        Constructor<?> constructor = loader.loadClass("sample.Sample").getConstructor(int.class);
+        return constructor.newInstance(seed);
+    }
+
+    private static boolean hasAccessor(ClassLoader loader, String className) {
+        try {
+            loader.loadClass(className + "$$BeanAccessor");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void generatesAccessorsForReadableFields() throws Exception {
+        ClassLoader generated = compile("generated", "-processor", PROCESSOR);
+        ClassLoader reflective = compile("reflective", "-proc:none");
+        assertTrue(hasAccessor(generated, "sample.Sample"));
+        assertTrue(hasAccessor(generated, "sample.Sample$Part"));
+        assertFalse(hasAccessor(reflective, "sample.Sample"));
+
+        BeanAccessor<?> accessor = (BeanAccessor<?>) generated.loadClass("sample.Sample$$BeanAccessor").newInstance();
+        // The getter of hidden is not public, so it is left to reflection.
+        List<String> names = Arrays.asList(accessor.getFieldNames());
+        assertEquals(Arrays.asList("count", "ratio", "flag", "letter", "total", "name", "parts", "main"), names);
+        assertEquals("[true, true, true, true, true, false, false, false]",
+                Arrays.toString(accessor.getPrimitiveFields()));
+    }
+
+    @Test
+    public void diffsLikeReflection() throws Exception {
+        ClassLoader generated = compile("generated", "-processor", PROCESSOR);
+        ClassLoader reflective = compile("reflective", "-proc:none");
+        for (int a = 0; a < 12; a++) {
+            assertEquals(generator.resolveObject("s", sample(reflective, a)),
+                    generator.resolveObject("s", sample(generated, a)));
+            for (int b = 0; b < 12; b++) {
+                String message = a + " -> " + b;
+                Object original = sample(generated, a);
+                Object current = sample(generated, b);
+                assertEquals(message, generator.diff("s", sample(reflective, a), sample(reflective, b)),
+                        generator.diff("s", original, current));
+                assertEquals(message, a != b && !generator.diff("s", original, current).isEmpty(),
+                        generator.hasDifferences(original, current));
+            }
+        }
+    }
+}